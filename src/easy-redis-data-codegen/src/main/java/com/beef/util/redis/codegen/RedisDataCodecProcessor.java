@@ -0,0 +1,307 @@
+package com.beef.util.redis.codegen;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generate IDataCodec for each class annotated with com.beef.util.redis.codec.RedisData.
+ * The generated class writes/reads properties by getters/setters directly, and no reflection is needed at runtime.
+ * Classes with properties not supported are skipped with a warning, and they are serialized by reflection as before.
+ * @author beef
+ *
+ */
+@SupportedAnnotationTypes(RedisDataCodecProcessor.ANNOTATION_NAME)
+public class RedisDataCodecProcessor extends AbstractProcessor {
+	public final static String ANNOTATION_NAME = "com.beef.util.redis.codec.RedisData";
+
+	/**
+	 * must be same as DataCodecs.GENERATED_CLASS_SUFFIX
+	 */
+	private final static String GENERATED_CLASS_SUFFIX = "_RedisCodec";
+
+	/**
+	 * type name -> expression to parse variable 'text'
+	 */
+	private final static Map<String, String> PARSE_EXPRESSIONS = new HashMap<String, String>();
+	static {
+		PARSE_EXPRESSIONS.put("java.lang.String", "text");
+		PARSE_EXPRESSIONS.put("boolean", "Boolean.parseBoolean(text.trim())");
+		PARSE_EXPRESSIONS.put("java.lang.Boolean", "Boolean.valueOf(text.trim())");
+		PARSE_EXPRESSIONS.put("byte", "Byte.parseByte(text.trim())");
+		PARSE_EXPRESSIONS.put("java.lang.Byte", "Byte.valueOf(text.trim())");
+		PARSE_EXPRESSIONS.put("short", "Short.parseShort(text.trim())");
+		PARSE_EXPRESSIONS.put("java.lang.Short", "Short.valueOf(text.trim())");
+		PARSE_EXPRESSIONS.put("int", "Integer.parseInt(text.trim())");
+		PARSE_EXPRESSIONS.put("java.lang.Integer", "Integer.valueOf(text.trim())");
+		PARSE_EXPRESSIONS.put("long", "Long.parseLong(text.trim())");
+		PARSE_EXPRESSIONS.put("java.lang.Long", "Long.valueOf(text.trim())");
+		PARSE_EXPRESSIONS.put("float", "Float.parseFloat(text.trim())");
+		PARSE_EXPRESSIONS.put("java.lang.Float", "Float.valueOf(text.trim())");
+		PARSE_EXPRESSIONS.put("double", "Double.parseDouble(text.trim())");
+		PARSE_EXPRESSIONS.put("java.lang.Double", "Double.valueOf(text.trim())");
+		PARSE_EXPRESSIONS.put("char", "SimpleXmlReader.parseChar(text)");
+		PARSE_EXPRESSIONS.put("java.lang.Character", "Character.valueOf(SimpleXmlReader.parseChar(text))");
+	}
+
+	private static class PropertyInfo {
+		private String _name;
+		private String _typeName;
+		private String _getterName;
+		private String _setterName;
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for(TypeElement annotation : annotations) {
+			for(Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+				if(element.getKind() != ElementKind.CLASS) {
+					continue;
+				}
+
+				TypeElement typeElement = (TypeElement) element;
+				try {
+					if(checkDataClass(typeElement)) {
+						List<PropertyInfo> propertyList = collectProperties(typeElement);
+						if(propertyList != null) {
+							generateCodec(typeElement, propertyList);
+						}
+					}
+				} catch (IOException e) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+							"Failed to generate codec:" + e.getMessage(), typeElement);
+				}
+			}
+		}
+
+		return true;
+	}
+
+	private boolean checkDataClass(TypeElement typeElement) {
+		Set<Modifier> modifiers = typeElement.getModifiers();
+		if(modifiers.contains(Modifier.ABSTRACT)) {
+			warn(typeElement, "abstract class");
+			return false;
+		}
+		if(typeElement.getNestingKind() == NestingKind.MEMBER && !modifiers.contains(Modifier.STATIC)) {
+			warn(typeElement, "inner class is not static");
+			return false;
+		}
+		if(typeElement.getNestingKind() == NestingKind.LOCAL || typeElement.getNestingKind() == NestingKind.ANONYMOUS) {
+			warn(typeElement, "local class");
+			return false;
+		}
+
+		List<ExecutableElement> constructors = ElementFilter.constructorsIn(typeElement.getEnclosedElements());
+		for(ExecutableElement constructor : constructors) {
+			if(constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+				return true;
+			}
+		}
+
+		warn(typeElement, "no default constructor");
+		return false;
+	}
+
+	/**
+	 * @return null if any property is not supported
+	 */
+	private List<PropertyInfo> collectProperties(TypeElement typeElement) {
+		Map<String, ExecutableElement> getterMap = new HashMap<String, ExecutableElement>();
+		Map<String, ExecutableElement> setterMap = new HashMap<String, ExecutableElement>();
+
+		TypeElement type = typeElement;
+		while(type != null && !type.getQualifiedName().contentEquals("java.lang.Object")) {
+			for(ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+				Set<Modifier> modifiers = method.getModifiers();
+				if(!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.STATIC)) {
+					continue;
+				}
+
+				String methodName = method.getSimpleName().toString();
+				int paramCount = method.getParameters().size();
+				TypeKind returnKind = method.getReturnType().getKind();
+				if(paramCount == 0 && methodName.startsWith("get") && methodName.length() > 3 && returnKind != TypeKind.VOID) {
+					putIfAbsent(getterMap, decapitalize(methodName.substring(3)), method);
+				} else if(paramCount == 0 && methodName.startsWith("is") && methodName.length() > 2 && returnKind == TypeKind.BOOLEAN) {
+					putIfAbsent(getterMap, decapitalize(methodName.substring(2)), method);
+				} else if(paramCount == 1 && methodName.startsWith("set") && methodName.length() > 3 && returnKind == TypeKind.VOID) {
+					putIfAbsent(setterMap, decapitalize(methodName.substring(3)), method);
+				}
+			}
+
+			TypeMirror superType = type.getSuperclass();
+			if(superType.getKind() == TypeKind.DECLARED) {
+				type = (TypeElement) ((DeclaredType) superType).asElement();
+			} else {
+				type = null;
+			}
+		}
+
+		//sorted by name as java.beans.Introspector does
+		Map<String, PropertyInfo> propertyMap = new TreeMap<String, PropertyInfo>();
+		for(Map.Entry<String, ExecutableElement> entry : getterMap.entrySet()) {
+			ExecutableElement getter = entry.getValue();
+			ExecutableElement setter = setterMap.get(entry.getKey());
+			if(setter == null) {
+				//read only
+				continue;
+			}
+
+			TypeMirror propertyType = getter.getReturnType();
+			if(!processingEnv.getTypeUtils().isSameType(propertyType, setter.getParameters().get(0).asType())) {
+				continue;
+			}
+
+			String typeName = propertyType.toString();
+			if(!PARSE_EXPRESSIONS.containsKey(typeName)) {
+				warn(typeElement, "property '" + entry.getKey() + "' of type " + typeName + " is not supported");
+				return null;
+			}
+
+			PropertyInfo property = new PropertyInfo();
+			property._name = entry.getKey();
+			property._typeName = typeName;
+			property._getterName = getter.getSimpleName().toString();
+			property._setterName = setter.getSimpleName().toString();
+			propertyMap.put(property._name, property);
+		}
+
+		return new ArrayList<PropertyInfo>(propertyMap.values());
+	}
+
+	private void generateCodec(TypeElement typeElement, List<PropertyInfo> propertyList) throws IOException {
+		PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(typeElement);
+		String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+		String binaryName = processingEnv.getElementUtils().getBinaryName(typeElement).toString();
+		String codecSimpleName = binaryName.substring(packageName.length() == 0 ? 0 : packageName.length() + 1).replace('$', '_')
+				+ GENERATED_CLASS_SUFFIX;
+		String dataClassName = typeElement.getQualifiedName().toString();
+		String rootName = typeElement.getSimpleName().toString();
+
+		JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(
+				(packageName.length() == 0 ? "" : packageName + ".") + codecSimpleName, typeElement);
+		PrintWriter out = new PrintWriter(sourceFile.openWriter());
+		try {
+			if(packageName.length() > 0) {
+				out.println("package " + packageName + ";");
+				out.println();
+			}
+			out.println("import java.io.IOException;");
+			out.println();
+			out.println("import com.beef.util.redis.codec.IDataCodec;");
+			out.println("import com.beef.util.redis.codec.SimpleXmlReader;");
+			out.println("import com.beef.util.redis.codec.SimpleXmlWriter;");
+			out.println();
+			out.println("/**");
+			out.println(" * Generated by " + RedisDataCodecProcessor.class.getSimpleName() + ". Do not edit.");
+			out.println(" */");
+			out.println("public final class " + codecSimpleName + " implements IDataCodec {");
+			out.println();
+
+			//serialize
+			out.println("\t@Override");
+			out.println("\tpublic String serialize(Object obj) {");
+			out.println("\t\t" + dataClassName + " data = (" + dataClassName + ") obj;");
+			out.println("\t\tSimpleXmlWriter writer = new SimpleXmlWriter();");
+			out.println("\t\twriter.startElement(\"" + rootName + "\");");
+			for(PropertyInfo property : propertyList) {
+				out.println("\t\twriter.writeElement(\"" + property._name + "\", data." + property._getterName + "());");
+			}
+			out.println("\t\twriter.endElement(\"" + rootName + "\");");
+			out.println("\t\treturn writer.toString();");
+			out.println("\t}");
+			out.println();
+
+			//deserialize
+			out.println("\t@Override");
+			out.println("\tpublic Object deserialize(String dataXml) throws IOException {");
+			out.println("\t\t" + dataClassName + " data = new " + dataClassName + "();");
+			out.println("\t\tSimpleXmlReader reader = new SimpleXmlReader(dataXml);");
+			out.println("\t\treader.readRootElement();");
+			out.println();
+			out.println("\t\tString name = null;");
+			out.println("\t\ttry {");
+			out.println("\t\t\twhile((name = reader.nextChildElement()) != null) {");
+			String elsePrefix = "";
+			for(PropertyInfo property : propertyList) {
+				out.println("\t\t\t\t" + elsePrefix + "if(\"" + property._name + "\".equals(name)) {");
+				out.println("\t\t\t\t\tString text = reader.readText();");
+				out.println("\t\t\t\t\tif(text != null) {");
+				out.println("\t\t\t\t\t\tdata." + property._setterName + "(" + PARSE_EXPRESSIONS.get(property._typeName) + ");");
+				out.println("\t\t\t\t\t}");
+				elsePrefix = "} else ";
+			}
+			if(propertyList.isEmpty()) {
+				out.println("\t\t\t\treader.skipElement();");
+			} else {
+				out.println("\t\t\t\t} else {");
+				out.println("\t\t\t\t\treader.skipElement();");
+				out.println("\t\t\t\t}");
+			}
+			out.println("\t\t\t}");
+			out.println("\t\t} catch(NumberFormatException e) {");
+			out.println("\t\t\tthrow new IOException(\"Invalid value of property:\" + name, e);");
+			out.println("\t\t}");
+			out.println();
+			out.println("\t\treturn data;");
+			out.println("\t}");
+			out.println("}");
+		} finally {
+			out.close();
+		}
+	}
+
+	private void warn(TypeElement typeElement, String reason) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+				"Codec is not generated(" + reason + "), reflection will be used.", typeElement);
+	}
+
+	private static void putIfAbsent(Map<String, ExecutableElement> map, String key, ExecutableElement value) {
+		//methods of sub class come first
+		if(!map.containsKey(key)) {
+			map.put(key, value);
+		}
+	}
+
+	/**
+	 * same as java.beans.Introspector.decapitalize()
+	 */
+	private static String decapitalize(String name) {
+		if(name.length() > 1 && Character.isUpperCase(name.charAt(1)) && Character.isUpperCase(name.charAt(0))) {
+			return name;
+		}
+
+		char[] chars = name.toCharArray();
+		chars[0] = Character.toLowerCase(chars[0]);
+		return new String(chars);
+	}
+}
@@ -0,0 +1,185 @@
+package com.beef.util.redis.jedis4;
+
+import java.util.List;
+
+import com.beef.util.redis.IJedisCallback;
+import com.beef.util.redis.transport.IRedisTransport;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * IRedisTransport over JedisPool of Jedis 4.x, the same as JedisTransport of the core artifact except that it is compiled against Jedis 4
+ * (commands return primitive long and setex takes long seconds there).
+ * Each command borrows a connection and returns it right after the reply.
+ * @author beef
+ *
+ */
+public class Jedis4Transport implements IRedisTransport {
+	private final JedisPool _pool;
+
+	public Jedis4Transport(JedisPool pool) {
+		_pool = pool;
+	}
+
+	public JedisPool getPool() {
+		return _pool;
+	}
+
+	/**
+	 * Run callback with a connection borrowed from the pool.
+	 */
+	public <T> T execute(IJedisCallback<T> callback) {
+		Jedis jedis = _pool.getResource();
+		try {
+			return callback.doInJedis(jedis);
+		} finally {
+			jedis.close();
+		}
+	}
+
+	@Override
+	public String get(final String key) {
+		return execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.get(key);
+			}
+		});
+	}
+
+	@Override
+	public String set(final String key, final String value) {
+		return execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.set(key, value);
+			}
+		});
+	}
+
+	@Override
+	public String setex(final String key, final int seconds, final String value) {
+		return execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.setex(key, seconds, value);
+			}
+		});
+	}
+
+	@Override
+	public long del(final String key) {
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.del(key);
+			}
+		});
+	}
+
+	@Override
+	public List<String> mget(final String... keys) {
+		return execute(new IJedisCallback<List<String>>() {
+			@Override
+			public List<String> doInJedis(Jedis jedis) {
+				return jedis.mget(keys);
+			}
+		});
+	}
+
+	@Override
+	public String hget(final String key, final String field) {
+		return execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.hget(key, field);
+			}
+		});
+	}
+
+	@Override
+	public long hset(final String key, final String field, final String value) {
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.hset(key, field, value);
+			}
+		});
+	}
+
+	@Override
+	public long hdel(final String key, final String field) {
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.hdel(key, field);
+			}
+		});
+	}
+
+	@Override
+	public long llen(final String key) {
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.llen(key);
+			}
+		});
+	}
+
+	@Override
+	public List<String> lrange(final String key, final long start, final long end) {
+		return execute(new IJedisCallback<List<String>>() {
+			@Override
+			public List<String> doInJedis(Jedis jedis) {
+				return jedis.lrange(key, start, end);
+			}
+		});
+	}
+
+	@Override
+	public String lindex(final String key, final long index) {
+		return execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.lindex(key, index);
+			}
+		});
+	}
+
+	@Override
+	public String lpop(final String key) {
+		return execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.lpop(key);
+			}
+		});
+	}
+
+	@Override
+	public long lpush(final String key, final String value) {
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.lpush(key, value);
+			}
+		});
+	}
+
+	@Override
+	public long rpush(final String key, final String value) {
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.rpush(key, value);
+			}
+		});
+	}
+
+	@Override
+	public void close() {
+		_pool.close();
+	}
+}
@@ -0,0 +1,41 @@
+package com.beef.util.redis.jedis4;
+
+import com.beef.util.redis.junittest.TransportContract;
+import org.junit.Assume;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+public class Jedis4TransportTest {
+	private final static String KEY_PREFIX = "test.transport.jedis4.";
+
+	@Test
+	public void testContract() {
+		Jedis4Transport transport = new Jedis4Transport(new JedisPool("127.0.0.1", 6379));
+		try {
+			assumeRunning(transport.getPool());
+			TransportContract.check(transport, KEY_PREFIX);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			transport.close();
+		}
+	}
+
+	private static void assumeRunning(JedisPool pool) {
+		try {
+			Jedis jedis = pool.getResource();
+			try {
+				jedis.ping();
+			} finally {
+				jedis.close();
+			}
+		} catch (JedisConnectionException e) {
+			Assume.assumeNoException("redis is not running", e);
+		}
+	}
+}
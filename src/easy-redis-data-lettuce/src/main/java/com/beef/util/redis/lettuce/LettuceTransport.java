@@ -0,0 +1,124 @@
+package com.beef.util.redis.lettuce;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.beef.util.redis.transport.IRedisTransport;
+
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+
+/**
+ * IRedisTransport over one Lettuce connection. The connection is thread safe and multiplexed,
+ * so commands of concurrent callers are pipelined on it without a pool.
+ * @author beef
+ *
+ */
+public class LettuceTransport implements IRedisTransport {
+	private final RedisClient _client;
+	private final StatefulRedisConnection<String, String> _connection;
+	private final RedisCommands<String, String> _commands;
+
+	/**
+	 * @param redisUri e.g. redis://localhost:6379/0
+	 */
+	public LettuceTransport(String redisUri) {
+		this(RedisClient.create(redisUri));
+	}
+
+	/**
+	 * @param client it is shut down in close()
+	 */
+	public LettuceTransport(RedisClient client) {
+		_client = client;
+		_connection = client.connect();
+		_commands = _connection.sync();
+	}
+
+	public StatefulRedisConnection<String, String> getConnection() {
+		return _connection;
+	}
+
+	@Override
+	public String get(String key) {
+		return _commands.get(key);
+	}
+
+	@Override
+	public String set(String key, String value) {
+		return _commands.set(key, value);
+	}
+
+	@Override
+	public String setex(String key, int seconds, String value) {
+		return _commands.setex(key, seconds, value);
+	}
+
+	@Override
+	public long del(String key) {
+		return _commands.del(key);
+	}
+
+	@Override
+	public List<String> mget(String... keys) {
+		List<KeyValue<String, String>> keyValues = _commands.mget(keys);
+		List<String> values = new ArrayList<String>(keyValues.size());
+		for(KeyValue<String, String> keyValue : keyValues) {
+			values.add(keyValue.getValueOrElse(null));
+		}
+		return values;
+	}
+
+	@Override
+	public String hget(String key, String field) {
+		return _commands.hget(key, field);
+	}
+
+	@Override
+	public long hset(String key, String field, String value) {
+		return _commands.hset(key, field, value) ? 1 : 0;
+	}
+
+	@Override
+	public long hdel(String key, String field) {
+		return _commands.hdel(key, field);
+	}
+
+	@Override
+	public long llen(String key) {
+		return _commands.llen(key);
+	}
+
+	@Override
+	public List<String> lrange(String key, long start, long end) {
+		return _commands.lrange(key, start, end);
+	}
+
+	@Override
+	public String lindex(String key, long index) {
+		return _commands.lindex(key, index);
+	}
+
+	@Override
+	public String lpop(String key) {
+		return _commands.lpop(key);
+	}
+
+	@Override
+	public long lpush(String key, String value) {
+		return _commands.lpush(key, value);
+	}
+
+	@Override
+	public long rpush(String key, String value) {
+		return _commands.rpush(key, value);
+	}
+
+	@Override
+	public void close() {
+		_connection.close();
+		_client.shutdown();
+	}
+}
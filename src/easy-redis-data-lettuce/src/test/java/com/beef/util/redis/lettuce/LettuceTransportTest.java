@@ -0,0 +1,32 @@
+package com.beef.util.redis.lettuce;
+
+import com.beef.util.redis.junittest.TransportContract;
+import org.junit.Assume;
+import org.junit.Test;
+
+import io.lettuce.core.RedisConnectionException;
+
+public class LettuceTransportTest {
+	private final static String KEY_PREFIX = "test.transport.lettuce.";
+
+	@Test
+	public void testContract() {
+		LettuceTransport transport;
+		try {
+			transport = new LettuceTransport("redis://127.0.0.1:6379/0");
+		} catch (RedisConnectionException e) {
+			Assume.assumeNoException("redis is not running", e);
+			return;
+		}
+
+		try {
+			TransportContract.check(transport, KEY_PREFIX);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			transport.close();
+		}
+	}
+}
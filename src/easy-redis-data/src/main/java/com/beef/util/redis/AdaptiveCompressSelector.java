@@ -0,0 +1,242 @@
+package com.beef.util.redis;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.beef.util.redis.RedisDataUtil.CompressAlgorithm;
+import com.beef.util.redis.compress.CompressException;
+
+/**
+ * Select compress algorithm(including NotCompress) per data class by sampling.
+ * One of every sampleRate encodings of a class is encoded in all algorithms to measure length and time,
+ * and the algorithm of minimum cost is chosen every evaluateIntervalMillis:
+ * <br/>
+ * cost = encoded length + encoding nanos / nanosPerByte
+ * <br/>
+ * The caller only encodes in the algorithm chosen. Samples are measured in a background thread, 
+ * and discarded when MAX_PENDING_SAMPLES samples are waiting, so sampling never delays the writes.
+ * Older samples are halved in each evaluation, so the choice follows changes of the payload.
+ * Values are decoded in the algorithm detected from the value itself(see RedisDataUtil.setAdaptiveCompressSelector()).
+ * @author beef
+ *
+ */
+public class AdaptiveCompressSelector {
+	private final static CompressAlgorithm[] ALGORITHMS = CompressAlgorithm.values();
+	private final static int MAX_PENDING_SAMPLES = 16;
+	private final static long SAMPLE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+	private final CompressAlgorithm _initialAlgorithm;
+	private final double _nanosPerByte;
+	private final int _sampleRate;
+	private final int _minSampleCount;
+	private final long _evaluateIntervalMillis;
+
+	private final ConcurrentHashMap<String, GroupStats> _groupStatsMap = new ConcurrentHashMap<String, GroupStats>();
+	private final ThreadPoolExecutor _sampleExecutor;
+
+	/**
+	 * @param initialAlgorithm used before enough samples are collected
+	 * @param nanosPerByte how many nanoseconds of encoding are worth one byte of stored value. Larger value prefers smaller size.
+	 * @param sampleRate sample one of every sampleRate encodings
+	 * @param minSampleCount count of samples needed before the first choice
+	 * @param evaluateIntervalMillis
+	 * @throws IllegalArgumentException if initialAlgorithm is null, nanosPerByte or sampleRate is not positive, 
+	 * or minSampleCount or evaluateIntervalMillis is negative
+	 */
+	public AdaptiveCompressSelector(
+			CompressAlgorithm initialAlgorithm, double nanosPerByte,
+			int sampleRate, int minSampleCount, long evaluateIntervalMillis) {
+		this(initialAlgorithm, nanosPerByte, sampleRate, minSampleCount, evaluateIntervalMillis, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "AdaptiveCompressSelector-sample");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param threadFactory factory of the sampling thread
+	 */
+	public AdaptiveCompressSelector(
+			CompressAlgorithm initialAlgorithm, double nanosPerByte,
+			int sampleRate, int minSampleCount, long evaluateIntervalMillis,
+			ThreadFactory threadFactory) {
+		if(initialAlgorithm == null) {
+			throw new IllegalArgumentException("initialAlgorithm is null");
+		}
+		if(!(nanosPerByte > 0)) {
+			throw new IllegalArgumentException("nanosPerByte must be positive:" + nanosPerByte);
+		}
+		if(sampleRate <= 0) {
+			throw new IllegalArgumentException("sampleRate must be positive:" + sampleRate);
+		}
+		if(minSampleCount < 0) {
+			throw new IllegalArgumentException("minSampleCount must not be negative:" + minSampleCount);
+		}
+		if(evaluateIntervalMillis < 0) {
+			throw new IllegalArgumentException("evaluateIntervalMillis must not be negative:" + evaluateIntervalMillis);
+		}
+
+		_initialAlgorithm = initialAlgorithm;
+		_nanosPerByte = nanosPerByte;
+		_sampleRate = sampleRate;
+		_minSampleCount = minSampleCount;
+		_evaluateIntervalMillis = evaluateIntervalMillis;
+
+		_sampleExecutor = new ThreadPoolExecutor(1, 1, SAMPLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_PENDING_SAMPLES), threadFactory, new ThreadPoolExecutor.DiscardPolicy());
+		//not kept alive by a selector replaced without close()
+		_sampleExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @param group e.g. name of data class
+	 * @param stringBytes
+	 * @return bytes encoded in the algorithm chosen for the group
+	 */
+	public byte[] encode(String group, byte[] stringBytes) throws IOException, CompressException {
+		GroupStats stats = getGroupStats(group);
+		if(stats._encodeCount.incrementAndGet() % _sampleRate == 0 
+				&& _sampleExecutor.getQueue().remainingCapacity() > 0) {
+			//copied since the caller may reuse the array
+			_sampleExecutor.execute(new SampleTask(stats, Arrays.copyOf(stringBytes, stringBytes.length)));
+		}
+
+		return RedisDataUtil.encodeStringBytes(stringBytes, stats._algorithm);
+	}
+
+	/**
+	 * Stop the sampling thread. The algorithms chosen are kept.
+	 */
+	public void close() {
+		_sampleExecutor.shutdown();
+	}
+
+	/**
+	 * @param group
+	 * @return algorithm currently chosen for the group
+	 */
+	public CompressAlgorithm getAlgorithm(String group) {
+		GroupStats stats = _groupStatsMap.get(group);
+		return (stats == null) ? _initialAlgorithm : stats._algorithm;
+	}
+
+	private GroupStats getGroupStats(String group) {
+		GroupStats stats = _groupStatsMap.get(group);
+		if(stats == null) {
+			stats = new GroupStats(_initialAlgorithm);
+			GroupStats existed = _groupStatsMap.putIfAbsent(group, stats);
+			if(existed != null) {
+				stats = existed;
+			}
+		}
+		return stats;
+	}
+
+	private class SampleTask implements Runnable {
+		private final GroupStats _stats;
+		private final byte[] _stringBytes;
+
+		public SampleTask(GroupStats stats, byte[] stringBytes) {
+			_stats = stats;
+			_stringBytes = stringBytes;
+		}
+
+		@Override
+		public void run() {
+			long[] encodedLens = new long[ALGORITHMS.length];
+			long[] nanos = new long[ALGORITHMS.length];
+			try {
+				for(int i = 0; i < ALGORITHMS.length; i++) {
+					long beginTime = System.nanoTime();
+					byte[] encoded = RedisDataUtil.encodeStringBytes(_stringBytes, ALGORITHMS[i]);
+					nanos[i] = System.nanoTime() - beginTime;
+					encodedLens[i] = encoded.length;
+				}
+			} catch(Exception e) {
+				//sample dropped, the write itself fails in the caller if the algorithm chosen fails
+				return;
+			}
+			_stats.addSample(_stringBytes.length, encodedLens, nanos);
+		}
+	}
+
+	private class GroupStats {
+		private final AtomicLong _encodeCount = new AtomicLong();
+		private volatile CompressAlgorithm _algorithm;
+
+		//guarded by this
+		private double _sampleCount = 0;
+		private double _originLen = 0;
+		private final double[] _encodedLens = new double[ALGORITHMS.length];
+		private final double[] _nanos = new double[ALGORITHMS.length];
+		private long _lastEvaluateTime = System.currentTimeMillis();
+		private boolean _isChosen = false;
+
+		public GroupStats(CompressAlgorithm algorithm) {
+			_algorithm = algorithm;
+		}
+
+		public synchronized void addSample(int originLen, long[] encodedLens, long[] nanos) {
+			_sampleCount++;
+			_originLen += originLen;
+			for(int i = 0; i < ALGORITHMS.length; i++) {
+				_encodedLens[i] += encodedLens[i];
+				_nanos[i] += nanos[i];
+			}
+
+			long now = System.currentTimeMillis();
+			if(_sampleCount < _minSampleCount
+					|| (_isChosen && (now - _lastEvaluateTime) < _evaluateIntervalMillis)) {
+				return;
+			}
+
+			int bestIndex = 0;
+			double bestCost = Double.MAX_VALUE;
+			for(int i = 0; i < ALGORITHMS.length; i++) {
+				double cost = _encodedLens[i] + _nanos[i] / _nanosPerByte;
+				if(cost < bestCost) {
+					bestCost = cost;
+					bestIndex = i;
+				}
+			}
+			_algorithm = ALGORITHMS[bestIndex];
+			_isChosen = true;
+			_lastEvaluateTime = now;
+
+			//decay
+			_sampleCount /= 2;
+			_originLen /= 2;
+			for(int i = 0; i < ALGORITHMS.length; i++) {
+				_encodedLens[i] /= 2;
+				_nanos[i] /= 2;
+			}
+		}
+
+		@Override
+		public synchronized String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("algorithm:").append(_algorithm);
+			for(int i = 0; i < ALGORITHMS.length; i++) {
+				sb.append(' ').append(ALGORITHMS[i])
+					.append("(ratio:").append((_originLen > 0) ? (_encodedLens[i] / _originLen) : 0)
+					.append(" nanos/byte:").append((_originLen > 0) ? (_nanos[i] / _originLen) : 0)
+					.append(')');
+			}
+			return sb.toString();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return _groupStatsMap.toString();
+	}
+}
@@ -0,0 +1,504 @@
+package com.beef.util.redis;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Transaction;
+
+/**
+ * Aggregator of incrBy/hincrBy. Increments are added to striped cells of the counter in memory,
+ * and the sum of each counter is sent as one INCRBY/HINCRBY in batches(MULTI/EXEC) by a background thread every flushInterval,
+ * when maxPendingCounters new counters have been created since the last flush, and in close().
+ * <br/>
+ * Increments are applied at most once. A batch failed before EXEC was sent is not applied, so it is added back to be retried in the next flush.
+ * A batch failed after EXEC was sent(e.g. connection lost while waiting the reply) may or may not have been applied,
+ * so it is dropped instead of being retried, and counted in getDroppedCount(). Increments rejected by redis(e.g. value is not integer) are dropped too.
+ * <br/>
+ * Counters not increased during a whole flush interval are removed, and when count of counters exceeds maxPendingCounters,
+ * counters are removed as soon as they are flushed, so memory is bounded with many distinct keys.
+ * <br/>
+ * get()/hget() read value in redis plus increments not flushed yet, so increments of this process are always seen.
+ * They do not hold the flush lock while reading redis. The pending sum is taken before the read, and the read is retried
+ * when a flush has run meanwhile(in which increments may have moved from pending to redis).
+ * @author beef
+ *
+ */
+public class CounterAggregator {
+	private final static int STRIPE_COUNT = stripeCount(Runtime.getRuntime().availableProcessors());
+	private final static int MAX_OPTIMISTIC_READ_COUNT = 3;
+
+	private final RedisDataClient _client;
+	private final int _maxPendingCounters;
+	private final int _pipelineSize;
+
+	private final ConcurrentHashMap<CounterKey, Counter> _counterMap = new ConcurrentHashMap<CounterKey, Counter>();
+	private volatile boolean _isClosed = false;
+
+	//not monitor, so that virtual threads are not pinned while sending
+	private final ReentrantLock _flushLock = new ReentrantLock();
+	/** increased at begin and end of each flush, odd while flushing */
+	private final AtomicLong _flushSeq = new AtomicLong();
+	private final ScheduledExecutorService _scheduler;
+	private final AtomicBoolean _isFlushRequested = new AtomicBoolean(false);
+	private final AtomicInteger _createdCountSinceFlush = new AtomicInteger();
+	private final Runnable _flushTask = new Runnable() {
+		@Override
+		public void run() {
+			_isFlushRequested.set(false);
+			try {
+				flush();
+			} catch(Exception e) {
+				//flush() records error and adds back the failed increments
+			}
+		}
+	};
+
+	private final AtomicLong _incrementCount = new AtomicLong();
+	private final AtomicLong _sentCount = new AtomicLong();
+	private final AtomicLong _failedCount = new AtomicLong();
+	private final AtomicLong _droppedCount = new AtomicLong();
+	private volatile Exception _lastError = null;
+
+	/**
+	 * @param client
+	 * @param flushIntervalMillis
+	 * @param maxPendingCounters count of new counters to trigger flushing, and count of counters kept in memory after flushed
+	 * @param pipelineSize max count of commands in one pipeline
+	 */
+	public CounterAggregator(RedisDataClient client, long flushIntervalMillis, int maxPendingCounters, int pipelineSize) {
+		this(client, flushIntervalMillis, maxPendingCounters, pipelineSize, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "CounterAggregator-flush");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param threadFactory factory of the flushing thread(e.g. virtual thread factory on Java 21)
+	 */
+	public CounterAggregator(RedisDataClient client, long flushIntervalMillis, int maxPendingCounters, int pipelineSize,
+			ThreadFactory threadFactory) {
+		_client = client;
+		_maxPendingCounters = maxPendingCounters;
+		_pipelineSize = pipelineSize;
+
+		_scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		_scheduler.scheduleWithFixedDelay(_flushTask, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void incr(String key) {
+		incrBy(key, 1);
+	}
+
+	/**
+	 * @throws IllegalStateException when aggregator is closed
+	 */
+	public void incrBy(String key, long increment) {
+		add(new CounterKey(key, null), increment);
+	}
+
+	/**
+	 * @throws IllegalStateException when aggregator is closed
+	 */
+	public void hincrBy(String key, String field, long increment) {
+		add(new CounterKey(key, field), increment);
+	}
+
+	/**
+	 * @param key
+	 * @return value in redis plus increments not flushed yet
+	 */
+	public long get(final String key) {
+		return readWithPending(new CounterKey(key, null), new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.get(key);
+			}
+		});
+	}
+
+	/**
+	 * @param key
+	 * @param field
+	 * @return value in redis plus increments not flushed yet
+	 */
+	public long hget(final String key, final String field) {
+		return readWithPending(new CounterKey(key, field), new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.hget(key, field);
+			}
+		});
+	}
+
+	/**
+	 * @return increments of key not flushed yet
+	 */
+	public long getPending(String key) {
+		return getPending(new CounterKey(key, null));
+	}
+
+	/**
+	 * @return increments of field not flushed yet
+	 */
+	public long getPending(String key, String field) {
+		return getPending(new CounterKey(key, field));
+	}
+
+	/**
+	 * @return count of counters in memory
+	 */
+	public int getCounterCount() {
+		return _counterMap.size();
+	}
+
+	/**
+	 * @return count of incrBy/hincrBy called
+	 */
+	public long getIncrementCount() {
+		return _incrementCount.get();
+	}
+
+	/**
+	 * @return count of commands sent to redis
+	 */
+	public long getSentCount() {
+		return _sentCount.get();
+	}
+
+	/**
+	 * @return count of commands failed, including the retried ones
+	 */
+	public long getFailedCount() {
+		return _failedCount.get();
+	}
+
+	/**
+	 * @return count of commands dropped because they might have been applied or were rejected by redis
+	 */
+	public long getDroppedCount() {
+		return _droppedCount.get();
+	}
+
+	public Exception getLastError() {
+		return _lastError;
+	}
+
+	/**
+	 * Send sums of all pending increments.
+	 * @throws RedisDataException when some increments failed(the ones not applied are added back to retry)
+	 */
+	public void flush() {
+		_flushLock.lock();
+		_flushSeq.incrementAndGet();
+		try {
+			_createdCountSinceFlush.set(0);
+
+			Exception error = null;
+			List<CounterKey> keyList = new ArrayList<CounterKey>(_pipelineSize);
+			List<Long> deltaList = new ArrayList<Long>(_pipelineSize);
+			Iterator<Map.Entry<CounterKey, Counter>> iter = _counterMap.entrySet().iterator();
+			while(iter.hasNext()) {
+				Map.Entry<CounterKey, Counter> entry = iter.next();
+				Counter counter = entry.getValue();
+				long delta = counter.drain();
+				if((delta == 0 && counter._isIdle) || _counterMap.size() > _maxPendingCounters) {
+					_counterMap.remove(entry.getKey(), counter);
+					counter._isRetired = true;
+					//increments added after retired are moved to a new counter by the adders
+					delta += counter.drain();
+				} else {
+					counter._isIdle = (delta == 0);
+				}
+
+				if(delta != 0) {
+					keyList.add(entry.getKey());
+					deltaList.add(delta);
+				}
+
+				if(keyList.size() >= _pipelineSize || (!iter.hasNext() && !keyList.isEmpty())) {
+					Exception batchError = sendBatch(keyList, deltaList);
+					if(batchError != null) {
+						error = batchError;
+					}
+					keyList.clear();
+					deltaList.clear();
+				}
+			}
+
+			if(error != null) {
+				throw new RedisDataException("Flushing failed", error);
+			}
+		} finally {
+			_flushSeq.incrementAndGet();
+			_flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Stop accepting increments, and flush the pending increments.
+	 * @throws RedisDataException when the final flush failed
+	 */
+	public void close() {
+		_isClosed = true;
+
+		_scheduler.shutdown();
+		try {
+			_scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		flush();
+	}
+
+	private void add(CounterKey counterKey, long increment) {
+		if(_isClosed) {
+			throw new IllegalStateException("CounterAggregator is closed");
+		}
+
+		addToCounter(counterKey, increment);
+		_incrementCount.incrementAndGet();
+	}
+
+	private void addToCounter(CounterKey counterKey, long increment) {
+		while(true) {
+			Counter counter = _counterMap.get(counterKey);
+			if(counter == null) {
+				counter = new Counter();
+				Counter existing = _counterMap.putIfAbsent(counterKey, counter);
+				if(existing != null) {
+					counter = existing;
+				} else if(_createdCountSinceFlush.incrementAndGet() >= _maxPendingCounters) {
+					requestFlush();
+				}
+			}
+
+			AtomicLong cell = counter.cell();
+			cell.addAndGet(increment);
+			if(!counter._isRetired) {
+				return;
+			}
+
+			//the counter was removed by flushing, take back what is not drained and retry with a new counter
+			increment = cell.getAndSet(0);
+			if(increment == 0) {
+				return;
+			}
+		}
+	}
+
+	private void requestFlush() {
+		if(_isFlushRequested.compareAndSet(false, true)) {
+			try {
+				_scheduler.execute(_flushTask);
+			} catch(RejectedExecutionException e) {
+				//closing, close() flushes
+			}
+		}
+	}
+
+	private long getPending(CounterKey counterKey) {
+		Counter counter = _counterMap.get(counterKey);
+		return (counter == null) ? 0 : counter.sum();
+	}
+
+	private long readWithPending(CounterKey counterKey, IJedisCallback<String> readCallback) {
+		for(int i = 0; i < MAX_OPTIMISTIC_READ_COUNT; i++) {
+			long seq = _flushSeq.get();
+			if((seq & 1) != 0) {
+				//wait for the flush in progress, without holding the lock while reading
+				_flushLock.lock();
+				_flushLock.unlock();
+				continue;
+			}
+
+			long pending = getPending(counterKey);
+			String value = _client.execute(readCallback);
+			if(_flushSeq.get() == seq) {
+				//no flush since pending was taken, so no increment was on the way
+				return parseValue(value) + pending;
+			}
+		}
+
+		//flushed during every read, read under the lock
+		_flushLock.lock();
+		try {
+			String value = _client.execute(readCallback);
+			return parseValue(value) + getPending(counterKey);
+		} finally {
+			_flushLock.unlock();
+		}
+	}
+
+	private static long parseValue(String value) {
+		return (value == null) ? 0 : Long.parseLong(value);
+	}
+
+	/**
+	 * @return error, or null if succeeded
+	 */
+	private Exception sendBatch(final List<CounterKey> keyList, final List<Long> deltaList) {
+		final boolean[] isExecSent = new boolean[1];
+		List<Object> results;
+		try {
+			results = _client.execute(new IJedisCallback<List<Object>>() {
+				@Override
+				public List<Object> doInJedis(Jedis jedis) {
+					Transaction transaction = jedis.multi();
+					for(int i = 0; i < keyList.size(); i++) {
+						CounterKey counterKey = keyList.get(i);
+						if(counterKey._field == null) {
+							transaction.incrBy(counterKey._key, deltaList.get(i));
+						} else {
+							transaction.hincrBy(counterKey._key, counterKey._field, deltaList.get(i));
+						}
+					}
+					isExecSent[0] = true;
+					return transaction.exec();
+				}
+			});
+		} catch(Exception e) {
+			_failedCount.addAndGet(keyList.size());
+			_lastError = e;
+			if(isExecSent[0]) {
+				_droppedCount.addAndGet(keyList.size());
+			} else {
+				addBack(keyList, deltaList);
+			}
+			return e;
+		}
+
+		Exception error = null;
+		for(int i = 0; i < keyList.size(); i++) {
+			Object result = (results == null || i >= results.size()) ? null : results.get(i);
+			if(result instanceof Exception) {
+				_failedCount.incrementAndGet();
+				_droppedCount.incrementAndGet();
+				_lastError = (Exception) result;
+				error = (Exception) result;
+			} else {
+				_sentCount.incrementAndGet();
+			}
+		}
+
+		MissingKeyCache missingKeyCache = _client.getMissingKeyCache();
+		MappedSegmentCache localCache = _client.getLocalCache();
+		for(int i = 0; i < keyList.size(); i++) {
+			CounterKey counterKey = keyList.get(i);
+			if(counterKey._field == null) {
+				if(missingKeyCache != null) {
+					missingKeyCache.invalidate(counterKey._key);
+				}
+				if(localCache != null) {
+					localCache.invalidate(counterKey._key);
+				}
+			} else {
+				if(missingKeyCache != null) {
+					missingKeyCache.invalidate(counterKey._key, counterKey._field);
+				}
+				if(localCache != null) {
+					localCache.invalidate(counterKey._key, counterKey._field);
+				}
+			}
+		}
+		return error;
+	}
+
+	private void addBack(List<CounterKey> keyList, List<Long> deltaList) {
+		for(int i = 0; i < keyList.size(); i++) {
+			addToCounter(keyList.get(i), deltaList.get(i));
+		}
+	}
+
+	private static int stripeCount(int processorCount) {
+		int count = 1;
+		while(count < processorCount && count < 64) {
+			count <<= 1;
+		}
+		return count;
+	}
+
+	private static class Counter {
+		private final AtomicLong[] _cells;
+		private volatile boolean _isRetired = false;
+		//accessed only in flushing
+		private boolean _isIdle = false;
+
+		public Counter() {
+			_cells = new AtomicLong[STRIPE_COUNT];
+			for(int i = 0; i < _cells.length; i++) {
+				_cells[i] = new AtomicLong();
+			}
+		}
+
+		public AtomicLong cell() {
+			long threadId = Thread.currentThread().getId();
+			int hash = (int) (threadId * 0x9E3779B97F4A7C15L >>> 32);
+			return _cells[hash & (_cells.length - 1)];
+		}
+
+		public long sum() {
+			long sum = 0;
+			for(int i = 0; i < _cells.length; i++) {
+				sum += _cells[i].get();
+			}
+			return sum;
+		}
+
+		public long drain() {
+			long sum = 0;
+			for(int i = 0; i < _cells.length; i++) {
+				sum += _cells[i].getAndSet(0);
+			}
+			return sum;
+		}
+	}
+
+	private static class CounterKey {
+		private final String _key;
+		private final String _field;
+		private final int _hash;
+
+		public CounterKey(String key, String field) {
+			_key = key;
+			_field = field;
+			_hash = key.hashCode() * 31 + ((field == null) ? 0 : field.hashCode());
+		}
+
+		@Override
+		public int hashCode() {
+			return _hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) {
+				return true;
+			}
+			if(!(obj instanceof CounterKey)) {
+				return false;
+			}
+
+			CounterKey other = (CounterKey) obj;
+			return _key.equals(other._key)
+					&& ((_field == null) ? (other._field == null) : _field.equals(other._field));
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package com.beef.util.redis;
+
+public interface IDataUpdater<T> {
+
+	/**
+	 * It may be called more than once when the value is modified concurrently by others, so it should have no side effect.
+	 * @param data current data, null if not exists
+	 * @return new data to store, or null means nothing to update
+	 */
+	public T update(T data);
+}
@@ -0,0 +1,13 @@
+package com.beef.util.redis;
+
+import redis.clients.jedis.Jedis;
+
+public interface IJedisCallback<T> {
+
+	/**
+	 * Only commands should be sent here, decoding should be done after the connection is returned.
+	 * @param jedis
+	 * @return
+	 */
+	public T doInJedis(Jedis jedis);
+}
@@ -0,0 +1,10 @@
+package com.beef.util.redis;
+
+public interface IScoreExtractor<T> {
+
+	/**
+	 * @param data
+	 * @return score of data in sorted set, e.g. time in milliseconds
+	 */
+	public double getScore(T data);
+}
@@ -0,0 +1,109 @@
+package com.beef.util.redis;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+
+import MetoXML.Base.XmlParseException;
+import MetoXML.Util.Base64FormatException;
+import MetoXML.Util.ClassFinder;
+
+import com.beef.util.redis.codec.SimpleXmlReader;
+import com.beef.util.redis.compress.CompressException;
+
+/**
+ * Handle of a value read from redis which is decoded on demand.
+ * The raw value is kept as it is, decompressed on the first access of xml or property,
+ * and deserialized into data object only when getData() is called.
+ * @author beef
+ *
+ */
+public class LazyData {
+	private final String _rawValue;
+	private final Class<?> _dataClass;
+	private final boolean _isUseCompress;
+	private final ClassFinder _classFinder;
+
+	private String _dataXml = null;
+	private Object _data = null;
+	private volatile boolean _isDataDecoded = false;
+
+	public LazyData(String rawValue, Class<?> dataClass, boolean isUseCompress, ClassFinder classFinder) {
+		_rawValue = rawValue;
+		_dataClass = dataClass;
+		_isUseCompress = isUseCompress;
+		_classFinder = classFinder;
+	}
+
+	public String getRawValue() {
+		return _rawValue;
+	}
+
+	public Class<?> getDataClass() {
+		return _dataClass;
+	}
+
+	public boolean isDataDecoded() {
+		return _isDataDecoded;
+	}
+
+	/**
+	 * decompress(if needed) and restore(if transformed by TagDictionary) the raw value, and the result is cached.
+	 * @return
+	 * @throws IOException
+	 * @throws Base64FormatException
+	 * @throws CompressException
+	 */
+	public synchronized String getDataXml() throws IOException, Base64FormatException, CompressException {
+		if(_dataXml == null) {
+			_dataXml = RedisDataUtil.decodeDataXml(_rawValue, _dataClass, _isUseCompress);
+		}
+
+		return _dataXml;
+	}
+
+	/**
+	 * Deserialize the whole data object at the first time, and the result is cached.
+	 * @return
+	 */
+	public Object getData() throws IOException, Base64FormatException, XmlParseException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, CompressException {
+		if(_isDataDecoded) {
+			return _data;
+		}
+
+		synchronized (this) {
+			if(!_isDataDecoded) {
+				_data = RedisDataUtil.deserializeDataXml(getDataXml(), _dataClass, _classFinder);
+				_isDataDecoded = true;
+			}
+
+			return _data;
+		}
+	}
+
+	/**
+	 * Get text of the property without deserializing the whole data object.
+	 * Only the direct child elements of root are searched.
+	 * @param propertyName
+	 * @return null if the property is not found or it is not a simple value
+	 */
+	public String getPropertyText(String propertyName) throws IOException, Base64FormatException, CompressException {
+		return findChildElementText(getDataXml(), propertyName);
+	}
+
+	protected static String findChildElementText(String xml, String elementName) throws IOException {
+		SimpleXmlReader reader = new SimpleXmlReader(xml);
+		reader.readRootElement();
+
+		String name;
+		while((name = reader.nextChildElement()) != null) {
+			if(name.equals(elementName)) {
+				return reader.readText();
+			}
+
+			reader.skipElement();
+		}
+
+		return null;
+	}
+
+}
@@ -0,0 +1,207 @@
+package com.beef.util.redis;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import MetoXML.Util.ClassFinder;
+import redis.clients.jedis.JedisCommands;
+
+/**
+ * Iterator of list in redis which fetches elements page by page through lrange.
+ * Next page is prefetched in fetchExecutor(if assigned) while current page is being decoded,
+ * so the jedis must not be used by others until the iterator is exhausted or closed.
+ * Elements are decoded to data object(or String when dataClass is null).
+ * @author beef
+ *
+ */
+public class ListPageIterator implements Iterator<Object>, Closeable {
+	public final static int DEFAULT_PAGE_SIZE = 100;
+
+	private final JedisCommands _jedis;
+	private final String _key;
+	private final int _pageSize;
+	private final Class<?> _dataClass;
+	private final boolean _isUseCompress;
+	private final ClassFinder _classFinder;
+	private final ExecutorService _fetchExecutor;
+	private final ExecutorService _decodeExecutor;
+	private final int _decodeParallelism;
+
+	/**
+	 * -1 means the end of list
+	 */
+	private final long _end;
+	private long _nextPageStart;
+	private volatile boolean _isAllPagesFetched = false;
+	private Future<List<String>> _nextPageFuture = null;
+
+	private List<?> _page = null;
+	private boolean _isPageDecoded = false;
+	private int _indexInPage = 0;
+
+	public ListPageIterator(
+			JedisCommands jedis,
+			String key, long start, long end, int pageSize,
+			Class<?> dataClass, boolean isUseCompress,
+			ClassFinder classFinder,
+			ExecutorService fetchExecutor, ExecutorService decodeExecutor, int decodeParallelism
+			) {
+		_jedis = jedis;
+		_key = key;
+		_pageSize = (pageSize > 0) ? pageSize : DEFAULT_PAGE_SIZE;
+		_dataClass = dataClass;
+		_isUseCompress = isUseCompress;
+		_classFinder = classFinder;
+		_fetchExecutor = fetchExecutor;
+		_decodeExecutor = decodeExecutor;
+		_decodeParallelism = decodeParallelism;
+
+		//negative index(except end of -1) is resolved by llen
+		if(start < 0 || end < -1) {
+			long len = jedis.llen(key);
+			if(start < 0) {
+				start = Math.max(0, len + start);
+			}
+			if(end < -1) {
+				end = len + end;
+				if(end < 0) {
+					_isAllPagesFetched = true;
+				}
+			}
+		}
+		if(end >= 0 && end < start) {
+			_isAllPagesFetched = true;
+		}
+
+		_nextPageStart = start;
+		_end = end;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while(_page == null || _indexInPage >= _page.size()) {
+			if(_isAllPagesFetched && _nextPageFuture == null) {
+				return false;
+			}
+
+			loadNextPage();
+		}
+
+		return true;
+	}
+
+	@Override
+	public Object next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		Object value = _page.get(_indexInPage++);
+		if(_isPageDecoded) {
+			return value;
+		} else {
+			try {
+				if(_dataClass == null) {
+					return RedisDataUtil.decodeString((String) value, _isUseCompress);
+				} else {
+					return RedisDataUtil.deserializeData((String) value, _dataClass, _isUseCompress, _classFinder);
+				}
+			} catch(RuntimeException e) {
+				throw e;
+			} catch(Exception e) {
+				throw new RedisDataException(e);
+			}
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Wait the prefetching to be finished, then the jedis can be used by others.
+	 */
+	@Override
+	public void close() {
+		_isAllPagesFetched = true;
+		_page = null;
+		if(_nextPageFuture != null) {
+			try {
+				_nextPageFuture.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				//ignore
+			} finally {
+				_nextPageFuture = null;
+			}
+		}
+	}
+
+	private void loadNextPage() {
+		List<String> strList;
+		if(_nextPageFuture != null) {
+			try {
+				strList = _nextPageFuture.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RedisDataException(e);
+			} catch (ExecutionException e) {
+				throw new RedisDataException(e.getCause());
+			} finally {
+				_nextPageFuture = null;
+			}
+		} else {
+			strList = fetchPage();
+		}
+
+		if(!_isAllPagesFetched && _fetchExecutor != null) {
+			_nextPageFuture = _fetchExecutor.submit(new Callable<List<String>>() {
+				@Override
+				public List<String> call() throws Exception {
+					return fetchPage();
+				}
+			});
+		}
+
+		_indexInPage = 0;
+		if(strList == null || _decodeExecutor == null) {
+			_page = strList;
+			_isPageDecoded = false;
+		} else {
+			_page = RedisDataUtil.deserializeDataList(strList,
+					_dataClass, _isUseCompress, _classFinder,
+					_decodeExecutor, _decodeParallelism);
+			_isPageDecoded = true;
+		}
+	}
+
+	/**
+	 * Only one page is being fetched at any time, so it is safe to be called in fetchExecutor.
+	 * @return
+	 */
+	private List<String> fetchPage() {
+		long pageStart = _nextPageStart;
+		long pageEnd = pageStart + _pageSize - 1;
+		if(_end >= 0 && pageEnd >= _end) {
+			pageEnd = _end;
+			_isAllPagesFetched = true;
+		}
+
+		List<String> strList = _jedis.lrange(_key, pageStart, pageEnd);
+		if(strList == null || strList.size() < (pageEnd - pageStart + 1)) {
+			_isAllPagesFetched = true;
+		}
+		_nextPageStart = pageEnd + 1;
+
+		return strList;
+	}
+
+}
@@ -0,0 +1,92 @@
+package com.beef.util.redis;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * Lua script executed through EVALSHA, and it is loaded by EVAL when the server does not have it yet.
+ * SHA1 is calculated locally, so no SCRIPT LOAD round trip is needed.
+ * @author beef
+ *
+ */
+public class LuaScript {
+	private final static Charset CHARSET = Charset.forName(Protocol.CHARSET);
+	private final static char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+	private final String _script;
+	private final String _sha1;
+
+	public LuaScript(String script) {
+		_script = script;
+		_sha1 = sha1Hex(script);
+	}
+
+	public String getScript() {
+		return _script;
+	}
+
+	public String getSha1() {
+		return _sha1;
+	}
+
+	/**
+	 * Load the script into server in advance, such as when a connection is created.
+	 * @param jedis
+	 */
+	public void load(Jedis jedis) {
+		jedis.scriptLoad(_script);
+	}
+
+	public Object eval(Jedis jedis, List<String> keys, List<String> args) {
+		try {
+			return jedis.evalsha(_sha1, keys, args);
+		} catch(JedisDataException e) {
+			if(e.getMessage() != null && e.getMessage().startsWith("NOSCRIPT")) {
+				//EVAL caches the script in server
+				return jedis.eval(_script, keys, args);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Queue EVALSHA into pipeline. NOSCRIPT can not be recovered in pipeline, so load() the script on the connection first.
+	 * @return response of the result, in which bulk strings are byte[]
+	 */
+	public Response<Object> eval(Pipeline pipeline, List<String> keys, List<String> args) {
+		return pipeline.evalsha(_sha1.getBytes(CHARSET), toBytesList(keys), toBytesList(args));
+	}
+
+	private static List<byte[]> toBytesList(List<String> strList) {
+		List<byte[]> bytesList = new ArrayList<byte[]>(strList.size());
+		for(String str : strList) {
+			bytesList.add(str.getBytes(CHARSET));
+		}
+		return bytesList;
+	}
+
+	private static String sha1Hex(String script) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] digest = md.digest(script.getBytes(CHARSET));
+
+			char[] hex = new char[digest.length * 2];
+			for(int i = 0; i < digest.length; i++) {
+				hex[i * 2] = HEX_CHARS[(digest[i] >> 4) & 0x0f];
+				hex[i * 2 + 1] = HEX_CHARS[digest[i] & 0x0f];
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,670 @@
+package com.beef.util.redis;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Local L2 cache of encoded values(not decoded), which survives process restarts,
+ * so instances restarted read values from page cache instead of fetching them from redis.
+ * <br/>
+ * Records are appended to memory mapped segment files, and the oldest segment is deleted when count of segments exceeds maxSegmentCount.
+ * The index(hash of key -> segment and offset) is an open addressing table in a direct ByteBuffer, rebuilt by scanning segments on open.
+ * <br/>
+ * Entries expire after ttl, which bounds the staleness when keys are written by other clients.
+ * Segments written in another version are discarded on open, so change version when the format of values changed.
+ * Writes through RedisDataClient update the entries immediately.
+ * <br/>
+ * Fields of a hash key are cached under the epoch of the key(a record kept in the same or a newer segment than its fields),
+ * and invalidate(key) or put(key, value) moves the key to the next epoch, so the fields cached before(e.g. del() of the hash key) are not read any more.
+ * <br/>
+ * A reader filling the cache takes the generation of the key before reading redis, and fills by putIfUnchanged(),
+ * so a value read before a concurrent write does not overwrite the value put by the write. Fields share the generation of their key.
+ * <br/>
+ * Reads share a read lock, while writes take the write lock.
+ * @author beef
+ *
+ */
+public class MappedSegmentCache {
+	private final static Charset CHARSET_UTF8 = Charset.forName("utf-8");
+	private final static char FIELD_SEPARATOR = '\0';
+
+	private final static int SEGMENT_MAGIC = 0x45524453;
+	/** magic(4) + version(8) */
+	private final static int SEGMENT_HEADER_LEN = 12;
+	/** keyLen(4) + valueLen(4) + expireTime(8) */
+	private final static int RECORD_HEADER_LEN = 16;
+	private final static int TOMBSTONE_VALUE_LEN = -1;
+
+	/** hash(8) + segmentId(4) + offset(4) */
+	private final static int SLOT_LEN = 16;
+	private final static int MIN_SLOT_COUNT = 1024;
+	private final static int GENERATION_STRIPE_COUNT = 1024;
+
+	private final File _dir;
+	private final long _version;
+	private final int _segmentSize;
+	private final int _maxSegmentCount;
+	private final long _ttlMillis;
+
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+	//guarded by _lock
+	private final TreeMap<Integer, MappedByteBuffer> _segmentMap = new TreeMap<Integer, MappedByteBuffer>();
+	private int _currentSegmentId = -1;
+	private int _writePosition = 0;
+	private ByteBuffer _index;
+	private int _slotMask;
+	private int _usedSlotCount = 0;
+	private boolean _isClosed = false;
+
+	private final AtomicLong _hitCount = new AtomicLong();
+	private final AtomicLong _missCount = new AtomicLong();
+	/** increased(under write lock) by put and invalidation in this process, keys share stripes by hash */
+	private final AtomicLongArray _generations = new AtomicLongArray(GENERATION_STRIPE_COUNT);
+
+	/**
+	 * @param dir directory of segment files, which should be used by only one process
+	 * @param version
+	 * @param segmentSize bytes of one segment file. Value larger than it is not cached.
+	 * @param maxSegmentCount
+	 * @param ttlMillis
+	 * @throws IOException
+	 */
+	public MappedSegmentCache(File dir, long version, int segmentSize, int maxSegmentCount, long ttlMillis) throws IOException {
+		_dir = dir;
+		_version = version;
+		_segmentSize = segmentSize;
+		_maxSegmentCount = maxSegmentCount;
+		_ttlMillis = ttlMillis;
+
+		allocateIndex(MIN_SLOT_COUNT);
+		open();
+	}
+
+	public String get(String key) {
+		_lock.readLock().lock();
+		try {
+			return countHit(lookup(key));
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	public String get(String key, String field) {
+		_lock.readLock().lock();
+		try {
+			long epoch = readEpoch(key);
+			return countHit((epoch < 0) ? null : lookup(fieldEntry(key, epoch, field)));
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	public void put(String key, String value) {
+		put(key, value, _ttlMillis);
+	}
+
+	/**
+	 * @param key
+	 * @param value
+	 * @param ttlMillis the smaller one of it and ttl of cache is used
+	 */
+	public void put(String key, String value, long ttlMillis) {
+		_lock.writeLock().lock();
+		try {
+			putKeyLocked(key, value, Math.min(ttlMillis, _ttlMillis));
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	public void put(String key, String field, String value) {
+		_lock.writeLock().lock();
+		try {
+			putFieldLocked(key, field, value, _ttlMillis);
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return generation to pass to putIfUnchanged(), which should be taken before reading redis
+	 */
+	public long getGeneration(String key) {
+		return _generations.get(generationStripe(key));
+	}
+
+	/**
+	 * @return generation of the key, which is shared by its fields
+	 */
+	public long getGeneration(String key, String field) {
+		return _generations.get(generationStripe(key));
+	}
+
+	/**
+	 * @param key
+	 * @param value
+	 * @param ttlMillis the smaller one of it and ttl of cache is used
+	 * @param generation taken by getGeneration() before reading redis
+	 * @return false if the key has been put or invalidated since the generation was taken(value is not put)
+	 */
+	public boolean putIfUnchanged(String key, String value, long ttlMillis, long generation) {
+		_lock.writeLock().lock();
+		try {
+			if(_generations.get(generationStripe(key)) != generation) {
+				return false;
+			}
+			putKeyLocked(key, value, Math.min(ttlMillis, _ttlMillis));
+			return true;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return false if the key(or any field of it) has been put or invalidated since the generation was taken(value is not put)
+	 */
+	public boolean putIfUnchanged(String key, String field, String value, long ttlMillis, long generation) {
+		_lock.writeLock().lock();
+		try {
+			if(_generations.get(generationStripe(key)) != generation) {
+				return false;
+			}
+			putFieldLocked(key, field, value, Math.min(ttlMillis, _ttlMillis));
+			return true;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Invalidate the key and all fields of it.
+	 */
+	public void invalidate(String key) {
+		_lock.writeLock().lock();
+		try {
+			_generations.incrementAndGet(generationStripe(key));
+			if(_isClosed) {
+				return;
+			}
+			invalidateEntry(key);
+			nextEpoch(key);
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	public void invalidate(String key, String field) {
+		_lock.writeLock().lock();
+		try {
+			_generations.incrementAndGet(generationStripe(key));
+			if(_isClosed) {
+				return;
+			}
+			long epoch = readEpoch(key);
+			if(epoch >= 0) {
+				invalidateEntry(fieldEntry(key, epoch, field));
+			}
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	public long getHitCount() {
+		return _hitCount.get();
+	}
+
+	public long getMissCount() {
+		return _missCount.get();
+	}
+
+	/**
+	 * @return count of index slots in use, including the expired and invalidated ones not yet cleaned
+	 */
+	public int getIndexedCount() {
+		_lock.readLock().lock();
+		try {
+			return _usedSlotCount;
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Flush segments to disk.
+	 */
+	public void flush() {
+		_lock.readLock().lock();
+		try {
+			for(MappedByteBuffer segment : _segmentMap.values()) {
+				segment.force();
+			}
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Flush and release segments. get() returns null and writes are ignored after closed.
+	 */
+	public void close() {
+		_lock.writeLock().lock();
+		try {
+			for(MappedByteBuffer segment : _segmentMap.values()) {
+				segment.force();
+			}
+			_segmentMap.clear();
+			allocateIndex(MIN_SLOT_COUNT);
+			_isClosed = true;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	private String countHit(String value) {
+		if(value == null) {
+			_missCount.incrementAndGet();
+		} else {
+			_hitCount.incrementAndGet();
+		}
+		return value;
+	}
+
+	/**
+	 * @return value of the entry, or null if not found(or expired). Read lock or write lock should be held.
+	 */
+	private String lookup(String entryKey) {
+		byte[] keyBytes = entryKey.getBytes(CHARSET_UTF8);
+		int slot = findSlot(hash(keyBytes), keyBytes);
+		MappedByteBuffer segment = getSegmentOfSlot(slot);
+		if(segment == null) {
+			return null;
+		}
+
+		int offset = _index.getInt(slot * SLOT_LEN + 12);
+		int valueLen = segment.getInt(offset + 4);
+		long expireTime = segment.getLong(offset + 8);
+		if(valueLen == TOMBSTONE_VALUE_LEN || expireTime < System.currentTimeMillis()) {
+			return null;
+		}
+
+		byte[] valueBytes = new byte[valueLen];
+		ByteBuffer buffer = segment.duplicate();
+		buffer.position(offset + RECORD_HEADER_LEN + keyBytes.length);
+		buffer.get(valueBytes);
+
+		return new String(valueBytes, CHARSET_UTF8);
+	}
+
+	/**
+	 * @return epoch of fields of the key, or -1 if no field of it is cached
+	 */
+	private long readEpoch(String key) {
+		String value = lookup(epochEntry(key));
+		return (value == null) ? -1 : Long.parseLong(value);
+	}
+
+	/**
+	 * Move the key to the next epoch if any field of it is cached.
+	 */
+	private void nextEpoch(String key) {
+		long epoch = readEpoch(key);
+		if(epoch >= 0) {
+			putEntry(epochEntry(key), String.valueOf(epoch + 1), Long.MAX_VALUE);
+		}
+	}
+
+	private void putKeyLocked(String key, String value, long ttlMillis) {
+		_generations.incrementAndGet(generationStripe(key));
+		if(_isClosed) {
+			return;
+		}
+		//a hash key overwritten by a string
+		nextEpoch(key);
+		putEntry(key, value, ttlMillis);
+	}
+
+	private void putFieldLocked(String key, String field, String value, long ttlMillis) {
+		_generations.incrementAndGet(generationStripe(key));
+		if(_isClosed) {
+			return;
+		}
+
+		long epoch = readEpoch(key);
+		if(epoch < 0) {
+			epoch = 0;
+		}
+		putEntry(fieldEntry(key, epoch, field), value, ttlMillis);
+
+		//epoch record is kept in the same or a newer segment than the fields, as the oldest segment is deleted first
+		String epochEntry = epochEntry(key);
+		byte[] epochKeyBytes = epochEntry.getBytes(CHARSET_UTF8);
+		int slot = findSlot(hash(epochKeyBytes), epochKeyBytes);
+		if(getSegmentOfSlot(slot) == null || _index.getInt(slot * SLOT_LEN + 8) != _currentSegmentId) {
+			putEntry(epochEntry, String.valueOf(epoch), Long.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * @param ttlMillis Long.MAX_VALUE means never expired
+	 */
+	private void putEntry(String entryKey, String value, long ttlMillis) {
+		byte[] keyBytes = entryKey.getBytes(CHARSET_UTF8);
+		byte[] valueBytes = value.getBytes(CHARSET_UTF8);
+		if(SEGMENT_HEADER_LEN + RECORD_HEADER_LEN + keyBytes.length + valueBytes.length > _segmentSize) {
+			invalidateEntry(entryKey);
+			return;
+		}
+
+		long expireTime = (ttlMillis == Long.MAX_VALUE) ? Long.MAX_VALUE : (System.currentTimeMillis() + ttlMillis);
+		try {
+			appendRecord(keyBytes, valueBytes, expireTime);
+		} catch(IOException e) {
+			throw new RedisDataException(e);
+		}
+	}
+
+	private void invalidateEntry(String entryKey) {
+		byte[] keyBytes = entryKey.getBytes(CHARSET_UTF8);
+		int slot = findSlot(hash(keyBytes), keyBytes);
+		MappedByteBuffer segment = getSegmentOfSlot(slot);
+		if(segment == null || segment.getInt(_index.getInt(slot * SLOT_LEN + 12) + 4) == TOMBSTONE_VALUE_LEN) {
+			return;
+		}
+
+		try {
+			appendRecord(keyBytes, null, 0);
+		} catch(IOException e) {
+			throw new RedisDataException(e);
+		}
+	}
+
+	private void appendRecord(byte[] keyBytes, byte[] valueBytes, long expireTime) throws IOException {
+		int recordLen = RECORD_HEADER_LEN + keyBytes.length + ((valueBytes == null) ? 0 : valueBytes.length);
+		if(_currentSegmentId < 0 || _writePosition + recordLen > _segmentSize) {
+			rollSegment();
+		}
+
+		MappedByteBuffer segment = _segmentMap.get(_currentSegmentId);
+		int offset = _writePosition;
+		ByteBuffer buffer = segment.duplicate();
+		buffer.position(offset + 4);
+		buffer.putInt((valueBytes == null) ? TOMBSTONE_VALUE_LEN : valueBytes.length);
+		buffer.putLong(expireTime);
+		buffer.put(keyBytes);
+		if(valueBytes != null) {
+			buffer.put(valueBytes);
+		}
+		//keyLen is written at last as the commit mark of the record
+		segment.putInt(offset, keyBytes.length);
+		_writePosition += recordLen;
+
+		indexRecord(hash(keyBytes), keyBytes, _currentSegmentId, offset);
+	}
+
+	private void rollSegment() throws IOException {
+		int segmentId = _currentSegmentId + 1;
+		MappedByteBuffer segment = mapSegment(segmentFile(segmentId), true);
+		segment.putInt(0, SEGMENT_MAGIC);
+		segment.putLong(4, _version);
+		_segmentMap.put(segmentId, segment);
+		_currentSegmentId = segmentId;
+		_writePosition = SEGMENT_HEADER_LEN;
+
+		while(_segmentMap.size() > _maxSegmentCount) {
+			int oldestId = _segmentMap.firstKey();
+			_segmentMap.remove(oldestId);
+			segmentFile(oldestId).delete();
+		}
+	}
+
+	private void open() throws IOException {
+		if(!_dir.exists() && !_dir.mkdirs()) {
+			throw new IOException("Failed to create directory " + _dir);
+		}
+
+		File[] files = _dir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith("segment-") && name.endsWith(".dat");
+			}
+		});
+		Arrays.sort(files);
+
+		for(File file : files) {
+			int segmentId = Integer.parseInt(file.getName().substring(8, file.getName().length() - 4));
+			MappedByteBuffer segment = mapSegment(file, false);
+			if(segment == null || segment.getInt(0) != SEGMENT_MAGIC || segment.getLong(4) != _version) {
+				//format or version not matched
+				deleteAllSegments(files);
+				return;
+			}
+
+			_segmentMap.put(segmentId, segment);
+			_currentSegmentId = segmentId;
+			_writePosition = scanSegment(segmentId, segment);
+		}
+
+		while(_segmentMap.size() > _maxSegmentCount) {
+			int oldestId = _segmentMap.firstKey();
+			_segmentMap.remove(oldestId);
+			segmentFile(oldestId).delete();
+		}
+	}
+
+	private void deleteAllSegments(File[] files) {
+		_segmentMap.clear();
+		_currentSegmentId = -1;
+		allocateIndex(MIN_SLOT_COUNT);
+		for(File file : files) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * @return position after the last record
+	 */
+	private int scanSegment(int segmentId, MappedByteBuffer segment) {
+		int offset = SEGMENT_HEADER_LEN;
+		while(offset + RECORD_HEADER_LEN <= _segmentSize) {
+			int keyLen = segment.getInt(offset);
+			if(keyLen <= 0) {
+				break;
+			}
+			int valueLen = segment.getInt(offset + 4);
+			int recordLen = RECORD_HEADER_LEN + keyLen + ((valueLen == TOMBSTONE_VALUE_LEN) ? 0 : valueLen);
+			if(valueLen < TOMBSTONE_VALUE_LEN || offset + recordLen > _segmentSize) {
+				//broken record
+				break;
+			}
+
+			byte[] keyBytes = readKey(segment, offset, keyLen);
+			indexRecord(hash(keyBytes), keyBytes, segmentId, offset);
+			offset += recordLen;
+		}
+		return offset;
+	}
+
+	private MappedByteBuffer mapSegment(File file, boolean isCreate) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if(isCreate) {
+				raf.setLength(0);
+				raf.setLength(_segmentSize);
+			} else if(raf.length() != _segmentSize) {
+				return null;
+			}
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, _segmentSize);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private File segmentFile(int segmentId) {
+		return new File(_dir, String.format("segment-%08d.dat", segmentId));
+	}
+
+	private void indexRecord(long hash, byte[] keyBytes, int segmentId, int offset) {
+		int slot = findSlot(hash, keyBytes);
+		if(_index.getLong(slot * SLOT_LEN) == 0) {
+			if((_usedSlotCount + 1) * 4L > (_slotMask + 1) * 3L) {
+				rehash();
+			}
+			slot = findSlot(hash, keyBytes);
+			_usedSlotCount++;
+		}
+
+		_index.putLong(slot * SLOT_LEN, hash);
+		_index.putInt(slot * SLOT_LEN + 8, segmentId);
+		_index.putInt(slot * SLOT_LEN + 12, offset);
+	}
+
+	/**
+	 * @return slot of the key, slot of a deleted segment in same hash, or the empty slot to insert into.
+	 */
+	private int findSlot(long hash, byte[] keyBytes) {
+		int slot = (int) (hash ^ (hash >>> 32)) & _slotMask;
+		while(true) {
+			long slotHash = _index.getLong(slot * SLOT_LEN);
+			if(slotHash == 0) {
+				return slot;
+			}
+			if(slotHash == hash) {
+				MappedByteBuffer segment = _segmentMap.get(_index.getInt(slot * SLOT_LEN + 8));
+				if(segment == null) {
+					return slot;
+				}
+				int offset = _index.getInt(slot * SLOT_LEN + 12);
+				if(segment.getInt(offset) == keyBytes.length
+						&& Arrays.equals(readKey(segment, offset, keyBytes.length), keyBytes)) {
+					return slot;
+				}
+			}
+			slot = (slot + 1) & _slotMask;
+		}
+	}
+
+	/**
+	 * @return null if slot is empty or its segment was deleted
+	 */
+	private MappedByteBuffer getSegmentOfSlot(int slot) {
+		if(_index.getLong(slot * SLOT_LEN) == 0) {
+			return null;
+		}
+		return _segmentMap.get(_index.getInt(slot * SLOT_LEN + 8));
+	}
+
+	/**
+	 * Rebuild index with live entries, and grow it if more than half slots are live.
+	 */
+	private void rehash() {
+		ByteBuffer oldIndex = _index;
+		int oldSlotCount = _slotMask + 1;
+		long now = System.currentTimeMillis();
+
+		int liveCount = 0;
+		for(int slot = 0; slot < oldSlotCount; slot++) {
+			if(isLiveSlot(oldIndex, slot, now)) {
+				liveCount++;
+			}
+		}
+
+		int slotCount = oldSlotCount;
+		while(liveCount * 2L > slotCount) {
+			slotCount *= 2;
+		}
+		allocateIndex(slotCount);
+
+		for(int slot = 0; slot < oldSlotCount; slot++) {
+			if(!isLiveSlot(oldIndex, slot, now)) {
+				continue;
+			}
+			long hash = oldIndex.getLong(slot * SLOT_LEN);
+			int newSlot = (int) (hash ^ (hash >>> 32)) & _slotMask;
+			while(_index.getLong(newSlot * SLOT_LEN) != 0) {
+				newSlot = (newSlot + 1) & _slotMask;
+			}
+			_index.putLong(newSlot * SLOT_LEN, hash);
+			_index.putInt(newSlot * SLOT_LEN + 8, oldIndex.getInt(slot * SLOT_LEN + 8));
+			_index.putInt(newSlot * SLOT_LEN + 12, oldIndex.getInt(slot * SLOT_LEN + 12));
+			_usedSlotCount++;
+		}
+	}
+
+	private boolean isLiveSlot(ByteBuffer index, int slot, long now) {
+		if(index.getLong(slot * SLOT_LEN) == 0) {
+			return false;
+		}
+		MappedByteBuffer segment = _segmentMap.get(index.getInt(slot * SLOT_LEN + 8));
+		if(segment == null) {
+			return false;
+		}
+		int offset = index.getInt(slot * SLOT_LEN + 12);
+		return segment.getInt(offset + 4) != TOMBSTONE_VALUE_LEN && segment.getLong(offset + 8) >= now;
+	}
+
+	private void allocateIndex(int slotCount) {
+		_index = ByteBuffer.allocateDirect(slotCount * SLOT_LEN);
+		_slotMask = slotCount - 1;
+		_usedSlotCount = 0;
+	}
+
+	private static byte[] readKey(MappedByteBuffer segment, int offset, int keyLen) {
+		byte[] keyBytes = new byte[keyLen];
+		ByteBuffer buffer = segment.duplicate();
+		buffer.position(offset + RECORD_HEADER_LEN);
+		buffer.get(keyBytes);
+		return keyBytes;
+	}
+
+	/**
+	 * FNV-1a 64, and 0 is reserved for empty slot.
+	 */
+	private static long hash(byte[] keyBytes) {
+		long hash = 0xcbf29ce484222325L;
+		for(byte b : keyBytes) {
+			hash ^= (b & 0xff);
+			hash *= 0x100000001b3L;
+		}
+		return (hash == 0) ? 1 : hash;
+	}
+
+	private static int generationStripe(String key) {
+		int hash = key.hashCode();
+		return (hash ^ (hash >>> 16)) & (GENERATION_STRIPE_COUNT - 1);
+	}
+
+	private static String fieldEntry(String key, long epoch, String field) {
+		return key + FIELD_SEPARATOR + epoch + FIELD_SEPARATOR + field;
+	}
+
+	private static String epochEntry(String key) {
+		return key + FIELD_SEPARATOR;
+	}
+
+	@Override
+	public String toString() {
+		_lock.readLock().lock();
+		try {
+			StringBuilder sb = new StringBuilder();
+			sb.append("segments:").append(_segmentMap.size())
+				.append(" indexed:").append(_usedSlotCount)
+				.append(" hit:").append(_hitCount.get())
+				.append(" miss:").append(_missCount.get());
+			return sb.toString();
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package com.beef.util.redis;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Client side cache of keys(and hash fields) known to be absent in redis, to skip the round trip of repeated misses.
+ * <br/>
+ * Entries expire after ttl, which bounds the staleness when keys are written by other clients.
+ * Writes through RedisDataClient invalidate the entries immediately.
+ * A reader takes the generation of the key before reading redis, and passes it to onMissing(),
+ * so a miss read before a concurrent write is not cached after the write invalidated it.
+ * When namespaces are added, only keys starting with one of them are cached.
+ * <br/>
+ * Lookups do not lock: entries are kept in a ConcurrentHashMap with their expire time. 
+ * When maxSize is exceeded, one thread sweeps the expired entries, then arbitrary ones until the size is below 3/4 of maxSize.
+ * @author beef
+ *
+ */
+public class MissingKeyCache {
+	private final static char FIELD_SEPARATOR = '\0';
+	private final static int GENERATION_STRIPE_COUNT = 1024;
+
+	private final int _maxSize;
+	private final long _ttlMillis;
+	private final ConcurrentHashMap<String, Long> _expireTimeMap = new ConcurrentHashMap<String, Long>();
+	/** ConcurrentHashMap.size() is not cheap before Java 8 */
+	private final AtomicInteger _size = new AtomicInteger();
+	private final AtomicBoolean _isEvicting = new AtomicBoolean(false);
+	private volatile String[] _namespaces = new String[0];
+
+	private final AtomicLong _hitCount = new AtomicLong();
+	/** increased by invalidation, entries share stripes by hash */
+	private final AtomicLongArray _generations = new AtomicLongArray(GENERATION_STRIPE_COUNT);
+
+	/**
+	 * @param maxSize max count of entries
+	 * @param ttlMillis
+	 */
+	public MissingKeyCache(int maxSize, long ttlMillis) {
+		_maxSize = maxSize;
+		_ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * @param keyPrefix
+	 */
+	public synchronized void addNamespace(String keyPrefix) {
+		String[] namespaces = new String[_namespaces.length + 1];
+		System.arraycopy(_namespaces, 0, namespaces, 0, _namespaces.length);
+		namespaces[_namespaces.length] = keyPrefix;
+		_namespaces = namespaces;
+	}
+
+	public boolean isMissing(String key) {
+		return isMissingEntry(key);
+	}
+
+	public boolean isMissing(String key, String field) {
+		return isMissingEntry(hashEntry(key, field));
+	}
+
+	/**
+	 * @param key
+	 * @return generation to pass to onMissing(), which should be taken before reading redis
+	 */
+	public long getGeneration(String key) {
+		return getEntryGeneration(key);
+	}
+
+	public long getGeneration(String key, String field) {
+		return getEntryGeneration(hashEntry(key, field));
+	}
+
+	/**
+	 * @param key
+	 * @param generation taken by getGeneration() before reading redis.
+	 * The key is not cached if it has been invalidated since then.
+	 */
+	public void onMissing(String key, long generation) {
+		if(isInNamespace(key)) {
+			putEntryIfUnchanged(key, generation);
+		}
+	}
+
+	public void onMissing(String key, String field, long generation) {
+		if(isInNamespace(key)) {
+			putEntryIfUnchanged(hashEntry(key, field), generation);
+		}
+	}
+
+	public void invalidate(String key) {
+		invalidateEntry(key);
+	}
+
+	public void invalidate(String key, String field) {
+		invalidateEntry(hashEntry(key, field));
+	}
+
+	public void clear() {
+		for(int i = 0; i < GENERATION_STRIPE_COUNT; i++) {
+			_generations.incrementAndGet(i);
+		}
+		for(String entry : _expireTimeMap.keySet()) {
+			removeEntry(entry);
+		}
+	}
+
+	public int size() {
+		return _size.get();
+	}
+
+	/**
+	 * @return count of lookups which skipped redis
+	 */
+	public long getHitCount() {
+		return _hitCount.get();
+	}
+
+	private boolean isMissingEntry(String entry) {
+		Long expireTime = _expireTimeMap.get(entry);
+		if(expireTime == null) {
+			return false;
+		}
+
+		if(expireTime.longValue() < System.currentTimeMillis()) {
+			removeEntry(entry, expireTime);
+			return false;
+		}
+
+		_hitCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * The generation is checked again after put, since an invalidation may happen between the first check and the put.
+	 * Invalidation increases the generation before removing, so the entry is either removed by it or by this.
+	 */
+	private void putEntryIfUnchanged(String entry, long generation) {
+		int stripe = generationStripe(entry);
+		if(_generations.get(stripe) != generation) {
+			return;
+		}
+
+		Long expireTime = Long.valueOf(System.currentTimeMillis() + _ttlMillis);
+		if(_expireTimeMap.put(entry, expireTime) == null) {
+			if(_size.incrementAndGet() > _maxSize) {
+				evict();
+			}
+		}
+		if(_generations.get(stripe) != generation) {
+			removeEntry(entry, expireTime);
+		}
+	}
+
+	private void invalidateEntry(String entry) {
+		_generations.incrementAndGet(generationStripe(entry));
+		removeEntry(entry);
+	}
+
+	private long getEntryGeneration(String entry) {
+		return _generations.get(generationStripe(entry));
+	}
+
+	private void removeEntry(String entry) {
+		if(_expireTimeMap.remove(entry) != null) {
+			_size.decrementAndGet();
+		}
+	}
+
+	private void removeEntry(String entry, Long expireTime) {
+		if(_expireTimeMap.remove(entry, expireTime)) {
+			_size.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Only one thread evicts at a time, the others return immediately.
+	 */
+	private void evict() {
+		if(!_isEvicting.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			long now = System.currentTimeMillis();
+			for(Map.Entry<String, Long> entry : _expireTimeMap.entrySet()) {
+				if(entry.getValue().longValue() < now) {
+					removeEntry(entry.getKey(), entry.getValue());
+				}
+			}
+
+			int targetSize = _maxSize - _maxSize / 4;
+			Iterator<Map.Entry<String, Long>> iter = _expireTimeMap.entrySet().iterator();
+			while(_size.get() > targetSize && iter.hasNext()) {
+				Map.Entry<String, Long> entry = iter.next();
+				removeEntry(entry.getKey(), entry.getValue());
+			}
+		} finally {
+			_isEvicting.set(false);
+		}
+	}
+
+	private static int generationStripe(String entry) {
+		int hash = entry.hashCode();
+		return (hash ^ (hash >>> 16)) & (GENERATION_STRIPE_COUNT - 1);
+	}
+
+	private boolean isInNamespace(String key) {
+		String[] namespaces = _namespaces;
+		if(namespaces.length == 0) {
+			return true;
+		}
+
+		for(int i = 0; i < namespaces.length; i++) {
+			if(key.startsWith(namespaces[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String hashEntry(String key, String field) {
+		return new StringBuilder(key.length() + 1 + field.length())
+			.append(key).append(FIELD_SEPARATOR).append(field).toString();
+	}
+}
@@ -0,0 +1,137 @@
+package com.beef.util.redis;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Metrics of borrowing connections from JedisPool, for tuning the size of pool.
+ * @author beef
+ *
+ */
+public class PoolMetrics {
+	private final JedisPool _pool;
+	private final int _maxTotal;
+
+	private final AtomicLong _borrowCount = new AtomicLong();
+	private final AtomicLong _borrowFailedCount = new AtomicLong();
+	private final AtomicLong _returnCount = new AtomicLong();
+	private final AtomicLong _totalWaitNanos = new AtomicLong();
+	private final AtomicLong _maxWaitNanos = new AtomicLong();
+	private final AtomicLong _totalHoldNanos = new AtomicLong();
+	private final AtomicLong _maxHoldNanos = new AtomicLong();
+
+	public PoolMetrics(JedisPool pool, int maxTotal) {
+		_pool = pool;
+		_maxTotal = maxTotal;
+	}
+
+	void onBorrowed(long waitNanos) {
+		_borrowCount.incrementAndGet();
+		_totalWaitNanos.addAndGet(waitNanos);
+		updateMax(_maxWaitNanos, waitNanos);
+	}
+
+	void onBorrowFailed() {
+		_borrowFailedCount.incrementAndGet();
+	}
+
+	void onReturned(long holdNanos) {
+		_returnCount.incrementAndGet();
+		_totalHoldNanos.addAndGet(holdNanos);
+		updateMax(_maxHoldNanos, holdNanos);
+	}
+
+	private static void updateMax(AtomicLong max, long value) {
+		while(true) {
+			long current = max.get();
+			if(value <= current || max.compareAndSet(current, value)) {
+				return;
+			}
+		}
+	}
+
+	public void reset() {
+		_borrowCount.set(0);
+		_borrowFailedCount.set(0);
+		_returnCount.set(0);
+		_totalWaitNanos.set(0);
+		_maxWaitNanos.set(0);
+		_totalHoldNanos.set(0);
+		_maxHoldNanos.set(0);
+	}
+
+	public long getBorrowCount() {
+		return _borrowCount.get();
+	}
+
+	public long getBorrowFailedCount() {
+		return _borrowFailedCount.get();
+	}
+
+	public long getReturnCount() {
+		return _returnCount.get();
+	}
+
+	public double getMeanWaitMillis() {
+		long count = _borrowCount.get();
+		return (count == 0) ? 0 : (_totalWaitNanos.get() / 1000000.0 / count);
+	}
+
+	public double getMaxWaitMillis() {
+		return _maxWaitNanos.get() / 1000000.0;
+	}
+
+	/**
+	 * @return mean time of holding a connection, of the connections returned(the ones still held are not counted)
+	 */
+	public double getMeanHoldMillis() {
+		long count = _returnCount.get();
+		return (count == 0) ? 0 : (_totalHoldNanos.get() / 1000000.0 / count);
+	}
+
+	public double getMaxHoldMillis() {
+		return _maxHoldNanos.get() / 1000000.0;
+	}
+
+	public int getNumActive() {
+		return _pool.getNumActive();
+	}
+
+	public int getNumIdle() {
+		return _pool.getNumIdle();
+	}
+
+	public int getNumWaiters() {
+		return _pool.getNumWaiters();
+	}
+
+	public int getMaxTotal() {
+		return _maxTotal;
+	}
+
+	/**
+	 * @return (active + waiters) / maxTotal. It is always 1 or more when there are waiters.
+	 */
+	public double getSaturation() {
+		if(_maxTotal <= 0) {
+			return 0;
+		}
+
+		return ((double) getNumActive() + getNumWaiters()) / _maxTotal;
+	}
+
+	@Override
+	public String toString() {
+		return "borrow:" + getBorrowCount()
+				+ " borrowFailed:" + getBorrowFailedCount()
+				+ " meanWaitMs:" + getMeanWaitMillis()
+				+ " maxWaitMs:" + getMaxWaitMillis()
+				+ " meanHoldMs:" + getMeanHoldMillis()
+				+ " maxHoldMs:" + getMaxHoldMillis()
+				+ " active:" + getNumActive()
+				+ " idle:" + getNumIdle()
+				+ " waiters:" + getNumWaiters()
+				+ " saturation:" + getSaturation();
+	}
+}
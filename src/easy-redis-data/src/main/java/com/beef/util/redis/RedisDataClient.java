@@ -0,0 +1,595 @@
+package com.beef.util.redis;
+
+import java.beans.IntrospectionException;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import MetoXML.Base.XmlParseException;
+import MetoXML.Util.Base64FormatException;
+import MetoXML.Util.ClassFinder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import com.beef.util.redis.compress.CompressException;
+
+/**
+ * Facade of RedisDataUtil which owns the JedisPool.
+ * Connection is returned to pool as soon as the reply arrives, and the value is decoded after that,
+ * so slow decoding does not hold connections.
+ * Values are encoded before borrowing connection in the same way.
+ * @author beef
+ *
+ */
+public class RedisDataClient {
+	private final JedisPool _pool;
+	private final PoolMetrics _poolMetrics;
+	private volatile MissingKeyCache _missingKeyCache = null;
+	private volatile SingleFlight _singleFlight = null;
+	private volatile MappedSegmentCache _localCache = null;
+
+	public RedisDataClient(JedisPoolConfig poolConfig, String host, int port) {
+		this(new JedisPool(poolConfig, host, port), poolConfig.getMaxTotal());
+	}
+
+	/**
+	 * @param pool
+	 * @param poolMaxTotal same as the maxTotal in config of pool, it is used to calculate saturation.
+	 */
+	public RedisDataClient(JedisPool pool, int poolMaxTotal) {
+		_pool = pool;
+		_poolMetrics = new PoolMetrics(pool, poolMaxTotal);
+	}
+
+	public JedisPool getPool() {
+		return _pool;
+	}
+
+	public PoolMetrics getPoolMetrics() {
+		return _poolMetrics;
+	}
+
+	public MissingKeyCache getMissingKeyCache() {
+		return _missingKeyCache;
+	}
+
+	/**
+	 * @param missingKeyCache null to disable
+	 */
+	public void setMissingKeyCache(MissingKeyCache missingKeyCache) {
+		_missingKeyCache = missingKeyCache;
+	}
+
+	public SingleFlight getSingleFlight() {
+		return _singleFlight;
+	}
+
+	/**
+	 * When it is set, concurrent get() or hget() of the same key and dataClass share one fetching and decoding,
+	 * and receive the same data object.
+	 * @param singleFlight null to disable
+	 */
+	public void setSingleFlight(SingleFlight singleFlight) {
+		_singleFlight = singleFlight;
+	}
+
+	public MappedSegmentCache getLocalCache() {
+		return _localCache;
+	}
+
+	/**
+	 * When it is set, getRaw() and hgetRaw()(and get(), hget() based on them) check it after MissingKeyCache and before redis,
+	 * and values fetched from redis are put into it. The value is fetched with PTTL of the key in one pipeline,
+	 * and cached for the smaller one of ttl of cache and PTTL.
+	 * set() and setex() put the value, while hset() invalidates the field(ttl of the hash key is unknown).
+	 * @param localCache null to disable. It is not closed by close() of this client.
+	 */
+	public void setLocalCache(MappedSegmentCache localCache) {
+		_localCache = localCache;
+	}
+
+	public void close() {
+		_pool.close();
+	}
+
+	/**
+	 * Borrow a connection, run callback, and return the connection.
+	 * @param callback
+	 * @return
+	 */
+	public <T> T execute(IJedisCallback<T> callback) {
+		Jedis jedis = borrow();
+		long borrowedTime = System.nanoTime();
+		try {
+			return callback.doInJedis(jedis);
+		} finally {
+			giveBack(jedis, borrowedTime);
+		}
+	}
+
+	protected Jedis borrow() {
+		long beginTime = System.nanoTime();
+		Jedis jedis;
+		try {
+			jedis = _pool.getResource();
+		} catch(RuntimeException e) {
+			_poolMetrics.onBorrowFailed();
+			throw e;
+		}
+
+		_poolMetrics.onBorrowed(System.nanoTime() - beginTime);
+		return jedis;
+	}
+
+	protected void giveBack(Jedis jedis, long borrowedTime) {
+		jedis.close();
+		_poolMetrics.onReturned(System.nanoTime() - borrowedTime);
+	}
+
+	public long del(final String key) {
+		long reply = execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.del(key);
+			}
+		});
+		invalidateLocalCache(key, null);
+		return reply;
+	}
+
+	public long incr(final String key) {
+		long reply = execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.incr(key);
+			}
+		});
+		invalidateMissing(key);
+		invalidateLocalCache(key, null);
+		return reply;
+	}
+
+	public long incrBy(final String key, final long integer) {
+		long reply = execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.incrBy(key, integer);
+			}
+		});
+		invalidateMissing(key);
+		invalidateLocalCache(key, null);
+		return reply;
+	}
+
+	public String set(
+			final String key, String val, boolean isUseCompress
+			) throws IOException, CompressException {
+		final String value = RedisDataUtil.encodeString(val, isUseCompress);
+		RedisDataUtil.profile(key, null, value);
+		MappedSegmentCache localCache = _localCache;
+		long localGeneration = (localCache == null) ? 0 : localCache.getGeneration(key);
+		String reply = execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.set(key, value);
+			}
+		});
+		invalidateMissing(key);
+		putLocalCache(localCache, key, value, Long.MAX_VALUE, localGeneration);
+		return reply;
+	}
+
+	public String get(
+			String key, boolean isUseCompress
+			) throws IOException, Base64FormatException, CompressException {
+		return RedisDataUtil.decodeString(getRaw(key), isUseCompress);
+	}
+
+	public String set(
+			final String key, Object data, Class<?> dataClass, boolean isUseCompress
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		final String value = RedisDataUtil.serializeDataToString(data, dataClass, isUseCompress);
+		RedisDataUtil.profile(key, null, value);
+		MappedSegmentCache localCache = _localCache;
+		long localGeneration = (localCache == null) ? 0 : localCache.getGeneration(key);
+		String reply = execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.set(key, value);
+			}
+		});
+		invalidateMissing(key);
+		putLocalCache(localCache, key, value, Long.MAX_VALUE, localGeneration);
+		return reply;
+	}
+
+	public String setex(
+			final String key, final int seconds,
+			Object data, Class<?> dataClass, boolean isUseCompress
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		final String value = RedisDataUtil.serializeDataToString(data, dataClass, isUseCompress);
+		RedisDataUtil.profile(key, null, value);
+		MappedSegmentCache localCache = _localCache;
+		long localGeneration = (localCache == null) ? 0 : localCache.getGeneration(key);
+		String reply = execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.setex(key, seconds, value);
+			}
+		});
+		invalidateMissing(key);
+		putLocalCache(localCache, key, value, seconds * 1000L, localGeneration);
+		return reply;
+	}
+
+	public Object get(
+			final String key, final Class<?> dataClass, final boolean isUseCompress,
+			final ClassFinder classFinder
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		SingleFlight singleFlight = _singleFlight;
+		if(singleFlight == null) {
+			return RedisDataUtil.deserializeData(getRaw(key), dataClass, isUseCompress, classFinder);
+		}
+
+		try {
+			return singleFlight.execute(flightKey(key, null, dataClass, isUseCompress), new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return RedisDataUtil.deserializeData(getRaw(key), dataClass, isUseCompress, classFinder);
+				}
+			});
+		} catch(Exception e) {
+			throw rethrowDecodeException(e);
+		}
+	}
+
+	public LazyData getLazy(
+			String key, Class<?> dataClass, boolean isUseCompress,
+			ClassFinder classFinder
+			) {
+		return RedisDataUtil.toLazyData(getRaw(key), dataClass, isUseCompress, classFinder);
+	}
+
+	/**
+	 * @param key
+	 * @return value not decoded
+	 */
+	public String getRaw(final String key) {
+		MissingKeyCache missingKeyCache = _missingKeyCache;
+		if(missingKeyCache != null && missingKeyCache.isMissing(key)) {
+			return null;
+		}
+		long missingGeneration = (missingKeyCache == null) ? 0 : missingKeyCache.getGeneration(key);
+
+		MappedSegmentCache localCache = _localCache;
+		String value = (localCache == null) ? null : localCache.get(key);
+		if(value != null) {
+			RedisDataUtil.profile(key, null, value);
+			return value;
+		}
+
+		if(localCache == null) {
+			value = execute(new IJedisCallback<String>() {
+				@Override
+				public String doInJedis(Jedis jedis) {
+					return jedis.get(key);
+				}
+			});
+		} else {
+			long localGeneration = localCache.getGeneration(key);
+			ValueWithTtl reply = execute(new IJedisCallback<ValueWithTtl>() {
+				@Override
+				public ValueWithTtl doInJedis(Jedis jedis) {
+					Pipeline pipeline = jedis.pipelined();
+					Response<String> valueResponse = pipeline.get(key);
+					Response<Long> pttlResponse = pipeline.pttl(key);
+					pipeline.sync();
+					return new ValueWithTtl(valueResponse.get(), pttlResponse.get());
+				}
+			});
+			value = reply._value;
+			long ttlMillis = reply.getCacheTtlMillis();
+			if(ttlMillis > 0) {
+				localCache.putIfUnchanged(key, value, ttlMillis, localGeneration);
+			}
+		}
+		RedisDataUtil.profile(key, null, value);
+		if(value == null && missingKeyCache != null) {
+			missingKeyCache.onMissing(key, missingGeneration);
+		}
+		return value;
+	}
+
+	public long hdel(final String key, final String field) {
+		long reply = execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.hdel(key, field);
+			}
+		});
+		invalidateLocalCache(key, field);
+		return reply;
+	}
+
+	public long hset(
+			final String key, final String field, Object data, Class<?> dataClass, boolean isUseCompress
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		final String value = RedisDataUtil.serializeDataToString(data, dataClass, isUseCompress);
+		RedisDataUtil.profile(key, field, value);
+		long reply = execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.hset(key, field, value);
+			}
+		});
+		MissingKeyCache missingKeyCache = _missingKeyCache;
+		if(missingKeyCache != null) {
+			missingKeyCache.invalidate(key, field);
+		}
+		invalidateLocalCache(key, field);
+		return reply;
+	}
+
+	public Object hget(
+			final String key, final String field, final Class<?> dataClass, final boolean isUseCompress,
+			final ClassFinder classFinder
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		SingleFlight singleFlight = _singleFlight;
+		if(singleFlight == null) {
+			return RedisDataUtil.deserializeData(hgetRaw(key, field), dataClass, isUseCompress, classFinder);
+		}
+
+		try {
+			return singleFlight.execute(flightKey(key, field, dataClass, isUseCompress), new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return RedisDataUtil.deserializeData(hgetRaw(key, field), dataClass, isUseCompress, classFinder);
+				}
+			});
+		} catch(Exception e) {
+			throw rethrowDecodeException(e);
+		}
+	}
+
+	public String hgetRaw(final String key, final String field) {
+		MissingKeyCache missingKeyCache = _missingKeyCache;
+		if(missingKeyCache != null && missingKeyCache.isMissing(key, field)) {
+			return null;
+		}
+		long missingGeneration = (missingKeyCache == null) ? 0 : missingKeyCache.getGeneration(key, field);
+
+		MappedSegmentCache localCache = _localCache;
+		String value = (localCache == null) ? null : localCache.get(key, field);
+		if(value != null) {
+			RedisDataUtil.profile(key, field, value);
+			return value;
+		}
+
+		if(localCache == null) {
+			value = execute(new IJedisCallback<String>() {
+				@Override
+				public String doInJedis(Jedis jedis) {
+					return jedis.hget(key, field);
+				}
+			});
+		} else {
+			long localGeneration = localCache.getGeneration(key, field);
+			ValueWithTtl reply = execute(new IJedisCallback<ValueWithTtl>() {
+				@Override
+				public ValueWithTtl doInJedis(Jedis jedis) {
+					Pipeline pipeline = jedis.pipelined();
+					Response<String> valueResponse = pipeline.hget(key, field);
+					Response<Long> pttlResponse = pipeline.pttl(key);
+					pipeline.sync();
+					return new ValueWithTtl(valueResponse.get(), pttlResponse.get());
+				}
+			});
+			value = reply._value;
+			long ttlMillis = reply.getCacheTtlMillis();
+			if(ttlMillis > 0) {
+				localCache.putIfUnchanged(key, field, value, ttlMillis, localGeneration);
+			}
+		}
+		RedisDataUtil.profile(key, field, value);
+		if(value == null && missingKeyCache != null) {
+			missingKeyCache.onMissing(key, field, missingGeneration);
+		}
+		return value;
+	}
+
+	public long llen(final String key) {
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.llen(key);
+			}
+		});
+	}
+
+	public long rpush(
+			final String key, Object data, Class<?> dataClass, boolean isUseCompress
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		final String value = RedisDataUtil.serializeDataToString(data, dataClass, isUseCompress);
+		RedisDataUtil.profile(key, null, value);
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.rpush(key, value);
+			}
+		});
+	}
+
+	public long lpush(
+			final String key, Object data, Class<?> dataClass, boolean isUseCompress
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		final String value = RedisDataUtil.serializeDataToString(data, dataClass, isUseCompress);
+		RedisDataUtil.profile(key, null, value);
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.lpush(key, value);
+			}
+		});
+	}
+
+	public Object lpop(
+			final String key, Class<?> dataClass, boolean isUseCompress,
+			ClassFinder classFinder
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		String value = execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.lpop(key);
+			}
+		});
+		RedisDataUtil.profile(key, null, value);
+		return RedisDataUtil.deserializeData(value, dataClass, isUseCompress, classFinder);
+	}
+
+	public Object lindex(
+			final String key, final long index, Class<?> dataClass, boolean isUseCompress,
+			ClassFinder classFinder
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		String value = execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.lindex(key, index);
+			}
+		});
+		RedisDataUtil.profile(key, null, value);
+		return RedisDataUtil.deserializeData(value, dataClass, isUseCompress, classFinder);
+	}
+
+	/**
+	 * @throws RedisDataException wraps the exception thrown in decoding
+	 */
+	public List<Object> lrange(
+			final String key, final long start, final long end,
+			Class<?> dataClass, boolean isUseCompress,
+			ClassFinder classFinder
+			) {
+		List<String> strList = execute(new IJedisCallback<List<String>>() {
+			@Override
+			public List<String> doInJedis(Jedis jedis) {
+				return jedis.lrange(key, start, end);
+			}
+		});
+		return RedisDataUtil.deserializeDataList(strList, dataClass, isUseCompress, classFinder, null, 1);
+	}
+
+	/**
+	 * The connection is held while updater is running, because of WATCH.
+	 * @see RedisDataUtil#update(Jedis, String, Class, boolean, ClassFinder, IDataUpdater, int)
+	 */
+	public <T> T update(
+			String key, Class<T> dataClass, boolean isUseCompress,
+			ClassFinder classFinder,
+			IDataUpdater<T> updater, int maxRetryCount
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException, IntrospectionException {
+		Jedis jedis = borrow();
+		long borrowedTime = System.nanoTime();
+		try {
+			return RedisDataUtil.update(jedis, key, dataClass, isUseCompress, classFinder, updater, maxRetryCount);
+		} finally {
+			giveBack(jedis, borrowedTime);
+			invalidateMissing(key);
+			invalidateLocalCache(key, null);
+		}
+	}
+
+	private static String flightKey(String key, String field, Class<?> dataClass, boolean isUseCompress) {
+		StringBuilder sb = new StringBuilder(key.length() + 64);
+		sb.append(key).append('\0');
+		if(field != null) {
+			sb.append(field);
+		}
+		sb.append('\0').append(dataClass.getName()).append('\0').append(isUseCompress);
+		return sb.toString();
+	}
+
+	/**
+	 * Rethrow exception declared by get() as it is, and wrap the others with RedisDataException.
+	 */
+	private static RedisDataException rethrowDecodeException(Exception e)
+			throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		if(e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		} else if(e instanceof XmlParseException) {
+			throw (XmlParseException) e;
+		} else if(e instanceof IOException) {
+			throw (IOException) e;
+		} else if(e instanceof InvocationTargetException) {
+			throw (InvocationTargetException) e;
+		} else if(e instanceof IllegalAccessException) {
+			throw (IllegalAccessException) e;
+		} else if(e instanceof InstantiationException) {
+			throw (InstantiationException) e;
+		} else if(e instanceof NoSuchMethodException) {
+			throw (NoSuchMethodException) e;
+		} else if(e instanceof Base64FormatException) {
+			throw (Base64FormatException) e;
+		} else if(e instanceof CompressException) {
+			throw (CompressException) e;
+		} else {
+			return new RedisDataException(e);
+		}
+	}
+
+	private void invalidateMissing(String key) {
+		MissingKeyCache missingKeyCache = _missingKeyCache;
+		if(missingKeyCache != null) {
+			missingKeyCache.invalidate(key);
+		}
+	}
+
+	/**
+	 * Put value written to redis, or invalidate it if the key has been put or invalidated by others since localGeneration was taken.
+	 */
+	private static void putLocalCache(MappedSegmentCache localCache, String key, String value, long ttlMillis, long localGeneration) {
+		if(localCache != null && !localCache.putIfUnchanged(key, value, ttlMillis, localGeneration)) {
+			localCache.invalidate(key);
+		}
+	}
+
+	/**
+	 * @param field null if not hash
+	 */
+	private void invalidateLocalCache(String key, String field) {
+		MappedSegmentCache localCache = _localCache;
+		if(localCache == null) {
+			return;
+		}
+
+		if(field == null) {
+			localCache.invalidate(key);
+		} else {
+			localCache.invalidate(key, field);
+		}
+	}
+
+	private static class ValueWithTtl {
+		private final String _value;
+		private final long _pttl;
+
+		public ValueWithTtl(String value, Long pttl) {
+			_value = value;
+			_pttl = (pttl == null) ? -2 : pttl.longValue();
+		}
+
+		/**
+		 * @return ttl to cache the value, 0 if it should not be cached
+		 */
+		public long getCacheTtlMillis() {
+			if(_value == null || _pttl == -2) {
+				//missing or expired after read
+				return 0;
+			}
+			return (_pttl == -1) ? Long.MAX_VALUE : _pttl;
+		}
+	}
+
+}
@@ -0,0 +1,27 @@
+package com.beef.util.redis;
+
+/**
+ * Unchecked wrapper of exceptions thrown in places where checked exceptions can not be declared,
+ * such as Iterator.next() or tasks running in other threads.
+ * @author beef
+ *
+ */
+public class RedisDataException extends RuntimeException {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -2739542617418736104L;
+
+	public RedisDataException(String msg) {
+		super(msg);
+	}
+
+	public RedisDataException(Throwable t) {
+		super(t);
+	}
+
+	public RedisDataException(String msg, Throwable t) {
+		super(msg, t);
+	}
+}
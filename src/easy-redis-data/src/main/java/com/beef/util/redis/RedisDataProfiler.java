@@ -0,0 +1,464 @@
+package com.beef.util.redis;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.beef.util.redis.RedisDataUtil.CompressAlgorithm;
+
+/**
+ * Sampling profiler of keys and values passed through RedisDataUtil and RedisDataClient(see RedisDataUtil.setProfiler()).
+ * One of every sampleRate accesses is sampled, and the profiler tracks:
+ * <br/>
+ * hot keys and key prefixes(counted in space-saving top-K, so count may be overestimated by at most error),
+ * <br/>
+ * largest encoded values, largest decoded values, and worst compress ratios(encoded length / decoded length).
+ * <br/>
+ * Lengths are in chars of the value stored and of the xml decoded.
+ * <br/>
+ * Keys are counted in the caller thread, and each top list is updated in O(log capacity) under its own lock.
+ * Compressed values sampled are decompressed to measure in a background thread, 
+ * and dropped when MAX_PENDING_MEASURES values are waiting, so the callers never pay for it.
+ * <br/>
+ * Accesses profiled: get/set/hget/hset style methods of RedisDataUtil and RedisDataClient, single element list methods(lindex, lpop, lset, lpush, rpush)
+ * and zadd. Bulk reads(mget, lrange, lrangeIterator, zrangeByScore, publishers, RedisDataIndex.findBy()) are not profiled, 
+ * since one call would be counted as many accesses.
+ * @author beef
+ *
+ */
+public class RedisDataProfiler {
+	private final static int MAX_PENDING_MEASURES = 64;
+	private final static long MEASURE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+	private final int _sampleRate;
+	private final String _prefixDelimiters;
+	private final int _minRatioLength;
+	private final ThreadPoolExecutor _measureExecutor;
+
+	private final AtomicLong _accessCount = new AtomicLong();
+	private final AtomicLong _sampleCount = new AtomicLong();
+
+	//each one is guarded by itself
+	private final SpaceSaving _hotKeys;
+	private final SpaceSaving _hotPrefixes;
+	private final TopValues _largestEncoded;
+	private final TopValues _largestDecoded;
+	private final TopValues _worstRatio;
+
+	/**
+	 * sampleRate:100 capacity:100 prefixDelimiters:":" minRatioLength:64
+	 */
+	public RedisDataProfiler() {
+		this(100, 100, ":", 64);
+	}
+
+	/**
+	 * @param sampleRate sample one of every sampleRate accesses. 1 means sampling all.
+	 * @param capacity max count of keys tracked in each top list
+	 * @param prefixDelimiters prefix of key is the part before the last one of these chars, e.g. "user:" of "user:1001"
+	 * @param minRatioLength values decoded shorter than this are not ranked by compress ratio
+	 */
+	public RedisDataProfiler(int sampleRate, int capacity, String prefixDelimiters, int minRatioLength) {
+		this(sampleRate, capacity, prefixDelimiters, minRatioLength, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "RedisDataProfiler-measure");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param threadFactory factory of the thread measuring decoded length of compressed values
+	 */
+	public RedisDataProfiler(int sampleRate, int capacity, String prefixDelimiters, int minRatioLength, ThreadFactory threadFactory) {
+		_sampleRate = sampleRate;
+		_prefixDelimiters = prefixDelimiters;
+		_minRatioLength = minRatioLength;
+
+		_hotKeys = new SpaceSaving(capacity);
+		_hotPrefixes = new SpaceSaving(capacity);
+		_largestEncoded = new TopValues(capacity, new Comparator<ValueSize>() {
+			@Override
+			public int compare(ValueSize o1, ValueSize o2) {
+				return compareLong(o1._encodedLength, o2._encodedLength);
+			}
+		});
+		_largestDecoded = new TopValues(capacity, new Comparator<ValueSize>() {
+			@Override
+			public int compare(ValueSize o1, ValueSize o2) {
+				return compareLong(o1._decodedLength, o2._decodedLength);
+			}
+		});
+		_worstRatio = new TopValues(capacity, new Comparator<ValueSize>() {
+			@Override
+			public int compare(ValueSize o1, ValueSize o2) {
+				return Double.compare(o1.getCompressRatio(), o2.getCompressRatio());
+			}
+		});
+
+		_measureExecutor = new ThreadPoolExecutor(1, 1, MEASURE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_PENDING_MEASURES), threadFactory, new ThreadPoolExecutor.DiscardPolicy());
+		//not kept alive by a profiler replaced without close()
+		_measureExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @param key
+	 * @param field null if not hash
+	 * @param value value stored(not decoded). null if not exists.
+	 */
+	public void onAccess(String key, String field, String value) {
+		if(_accessCount.incrementAndGet() % _sampleRate != 0) {
+			return;
+		}
+
+		_sampleCount.incrementAndGet();
+		_hotKeys.offer(key);
+		String prefix = getPrefix(key);
+		if(prefix != null) {
+			_hotPrefixes.offer(prefix);
+		}
+
+		if(value != null) {
+			final String id = (field == null) ? key : (key + "[" + field + "]");
+			final CompressAlgorithm algorithm = RedisDataUtil.detectValueCompressAlgorithm(value);
+			if(algorithm == CompressAlgorithm.NotCompress) {
+				offerValueSize(new ValueSize(id, value.length(), value.length()));
+			} else if(_measureExecutor.getQueue().remainingCapacity() > 0) {
+				final String encoded = value;
+				_measureExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						int decodedLength = -1;
+						try {
+							decodedLength = RedisDataUtil.decodeString(encoded, algorithm).length();
+						} catch(Throwable e) {
+							//not measurable
+						}
+						offerValueSize(new ValueSize(id, encoded.length(), decodedLength));
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Stop the measuring thread. Accesses are still counted.
+	 */
+	public void close() {
+		_measureExecutor.shutdown();
+	}
+
+	private void offerValueSize(ValueSize valueSize) {
+		_largestEncoded.offer(valueSize);
+		if(valueSize._decodedLength >= 0) {
+			_largestDecoded.offer(valueSize);
+			if(valueSize._decodedLength >= _minRatioLength) {
+				_worstRatio.offer(valueSize);
+			}
+		}
+	}
+
+	public long getAccessCount() {
+		return _accessCount.get();
+	}
+
+	public long getSampleCount() {
+		return _sampleCount.get();
+	}
+
+	/**
+	 * @param topN
+	 * @return keys in descending order of sampled count
+	 */
+	public List<KeyCount> getHotKeys(int topN) {
+		return _hotKeys.top(topN);
+	}
+
+	public List<KeyCount> getHotPrefixes(int topN) {
+		return _hotPrefixes.top(topN);
+	}
+
+	public List<ValueSize> getLargestEncodedValues(int topN) {
+		return _largestEncoded.top(topN);
+	}
+
+	public List<ValueSize> getLargestDecodedValues(int topN) {
+		return _largestDecoded.top(topN);
+	}
+
+	/**
+	 * @param topN
+	 * @return values in descending order of compress ratio(encoded length / decoded length)
+	 */
+	public List<ValueSize> getWorstCompressRatioValues(int topN) {
+		return _worstRatio.top(topN);
+	}
+
+	public void reset() {
+		_accessCount.set(0);
+		_sampleCount.set(0);
+		_hotKeys.clear();
+		_hotPrefixes.clear();
+		_largestEncoded.clear();
+		_largestDecoded.clear();
+		_worstRatio.clear();
+	}
+
+	/**
+	 * @param topN
+	 * @return text report of all top lists
+	 */
+	public String dumpReport(int topN) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("RedisDataProfiler accessCount:").append(_accessCount.get())
+			.append(" sampleCount:").append(_sampleCount.get())
+			.append(" sampleRate:").append(_sampleRate)
+			.append("\n");
+
+		sb.append("--- hot keys ---\n");
+		appendLines(sb, _hotKeys.top(topN));
+		sb.append("--- hot prefixes ---\n");
+		appendLines(sb, _hotPrefixes.top(topN));
+		sb.append("--- largest encoded values ---\n");
+		appendLines(sb, _largestEncoded.top(topN));
+		sb.append("--- largest decoded values ---\n");
+		appendLines(sb, _largestDecoded.top(topN));
+		sb.append("--- worst compress ratio values ---\n");
+		appendLines(sb, _worstRatio.top(topN));
+
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return dumpReport(10);
+	}
+
+	private static void appendLines(StringBuilder sb, List<?> list) {
+		for(Object item : list) {
+			sb.append(item).append("\n");
+		}
+	}
+
+	private String getPrefix(String key) {
+		int index = -1;
+		for(int i = 0; i < _prefixDelimiters.length(); i++) {
+			index = Math.max(index, key.lastIndexOf(_prefixDelimiters.charAt(i)));
+		}
+		return (index < 0) ? null : key.substring(0, index + 1);
+	}
+
+	private static int compareLong(long v1, long v2) {
+		return (v1 < v2) ? -1 : ((v1 == v2) ? 0 : 1);
+	}
+
+	public static class KeyCount {
+		private final String _key;
+		private final long _count;
+		private final long _error;
+
+		public KeyCount(String key, long count, long error) {
+			_key = key;
+			_count = count;
+			_error = error;
+		}
+
+		public String getKey() {
+			return _key;
+		}
+
+		/**
+		 * @return sampled count, which may be overestimated by at most error
+		 */
+		public long getCount() {
+			return _count;
+		}
+
+		public long getError() {
+			return _error;
+		}
+
+		@Override
+		public String toString() {
+			return _key + " count:" + _count + " error:" + _error;
+		}
+	}
+
+	public static class ValueSize {
+		private final String _key;
+		private final int _encodedLength;
+		private final int _decodedLength;
+
+		public ValueSize(String key, int encodedLength, int decodedLength) {
+			_key = key;
+			_encodedLength = encodedLength;
+			_decodedLength = decodedLength;
+		}
+
+		/**
+		 * @return key, or key[field] of hash
+		 */
+		public String getKey() {
+			return _key;
+		}
+
+		public int getEncodedLength() {
+			return _encodedLength;
+		}
+
+		/**
+		 * @return -1 if the value failed to be decoded
+		 */
+		public int getDecodedLength() {
+			return _decodedLength;
+		}
+
+		public double getCompressRatio() {
+			return (_decodedLength > 0) ? ((double) _encodedLength / _decodedLength) : 0;
+		}
+
+		@Override
+		public String toString() {
+			return _key + " encoded:" + _encodedLength + " decoded:" + _decodedLength
+					+ " ratio:" + String.format("%.3f", getCompressRatio());
+		}
+	}
+
+	/**
+	 * Space-saving algorithm: when full, the key of minimum count is replaced by the new one, which inherits the count as error.
+	 * Counters are also sorted by count, so the minimum is found in O(log capacity).
+	 */
+	private static class SpaceSaving {
+		private final int _capacity;
+		private final Map<String, Counter> _counterMap;
+		private final TreeSet<Counter> _counterSet = new TreeSet<Counter>(new Comparator<Counter>() {
+			@Override
+			public int compare(Counter o1, Counter o2) {
+				int result = compareLong(o1._count, o2._count);
+				return (result != 0) ? result : o1._key.compareTo(o2._key);
+			}
+		});
+
+		public SpaceSaving(int capacity) {
+			_capacity = capacity;
+			_counterMap = new HashMap<String, Counter>(capacity * 2);
+		}
+
+		public synchronized void offer(String key) {
+			Counter counter = _counterMap.get(key);
+			if(counter != null) {
+				//re-sorted after the count changed
+				_counterSet.remove(counter);
+				counter._count++;
+				_counterSet.add(counter);
+				return;
+			}
+
+			long count = 1;
+			long error = 0;
+			if(_counterMap.size() >= _capacity) {
+				Counter min = _counterSet.pollFirst();
+				_counterMap.remove(min._key);
+				count = min._count + 1;
+				error = min._count;
+			}
+			counter = new Counter(key, count, error);
+			_counterMap.put(key, counter);
+			_counterSet.add(counter);
+		}
+
+		public synchronized List<KeyCount> top(int topN) {
+			List<KeyCount> list = new ArrayList<KeyCount>(Math.min(topN, _counterSet.size()));
+			for(Counter counter : _counterSet.descendingSet()) {
+				if(list.size() >= topN) {
+					break;
+				}
+				list.add(new KeyCount(counter._key, counter._count, counter._error));
+			}
+			return list;
+		}
+
+		public synchronized void clear() {
+			_counterMap.clear();
+			_counterSet.clear();
+		}
+	}
+
+	private static class Counter {
+		private final String _key;
+		private long _count;
+		private final long _error;
+
+		public Counter(String key, long count, long error) {
+			_key = key;
+			_count = count;
+			_error = error;
+		}
+	}
+
+	/**
+	 * Top values by comparator, one entry per key(the latest sample). Values are also sorted, so the minimum is found in O(log capacity).
+	 */
+	private static class TopValues {
+		private final int _capacity;
+		private final Comparator<ValueSize> _comparator;
+		private final Map<String, ValueSize> _valueMap;
+		private final TreeSet<ValueSize> _valueSet;
+
+		public TopValues(int capacity, final Comparator<ValueSize> comparator) {
+			_capacity = capacity;
+			_comparator = comparator;
+			_valueMap = new HashMap<String, ValueSize>(capacity * 2);
+			_valueSet = new TreeSet<ValueSize>(new Comparator<ValueSize>() {
+				@Override
+				public int compare(ValueSize o1, ValueSize o2) {
+					int result = comparator.compare(o1, o2);
+					return (result != 0) ? result : o1._key.compareTo(o2._key);
+				}
+			});
+		}
+
+		public synchronized void offer(ValueSize value) {
+			ValueSize existed = _valueMap.get(value._key);
+			if(existed != null) {
+				_valueSet.remove(existed);
+			} else if(_valueMap.size() >= _capacity) {
+				ValueSize min = _valueSet.first();
+				if(_comparator.compare(value, min) <= 0) {
+					return;
+				}
+				_valueSet.pollFirst();
+				_valueMap.remove(min._key);
+			}
+			_valueMap.put(value._key, value);
+			_valueSet.add(value);
+		}
+
+		public synchronized List<ValueSize> top(int topN) {
+			List<ValueSize> list = new ArrayList<ValueSize>(Math.min(topN, _valueSet.size()));
+			for(ValueSize value : _valueSet.descendingSet()) {
+				if(list.size() >= topN) {
+					break;
+				}
+				list.add(value);
+			}
+			return list;
+		}
+
+		public synchronized void clear() {
+			_valueMap.clear();
+			_valueSet.clear();
+		}
+	}
+}
@@ -7,24 +7,42 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
-import MetoXML.Util.Base64Decoder;
 import MetoXML.Util.Base64Encoder;
 import MetoXML.Util.Base64FormatException;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisCommands;
+import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
 import MetoXML.XmlDeserializer;
 import MetoXML.XmlSerializer;
 import MetoXML.Base.XmlParseException;
 import MetoXML.Cast.BaseTypesMapping;
 import MetoXML.Util.ClassFinder;
 
+import com.beef.util.redis.codec.DataCodecs;
+import com.beef.util.redis.codec.IDataCodec;
+import com.beef.util.redis.codec.StreamingBeanDecoder;
+import com.beef.util.redis.codec.TagDictionaries;
+import com.beef.util.redis.codec.TagDictionary;
+import com.beef.util.redis.compress.Base64Util;
 import com.beef.util.redis.compress.CompressException;
 import com.beef.util.redis.compress.GZipCompressor;
 import com.beef.util.redis.compress.ICompressor;
 import com.beef.util.redis.compress.LZFCompressor;
+import com.beef.util.redis.transport.IRedisTransport;
+import com.beef.util.redis.transport.JedisCommandsTransport;
 
 public class RedisDataUtil {
 	public static enum CompressAlgorithm {NotCompress, GZIP, LZF};
@@ -34,8 +52,26 @@ public class RedisDataUtil {
 	protected static Charset _charset = Charset.forName(Protocol.CHARSET);
 
 	protected static CompressAlgorithm _defaultCompressAlgorithm = CompressAlgorithm.LZF;
+	/** fixed for members of sorted set, see encodeZsetMember() */
+	private final static CompressAlgorithm ZSET_MEMBER_COMPRESS_ALGORITHM = CompressAlgorithm.LZF;
 	protected static ICompressor _compressorOfLZF = new LZFCompressor();
 	protected static ICompressor _compressorOfGZIP = new GZipCompressor();
+	protected static volatile boolean _isDetectCompressAlgorithmOnDecode = false;
+	protected static volatile AdaptiveCompressSelector _adaptiveCompressSelector = null;
+	protected static volatile RedisDataProfiler _profiler = null;
+	
+	/**
+	 * 0x1f 0x8b 0x08
+	 */
+	private final static int GZIP_SIGNATURE = 0x1f8b08;
+	
+	protected final static LuaScript SCRIPT_HINCRBY_FIELDS = new LuaScript(
+			"local result = {}\n"
+			+ "for i = 1, #ARGV, 2 do\n"
+			+ "  result[#result + 1] = redis.call('hincrby', KEYS[1], ARGV[i], ARGV[i + 1])\n"
+			+ "end\n"
+			+ "return result"
+			);
 	
 	public static void setCompressAlgorithm(CompressAlgorithm algorithm) {
 		if(algorithm == CompressAlgorithm.LZF) {
@@ -47,151 +83,171 @@ public class RedisDataUtil {
 		_defaultCompressAlgorithm = algorithm;
 	}
 	
+	/**
+	 * Choose compress algorithm per data class in serializeData() and serializeDataToString() when isUseCompress is true.
+	 * Detecting compress algorithm on decode is turned on together, since values are in mixed algorithms.
+	 * @param selector null to use the default algorithm for all
+	 */
+	public static void setAdaptiveCompressSelector(AdaptiveCompressSelector selector) {
+		if(selector != null) {
+			_isDetectCompressAlgorithmOnDecode = true;
+		}
+		_adaptiveCompressSelector = selector;
+	}
+	
+	/**
+	 * Profile keys and values of get/set/setex/hget/hset(including lazy ones) in RedisDataUtil and RedisDataClient.
+	 * @param profiler null to turn off profiling
+	 */
+	public static void setProfiler(RedisDataProfiler profiler) {
+		_profiler = profiler;
+	}
+	
+	public static RedisDataProfiler getProfiler() {
+		return _profiler;
+	}
+	
+	static void profile(String key, String field, String value) {
+		RedisDataProfiler profiler = _profiler;
+		if(profiler != null) {
+			profiler.onAccess(key, field, value);
+		}
+	}
+	
+	/**
+	 * When values stored are in mixed compress algorithms(such as during a migration from GZIP to LZF),
+	 * set it true to decode compressed value in the algorithm detected instead of the default one. 
+	 * @param isDetectCompressAlgorithmOnDecode default false
+	 */
+	public static void setDetectCompressAlgorithmOnDecode(boolean isDetectCompressAlgorithmOnDecode) {
+		_isDetectCompressAlgorithmOnDecode = isDetectCompressAlgorithmOnDecode;
+	}
+	
+	/**
+	 * Detect by signature and length bookkeeping in one pass without allocation.
+	 * @param value
+	 * @return
+	 */
 	public static CompressAlgorithm detectValueCompressAlgorithm(String value) {
-		//check wether length is compatible with base64
-		int len = value.length();
-		
+		final int len = value.length();
 		if(len < 8) {
 			return CompressAlgorithm.NotCompress;
 		}
 		
-		if(value.startsWith("WlY")) {
+		if(value.charAt(0) == 'W' && value.charAt(1) == 'l' && value.charAt(2) == 'Y') {
 			//check signature of lzf
-			if(value.charAt(3) == 'A' || value.charAt(3) == 'B') {
-				//find out if multi chunk
-                /* bug #201805031508
-				int nextChunkIndex = value.indexOf("WlY", 4);
-				*/
-                int nextChunkIndex = -1;
-                {
-                    int start = 4;
-                    while(true) {
-                        final int index = value.indexOf("WlY", start);
-                        if(index < 0) {
-                            break;
-                        }
-
-                        final int nextChrIndex = index + "WlY".length();
-                        if(nextChrIndex >= value.length()) {
-                            break;
-                        }
-
-                        char nextChr = value.charAt(nextChrIndex);
-                        if(nextChr == 'A' || nextChr == 'B') {
-                            nextChunkIndex = index;
-                            break;
-                        }
-
-                        start = nextChrIndex;
-                    }
-                }
-
-				//search the next chunk
-				if(nextChunkIndex < 0) {
-					nextChunkIndex = value.length();
-				}
-
-
-
+			char chunkType = value.charAt(3);
+			if(chunkType == 'A' || chunkType == 'B') {
+				//count chars(excluding CR LF) until the header of next chunk(bug #201805031508)
 				int countExcludeReturnLine = 0;
-				for(int i = 0; i < nextChunkIndex; i++) {
-					if(value.charAt(i) != '\r' && value.charAt(i) != '\n') {
+				for(int i = 0; i < len; i++) {
+					char c = value.charAt(i);
+					if(c == 'W' && i >= 4 && (i + 3) < len 
+							&& value.charAt(i + 1) == 'l' && value.charAt(i + 2) == 'Y' 
+							&& (value.charAt(i + 3) == 'A' || value.charAt(i + 3) == 'B')) {
+						break;
+					}
+					if(c != '\r' && c != '\n') {
 						countExcludeReturnLine++;
 					}
 				}
-				if((countExcludeReturnLine % 4) != 0) {
-					return CompressAlgorithm.NotCompress;
-				}
 				
-				//check chunk len
-				byte[] lenBytes = decode3ByteBase64(value.charAt(4), value.charAt(5), value.charAt(6), value.charAt(7));
-				int chunkLen = ((byte)lenBytes[0] << 8) & 0xff00 | (lenBytes[1] & 0xff);
-				
-				int padLen = 0;
-				if(value.charAt(value.length() - 1) == '=') {
-					padLen ++;
+				int padLen = (value.charAt(len - 1) == '=' ? 1 : 0) + (value.charAt(len - 2) == '=' ? 1 : 0);
+				int lenQuantum = Base64Util.decodeQuantum(value.charAt(4), value.charAt(5), value.charAt(6), value.charAt(7));
+				if(isLZFChunkLenMatched(countExcludeReturnLine, padLen, chunkType, lenQuantum)) {
+					return CompressAlgorithm.LZF;
 				}
-				if(value.charAt(value.length() - 2) == '=') {
-					padLen ++;
+			}
+		} else if (len >= 16) {
+			//check signature of gzip before counting length
+			if(Base64Util.decodeQuantum(value.charAt(0), value.charAt(1), value.charAt(2), value.charAt(3)) == GZIP_SIGNATURE
+					&& value.charAt(5) == 'A' && value.charAt(6) == 'A' && value.charAt(7) == 'A' 
+					&& value.charAt(8) == 'A' && value.charAt(9) == 'A') {
+				int countExcludeReturnLine = 0;
+				for(int i = 0; i < len; i++) {
+					char c = value.charAt(i);
+					if(c != '\r' && c != '\n') {
+						countExcludeReturnLine++;
+					}
+				}
+				if((countExcludeReturnLine % 4) == 0) {
+					return CompressAlgorithm.GZIP;
+				}
+			}
+		}
+		
+		return CompressAlgorithm.NotCompress;
+	}
+	
+	/**
+	 * Same as detectValueCompressAlgorithm(String), but works on bytes(in charset of ascii compatible) directly.
+	 * @param value
+	 * @return
+	 */
+	public static CompressAlgorithm detectValueCompressAlgorithm(byte[] value) {
+		final int len = value.length;
+		if(len < 8) {
+			return CompressAlgorithm.NotCompress;
+		}
+		
+		if(value[0] == 'W' && value[1] == 'l' && value[2] == 'Y') {
+			//check signature of lzf
+			byte chunkType = value[3];
+			if(chunkType == 'A' || chunkType == 'B') {
+				int countExcludeReturnLine = 0;
+				for(int i = 0; i < len; i++) {
+					byte c = value[i];
+					if(c == 'W' && i >= 4 && (i + 3) < len 
+							&& value[i + 1] == 'l' && value[i + 2] == 'Y' 
+							&& (value[i + 3] == 'A' || value[i + 3] == 'B')) {
+						break;
+					}
+					if(c != '\r' && c != '\n') {
+						countExcludeReturnLine++;
+					}
 				}
 				
-				int lenOfOriginLen = (value.charAt(3) == 'B' ? 2 : 0);
-				
-				int calcuChunkLen = ((countExcludeReturnLine - 8) / 4) * 3 + 1 - padLen - lenOfOriginLen;
-				if(calcuChunkLen == chunkLen) {
+				int padLen = (value[len - 1] == '=' ? 1 : 0) + (value[len - 2] == '=' ? 1 : 0);
+				int lenQuantum = Base64Util.decodeQuantum(value[4], value[5], value[6], value[7]);
+				if(isLZFChunkLenMatched(countExcludeReturnLine, padLen, chunkType, lenQuantum)) {
 					return CompressAlgorithm.LZF;
 				}
 			}
-		} else if (value.length() >= 16) {
-			int countExcludeReturnLine = 0;
-			for(int i = 0; i < value.length(); i++) {
-				if(value.charAt(i) != '\r' && value.charAt(i) != '\n') {
-					countExcludeReturnLine++;
+		} else if (len >= 16) {
+			if(Base64Util.decodeQuantum(value[0], value[1], value[2], value[3]) == GZIP_SIGNATURE
+					&& value[5] == 'A' && value[6] == 'A' && value[7] == 'A' 
+					&& value[8] == 'A' && value[9] == 'A') {
+				int countExcludeReturnLine = 0;
+				for(int i = 0; i < len; i++) {
+					if(value[i] != '\r' && value[i] != '\n') {
+						countExcludeReturnLine++;
+					}
 				}
-			}
-			if((countExcludeReturnLine % 4) != 0) {
-				return CompressAlgorithm.NotCompress;
-			}
-
-			//check signature of gzip
-			byte[] bytes = decode3ByteBase64(
-					value.charAt(0), value.charAt(1), value.charAt(2), value.charAt(3));
-			if(bytes[0] == (byte) 0x1f && bytes[1] == (byte) 0x8b && bytes[2] == (byte) 0x08) {
-				if(value.charAt(5) == 'A' && value.charAt(6) == 'A' && value.charAt(7) == 'A' 
-						&& value.charAt(8) == 'A' && value.charAt(9) == 'A' ) {
+				if((countExcludeReturnLine % 4) == 0) {
 					return CompressAlgorithm.GZIP;
 				}
 			}
 		}
 		
-		
 		return CompressAlgorithm.NotCompress;
 	}
 	
-	public static byte[] decode3ByteBase64(char base64chr0, char base64chr1, char base64chr2, char base64chr3) {
-		byte[] bytes = new byte[3];
-		byte v;
-		
-		//char 0
-		v = decodeBase64Char(base64chr0);
-		bytes[0] = (byte) ((v << 2) & 0xfc);
-		
-		//char 1
-		v = decodeBase64Char(base64chr1);
-		bytes[0] |= (byte) ((v >> 4) & 0x03);
-		bytes[1] = (byte) ((v << 4) & 0xf0);
-		
-		//char 2
-		v = decodeBase64Char(base64chr2);
-		bytes[1] |= (byte) ((v >> 2) & 0x0f);
-		bytes[2] = (byte) ((v << 6) & 0xc0);
+	private static boolean isLZFChunkLenMatched(int countExcludeReturnLine, int padLen, int chunkType, int lenQuantum) {
+		if((countExcludeReturnLine % 4) != 0) {
+			return false;
+		}
 		
-		//char 3
-		v = decodeBase64Char(base64chr3);
-		bytes[2] |= v;
+		int chunkLen = (lenQuantum >> 8) & 0xffff;
+		int lenOfOriginLen = (chunkType == 'B' ? 2 : 0);
+		int calcuChunkLen = ((countExcludeReturnLine - 8) / 4) * 3 + 1 - padLen - lenOfOriginLen;
 		
-		return bytes;
+		return calcuChunkLen == chunkLen;
 	}
 	
-	private static byte decodeBase64Char(char base64chr) {
-		if (base64chr == '+') {
-			return 62;
-		} else if (base64chr == '/') {
-			return 63;
-		} else if (base64chr == '=') {
-			return 0;
-		}
+	public static byte[] decode3ByteBase64(char base64chr0, char base64chr1, char base64chr2, char base64chr3) {
+		int quantum = Base64Util.decodeQuantum(base64chr0, base64chr1, base64chr2, base64chr3);
 		
-		byte c = (byte) base64chr;
-		if(c >= 0x30 && c <= 0x39) {
-			return (byte) (c + 4);
-		} else if (c >= 0x41 && c <= 0x5A) {
-			return (byte) (c - 0x41);
-		} else if (c >= 0x61 && c <= 0x7A) {
-			return (byte) (c - 71);
-		} else {
-			return 0;
-		}
+		return new byte[] {(byte) (quantum >> 16), (byte) (quantum >> 8), (byte) quantum};
 	}
 	
 	/*
@@ -216,7 +272,13 @@ public class RedisDataUtil {
 			JedisCommands jedis,
 			String key 
 			) {
-		return jedis.del(key);
+		return del(new JedisCommandsTransport(jedis), key);
+	}
+	public static long del(
+			IRedisTransport transport,
+			String key 
+			) {
+		return transport.del(key);
 	}
 
 	public static long incr(
@@ -255,14 +317,31 @@ public class RedisDataUtil {
 			JedisCommands jedis,
 			String key, String val, boolean isUseCompress
 			) throws IOException, CompressException {
-		return jedis.set(key, encodeString(val, isUseCompress));
+		return set(new JedisCommandsTransport(jedis), key, val, isUseCompress);
+	}
+	public static String set(
+			IRedisTransport transport,
+			String key, String val, boolean isUseCompress
+			) throws IOException, CompressException {
+		String value = encodeString(val, isUseCompress);
+		profile(key, null, value);
+		return transport.set(key, value);
 	}
 	public static String setex(
 			JedisCommands jedis,
 			String key, int seconds, 
 			String val, boolean isUseCompress
 			) throws IOException, CompressException {
-		return jedis.setex(key, seconds, encodeString(val, isUseCompress));
+		return setex(new JedisCommandsTransport(jedis), key, seconds, val, isUseCompress);
+	}
+	public static String setex(
+			IRedisTransport transport,
+			String key, int seconds, 
+			String val, boolean isUseCompress
+			) throws IOException, CompressException {
+		String value = encodeString(val, isUseCompress);
+		profile(key, null, value);
+		return transport.setex(key, seconds, value);
 	}
 	
 	public static String get(
@@ -275,7 +354,15 @@ public class RedisDataUtil {
 			JedisCommands jedis,
 			String key, boolean isUseCompress 
 			) throws IOException, Base64FormatException, CompressException {
-		return decodeString(jedis.get(key), isUseCompress);
+		return get(new JedisCommandsTransport(jedis), key, isUseCompress);
+	}
+	public static String get(
+			IRedisTransport transport,
+			String key, boolean isUseCompress 
+			) throws IOException, Base64FormatException, CompressException {
+		String value = transport.get(key);
+		profile(key, null, value);
+		return decodeString(value, isUseCompress);
 	}
 	
 	public static String set(
@@ -288,8 +375,15 @@ public class RedisDataUtil {
 			JedisCommands jedis,
 			String key, Object data, Class<?> dataClass, boolean isUseCompress 
 			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
-		return jedis.set(key, 
-				serializeDataToString(data, dataClass, isUseCompress));
+		return set(new JedisCommandsTransport(jedis), key, data, dataClass, isUseCompress);
+	}
+	public static String set(
+			IRedisTransport transport,
+			String key, Object data, Class<?> dataClass, boolean isUseCompress 
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		String value = serializeDataToString(data, dataClass, isUseCompress);
+		profile(key, null, value);
+		return transport.set(key, value);
 	}
 	
 	public static String setex(
@@ -297,8 +391,16 @@ public class RedisDataUtil {
 			String key, int seconds, 
 			Object data, Class<?> dataClass, boolean isUseCompress 
 			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
-		return jedis.setex(key, seconds, 
-				serializeDataToString(data, dataClass, isUseCompress));
+		return setex(new JedisCommandsTransport(jedis), key, seconds, data, dataClass, isUseCompress);
+	}
+	public static String setex(
+			IRedisTransport transport,
+			String key, int seconds, 
+			Object data, Class<?> dataClass, boolean isUseCompress 
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		String value = serializeDataToString(data, dataClass, isUseCompress);
+		profile(key, null, value);
+		return transport.setex(key, seconds, value);
 	}
 	
 	public static Object get(
@@ -326,8 +428,169 @@ public class RedisDataUtil {
 			String key, Class<?> dataClass, boolean isUseCompress, 
 			ClassFinder classFinder
 			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
-		return deserializeData(jedis.get(key), 
-				dataClass, isUseCompress, classFinder);
+		return get(new JedisCommandsTransport(jedis), key, dataClass, isUseCompress, classFinder);
+	}
+	public static Object get(
+			IRedisTransport transport,
+			String key, Class<?> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		String value = transport.get(key);
+		profile(key, null, value);
+		return deserializeData(value, dataClass, isUseCompress, classFinder);
+	}
+
+	/**
+	 * The value is not decoded until LazyData.getData() or getPropertyText() is called.
+	 * @return null if key not exists
+	 */
+	public static LazyData getLazy(
+			Jedis jedis,
+			String key, Class<?> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder
+			) {
+		return getLazy((JedisCommands)jedis, key, dataClass, isUseCompress, classFinder);
+	}
+	public static LazyData getLazy(
+			JedisCommands jedis,
+			String key, Class<?> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder
+			) {
+		return getLazy(new JedisCommandsTransport(jedis), key, dataClass, isUseCompress, classFinder);
+	}
+	public static LazyData getLazy(
+			IRedisTransport transport,
+			String key, Class<?> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder
+			) {
+		String value = transport.get(key);
+		profile(key, null, value);
+		return toLazyData(value, dataClass, isUseCompress, classFinder);
+	}
+	
+	/**
+	 * @param keys
+	 * @return data in the same order of keys, null for keys not existing
+	 */
+	public static List<Object> mget(
+			IRedisTransport transport,
+			String[] keys, Class<?> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		List<String> strList = transport.mget(keys);
+		List<Object> valueList = new ArrayList<Object>(strList.size());
+		for(int i = 0; i < strList.size(); i++) {
+			valueList.add(
+					deserializeData(strList.get(i), dataClass, isUseCompress, classFinder)
+					);
+		}
+		return valueList;
+	}
+	
+	/**
+	 * Read-modify-write the data atomically through WATCH/MULTI/EXEC, and retry when the key is modified by others.
+	 * TTL of key is kept.
+	 * @param updater it may be called more than once
+	 * @param maxRetryCount
+	 * @return the data stored, or null if updater returned null
+	 * @throws RedisDataException if conflicted in all retries
+	 */
+	public static <T> T update(
+			Jedis jedis,
+			String key, Class<T> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder,
+			IDataUpdater<T> updater, int maxRetryCount
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException, IntrospectionException {
+		return updateValue(jedis, key, null, dataClass, isUseCompress, classFinder, updater, maxRetryCount);
+	}
+	
+	/**
+	 * Same as update(), but the data is stored in a field of hash. Key is watched, so modifying other fields also causes a retry.
+	 */
+	public static <T> T hupdate(
+			Jedis jedis,
+			String key, String field, Class<T> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder,
+			IDataUpdater<T> updater, int maxRetryCount
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException, IntrospectionException {
+		return updateValue(jedis, key, field, dataClass, isUseCompress, classFinder, updater, maxRetryCount);
+	}
+	
+	private static <T> T updateValue(
+			Jedis jedis,
+			String key, String field, Class<T> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder,
+			IDataUpdater<T> updater, int maxRetryCount
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException, IntrospectionException {
+		for(int retry = 0; retry <= maxRetryCount; retry++) {
+			boolean isWatching = true;
+			jedis.watch(key);
+			try {
+				String str = (field == null) ? jedis.get(key) : jedis.hget(key, field);
+				T data = dataClass.cast(deserializeData(str, dataClass, isUseCompress, classFinder));
+				
+				T newData = updater.update(data);
+				if(newData == null) {
+					return null;
+				}
+				String newStr = serializeDataToString(newData, dataClass, isUseCompress);
+				
+				long pttl = (field == null) ? jedis.pttl(key) : 0;
+				Transaction transaction = jedis.multi();
+				isWatching = false;
+				if(field == null) {
+					transaction.set(key, newStr);
+					if(pttl > 0) {
+						transaction.pexpire(key, pttl);
+					}
+				} else {
+					transaction.hset(key, field, newStr);
+				}
+				List<Object> results = transaction.exec();
+				if(results != null && results.size() > 0) {
+					return newData;
+				}
+			} finally {
+				if(isWatching) {
+					jedis.unwatch();
+				}
+			}
+		}
+		
+		throw new RedisDataException("Failed to update because of conflicts. key:" + key + " retry:" + maxRetryCount);
+	}
+	
+	/**
+	 * Increase several fields of hash in one round trip through lua script.
+	 * @param fieldIncrements field -> increment
+	 * @return field -> value after increased
+	 */
+	public static Map<String, Long> hincrByFields(
+			Jedis jedis,
+			String key, Map<String, Long> fieldIncrements
+			) {
+		List<String> args = new ArrayList<String>(fieldIncrements.size() * 2);
+		for(Map.Entry<String, Long> entry : fieldIncrements.entrySet()) {
+			args.add(entry.getKey());
+			args.add(entry.getValue().toString());
+		}
+		
+		List<?> results = (List<?>) SCRIPT_HINCRBY_FIELDS.eval(jedis, Arrays.asList(key), args);
+		
+		Map<String, Long> valueMap = new LinkedHashMap<String, Long>();
+		int i = 0;
+		for(String field : fieldIncrements.keySet()) {
+			valueMap.put(field, (Long) results.get(i++));
+		}
+		return valueMap;
+	}
+	
+	/**
+	 * Load lua scripts used by RedisDataUtil, then the first call of them need not to send the script.
+	 * @param jedis
+	 */
+	public static void loadScripts(Jedis jedis) {
+		SCRIPT_HINCRBY_FIELDS.load(jedis);
 	}
 	
 	public static long llen(
@@ -340,7 +603,13 @@ public class RedisDataUtil {
 			JedisCommands jedis,
 			String key
 			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException {
-		return jedis.llen(key);
+		return llen(new JedisCommandsTransport(jedis), key);
+	}
+	public static long llen(
+			IRedisTransport transport,
+			String key
+			) {
+		return transport.llen(key);
 	}
 	
 	public static String lindex(
@@ -355,7 +624,16 @@ public class RedisDataUtil {
 			String key, long index, 
 			boolean isUseCompress
 			) throws IOException, Base64FormatException, CompressException {
-		return decodeString(jedis.lindex(key, index), isUseCompress);
+		return lindex(new JedisCommandsTransport(jedis), key, index, isUseCompress);
+	}
+	public static String lindex(
+			IRedisTransport transport,
+			String key, long index, 
+			boolean isUseCompress
+			) throws IOException, Base64FormatException, CompressException {
+		String value = transport.lindex(key, index);
+		profile(key, null, value);
+		return decodeString(value, isUseCompress);
 	}
 
 	public static List<String> lrange(
@@ -370,12 +648,19 @@ public class RedisDataUtil {
 			String key, long start, long end, 
 			boolean isUseCompress
 			) throws IOException, Base64FormatException, CompressException {
+		return lrange(new JedisCommandsTransport(jedis), key, start, end, isUseCompress);
+	}
+	public static List<String> lrange(
+			IRedisTransport transport,
+			String key, long start, long end, 
+			boolean isUseCompress
+			) throws IOException, Base64FormatException, CompressException {
 		if(!isUseCompress 
 				//&& _charset.name().equalsIgnoreCase("utf-8")
 				) {
-			return jedis.lrange(key, start, end);
+			return transport.lrange(key, start, end);
 		} else {
-			List<String> strList = jedis.lrange(key, start, end);
+			List<String> strList = transport.lrange(key, start, end);
 			if(strList == null) {
 				return null;
 			} else {
@@ -399,7 +684,15 @@ public class RedisDataUtil {
 			JedisCommands jedis,
 			String key, boolean isUseCompress
 			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
-		return decodeString(jedis.lpop(key), isUseCompress);
+		return lpop(new JedisCommandsTransport(jedis), key, isUseCompress);
+	}
+	public static String lpop(
+			IRedisTransport transport,
+			String key, boolean isUseCompress
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		String value = transport.lpop(key);
+		profile(key, null, value);
+		return decodeString(value, isUseCompress);
 	}
 
 	public static String lset(
@@ -413,7 +706,9 @@ public class RedisDataUtil {
 			String key, long index, 
 			String value, boolean isUseCompress
 			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
-		return jedis.lset(key, index, encodeString(value, isUseCompress));
+		String encoded = encodeString(value, isUseCompress);
+		profile(key, null, encoded);
+		return jedis.lset(key, index, encoded);
 	}
 	
 	public static long rpush(Jedis jedis,
@@ -424,7 +719,14 @@ public class RedisDataUtil {
 	public static long rpush(JedisCommands jedis,
 			String key, String value, boolean isUseCompress
 			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
-		return jedis.rpush(key, encodeString(value, isUseCompress));
+		return rpush(new JedisCommandsTransport(jedis), key, value, isUseCompress);
+	}
+	public static long rpush(IRedisTransport transport,
+			String key, String value, boolean isUseCompress
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		String encoded = encodeString(value, isUseCompress);
+		profile(key, null, encoded);
+		return transport.rpush(key, encoded);
 	}
 	
 	public static long lpush(Jedis jedis,
@@ -435,7 +737,14 @@ public class RedisDataUtil {
 	public static long lpush(JedisCommands jedis,
 			String key, String value, boolean isUseCompress
 			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
-		return jedis.lpush(key, encodeString(value, isUseCompress));
+		return lpush(new JedisCommandsTransport(jedis), key, value, isUseCompress);
+	}
+	public static long lpush(IRedisTransport transport,
+			String key, String value, boolean isUseCompress
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		String encoded = encodeString(value, isUseCompress);
+		profile(key, null, encoded);
+		return transport.lpush(key, encoded);
 	}
 
 	public static Object lindex(
@@ -471,8 +780,18 @@ public class RedisDataUtil {
 			boolean isUseCompress,
 			ClassFinder classFinder
 			) throws IOException, Base64FormatException, XmlParseException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, CompressException {
-		return deserializeData(jedis.lindex(key, index), 
-				dataClass, isUseCompress, classFinder);
+		return lindex(new JedisCommandsTransport(jedis), key, index, dataClass, isUseCompress, classFinder);
+	}
+	public static Object lindex(
+			IRedisTransport transport,
+			String key, long index, 
+			Class<?> dataClass, 
+			boolean isUseCompress,
+			ClassFinder classFinder
+			) throws IOException, Base64FormatException, XmlParseException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, CompressException {
+		String value = transport.lindex(key, index);
+		profile(key, null, value);
+		return deserializeData(value, dataClass, isUseCompress, classFinder);
 	}
 
 	public static List<Object> lrange(
@@ -489,7 +808,15 @@ public class RedisDataUtil {
 			Class<?> dataClass, boolean isUseCompress, 
 			ClassFinder classFinder
 			) throws IOException, Base64FormatException, CompressException, XmlParseException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException {
-		List<String> strList = jedis.lrange(key, start, end);
+		return lrange(new JedisCommandsTransport(jedis), key, start, end, dataClass, isUseCompress, classFinder);
+	}
+	public static List<Object> lrange(
+			IRedisTransport transport,
+			String key, long start, long end, 
+			Class<?> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder
+			) throws IOException, Base64FormatException, CompressException, XmlParseException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException {
+		List<String> strList = transport.lrange(key, start, end);
 		if(strList == null) {
 			return null;
 		} else {
@@ -504,6 +831,35 @@ public class RedisDataUtil {
 		}
 	}
 	
+	/**
+	 * Iterate the list page by page instead of loading the whole range into memory.
+	 * The jedis must not be used by others until the iterator is exhausted or closed.
+	 * @param pageSize count of elements fetched in one lrange
+	 * @param fetchExecutor prefetch next page while the current page is being decoded. null means no prefetch.
+	 * @param decodeExecutor decode elements of the page in parallel. null means decoding element one by one in next().
+	 * @return
+	 */
+	public static ListPageIterator lrangeIterator(
+			Jedis jedis,
+			String key, long start, long end, int pageSize,
+			Class<?> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder, 
+			ExecutorService fetchExecutor, ExecutorService decodeExecutor, int decodeParallelism
+			) {
+		return lrangeIterator((JedisCommands)jedis, key, start, end, pageSize, dataClass, isUseCompress, classFinder, fetchExecutor, decodeExecutor, decodeParallelism);
+	}
+	public static ListPageIterator lrangeIterator(
+			JedisCommands jedis,
+			String key, long start, long end, int pageSize,
+			Class<?> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder, 
+			ExecutorService fetchExecutor, ExecutorService decodeExecutor, int decodeParallelism
+			) {
+		return new ListPageIterator(jedis, key, start, end, pageSize, 
+				dataClass, isUseCompress, classFinder, 
+				fetchExecutor, decodeExecutor, decodeParallelism);
+	}
+	
 	public static Object lpop(
 			Jedis jedis,
 			String key, Class<?> dataClass, boolean isUseCompress
@@ -531,7 +887,17 @@ public class RedisDataUtil {
 			Class<?> dataClass, boolean isUseCompress, 
 			ClassFinder classFinder
 			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
-		return deserializeData(jedis.lpop(key), dataClass, isUseCompress, classFinder);
+		return lpop(new JedisCommandsTransport(jedis), key, dataClass, isUseCompress, classFinder);
+	}
+	public static Object lpop(
+			IRedisTransport transport,
+			String key, 
+			Class<?> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		String value = transport.lpop(key);
+		profile(key, null, value);
+		return deserializeData(value, dataClass, isUseCompress, classFinder);
 	}
 	
 	public static String lset(
@@ -546,7 +912,9 @@ public class RedisDataUtil {
 			String key, long index, 
 			Object data, Class<?> dataClass, boolean isUseCompress
 			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
-		return jedis.lset(key, index, serializeDataToString(data, dataClass, isUseCompress));
+		String value = serializeDataToString(data, dataClass, isUseCompress);
+		profile(key, null, value);
+		return jedis.lset(key, index, value);
 	}
 	
 	public static long rpush(
@@ -559,7 +927,15 @@ public class RedisDataUtil {
 			JedisCommands jedis,
 			String key, Object data, Class<?> dataClass, boolean isUseCompress
 			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
-		return jedis.rpush(key, serializeDataToString(data, dataClass, isUseCompress));
+		return rpush(new JedisCommandsTransport(jedis), key, data, dataClass, isUseCompress);
+	}
+	public static long rpush(
+			IRedisTransport transport,
+			String key, Object data, Class<?> dataClass, boolean isUseCompress
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		String value = serializeDataToString(data, dataClass, isUseCompress);
+		profile(key, null, value);
+		return transport.rpush(key, value);
 	}
 
 	public static long lpush(
@@ -572,7 +948,15 @@ public class RedisDataUtil {
 			JedisCommands jedis,
 			String key, Object data, Class<?> dataClass, boolean isUseCompress
 			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
-		return jedis.lpush(key, serializeDataToString(data, dataClass, isUseCompress));
+		return lpush(new JedisCommandsTransport(jedis), key, data, dataClass, isUseCompress);
+	}
+	public static long lpush(
+			IRedisTransport transport,
+			String key, Object data, Class<?> dataClass, boolean isUseCompress
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		String value = serializeDataToString(data, dataClass, isUseCompress);
+		profile(key, null, value);
+		return transport.lpush(key, value);
 	}
 	
 	public static Object hdel(
@@ -585,7 +969,13 @@ public class RedisDataUtil {
 			JedisCommands jedis,
 			String key, String field
 			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException {
-		return jedis.hdel(key, field);
+		return hdel(new JedisCommandsTransport(jedis), key, field);
+	}
+	public static long hdel(
+			IRedisTransport transport,
+			String key, String field
+			) {
+		return transport.hdel(key, field);
 	}
 
 	public static String hget(
@@ -598,7 +988,15 @@ public class RedisDataUtil {
 			JedisCommands jedis,
 			String key, String field, boolean isUseCompress
 			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
-		return decodeString(jedis.hget(key, field), isUseCompress);
+		return hget(new JedisCommandsTransport(jedis), key, field, isUseCompress);
+	}
+	public static String hget(
+			IRedisTransport transport,
+			String key, String field, boolean isUseCompress
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		String value = transport.hget(key, field);
+		profile(key, field, value);
+		return decodeString(value, isUseCompress);
 	}
 
 	public static long hset(
@@ -611,7 +1009,15 @@ public class RedisDataUtil {
 			JedisCommands jedis,
 			String key, String field, String value, boolean isUseCompress 
 			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
-		return jedis.hset(key, field, encodeString(value, isUseCompress));
+		return hset(new JedisCommandsTransport(jedis), key, field, value, isUseCompress);
+	}
+	public static long hset(
+			IRedisTransport transport,
+			String key, String field, String value, boolean isUseCompress 
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		String encoded = encodeString(value, isUseCompress);
+		profile(key, field, encoded);
+		return transport.hset(key, field, encoded);
 	}
 	
 	public static Object hget(
@@ -639,7 +1045,40 @@ public class RedisDataUtil {
 			String key, String field, Class<?> dataClass, boolean isUseCompress, 
 			ClassFinder classFinder
 			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
-		return deserializeData(jedis.hget(key, field), dataClass, isUseCompress, classFinder);
+		return hget(new JedisCommandsTransport(jedis), key, field, dataClass, isUseCompress, classFinder);
+	}
+	public static Object hget(
+			IRedisTransport transport,
+			String key, String field, Class<?> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		String value = transport.hget(key, field);
+		profile(key, field, value);
+		return deserializeData(value, dataClass, isUseCompress, classFinder);
+	}
+
+	public static LazyData hgetLazy(
+			Jedis jedis,
+			String key, String field, Class<?> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder
+			) {
+		return hgetLazy((JedisCommands)jedis, key, field, dataClass, isUseCompress, classFinder);
+	}
+	public static LazyData hgetLazy(
+			JedisCommands jedis,
+			String key, String field, Class<?> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder
+			) {
+		return hgetLazy(new JedisCommandsTransport(jedis), key, field, dataClass, isUseCompress, classFinder);
+	}
+	public static LazyData hgetLazy(
+			IRedisTransport transport,
+			String key, String field, Class<?> dataClass, boolean isUseCompress, 
+			ClassFinder classFinder
+			) {
+		String value = transport.hget(key, field);
+		profile(key, field, value);
+		return toLazyData(value, dataClass, isUseCompress, classFinder);
 	}
 
 	public static long hset(
@@ -652,21 +1091,200 @@ public class RedisDataUtil {
 			JedisCommands jedis,
 			String key, String field, Object data, Class<?> dataClass, boolean isUseCompress 
 			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
-		return jedis.hset(key, field, serializeDataToString(data, dataClass, isUseCompress));
+		return hset(new JedisCommandsTransport(jedis), key, field, data, dataClass, isUseCompress);
+	}
+	public static long hset(
+			IRedisTransport transport,
+			String key, String field, Object data, Class<?> dataClass, boolean isUseCompress 
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		String value = serializeDataToString(data, dataClass, isUseCompress);
+		profile(key, field, value);
+		return transport.hset(key, field, value);
+	}
+	
+	/**
+	 * Add data into sorted set with score extracted from it. 
+	 * Member is the xml of data encoded in a fixed algorithm(LZF if isUseCompress, see encodeZsetMember()), 
+	 * so equal data(in xml) are stored as one member.
+	 */
+	public static <T> long zadd(
+			Jedis jedis,
+			String key, T data, Class<?> dataClass, boolean isUseCompress, 
+			IScoreExtractor<? super T> scoreExtractor
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		return zadd((JedisCommands)jedis, key, data, dataClass, isUseCompress, scoreExtractor);
+	}
+	public static <T> long zadd(
+			JedisCommands jedis,
+			String key, T data, Class<?> dataClass, boolean isUseCompress, 
+			IScoreExtractor<? super T> scoreExtractor
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		String member = encodeZsetMember(data, dataClass, isUseCompress);
+		profile(key, null, member);
+		return jedis.zadd(key, scoreExtractor.getScore(data), member);
+	}
+	
+	/**
+	 * Add data list into sorted set in one pipeline, with at most batchSize members in each ZADD.
+	 * @param batchSize must be positive
+	 * @return count of members added(not including the updated)
+	 * @throws IllegalArgumentException if batchSize is not positive
+	 */
+	public static <T> long zadd(
+			Jedis jedis,
+			String key, List<? extends T> dataList, Class<?> dataClass, boolean isUseCompress, 
+			IScoreExtractor<? super T> scoreExtractor, int batchSize
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		if(batchSize <= 0) {
+			throw new IllegalArgumentException("batchSize must be positive:" + batchSize);
+		}
+		
+		//encode all before pipelining, so that the connection is not left with unread replies when encoding fails
+		List<Map<String, Double>> batchList = new ArrayList<Map<String, Double>>(dataList.size() / batchSize + 1);
+		int fromIndex = 0;
+		while(fromIndex < dataList.size()) {
+			int toIndex = Math.min(fromIndex + batchSize, dataList.size());
+			Map<String, Double> scoreMembers = new LinkedHashMap<String, Double>((toIndex - fromIndex) * 2);
+			for(int i = fromIndex; i < toIndex; i++) {
+				T data = dataList.get(i);
+				String member = encodeZsetMember(data, dataClass, isUseCompress);
+				profile(key, null, member);
+				scoreMembers.put(member, scoreExtractor.getScore(data));
+			}
+			batchList.add(scoreMembers);
+			
+			fromIndex = toIndex;
+		}
+		
+		List<Response<Long>> responseList = new ArrayList<Response<Long>>(batchList.size());
+		Pipeline pipeline = jedis.pipelined();
+		for(Map<String, Double> scoreMembers : batchList) {
+			responseList.add(pipeline.zadd(key, scoreMembers));
+		}
+		pipeline.sync();
+		
+		long addedCount = 0;
+		for(Response<Long> response : responseList) {
+			addedCount += response.get();
+		}
+		return addedCount;
+	}
+	
+	/**
+	 * @return data in order of score
+	 */
+	public static List<Object> zrangeByScore(
+			Jedis jedis,
+			String key, double min, double max, 
+			Class<?> dataClass, boolean isUseCompress, ClassFinder classFinder
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		return zrangeByScore((JedisCommands)jedis, key, min, max, dataClass, isUseCompress, classFinder);
+	}
+	public static List<Object> zrangeByScore(
+			JedisCommands jedis,
+			String key, double min, double max, 
+			Class<?> dataClass, boolean isUseCompress, ClassFinder classFinder
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		return decodeZsetMembers(jedis.zrangeByScore(key, min, max), dataClass, isUseCompress, classFinder);
+	}
+	
+	/**
+	 * @return data in order of score, at most count from offset
+	 */
+	public static List<Object> zrangeByScore(
+			Jedis jedis,
+			String key, double min, double max, int offset, int count,
+			Class<?> dataClass, boolean isUseCompress, ClassFinder classFinder
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		return zrangeByScore((JedisCommands)jedis, key, min, max, offset, count, dataClass, isUseCompress, classFinder);
+	}
+	public static List<Object> zrangeByScore(
+			JedisCommands jedis,
+			String key, double min, double max, int offset, int count,
+			Class<?> dataClass, boolean isUseCompress, ClassFinder classFinder
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		return decodeZsetMembers(jedis.zrangeByScore(key, min, max, offset, count), dataClass, isUseCompress, classFinder);
+	}
+	
+	/**
+	 * The member must be the same for equal data whenever it is written, otherwise ZADD adds a duplicate instead of updating the score.
+	 * So it is not transformed by TagDictionary nor compressed by AdaptiveCompressSelector or the default compress algorithm, 
+	 * which may change with settings. It is only affected by the xml of dataClass(e.g. a property added) and the LZF library.
+	 */
+	private static String encodeZsetMember(Object data, Class<?> dataClass, boolean isUseCompress) 
+			throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		return encodeString(serializeDataXml(data, dataClass), 
+				isUseCompress ? ZSET_MEMBER_COMPRESS_ALGORITHM : CompressAlgorithm.NotCompress);
+	}
+	
+	private static List<Object> decodeZsetMembers(Collection<String> members, Class<?> dataClass, boolean isUseCompress, ClassFinder classFinder) 
+			throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		CompressAlgorithm compressAlgorithm = isUseCompress ? ZSET_MEMBER_COMPRESS_ALGORITHM : CompressAlgorithm.NotCompress;
+		StreamingBeanDecoder decoder = getStreamingDecoder(dataClass);
+		List<Object> dataList = new ArrayList<Object>(members.size());
+		for(String member : members) {
+			byte[] bytes = decodeStringBytes(member.getBytes(_charset), compressAlgorithm);
+			dataList.add(deserializeDataBytes(bytes, dataClass, classFinder, decoder));
+		}
+		return dataList;
+	}
+	
+	public static long zremrangeByScore(
+			Jedis jedis,
+			String key, double min, double max
+			) {
+		return zremrangeByScore((JedisCommands)jedis, key, min, max);
+	}
+	public static long zremrangeByScore(
+			JedisCommands jedis,
+			String key, double min, double max
+			) {
+		return jedis.zremrangeByScore(key, min, max);
 	}
 	
+	/**
+	 * When compressing, xml is transformed by TagDictionary of dataClass if it is registered(see TagDictionaries).
+	 */
 	public static String serializeDataToString(Object data, Class<?> dataClass, boolean isUseCompress) 
 			throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
-		String dataXml = XmlSerializer.objectToString(data, dataClass);
+		String dataXml = serializeDataXml(data, dataClass);
+		if(isUseCompress) {
+			dataXml = TagDictionaries.transform(dataXml, dataClass);
+		}
+		
+		AdaptiveCompressSelector selector = _adaptiveCompressSelector;
+		if(isUseCompress && selector != null && dataXml.length() > 0) {
+			return new String(selector.encode(dataClass.getName(), dataXml.getBytes(_charset)), _charset);
+		}
 		return encodeString(dataXml, isUseCompress);
 	}
 	
 	public static byte[] serializeData(Object data, Class<?> dataClass, boolean isUseCompress) 
 			throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
-		String dataXml = XmlSerializer.objectToString(data, dataClass);
+		String dataXml = serializeDataXml(data, dataClass);
+		if(isUseCompress) {
+			dataXml = TagDictionaries.transform(dataXml, dataClass);
+		}
 		
+		AdaptiveCompressSelector selector = _adaptiveCompressSelector;
+		if(isUseCompress && selector != null) {
+			return selector.encode(dataClass.getName(), dataXml.getBytes(_charset));
+		}
 		return encodeStringBytes(dataXml.getBytes(_charset), isUseCompress);
 	}
+	
+	/**
+	 * Generated codec(see RedisData annotation) is used if exists, otherwise MetoXML.
+	 */
+	public static String serializeDataXml(Object data, Class<?> dataClass) 
+			throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException {
+		IDataCodec codec = DataCodecs.getCodec(dataClass);
+		if(codec != null) {
+			return codec.serialize(data);
+		} else {
+			return XmlSerializer.objectToString(data, dataClass);
+		}
+	}
 
 	public static Object deserializeData(String str, Class<?> dataClass, boolean isUseCompress) 
 			throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
@@ -688,31 +1306,172 @@ public class RedisDataUtil {
 			return null;
 		}
 		
-		String dataXml = decodeString(str, isUseCompress);
+		StreamingBeanDecoder decoder = getStreamingDecoder(dataClass);
+		if(decoder != null) {
+			byte[] bytes = decodeStringBytes(str.getBytes(_charset), getDecodeCompressAlgorithm(str, isUseCompress));
+			return deserializeDataBytes(bytes, dataClass, classFinder, decoder);
+		}
+		
+		String dataXml = decodeDataXml(str, dataClass, isUseCompress);
 		return deserializeDataXml(dataXml, dataClass, classFinder);
 	}
 	
 	public static Object deserializeData(byte[] dataBytes, Class<?> dataClass, boolean isUseCompress, ClassFinder classFinder) 
 			throws IOException, Base64FormatException, XmlParseException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, CompressException {
 		byte[] bytes = decodeStringBytes(dataBytes, isUseCompress);
-		String dataXml = new String(bytes, _charset);
+		return deserializeDataBytes(bytes, dataClass, classFinder, getStreamingDecoder(dataClass));
+	}
 	
+	/**
+	 * Xml bytes are decoded by StreamingBeanDecoder directly if it is not null and the xml is not transformed by TagDictionary.
+	 * MetoXML is used when StreamingBeanDecoder fails(e.g. a property element has child elements).
+	 */
+	private static Object deserializeDataBytes(byte[] bytes, Class<?> dataClass, ClassFinder classFinder, StreamingBeanDecoder decoder) 
+			throws IOException, XmlParseException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException {
+		if(decoder != null && !TagDictionary.isTransformed(bytes)) {
+			try {
+				return decoder.decode(bytes, 0, bytes.length);
+			} catch (IOException e) {
+				//decoded by MetoXML below
+			}
+		}
+		
+		String dataXml = TagDictionaries.restore(new String(bytes, _charset), dataClass);
 		return deserializeDataXml(dataXml, dataClass, classFinder);
 	}
 	
-	private final static Object deserializeDataXml(String dataXml, Class<?> dataClass, ClassFinder classFinder) throws IOException, XmlParseException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException {
+	/**
+	 * @return null if generated codec exists(which is preferred) or the class is not supported by StreamingBeanDecoder
+	 */
+	private static StreamingBeanDecoder getStreamingDecoder(Class<?> dataClass) {
+		if(DataCodecs.getCodec(dataClass) != null) {
+			return null;
+		}
+		return StreamingBeanDecoder.getDecoder(dataClass);
+	}
+	
+	/**
+	 * decompress(if needed) the value, and restore it if it was transformed by TagDictionary.
+	 */
+	final static String decodeDataXml(String str, Class<?> dataClass, boolean isUseCompress) throws IOException, Base64FormatException, CompressException {
+		return TagDictionaries.restore(decodeString(str, isUseCompress), dataClass);
+	}
+	
+	final static Object deserializeDataXml(String dataXml, Class<?> dataClass, ClassFinder classFinder) throws IOException, XmlParseException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException {
+		IDataCodec codec = DataCodecs.getCodec(dataClass);
+		if(codec != null) {
+			return codec.deserialize(dataXml);
+		}
+		
 		Object data = XmlDeserializer.stringToObject(dataXml, dataClass, classFinder);
 		checkClassFinder(data, classFinder);
 		
 		return data;
 	}
 	
+	/**
+	 * Deserialize elements of list, and split them into several parts to decode in parallel when decodeExecutor is not null.
+	 * @param dataClass null means the element is decoded as String 
+	 * @return
+	 * @throws RedisDataException wraps the exception thrown in decoding
+	 */
+	public static List<Object> deserializeDataList(
+			final List<String> strList, 
+			final Class<?> dataClass, final boolean isUseCompress, final ClassFinder classFinder,
+			ExecutorService decodeExecutor, int parallelism
+			) {
+		if(strList == null) {
+			return null;
+		}
+		
+		final int size = strList.size();
+		final Object[] values = new Object[size];
+		int partCount = Math.min(parallelism, size);
+		if(decodeExecutor == null || partCount <= 1) {
+			decodeDataListPart(strList, values, 0, size, dataClass, isUseCompress, classFinder);
+		} else {
+			final int partSize = (size + partCount - 1) / partCount;
+			List<Future<?>> futureList = new ArrayList<Future<?>>(partCount);
+			
+			//parts after the first are submitted, and the first part is decoded in current thread while they run
+			int partStart = partSize;
+			while(partStart < size) {
+				final int fromIndex = partStart;
+				final int toIndex = Math.min(partStart + partSize, size);
+				futureList.add(decodeExecutor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						decodeDataListPart(strList, values, fromIndex, toIndex, dataClass, isUseCompress, classFinder);
+						return null;
+					}
+				}));
+				
+				partStart = toIndex;
+			}
+			decodeDataListPart(strList, values, 0, Math.min(partSize, size), dataClass, isUseCompress, classFinder);
+			
+			for(Future<?> future : futureList) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RedisDataException(e);
+				} catch (ExecutionException e) {
+					if(e.getCause() instanceof RedisDataException) {
+						throw (RedisDataException) e.getCause();
+					}
+					throw new RedisDataException(e.getCause());
+				}
+			}
+		}
+		
+		List<Object> valueList = new ArrayList<Object>(size);
+		for(int i = 0; i < size; i++) {
+			valueList.add(values[i]);
+		}
+		return valueList;
+	}
+	
+	private static void decodeDataListPart(
+			List<String> strList, Object[] values, int fromIndex, int toIndex,
+			Class<?> dataClass, boolean isUseCompress, ClassFinder classFinder
+			) {
+		try {
+			for(int i = fromIndex; i < toIndex; i++) {
+				if(dataClass == null) {
+					values[i] = decodeString(strList.get(i), isUseCompress);
+				} else {
+					values[i] = deserializeData(strList.get(i), dataClass, isUseCompress, classFinder);
+				}
+			}
+		} catch(RuntimeException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new RedisDataException(e);
+		}
+	}
+	
+	public static LazyData toLazyData(String str, Class<?> dataClass, boolean isUseCompress, ClassFinder classFinder) {
+		if(str == null) {
+			return null;
+		}
+		
+		return new LazyData(str, dataClass, isUseCompress, classFinder);
+	}
+	
 	public static String encodeString(String string, boolean isUseCompress) throws IOException, CompressException {
 		if(string == null || string.length() == 0) {
 			return string;
 		}
 		
-		CompressAlgorithm compressAlgorithm = (isUseCompress?_defaultCompressAlgorithm : CompressAlgorithm.NotCompress);
+		return encodeString(string, isUseCompress?_defaultCompressAlgorithm : CompressAlgorithm.NotCompress);
+	}
+	
+	public static String encodeString(String string, CompressAlgorithm compressAlgorithm) throws IOException, CompressException {
+		if(string == null || string.length() == 0) {
+			return string;
+		}
+		
 		if(compressAlgorithm == CompressAlgorithm.NotCompress) {
 			return string;
 		} else {
@@ -752,7 +1511,14 @@ public class RedisDataUtil {
 			return string;
 		}
 		
-		CompressAlgorithm compressAlgorithm = (isUseCompress?_defaultCompressAlgorithm : CompressAlgorithm.NotCompress);
+		return decodeString(string, getDecodeCompressAlgorithm(string, isUseCompress));
+	}
+	
+	public static String decodeString(String string, CompressAlgorithm compressAlgorithm) throws IOException, Base64FormatException, CompressException {
+		if(string == null || string.length() == 0) {
+			return string;
+		}
+		
 		if(compressAlgorithm == CompressAlgorithm.NotCompress) {
 			return string;
 		} else {
@@ -760,8 +1526,41 @@ public class RedisDataUtil {
 		}
 	}
 	
+	/**
+	 * Decode the value in the compress algorithm detected, then encode it in targetAlgorithm.
+	 * @return the value itself if it is already in targetAlgorithm
+	 */
+	public static String recodeString(String value, CompressAlgorithm targetAlgorithm) throws IOException, Base64FormatException, CompressException {
+		if(value == null || value.length() == 0) {
+			return value;
+		}
+		
+		CompressAlgorithm valueAlgorithm = detectValueCompressAlgorithm(value);
+		if(valueAlgorithm == targetAlgorithm) {
+			return value;
+		}
+		
+		return encodeString(decodeString(value, valueAlgorithm), targetAlgorithm);
+	}
+	
 	public static byte[] decodeStringBytes(byte[] stringBytes, boolean isUseCompress) throws IOException, Base64FormatException, CompressException {
-		return decodeStringBytes(stringBytes, isUseCompress?_defaultCompressAlgorithm : CompressAlgorithm.NotCompress);
+		CompressAlgorithm compressAlgorithm;
+		if(isUseCompress && _isDetectCompressAlgorithmOnDecode) {
+			compressAlgorithm = detectValueCompressAlgorithm(stringBytes);
+		} else {
+			compressAlgorithm = isUseCompress?_defaultCompressAlgorithm : CompressAlgorithm.NotCompress;
+		}
+		return decodeStringBytes(stringBytes, compressAlgorithm);
+	}
+	
+	private static CompressAlgorithm getDecodeCompressAlgorithm(String value, boolean isUseCompress) {
+		if(!isUseCompress) {
+			return CompressAlgorithm.NotCompress;
+		} else if(_isDetectCompressAlgorithmOnDecode) {
+			return detectValueCompressAlgorithm(value);
+		} else {
+			return _defaultCompressAlgorithm;
+		}
 	}
 	
 	public static byte[] decodeStringBytes(byte[] stringBytes, CompressAlgorithm compressAlgorithm) throws IOException, Base64FormatException, CompressException {
@@ -773,13 +1572,8 @@ public class RedisDataUtil {
 				compressor = _compressorOfGZIP;
 			}
 			
-			//decode from base64
-			ByteArrayOutputStream bytesDecoded = new ByteArrayOutputStream();
-			Base64Decoder base64 = new Base64Decoder(new ByteArrayInputStream(stringBytes), bytesDecoded);
-			base64.process();
-			
-			//decompress
-			return compressor.decompress(bytesDecoded.toByteArray());
+			//decode from base64 directly into the array passed to decompressor
+			return compressor.decompress(Base64Util.decode(stringBytes));
 		} else {
 			return stringBytes;
 		}
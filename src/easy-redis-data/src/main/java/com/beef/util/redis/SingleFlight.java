@@ -0,0 +1,115 @@
+package com.beef.util.redis;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesce concurrent loadings of the same key: the first caller runs the loader,
+ * and the others arriving before it completes wait and receive the same result or exception.
+ * <br/>
+ * The result object is shared by all the callers, so it should not be modified.
+ * When count of in-flight keys reaches maxInFlight, new keys are loaded directly without coalescing.
+ * @author beef
+ *
+ */
+public class SingleFlight {
+	private final int _maxInFlight;
+	private final long _waitTimeoutMillis;
+
+	private final ConcurrentHashMap<String, Flight> _flightMap = new ConcurrentHashMap<String, Flight>();
+	private final AtomicLong _sharedCount = new AtomicLong();
+
+	/**
+	 * @param maxInFlight max count of keys being loaded
+	 * @param waitTimeoutMillis max time of waiting for the result loaded by other thread
+	 */
+	public SingleFlight(int maxInFlight, long waitTimeoutMillis) {
+		_maxInFlight = maxInFlight;
+		_waitTimeoutMillis = waitTimeoutMillis;
+	}
+
+	/**
+	 * @param flightKey
+	 * @param loader
+	 * @return result of loader, maybe loaded by other thread
+	 * @throws Exception thrown by loader
+	 * @throws RedisDataException when waiting timeout or interrupted
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T execute(String flightKey, Callable<T> loader) throws Exception {
+		Flight flight = _flightMap.get(flightKey);
+		if(flight == null) {
+			if(_flightMap.size() >= _maxInFlight) {
+				return loader.call();
+			}
+
+			Flight newFlight = new Flight();
+			flight = _flightMap.putIfAbsent(flightKey, newFlight);
+			if(flight == null) {
+				return (T) runFlight(flightKey, newFlight, loader);
+			}
+		}
+
+		_sharedCount.incrementAndGet();
+		return (T) flight.await(flightKey, _waitTimeoutMillis);
+	}
+
+	/**
+	 * @return count of callers which received result loaded by other thread
+	 */
+	public long getSharedCount() {
+		return _sharedCount.get();
+	}
+
+	public int getInFlightCount() {
+		return _flightMap.size();
+	}
+
+	private Object runFlight(String flightKey, Flight flight, Callable<?> loader) throws Exception {
+		try {
+			flight._result = loader.call();
+		} catch(Exception e) {
+			flight._error = e;
+		} catch(Error e) {
+			flight._error = e;
+		} finally {
+			_flightMap.remove(flightKey, flight);
+			flight._latch.countDown();
+		}
+
+		return flight.getResult();
+	}
+
+	private static class Flight {
+		private final CountDownLatch _latch = new CountDownLatch(1);
+		//visibility is guaranteed by the latch
+		private Object _result;
+		private Throwable _error;
+
+		public Object await(String flightKey, long timeoutMillis) throws Exception {
+			try {
+				if(!_latch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+					throw new RedisDataException("Timeout in waiting for loading of key:" + flightKey);
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RedisDataException(e);
+			}
+
+			return getResult();
+		}
+
+		public Object getResult() throws Exception {
+			if(_error == null) {
+				return _result;
+			} else if(_error instanceof Error) {
+				throw (Error) _error;
+			} else {
+				throw (Exception) _error;
+			}
+		}
+	}
+}
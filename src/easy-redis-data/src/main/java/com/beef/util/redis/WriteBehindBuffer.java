@@ -0,0 +1,361 @@
+package com.beef.util.redis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+/**
+ * Write-behind buffer of set/setex. Repeated writes of the same key before flushing are coalesced,
+ * and only the latest data is encoded and sent. Data is encoded in flushing, so it should not be modified after passed in.
+ * Pending writes are flushed in pipelines by a background thread every flushInterval, and in close().
+ * <br/>
+ * Keys being flushed are counted as pending until their pipeline succeeds, so count of pending keys(including the ones put back after failure)
+ * does not exceed maxPendingKeys. When it reaches maxPendingKeys, writers of new keys are blocked until flushing frees space.
+ * Writes failed in flushing are put back to be retried in the next flush unless the key has been written again.
+ * <br/>
+ * Reading through redis does not see the pending writes, use getPending() if it matters.
+ * @author beef
+ *
+ */
+public class WriteBehindBuffer {
+	private final RedisDataClient _client;
+	private final int _maxPendingKeys;
+	private final int _pipelineSize;
+
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _notFull = _lock.newCondition();
+	private LinkedHashMap<String, PendingWrite> _pendingMap = new LinkedHashMap<String, PendingWrite>();
+	/** writes taken by the flushing in progress, removed when their pipeline succeeds */
+	private Map<String, PendingWrite> _flushingMap = new HashMap<String, PendingWrite>();
+	private boolean _isClosed = false;
+
+	//not monitor, so that virtual threads are not pinned while sending
+	private final ReentrantLock _flushLock = new ReentrantLock();
+	private final ScheduledExecutorService _scheduler;
+
+	private final AtomicLong _writeCount = new AtomicLong();
+	private final AtomicLong _sentCount = new AtomicLong();
+	private final AtomicLong _failedCount = new AtomicLong();
+	private volatile Exception _lastError = null;
+
+	/**
+	 * @param client
+	 * @param flushIntervalMillis
+	 * @param maxPendingKeys
+	 * @param pipelineSize max count of commands in one pipeline
+	 */
+	public WriteBehindBuffer(RedisDataClient client, long flushIntervalMillis, int maxPendingKeys, int pipelineSize) {
+		this(client, flushIntervalMillis, maxPendingKeys, pipelineSize, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "WriteBehindBuffer-flush");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param threadFactory factory of the flushing thread(e.g. virtual thread factory on Java 21)
+	 */
+	public WriteBehindBuffer(RedisDataClient client, long flushIntervalMillis, int maxPendingKeys, int pipelineSize,
+			ThreadFactory threadFactory) {
+		_client = client;
+		_maxPendingKeys = maxPendingKeys;
+		_pipelineSize = pipelineSize;
+
+		_scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		_scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch(Exception e) {
+					//flush() records error and puts back the failed writes
+				}
+			}
+		}, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void set(String key, Object data, Class<?> dataClass, boolean isUseCompress) throws InterruptedException {
+		setex(key, 0, data, dataClass, isUseCompress);
+	}
+
+	/**
+	 * @param key
+	 * @param seconds 0 means no expiration
+	 * @param data
+	 * @param dataClass
+	 * @param isUseCompress
+	 * @throws InterruptedException when interrupted in waiting for space
+	 * @throws IllegalStateException when buffer is closed
+	 */
+	public void setex(
+			String key, int seconds,
+			Object data, Class<?> dataClass, boolean isUseCompress
+			) throws InterruptedException {
+		PendingWrite write = new PendingWrite(data, dataClass, isUseCompress, seconds);
+
+		_lock.lock();
+		try {
+			while(!_isClosed && _pendingMap.size() + _flushingMap.size() >= _maxPendingKeys && !_pendingMap.containsKey(key)) {
+				_notFull.await();
+			}
+			if(_isClosed) {
+				throw new IllegalStateException("WriteBehindBuffer is closed");
+			}
+
+			_pendingMap.put(key, write);
+		} finally {
+			_lock.unlock();
+		}
+
+		_writeCount.incrementAndGet();
+	}
+
+	/**
+	 * @param key
+	 * @return data not flushed yet(including the one being flushed), or null
+	 */
+	public Object getPending(String key) {
+		_lock.lock();
+		try {
+			PendingWrite write = _pendingMap.get(key);
+			if(write == null) {
+				write = _flushingMap.get(key);
+			}
+			return (write == null) ? null : write._data;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return count of keys not flushed yet, including the ones being flushed
+	 */
+	public int getPendingCount() {
+		_lock.lock();
+		try {
+			return _pendingMap.size() + _flushingMap.size();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * @return count of set/setex called
+	 */
+	public long getWriteCount() {
+		return _writeCount.get();
+	}
+
+	/**
+	 * @return count of commands sent to redis, less than writeCount by the count of coalesced writes
+	 */
+	public long getSentCount() {
+		return _sentCount.get();
+	}
+
+	public long getFailedCount() {
+		return _failedCount.get();
+	}
+
+	public Exception getLastError() {
+		return _lastError;
+	}
+
+	/**
+	 * Send all pending writes.
+	 * @throws RedisDataException when some writes failed(they are put back to retry)
+	 */
+	public void flush() {
+		_flushLock.lock();
+		try {
+			List<String> flushKeyList;
+			_lock.lock();
+			try {
+				if(_pendingMap.isEmpty()) {
+					return;
+				}
+				//still visible and counted in _flushingMap, so no space is freed here
+				flushKeyList = new ArrayList<String>(_pendingMap.keySet());
+				_flushingMap = _pendingMap;
+				_pendingMap = new LinkedHashMap<String, PendingWrite>();
+			} finally {
+				_lock.unlock();
+			}
+
+			//_flushingMap is only modified by the flushing thread(under _lock), so it is read here without lock
+			Map<String, PendingWrite> writeMap = _flushingMap;
+			Exception error = null;
+			List<String> keyList = new ArrayList<String>(_pipelineSize);
+			List<String> valueList = new ArrayList<String>(_pipelineSize);
+			for(int k = 0; k < flushKeyList.size(); k++) {
+				String key = flushKeyList.get(k);
+				PendingWrite write = writeMap.get(key);
+				try {
+					valueList.add(RedisDataUtil.serializeDataToString(write._data, write._dataClass, write._isUseCompress));
+					keyList.add(key);
+				} catch(Exception e) {
+					//encoding would fail again, so it is dropped
+					_failedCount.incrementAndGet();
+					_lastError = e;
+					error = e;
+					removeFlushing(key);
+				}
+
+				if(keyList.size() >= _pipelineSize || k == flushKeyList.size() - 1) {
+					try {
+						sendPipeline(keyList, valueList, writeMap);
+						removeFlushing(keyList);
+					} catch(Exception e) {
+						_failedCount.addAndGet(keyList.size());
+						_lastError = e;
+						error = e;
+						putBack(keyList);
+					}
+					keyList.clear();
+					valueList.clear();
+				}
+			}
+
+			if(error != null) {
+				throw new RedisDataException("Flushing failed", error);
+			}
+		} finally {
+			_flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Stop accepting writes, and flush the pending writes.
+	 * @throws RedisDataException when the final flush failed
+	 */
+	public void close() {
+		_lock.lock();
+		try {
+			_isClosed = true;
+			_notFull.signalAll();
+		} finally {
+			_lock.unlock();
+		}
+
+		_scheduler.shutdown();
+		try {
+			_scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		flush();
+	}
+
+	private void sendPipeline(
+			final List<String> keyList, final List<String> valueList,
+			final Map<String, PendingWrite> writeMap) {
+		if(keyList.isEmpty()) {
+			return;
+		}
+
+		_client.execute(new IJedisCallback<Object>() {
+			@Override
+			public Object doInJedis(Jedis jedis) {
+				Pipeline pipeline = jedis.pipelined();
+				for(int i = 0; i < keyList.size(); i++) {
+					String key = keyList.get(i);
+					int seconds = writeMap.get(key)._seconds;
+					if(seconds > 0) {
+						pipeline.setex(key, seconds, valueList.get(i));
+					} else {
+						pipeline.set(key, valueList.get(i));
+					}
+				}
+				pipeline.sync();
+				return null;
+			}
+		});
+		_sentCount.addAndGet(keyList.size());
+
+		MissingKeyCache missingKeyCache = _client.getMissingKeyCache();
+		MappedSegmentCache localCache = _client.getLocalCache();
+		for(int i = 0; i < keyList.size(); i++) {
+			if(missingKeyCache != null) {
+				missingKeyCache.invalidate(keyList.get(i));
+			}
+			if(localCache != null) {
+				localCache.invalidate(keyList.get(i));
+			}
+		}
+	}
+
+	private void removeFlushing(String key) {
+		_lock.lock();
+		try {
+			_flushingMap.remove(key);
+			_notFull.signalAll();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	private void removeFlushing(List<String> keyList) {
+		if(keyList.isEmpty()) {
+			return;
+		}
+
+		_lock.lock();
+		try {
+			for(int i = 0; i < keyList.size(); i++) {
+				_flushingMap.remove(keyList.get(i));
+			}
+			_notFull.signalAll();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * Move failed writes from _flushingMap back to _pendingMap, so count of pending keys does not grow.
+	 */
+	private void putBack(List<String> keyList) {
+		_lock.lock();
+		try {
+			for(int i = 0; i < keyList.size(); i++) {
+				String key = keyList.get(i);
+				PendingWrite write = _flushingMap.remove(key);
+				if(!_pendingMap.containsKey(key)) {
+					_pendingMap.put(key, write);
+				}
+			}
+			_notFull.signalAll();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	private static class PendingWrite {
+		private final Object _data;
+		private final Class<?> _dataClass;
+		private final boolean _isUseCompress;
+		private final int _seconds;
+
+		public PendingWrite(Object data, Class<?> dataClass, boolean isUseCompress, int seconds) {
+			_data = data;
+			_dataClass = dataClass;
+			_isUseCompress = isUseCompress;
+			_seconds = seconds;
+		}
+	}
+}
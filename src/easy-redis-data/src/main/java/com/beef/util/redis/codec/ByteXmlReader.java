@@ -0,0 +1,288 @@
+package com.beef.util.redis.codec;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Pull reader of xml written by MetoXML(elements without attributes) in UTF-8 bytes, such as the output of decompressor.
+ * Element names are matched against a table of names in bytes, so no string is built for element names or skipped elements,
+ * and text is decoded only when read.
+ * <br/>
+ * Usage is the same as SimpleXmlReader except that nextChildElement() returns index of name in the table,
+ * and readText() throws IOException on child elements.
+ * @author beef
+ *
+ */
+public class ByteXmlReader {
+	public final static int END_OF_ELEMENT = -1;
+	public final static int UNKNOWN_ELEMENT = -2;
+
+	private final static Charset CHARSET_UTF8 = Charset.forName("utf-8");
+	private final static byte[] CDATA_START = toAsciiBytes("<![CDATA[");
+	private final static byte[] CDATA_END = toAsciiBytes("]]>");
+	private final static byte[] COMMENT_START = toAsciiBytes("<!--");
+	private final static byte[] COMMENT_END = toAsciiBytes("-->");
+	private final static byte[] DECLARATION_END = toAsciiBytes("?>");
+	private final static byte[] TAG_END = toAsciiBytes(">");
+
+	private final byte[] _bytes;
+	private final int _end;
+	private int _pos;
+	private boolean _isEmptyElement = false;
+	/** index of name matched last time, elements are usually in the same order as the table */
+	private int _lastNameIndex = -1;
+
+	public ByteXmlReader(byte[] bytes, int offset, int length) {
+		_bytes = bytes;
+		_pos = offset;
+		_end = offset + length;
+	}
+
+	/**
+	 * Skip declaration and comments, and read the start tag of root element.
+	 * @throws IOException
+	 */
+	public void readRootElement() throws IOException {
+		if(nextChildElement(new byte[0][]) == END_OF_ELEMENT) {
+			throw new IOException("Root element not found");
+		}
+	}
+
+	/**
+	 * Move to the next start tag in current element.
+	 * @param names table of element names in UTF-8
+	 * @return index of name in table, UNKNOWN_ELEMENT if not in table,
+	 * or END_OF_ELEMENT when reaches the end tag of current element(which is consumed)
+	 * @throws IOException
+	 */
+	public int nextChildElement(byte[][] names) throws IOException {
+		while(true) {
+			int tagStart = indexOf('<', _pos);
+			if(tagStart < 0 || tagStart + 1 >= _end) {
+				_pos = _end;
+				return END_OF_ELEMENT;
+			}
+
+			byte b = _bytes[tagStart + 1];
+			if(b == '/') {
+				_pos = findTagEnd(tagStart) + 1;
+				return END_OF_ELEMENT;
+			} else if(b == '?' || b == '!') {
+				_pos = skipSpecial(tagStart);
+			} else {
+				return readStartTag(tagStart, names);
+			}
+		}
+	}
+
+	/**
+	 * Read text of current element and consume its end tag.
+	 * @return text unescaped
+	 * @throws IOException if the element has child elements, which means it is not a scalar value
+	 */
+	public String readText() throws IOException {
+		if(_isEmptyElement) {
+			_isEmptyElement = false;
+			return "";
+		}
+
+		StringBuilder text = null;
+		int textStart = _pos;
+		while(true) {
+			int tagStart = indexOf('<', _pos);
+			if(tagStart < 0 || tagStart + 1 >= _end) {
+				throw new IOException("End tag not found");
+			}
+
+			byte b = _bytes[tagStart + 1];
+			if(b == '/') {
+				String lastPart = decodeText(textStart, tagStart);
+				_pos = findTagEnd(tagStart) + 1;
+				if(text == null) {
+					return lastPart;
+				} else {
+					text.append(lastPart);
+					return text.toString();
+				}
+			} else if(startsWith(CDATA_START, tagStart)) {
+				int cdataEnd = indexOf(CDATA_END, tagStart);
+				if(cdataEnd < 0) {
+					throw new IOException("CDATA not closed");
+				}
+
+				if(text == null) {
+					text = new StringBuilder();
+				}
+				text.append(decodeText(textStart, tagStart));
+				int cdataTextStart = tagStart + CDATA_START.length;
+				text.append(new String(_bytes, cdataTextStart, cdataEnd - cdataTextStart, CHARSET_UTF8));
+				_pos = cdataEnd + CDATA_END.length;
+				textStart = _pos;
+			} else if(b == '?' || b == '!') {
+				if(text == null) {
+					text = new StringBuilder();
+				}
+				text.append(decodeText(textStart, tagStart));
+				_pos = skipSpecial(tagStart);
+				textStart = _pos;
+			} else {
+				throw new IOException("Child element found in text at " + tagStart);
+			}
+		}
+	}
+
+	/**
+	 * Skip current element including its children.
+	 * @throws IOException
+	 */
+	public void skipElement() throws IOException {
+		if(_isEmptyElement) {
+			_isEmptyElement = false;
+			return;
+		}
+
+		skipToEndOfElement();
+	}
+
+	private void skipToEndOfElement() throws IOException {
+		int depth = 1;
+		while(depth > 0) {
+			int tagStart = indexOf('<', _pos);
+			if(tagStart < 0 || tagStart + 1 >= _end) {
+				throw new IOException("End tag not found");
+			}
+
+			byte b = _bytes[tagStart + 1];
+			if(b == '/') {
+				depth--;
+				_pos = findTagEnd(tagStart) + 1;
+			} else if(b == '?' || b == '!') {
+				_pos = skipSpecial(tagStart);
+			} else {
+				int tagEnd = findTagEnd(tagStart);
+				if(_bytes[tagEnd - 1] != '/') {
+					depth++;
+				}
+				_pos = tagEnd + 1;
+			}
+		}
+	}
+
+	private int readStartTag(int tagStart, byte[][] names) throws IOException {
+		int tagEnd = findTagEnd(tagStart);
+		int nameStart = tagStart + 1;
+		int nameEnd = nameStart;
+		while(nameEnd < tagEnd && !isNameEnd(_bytes[nameEnd])) {
+			nameEnd++;
+		}
+
+		_isEmptyElement = (_bytes[tagEnd - 1] == '/');
+		_pos = tagEnd + 1;
+
+		int nameLen = nameEnd - nameStart;
+		for(int i = 0; i < names.length; i++) {
+			int index = (_lastNameIndex + 1 + i) % names.length;
+			if(isNameMatched(names[index], nameStart, nameLen)) {
+				_lastNameIndex = index;
+				return index;
+			}
+		}
+		return UNKNOWN_ELEMENT;
+	}
+
+	private boolean isNameMatched(byte[] name, int nameStart, int nameLen) {
+		if(name.length != nameLen) {
+			return false;
+		}
+		for(int i = 0; i < nameLen; i++) {
+			if(name[i] != _bytes[nameStart + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String decodeText(int start, int end) {
+		for(int i = start; i < end; i++) {
+			if(_bytes[i] == '&') {
+				return SimpleXmlReader.unescape(new String(_bytes, start, end - start, CHARSET_UTF8));
+			}
+		}
+		return new String(_bytes, start, end - start, CHARSET_UTF8);
+	}
+
+	private int findTagEnd(int tagStart) throws IOException {
+		int tagEnd = indexOf('>', tagStart);
+		if(tagEnd < 0) {
+			throw new IOException("Tag not closed at " + tagStart);
+		}
+
+		return tagEnd;
+	}
+
+	/**
+	 * skip declaration, comment or CDATA
+	 * @return position after it
+	 */
+	private int skipSpecial(int tagStart) throws IOException {
+		byte[] endMark;
+		if(startsWith(COMMENT_START, tagStart)) {
+			endMark = COMMENT_END;
+		} else if(startsWith(CDATA_START, tagStart)) {
+			endMark = CDATA_END;
+		} else if(_bytes[tagStart + 1] == '?') {
+			endMark = DECLARATION_END;
+		} else {
+			endMark = TAG_END;
+		}
+
+		int end = indexOf(endMark, tagStart + 2);
+		if(end < 0) {
+			throw new IOException("Not closed at " + tagStart);
+		}
+
+		return end + endMark.length;
+	}
+
+	private int indexOf(char c, int from) {
+		for(int i = from; i < _end; i++) {
+			if(_bytes[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int indexOf(byte[] mark, int from) {
+		for(int i = from; i <= _end - mark.length; i++) {
+			if(startsWith(mark, i)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean startsWith(byte[] mark, int pos) {
+		if(pos + mark.length > _end) {
+			return false;
+		}
+		for(int i = 0; i < mark.length; i++) {
+			if(_bytes[pos + i] != mark[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isNameEnd(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '/' || b == '>';
+	}
+
+	private static byte[] toAsciiBytes(String str) {
+		byte[] bytes = new byte[str.length()];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) str.charAt(i);
+		}
+		return bytes;
+	}
+}
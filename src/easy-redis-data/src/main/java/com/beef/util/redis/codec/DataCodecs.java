@@ -0,0 +1,97 @@
+package com.beef.util.redis.codec;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.beef.util.redis.RedisDataException;
+
+/**
+ * Registry of IDataCodec. The codec generated by annotation processor is found by class name at the first time,
+ * and the result(even if not found) is cached. A generated class which can not be instantiated is an error, and not cached.
+ * Records are encoded by a reflective codec on Java 17+.
+ * @author beef
+ *
+ */
+public class DataCodecs {
+	public final static String GENERATED_CLASS_SUFFIX = "_RedisCodec";
+
+	/** cached for classes without codec, since ConcurrentHashMap does not accept null */
+	private final static Object NONE = new Object();
+
+	/** class -> IDataCodec or NONE */
+	private final static ConcurrentMap<Class<?>, Object> _codecMap = new ConcurrentHashMap<Class<?>, Object>();
+	private static volatile boolean _isEnabled = true;
+
+	/**
+	 * @param isEnabled false means always using reflection. Default true.
+	 */
+	public static void setEnabled(boolean isEnabled) {
+		_isEnabled = isEnabled;
+	}
+
+	public static void register(Class<?> dataClass, IDataCodec codec) {
+		_codecMap.put(dataClass, codec);
+	}
+
+	/**
+	 * @param dataClass
+	 * @return null if there is no codec for the class
+	 */
+	public static IDataCodec getCodec(Class<?> dataClass) {
+		if(!_isEnabled || dataClass == null) {
+			return null;
+		}
+
+		Object codec = _codecMap.get(dataClass);
+		if(codec == null) {
+			codec = loadGeneratedCodec(dataClass);
+			Object existed = _codecMap.putIfAbsent(dataClass, codec);
+			if(existed != null) {
+				codec = existed;
+			}
+		}
+
+		return (codec == NONE) ? null : (IDataCodec) codec;
+	}
+
+	public static String getGeneratedClassName(String dataClassName) {
+		int pkgEnd = dataClassName.lastIndexOf('.');
+		return dataClassName.substring(0, pkgEnd + 1)
+				+ dataClassName.substring(pkgEnd + 1).replace('$', '_')
+				+ GENERATED_CLASS_SUFFIX;
+	}
+
+	/**
+	 * @return IDataCodec, or NONE if not found
+	 */
+	private static Object loadGeneratedCodec(Class<?> dataClass) {
+		if(dataClass.isPrimitive() || dataClass.isArray() || dataClass.getName().startsWith("java.")) {
+			return NONE;
+		}
+
+		ClassLoader classLoader = dataClass.getClassLoader();
+		if(classLoader == null) {
+			return NONE;
+		}
+
+		//errors in static initializer of the generated class are thrown as they are
+		Class<?> codecClass;
+		try {
+			codecClass = Class.forName(getGeneratedClassName(dataClass.getName()), true, classLoader);
+		} catch (ClassNotFoundException e) {
+			//not generated
+			IDataCodec recordCodec = RecordSupport.createCodec(dataClass);
+			return (recordCodec == null) ? NONE : (Object) recordCodec;
+		}
+
+		try {
+			return (IDataCodec) codecClass.newInstance();
+		} catch (InstantiationException e) {
+			throw new RedisDataException("Failed to create codec " + codecClass.getName(), e);
+		} catch (IllegalAccessException e) {
+			throw new RedisDataException("Failed to create codec " + codecClass.getName(), e);
+		} catch (ClassCastException e) {
+			throw new RedisDataException(codecClass.getName() + " is not IDataCodec", e);
+		}
+	}
+}
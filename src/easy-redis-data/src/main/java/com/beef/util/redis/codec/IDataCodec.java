@@ -0,0 +1,15 @@
+package com.beef.util.redis.codec;
+
+import java.io.IOException;
+
+/**
+ * Serializer of data class which writes the same xml as MetoXML.
+ * @author beef
+ *
+ */
+public interface IDataCodec {
+
+	public String serialize(Object data);
+
+	public Object deserialize(String dataXml) throws IOException;
+}
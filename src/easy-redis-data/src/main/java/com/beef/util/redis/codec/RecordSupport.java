@@ -0,0 +1,18 @@
+package com.beef.util.redis.codec;
+
+/**
+ * Codec of record classes. Records do not exist before Java 16,
+ * and this class is replaced by the one in META-INF/versions/17 of the multi-release jar(built with profile java17).
+ * @author beef
+ *
+ */
+class RecordSupport {
+
+	/**
+	 * @param dataClass
+	 * @return null if dataClass is not a record or it has components of unsupported types
+	 */
+	static IDataCodec createCodec(Class<?> dataClass) {
+		return null;
+	}
+}
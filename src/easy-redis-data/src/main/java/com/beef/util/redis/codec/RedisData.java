@@ -0,0 +1,24 @@
+package com.beef.util.redis.codec;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark a data class to generate its IDataCodec at compile time by the annotation processor in easy-redis-data-codegen.
+ * The generated class is named as [ClassName]_RedisCodec in the same package,
+ * and it is used by RedisDataUtil automatically instead of reflection (see DataCodecs).
+ * <br/>
+ * Only properties of String, primitive types and their wrappers are supported.
+ * If the class has other properties, no codec is generated and reflection is used as before.
+ * @author beef
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface RedisData {
+
+}
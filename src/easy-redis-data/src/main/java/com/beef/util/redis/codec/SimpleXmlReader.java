@@ -0,0 +1,252 @@
+package com.beef.util.redis.codec;
+
+import java.io.IOException;
+
+/**
+ * Pull reader of xml written by MetoXML(elements without attributes). No DOM or intermediate objects are built.
+ * <br/>
+ * Usage: readRootElement(), then loop nextChildElement() until null,
+ * and each child element must be consumed by readText() or skipElement().
+ * @author beef
+ *
+ */
+public class SimpleXmlReader {
+	private final String _xml;
+	private final int _len;
+	private int _pos = 0;
+	private boolean _isEmptyElement = false;
+
+	public SimpleXmlReader(String xml) {
+		_xml = xml;
+		_len = xml.length();
+	}
+
+	/**
+	 * Skip declaration and comments, and read the start tag of root element.
+	 * @return name of root element
+	 * @throws IOException
+	 */
+	public String readRootElement() throws IOException {
+		String name = nextChildElement();
+		if(name == null) {
+			throw new IOException("Root element not found");
+		}
+
+		return name;
+	}
+
+	/**
+	 * Move to the next start tag in current element.
+	 * @return name of element, or null when reaches the end tag of current element(which is consumed)
+	 * @throws IOException
+	 */
+	public String nextChildElement() throws IOException {
+		while(true) {
+			int tagStart = _xml.indexOf('<', _pos);
+			if(tagStart < 0 || tagStart + 1 >= _len) {
+				_pos = _len;
+				return null;
+			}
+
+			char c = _xml.charAt(tagStart + 1);
+			if(c == '/') {
+				_pos = findTagEnd(tagStart) + 1;
+				return null;
+			} else if(c == '?' || c == '!') {
+				_pos = skipSpecial(tagStart);
+			} else {
+				return readStartTag(tagStart);
+			}
+		}
+	}
+
+	/**
+	 * Read text of current element and consume its end tag.
+	 * @return text unescaped, or null if the element has child elements(which are skipped)
+	 * @throws IOException
+	 */
+	public String readText() throws IOException {
+		if(_isEmptyElement) {
+			_isEmptyElement = false;
+			return "";
+		}
+
+		StringBuilder text = null;
+		int textStart = _pos;
+		while(true) {
+			int tagStart = _xml.indexOf('<', _pos);
+			if(tagStart < 0 || tagStart + 1 >= _len) {
+				throw new IOException("End tag not found");
+			}
+
+			char c = _xml.charAt(tagStart + 1);
+			if(c == '/') {
+				String lastPart = _xml.substring(textStart, tagStart);
+				_pos = findTagEnd(tagStart) + 1;
+				if(text == null) {
+					return unescape(lastPart);
+				} else {
+					text.append(unescape(lastPart));
+					return text.toString();
+				}
+			} else if(_xml.startsWith("<![CDATA[", tagStart)) {
+				int cdataEnd = _xml.indexOf("]]>", tagStart);
+				if(cdataEnd < 0) {
+					throw new IOException("CDATA not closed");
+				}
+
+				if(text == null) {
+					text = new StringBuilder();
+				}
+				text.append(unescape(_xml.substring(textStart, tagStart)));
+				text.append(_xml, tagStart + "<![CDATA[".length(), cdataEnd);
+				_pos = cdataEnd + "]]>".length();
+				textStart = _pos;
+			} else if(c == '?' || c == '!') {
+				if(text == null) {
+					text = new StringBuilder();
+				}
+				text.append(unescape(_xml.substring(textStart, tagStart)));
+				_pos = skipSpecial(tagStart);
+				textStart = _pos;
+			} else {
+				//child element
+				_pos = tagStart;
+				skipToEndOfElement();
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Skip current element including its children.
+	 * @throws IOException
+	 */
+	public void skipElement() throws IOException {
+		if(_isEmptyElement) {
+			_isEmptyElement = false;
+			return;
+		}
+
+		skipToEndOfElement();
+	}
+
+	private void skipToEndOfElement() throws IOException {
+		int depth = 1;
+		while(depth > 0) {
+			int tagStart = _xml.indexOf('<', _pos);
+			if(tagStart < 0 || tagStart + 1 >= _len) {
+				throw new IOException("End tag not found");
+			}
+
+			char c = _xml.charAt(tagStart + 1);
+			if(c == '/') {
+				depth--;
+				_pos = findTagEnd(tagStart) + 1;
+			} else if(c == '?' || c == '!') {
+				_pos = skipSpecial(tagStart);
+			} else {
+				int tagEnd = findTagEnd(tagStart);
+				if(_xml.charAt(tagEnd - 1) != '/') {
+					depth++;
+				}
+				_pos = tagEnd + 1;
+			}
+		}
+	}
+
+	private String readStartTag(int tagStart) throws IOException {
+		int tagEnd = findTagEnd(tagStart);
+		int nameEnd = tagStart + 1;
+		while(nameEnd < tagEnd && !isNameEnd(_xml.charAt(nameEnd))) {
+			nameEnd++;
+		}
+
+		_isEmptyElement = (_xml.charAt(tagEnd - 1) == '/');
+		_pos = tagEnd + 1;
+		return _xml.substring(tagStart + 1, nameEnd);
+	}
+
+	private int findTagEnd(int tagStart) throws IOException {
+		int tagEnd = _xml.indexOf('>', tagStart);
+		if(tagEnd < 0) {
+			throw new IOException("Tag not closed at " + tagStart);
+		}
+
+		return tagEnd;
+	}
+
+	/**
+	 * skip declaration, comment or CDATA
+	 * @return position after it
+	 */
+	private int skipSpecial(int tagStart) throws IOException {
+		String endMark;
+		if(_xml.startsWith("<!--", tagStart)) {
+			endMark = "-->";
+		} else if(_xml.startsWith("<![CDATA[", tagStart)) {
+			endMark = "]]>";
+		} else if(_xml.charAt(tagStart + 1) == '?') {
+			endMark = "?>";
+		} else {
+			endMark = ">";
+		}
+
+		int end = _xml.indexOf(endMark, tagStart + 2);
+		if(end < 0) {
+			throw new IOException("Not closed at " + tagStart);
+		}
+
+		return end + endMark.length();
+	}
+
+	private static boolean isNameEnd(char c) {
+		return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '/' || c == '>';
+	}
+
+	public static String unescape(String text) {
+		int ampIndex = text.indexOf('&');
+		if(ampIndex < 0) {
+			return text;
+		}
+
+		StringBuilder sb = new StringBuilder(text.length());
+		int start = 0;
+		while(ampIndex >= 0) {
+			int semicolonIndex = text.indexOf(';', ampIndex);
+			if(semicolonIndex < 0) {
+				break;
+			}
+
+			sb.append(text, start, ampIndex);
+			String entity = text.substring(ampIndex + 1, semicolonIndex);
+			if("lt".equals(entity)) {
+				sb.append('<');
+			} else if("gt".equals(entity)) {
+				sb.append('>');
+			} else if("amp".equals(entity)) {
+				sb.append('&');
+			} else if("quot".equals(entity)) {
+				sb.append('"');
+			} else if("apos".equals(entity)) {
+				sb.append('\'');
+			} else if(entity.startsWith("#x") || entity.startsWith("#X")) {
+				sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+			} else if(entity.startsWith("#")) {
+				sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+			} else {
+				sb.append(text, ampIndex, semicolonIndex + 1);
+			}
+
+			start = semicolonIndex + 1;
+			ampIndex = text.indexOf('&', start);
+		}
+		sb.append(text, start, text.length());
+
+		return sb.toString();
+	}
+
+	public static char parseChar(String text) {
+		return (text.length() > 0) ? text.charAt(0) : '\0';
+	}
+}
@@ -0,0 +1,114 @@
+package com.beef.util.redis.codec;
+
+/**
+ * Writer of xml in the same layout as MetoXML(2 spaces indent, CRLF). Null values are not written.
+ * @author beef
+ *
+ */
+public class SimpleXmlWriter {
+	private final static String LINE_SEPARATOR = "\r\n";
+	private final static String INDENT = "  ";
+
+	private final StringBuilder _sb;
+	private int _depth = 0;
+
+	public SimpleXmlWriter() {
+		this(256);
+	}
+
+	public SimpleXmlWriter(int initCapacity) {
+		_sb = new StringBuilder(initCapacity);
+	}
+
+	public void startElement(String name) {
+		writeIndent();
+		_sb.append('<').append(name).append('>').append(LINE_SEPARATOR);
+		_depth++;
+	}
+
+	public void endElement(String name) {
+		_depth--;
+		writeIndent();
+		_sb.append("</").append(name).append('>');
+		if(_depth > 0) {
+			_sb.append(LINE_SEPARATOR);
+		}
+	}
+
+	public void writeElement(String name, String text) {
+		if(text == null) {
+			return;
+		}
+
+		writeIndent();
+		_sb.append('<').append(name).append('>');
+		escape(_sb, text);
+		_sb.append("</").append(name).append('>').append(LINE_SEPARATOR);
+	}
+
+	public void writeElement(String name, Object value) {
+		if(value == null) {
+			return;
+		}
+
+		writeElement(name, value.toString());
+	}
+
+	public void writeElement(String name, boolean value) {
+		writeElement(name, String.valueOf(value));
+	}
+
+	public void writeElement(String name, char value) {
+		writeElement(name, String.valueOf(value));
+	}
+
+	public void writeElement(String name, int value) {
+		writeElement(name, String.valueOf(value));
+	}
+
+	public void writeElement(String name, long value) {
+		writeElement(name, String.valueOf(value));
+	}
+
+	public void writeElement(String name, float value) {
+		writeElement(name, String.valueOf(value));
+	}
+
+	public void writeElement(String name, double value) {
+		writeElement(name, String.valueOf(value));
+	}
+
+	private void writeIndent() {
+		for(int i = 0; i < _depth; i++) {
+			_sb.append(INDENT);
+		}
+	}
+
+	public static void escape(StringBuilder sb, String text) {
+		final int len = text.length();
+		for(int i = 0; i < len; i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '<':
+				sb.append("&lt;");
+				break;
+			case '>':
+				sb.append("&gt;");
+				break;
+			case '&':
+				sb.append("&amp;");
+				break;
+			case '"':
+				sb.append("&quot;");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return _sb.toString();
+	}
+}
@@ -0,0 +1,230 @@
+package com.beef.util.redis.codec;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decoder of bean from xml bytes(written by MetoXML) through ByteXmlReader, with bean metadata cached per class.
+ * Only beans whose properties(with both getter and setter) are all of String, primitive or wrapper types are supported,
+ * in the same way as the codec generated by annotation processor. Others are decoded by MetoXML.
+ * <br/>
+ * It is disabled by default(opt-in by setEnabled(true)), and RedisDataUtil falls back to MetoXML if it fails to decode the xml.
+ * @author beef
+ *
+ */
+public class StreamingBeanDecoder {
+	private final static Charset CHARSET_UTF8 = Charset.forName("utf-8");
+	private final static StreamingBeanDecoder NONE = new StreamingBeanDecoder(null, new byte[0][], new Method[0], new int[0]);
+
+	private final static int TYPE_STRING = 0;
+	private final static int TYPE_BOOLEAN = 1;
+	private final static int TYPE_BYTE = 2;
+	private final static int TYPE_SHORT = 3;
+	private final static int TYPE_INT = 4;
+	private final static int TYPE_LONG = 5;
+	private final static int TYPE_FLOAT = 6;
+	private final static int TYPE_DOUBLE = 7;
+	private final static int TYPE_CHAR = 8;
+
+	private final static Map<Class<?>, Integer> TYPE_MAP = new HashMap<Class<?>, Integer>();
+	static {
+		TYPE_MAP.put(String.class, TYPE_STRING);
+		TYPE_MAP.put(boolean.class, TYPE_BOOLEAN);
+		TYPE_MAP.put(Boolean.class, TYPE_BOOLEAN);
+		TYPE_MAP.put(byte.class, TYPE_BYTE);
+		TYPE_MAP.put(Byte.class, TYPE_BYTE);
+		TYPE_MAP.put(short.class, TYPE_SHORT);
+		TYPE_MAP.put(Short.class, TYPE_SHORT);
+		TYPE_MAP.put(int.class, TYPE_INT);
+		TYPE_MAP.put(Integer.class, TYPE_INT);
+		TYPE_MAP.put(long.class, TYPE_LONG);
+		TYPE_MAP.put(Long.class, TYPE_LONG);
+		TYPE_MAP.put(float.class, TYPE_FLOAT);
+		TYPE_MAP.put(Float.class, TYPE_FLOAT);
+		TYPE_MAP.put(double.class, TYPE_DOUBLE);
+		TYPE_MAP.put(Double.class, TYPE_DOUBLE);
+		TYPE_MAP.put(char.class, TYPE_CHAR);
+		TYPE_MAP.put(Character.class, TYPE_CHAR);
+	}
+
+	private final static ConcurrentMap<Class<?>, StreamingBeanDecoder> _decoderMap = new ConcurrentHashMap<Class<?>, StreamingBeanDecoder>();
+	private static volatile boolean _isEnabled = false;
+
+	private final Constructor<?> _constructor;
+	/** property names in UTF-8, in alphabetical order */
+	private final byte[][] _names;
+	private final Method[] _setters;
+	private final int[] _types;
+
+	private StreamingBeanDecoder(Constructor<?> constructor, byte[][] names, Method[] setters, int[] types) {
+		_constructor = constructor;
+		_names = names;
+		_setters = setters;
+		_types = types;
+	}
+
+	/**
+	 * @param isEnabled false means always using MetoXML. Default false.
+	 */
+	public static void setEnabled(boolean isEnabled) {
+		_isEnabled = isEnabled;
+	}
+
+	/**
+	 * @param dataClass
+	 * @return null if the class is not supported
+	 */
+	public static StreamingBeanDecoder getDecoder(Class<?> dataClass) {
+		if(!_isEnabled || dataClass == null) {
+			return null;
+		}
+
+		StreamingBeanDecoder decoder = _decoderMap.get(dataClass);
+		if(decoder == null) {
+			decoder = createDecoder(dataClass);
+			StreamingBeanDecoder existed = _decoderMap.putIfAbsent(dataClass, decoder);
+			if(existed != null) {
+				decoder = existed;
+			}
+		}
+
+		return (decoder == NONE) ? null : decoder;
+	}
+
+	/**
+	 * @param bytes xml in UTF-8
+	 * @param offset
+	 * @param length
+	 * @return
+	 * @throws IOException if the xml is malformed or a property is not a scalar value
+	 */
+	public Object decode(byte[] bytes, int offset, int length) throws IOException {
+		Object data;
+		try {
+			data = _constructor.newInstance();
+		} catch (InstantiationException e) {
+			throw new IOException("Failed to create " + _constructor.getDeclaringClass().getName(), e);
+		} catch (IllegalAccessException e) {
+			throw new IOException("Failed to create " + _constructor.getDeclaringClass().getName(), e);
+		} catch (InvocationTargetException e) {
+			throw new IOException("Failed to create " + _constructor.getDeclaringClass().getName(), e.getCause());
+		}
+
+		ByteXmlReader reader = new ByteXmlReader(bytes, offset, length);
+		reader.readRootElement();
+
+		int index;
+		while((index = reader.nextChildElement(_names)) != ByteXmlReader.END_OF_ELEMENT) {
+			if(index == ByteXmlReader.UNKNOWN_ELEMENT) {
+				reader.skipElement();
+				continue;
+			}
+
+			String text = reader.readText();
+			try {
+				_setters[index].invoke(data, parse(_types[index], text));
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid value of property:" + new String(_names[index], CHARSET_UTF8), e);
+			} catch (IllegalAccessException e) {
+				throw new IOException("Failed to set property:" + new String(_names[index], CHARSET_UTF8), e);
+			} catch (InvocationTargetException e) {
+				throw new IOException("Failed to set property:" + new String(_names[index], CHARSET_UTF8), e.getCause());
+			}
+		}
+
+		return data;
+	}
+
+	private static Object parse(int type, String text) {
+		switch (type) {
+		case TYPE_STRING:
+			return text;
+		case TYPE_BOOLEAN:
+			return Boolean.valueOf(text.trim());
+		case TYPE_BYTE:
+			return Byte.valueOf(text.trim());
+		case TYPE_SHORT:
+			return Short.valueOf(text.trim());
+		case TYPE_INT:
+			return Integer.valueOf(text.trim());
+		case TYPE_LONG:
+			return Long.valueOf(text.trim());
+		case TYPE_FLOAT:
+			return Float.valueOf(text.trim());
+		case TYPE_DOUBLE:
+			return Double.valueOf(text.trim());
+		default:
+			return Character.valueOf(SimpleXmlReader.parseChar(text));
+		}
+	}
+
+	private static StreamingBeanDecoder createDecoder(Class<?> dataClass) {
+		if(dataClass.isPrimitive() || dataClass.isArray() || dataClass.isInterface()
+				|| Modifier.isAbstract(dataClass.getModifiers())
+				|| dataClass.getName().startsWith("java.")
+				|| Collection.class.isAssignableFrom(dataClass) || Map.class.isAssignableFrom(dataClass)
+				|| TYPE_MAP.containsKey(dataClass)) {
+			return NONE;
+		}
+
+		try {
+			Constructor<?> constructor = dataClass.getConstructor();
+
+			BeanInfo beanInfo = Introspector.getBeanInfo(dataClass);
+			//sorted by name
+			PropertyDescriptor[] properties = beanInfo.getPropertyDescriptors();
+			List<byte[]> nameList = new ArrayList<byte[]>(properties.length);
+			List<Method> setterList = new ArrayList<Method>(properties.length);
+			List<Integer> typeList = new ArrayList<Integer>(properties.length);
+			for(PropertyDescriptor property : properties) {
+				if(property.getReadMethod() == null || property.getWriteMethod() == null) {
+					continue;
+				}
+
+				Integer type = TYPE_MAP.get(property.getPropertyType());
+				if(type == null) {
+					//decoded by MetoXML
+					return NONE;
+				}
+
+				Method setter = property.getWriteMethod();
+				if(!Modifier.isPublic(dataClass.getModifiers())) {
+					setter.setAccessible(true);
+				}
+				nameList.add(property.getName().getBytes(CHARSET_UTF8));
+				setterList.add(setter);
+				typeList.add(type);
+			}
+
+			int[] types = new int[typeList.size()];
+			for(int i = 0; i < types.length; i++) {
+				types[i] = typeList.get(i);
+			}
+			return new StreamingBeanDecoder(constructor,
+					nameList.toArray(new byte[nameList.size()][]),
+					setterList.toArray(new Method[setterList.size()]),
+					types);
+		} catch (NoSuchMethodException e) {
+			return NONE;
+		} catch (IntrospectionException e) {
+			return NONE;
+		} catch (SecurityException e) {
+			return NONE;
+		}
+	}
+}
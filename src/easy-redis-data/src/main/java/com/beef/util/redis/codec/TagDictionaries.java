@@ -0,0 +1,222 @@
+package com.beef.util.redis.codec;
+
+import java.beans.IntrospectionException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import com.beef.util.redis.LuaScript;
+
+/**
+ * Registry of TagDictionary. Xml of a class is transformed in encoding only when its dictionary is registered,
+ * while the transformed values are always restored in decoding.
+ * <br/>
+ * Dictionaries for decoding are kept by id, and only the newest version of each id is kept(which restores values of all older versions).
+ * A dictionary is append-only, so names of properties removed or renamed are kept in it. There are 2 ways to keep a dictionary:
+ * <br/>
+ * 1. Persisted in redis: enable(jedis, dataClass, id) appends the names of dataClass not in the stored list(key: DICT_KEY_PREFIX + id) atomically,
+ * and the readers load it by load(jedis, id), or automatically when a pool is set by setDictionaryPool().
+ * <br/>
+ * 2. Registered explicitly: keep the names in code(TagDictionary.append() on the list of the last release), and register() it.
+ * @author beef
+ *
+ */
+public class TagDictionaries {
+	public final static String DICT_KEY_PREFIX = "easy-redis-data.tagdict.";
+	/** min interval of loading a missing dictionary(or version) from redis */
+	private final static long RELOAD_INTERVAL_MILLIS = 1000;
+
+	/**
+	 * Append names not in the list, and return the whole list.
+	 * KEYS[1]: list of names, ARGV[1]: max count of names, ARGV[2...]: names
+	 */
+	private final static LuaScript SCRIPT_APPEND_NAMES = new LuaScript(
+			"local names = redis.call('lrange', KEYS[1], 0, -1)\n"
+			+ "local nameSet = {}\n"
+			+ "for i = 1, #names do nameSet[names[i]] = true end\n"
+			+ "local newNames = {}\n"
+			+ "for i = 2, #ARGV do\n"
+			+ "  if not nameSet[ARGV[i]] then\n"
+			+ "    nameSet[ARGV[i]] = true\n"
+			+ "    newNames[#newNames + 1] = ARGV[i]\n"
+			+ "  end\n"
+			+ "end\n"
+			+ "if #names + #newNames > tonumber(ARGV[1]) then\n"
+			+ "  return redis.error_reply('too many names in tag dictionary ' .. KEYS[1])\n"
+			+ "end\n"
+			+ "for i = 1, #newNames do\n"
+			+ "  redis.call('rpush', KEYS[1], newNames[i])\n"
+			+ "  names[#names + 1] = newNames[i]\n"
+			+ "end\n"
+			+ "return names"
+			);
+
+	private final static ConcurrentMap<Class<?>, TagDictionary> _encodeDictMap = new ConcurrentHashMap<Class<?>, TagDictionary>();
+	/** id -> dictionary of the newest version */
+	private final static ConcurrentMap<String, TagDictionary> _decodeDictMap = new ConcurrentHashMap<String, TagDictionary>();
+	/** id -> time of the last loading on missing */
+	private final static ConcurrentMap<String, Long> _loadTimeMap = new ConcurrentHashMap<String, Long>();
+	private static volatile JedisPool _dictPool = null;
+
+	/**
+	 * Append names of bean properties of dataClass to the dictionary persisted in redis, and register it.
+	 * @param jedis
+	 * @param dataClass
+	 * @param id id of the dictionary(see TagDictionary), e.g. a short name of dataClass
+	 * @return the dictionary registered
+	 * @throws IntrospectionException
+	 */
+	public static TagDictionary enable(Jedis jedis, Class<?> dataClass, String id) throws IntrospectionException {
+		List<String> beanNames = TagDictionary.getBeanNames(dataClass);
+		List<String> args = new ArrayList<String>(beanNames.size() + 1);
+		args.add(String.valueOf(TagDictionary.MAX_NAME_COUNT));
+		args.addAll(beanNames);
+
+		List<String> keys = new ArrayList<String>(1);
+		keys.add(DICT_KEY_PREFIX + id);
+		@SuppressWarnings("unchecked")
+		List<String> names = (List<String>) SCRIPT_APPEND_NAMES.eval(jedis, keys, args);
+
+		TagDictionary dict = new TagDictionary(id, names);
+		register(dataClass, dict);
+		return dict;
+	}
+
+	/**
+	 * Load the dictionary persisted in redis, and register it for decoding.
+	 * @param jedis
+	 * @param id
+	 * @return the dictionary, or null if it does not exist
+	 */
+	public static TagDictionary load(Jedis jedis, String id) {
+		List<String> names = jedis.lrange(DICT_KEY_PREFIX + id, 0, -1);
+		if(names == null || names.size() == 0) {
+			return null;
+		}
+
+		TagDictionary dict = new TagDictionary(id, names);
+		registerForDecode(dict);
+		return dict;
+	}
+
+	/**
+	 * @param pool pool to load dictionaries which are not registered(or older than the value) in decoding. null means not loading.
+	 */
+	public static void setDictionaryPool(JedisPool pool) {
+		_dictPool = pool;
+	}
+
+	/**
+	 * Register dict for encoding and decoding.
+	 * @throws IllegalArgumentException if dict is not appended to the one of the same id registered before
+	 */
+	public static void register(Class<?> dataClass, TagDictionary dict) {
+		registerForDecode(dict);
+		_encodeDictMap.put(dataClass, dict);
+	}
+
+	/**
+	 * Register dict only for decoding. It replaces the registered one of the same id if it is newer.
+	 * @throws IllegalArgumentException if dict is not appended to the one of the same id registered before(or the reverse)
+	 */
+	public static void registerForDecode(TagDictionary dict) {
+		while(true) {
+			TagDictionary existed = _decodeDictMap.putIfAbsent(dict.getId(), dict);
+			if(existed == null) {
+				return;
+			}
+			if(existed.isAppendedTo(dict)) {
+				return;
+			}
+			if(!dict.isAppendedTo(existed)) {
+				throw new IllegalArgumentException("Tag dictionary " + dict.getId() + " is not append-only, version:" + dict.getVersion()
+						+ " registered version:" + existed.getVersion());
+			}
+			if(_decodeDictMap.replace(dict.getId(), existed, dict)) {
+				return;
+			}
+		}
+	}
+
+	public static void disable(Class<?> dataClass) {
+		_encodeDictMap.remove(dataClass);
+	}
+
+	/**
+	 * @param xml
+	 * @param dataClass
+	 * @return xml transformed if dictionary of dataClass is registered, otherwise xml itself
+	 */
+	public static String transform(String xml, Class<?> dataClass) {
+		if(dataClass == null || xml == null) {
+			return xml;
+		}
+
+		TagDictionary dict = _encodeDictMap.get(dataClass);
+		return (dict == null) ? xml : dict.transform(xml);
+	}
+
+	/**
+	 * @param str
+	 * @param dataClass
+	 * @return xml restored, or str itself if it is not transformed
+	 * @throws IOException when dictionary(of the version) of the value is not registered and can not be loaded
+	 */
+	public static String restore(String str, Class<?> dataClass) throws IOException {
+		if(!TagDictionary.isTransformed(str)) {
+			return str;
+		}
+
+		String id = TagDictionary.getDictionaryId(str);
+		int version = TagDictionary.getDictionaryVersion(str);
+		if(id == null || version < 0) {
+			throw new IOException("Broken tag dictionary header");
+		}
+
+		TagDictionary dict = _decodeDictMap.get(id);
+		if(dict == null || dict.getVersion() < version) {
+			dict = loadOnMissing(id);
+		}
+		if(dict == null || dict.getVersion() < version) {
+			throw new IOException("Tag dictionary not registered, id:" + id + " version:" + version
+					+ (dataClass == null ? "" : " class:" + dataClass.getName()));
+		}
+
+		return dict.restore(str);
+	}
+
+	private static TagDictionary loadOnMissing(String id) throws IOException {
+		JedisPool pool = _dictPool;
+		if(pool == null) {
+			return _decodeDictMap.get(id);
+		}
+
+		//values of a missing dictionary do not hit redis each time
+		long now = System.currentTimeMillis();
+		Long loadTime = _loadTimeMap.get(id);
+		if(loadTime != null && (now - loadTime.longValue()) < RELOAD_INTERVAL_MILLIS) {
+			return _decodeDictMap.get(id);
+		}
+		if(loadTime == null ? _loadTimeMap.putIfAbsent(id, now) != null : !_loadTimeMap.replace(id, loadTime, now)) {
+			//loaded by another thread
+			return _decodeDictMap.get(id);
+		}
+
+		try {
+			Jedis jedis = pool.getResource();
+			try {
+				load(jedis, id);
+			} finally {
+				jedis.close();
+			}
+		} catch (RuntimeException e) {
+			throw new IOException("Failed to load tag dictionary " + id + ":" + e.getMessage());
+		}
+		return _decodeDictMap.get(id);
+	}
+}
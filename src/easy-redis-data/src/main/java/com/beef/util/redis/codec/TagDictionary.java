@@ -0,0 +1,357 @@
+package com.beef.util.redis.codec;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Reversible transform of xml which replaces start and end tags of known names with 2 chars codes before compressing.
+ * <br/>
+ * A dictionary is append-only: new names are appended to the end, so codes of the existing names never change.
+ * Version of a dictionary is the count of its names, and a dictionary restores values transformed by any older version of it.
+ * <br/>
+ * Format of the transformed xml: MARK, id of the dictionary, ID_END, 2 hex chars of version, then the xml with tags replaced,
+ * <br/>
+ * start tag: START_CODE + (char)(CODE_BASE + index), end tag: END_CODE + (char)(CODE_BASE + index).
+ * <br/>
+ * A value is restored only by the dictionary of the same id, and a value of a newer version is rejected instead of being restored wrongly.
+ * Xml containing control chars is not transformed.
+ * @author beef
+ *
+ */
+public class TagDictionary {
+	public final static char MARK = '\u0003';
+	private final static char START_CODE = '\u0001';
+	private final static char END_CODE = '\u0002';
+	private final static char ID_END = ';';
+	private final static char CODE_BASE = 0x20;
+	/** codes are in printable ascii(1 byte in UTF-8) */
+	public final static int MAX_NAME_COUNT = 0x7f - CODE_BASE;
+	public final static int MAX_ID_LEN = 16;
+	private final static int VERSION_LEN = 2;
+
+	private final String _id;
+	private final String[] _names;
+	private final Map<String, Integer> _indexMap;
+	private final String _header;
+
+	/**
+	 * @param id short id of the dictionary written in each value(1 to MAX_ID_LEN chars of letters, digits, '_', '-' or '.')
+	 * @param names distinct names, at most MAX_NAME_COUNT. The order decides the codes, so new names must be appended to the end.
+	 * @throws IllegalArgumentException if id or names are invalid
+	 */
+	public TagDictionary(String id, List<String> names) {
+		if(!isValidId(id)) {
+			throw new IllegalArgumentException("Invalid tag dictionary id:" + id);
+		}
+		if(names.size() > MAX_NAME_COUNT) {
+			throw new IllegalArgumentException("Too many names in tag dictionary " + id + ":" + names.size() + " > " + MAX_NAME_COUNT);
+		}
+
+		final int count = names.size();
+		_id = id;
+		_names = new String[count];
+		_indexMap = new HashMap<String, Integer>(count * 2);
+		for(int i = 0; i < count; i++) {
+			String name = names.get(i);
+			if(!isValidName(name) || _indexMap.put(name, i) != null) {
+				throw new IllegalArgumentException("Invalid or duplicate name in tag dictionary " + id + ":" + name);
+			}
+			_names[i] = name;
+		}
+
+		StringBuilder header = new StringBuilder(2 + id.length() + VERSION_LEN);
+		header.append(MARK).append(id).append(ID_END);
+		if(count < 0x10) {
+			header.append('0');
+		}
+		_header = header.append(Integer.toHexString(count)).toString();
+	}
+
+	/**
+	 * @param names
+	 * @return dictionary of the next version, with the names not in this dictionary appended(in their order)
+	 * @throws IllegalArgumentException if it would exceed MAX_NAME_COUNT
+	 */
+	public TagDictionary append(List<String> names) {
+		List<String> newNames = new ArrayList<String>(_names.length + names.size());
+		newNames.addAll(Arrays.asList(_names));
+		Set<String> nameSet = new HashSet<String>(_indexMap.keySet());
+		for(String name : names) {
+			if(nameSet.add(name)) {
+				newNames.add(name);
+			}
+		}
+		if(newNames.size() == _names.length) {
+			return this;
+		}
+
+		return new TagDictionary(_id, newNames);
+	}
+
+	/**
+	 * @return true if this dictionary is the same as dict or appended to it
+	 */
+	public boolean isAppendedTo(TagDictionary dict) {
+		if(!_id.equals(dict._id) || _names.length < dict._names.length) {
+			return false;
+		}
+		for(int i = 0; i < dict._names.length; i++) {
+			if(!_names[i].equals(dict._names[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Names of bean properties: simple name of the class, names of properties,
+	 * and the same of bean classes of properties and array components(recursively). Names are sorted.
+	 * <br/>
+	 * The names are not append-only across schema changes, so append them to the dictionary kept before(see append() and TagDictionaries).
+	 * @param dataClass
+	 * @throws IntrospectionException
+	 */
+	public static List<String> getBeanNames(Class<?> dataClass) throws IntrospectionException {
+		Set<String> nameSet = new TreeSet<String>();
+		collectNames(dataClass, nameSet, new HashSet<Class<?>>());
+
+		return new ArrayList<String>(nameSet);
+	}
+
+	private static void collectNames(Class<?> beanClass, Set<String> nameSet, Set<Class<?>> visited) throws IntrospectionException {
+		if(!visited.add(beanClass)) {
+			return;
+		}
+
+		nameSet.add(beanClass.getSimpleName());
+		BeanInfo beanInfo = Introspector.getBeanInfo(beanClass, Object.class);
+		PropertyDescriptor[] props = beanInfo.getPropertyDescriptors();
+		for(int i = 0; i < props.length; i++) {
+			PropertyDescriptor prop = props[i];
+			if(prop.getReadMethod() == null || prop.getWriteMethod() == null) {
+				continue;
+			}
+			nameSet.add(prop.getName());
+
+			Class<?> propType = prop.getPropertyType();
+			while(propType.isArray()) {
+				propType = propType.getComponentType();
+			}
+			if(isBeanClass(propType)) {
+				collectNames(propType, nameSet, visited);
+			}
+		}
+	}
+
+	private static boolean isBeanClass(Class<?> cls) {
+		return !cls.isPrimitive() && !cls.isEnum() && !cls.isInterface()
+				&& !cls.getName().startsWith("java.");
+	}
+
+	public String getId() {
+		return _id;
+	}
+
+	/**
+	 * @return version of the dictionary, which is the count of names
+	 */
+	public int getVersion() {
+		return _names.length;
+	}
+
+	public int size() {
+		return _names.length;
+	}
+
+	/**
+	 * @return names in the order of codes, which can be kept to build the same dictionary later
+	 */
+	public List<String> getNames() {
+		return Collections.unmodifiableList(Arrays.asList(_names));
+	}
+
+	/**
+	 * @param str
+	 * @return id of the dictionary which transformed str, or null if str is not transformed(or broken)
+	 */
+	public static String getDictionaryId(String str) {
+		int idEnd = indexOfIdEnd(str);
+		return (idEnd < 0) ? null : str.substring(1, idEnd);
+	}
+
+	/**
+	 * @param str
+	 * @return version of the dictionary which transformed str, or -1 if str is not transformed(or broken)
+	 */
+	public static int getDictionaryVersion(String str) {
+		int idEnd = indexOfIdEnd(str);
+		if(idEnd < 0 || str.length() < idEnd + 1 + VERSION_LEN) {
+			return -1;
+		}
+
+		int version = 0;
+		for(int i = idEnd + 1; i < idEnd + 1 + VERSION_LEN; i++) {
+			int digit = Character.digit(str.charAt(i), 16);
+			if(digit < 0) {
+				return -1;
+			}
+			version = version * 16 + digit;
+		}
+		return version;
+	}
+
+	private static int indexOfIdEnd(String str) {
+		if(!isTransformed(str)) {
+			return -1;
+		}
+
+		int maxIdEnd = Math.min(str.length(), 2 + MAX_ID_LEN);
+		for(int i = 1; i < maxIdEnd; i++) {
+			if(str.charAt(i) == ID_END) {
+				return (i > 1) ? i : -1;
+			}
+		}
+		return -1;
+	}
+
+	public static boolean isTransformed(String str) {
+		return str != null && str.length() > 0 && str.charAt(0) == MARK;
+	}
+
+	/**
+	 * @param bytes xml in UTF-8
+	 */
+	public static boolean isTransformed(byte[] bytes) {
+		return bytes != null && bytes.length > 0 && bytes[0] == MARK;
+	}
+
+	/**
+	 * @param xml
+	 * @return xml transformed, or the xml itself if it contains control chars
+	 */
+	public String transform(String xml) {
+		final int len = xml.length();
+		StringBuilder sb = new StringBuilder(_header.length() + len);
+		sb.append(_header);
+
+		int copyStart = 0;
+		for(int i = 0; i < len; i++) {
+			char c = xml.charAt(i);
+			if(c <= MARK) {
+				return xml;
+			}
+			if(c != '<') {
+				continue;
+			}
+
+			boolean isEndTag = (i + 1 < len && xml.charAt(i + 1) == '/');
+			int nameStart = isEndTag ? (i + 2) : (i + 1);
+			int tagEnd = nameStart;
+			while(tagEnd < len && isNameChar(xml.charAt(tagEnd))) {
+				tagEnd++;
+			}
+			if(tagEnd >= len || tagEnd == nameStart || xml.charAt(tagEnd) != '>') {
+				continue;
+			}
+
+			Integer index = _indexMap.get(xml.substring(nameStart, tagEnd));
+			if(index == null) {
+				continue;
+			}
+
+			sb.append(xml, copyStart, i);
+			sb.append(isEndTag ? END_CODE : START_CODE).append((char) (CODE_BASE + index.intValue()));
+			i = tagEnd;
+			copyStart = tagEnd + 1;
+		}
+		sb.append(xml, copyStart, len);
+
+		return sb.toString();
+	}
+
+	/**
+	 * @param str
+	 * @return xml restored, or str itself if it is not transformed
+	 * @throws IOException when it was transformed by another dictionary(or a newer version of this one) or it is broken
+	 */
+	public String restore(String str) throws IOException {
+		if(!isTransformed(str)) {
+			return str;
+		}
+		if(!_id.equals(getDictionaryId(str))) {
+			throw new IOException("Tag dictionary not matched, expected id:" + _id);
+		}
+		int version = getDictionaryVersion(str);
+		if(version < 0 || version > _names.length) {
+			throw new IOException("Tag dictionary version not matched:" + version + ", version of dictionary " + _id + ":" + _names.length);
+		}
+
+		final int len = str.length();
+		StringBuilder sb = new StringBuilder(len * 2);
+		int copyStart = _id.length() + 2 + VERSION_LEN;
+		for(int i = copyStart; i < len; i++) {
+			char c = str.charAt(i);
+			if(c != START_CODE && c != END_CODE) {
+				continue;
+			}
+			if(i + 1 >= len) {
+				throw new IOException("Broken tag code at " + i);
+			}
+
+			int index = str.charAt(i + 1) - CODE_BASE;
+			if(index < 0 || index >= version) {
+				throw new IOException("Invalid tag code at " + i);
+			}
+
+			sb.append(str, copyStart, i);
+			sb.append((c == START_CODE) ? "<" : "</").append(_names[index]).append('>');
+			i++;
+			copyStart = i + 1;
+		}
+		sb.append(str, copyStart, len);
+
+		return sb.toString();
+	}
+
+	private static boolean isValidId(String id) {
+		if(id == null || id.length() == 0 || id.length() > MAX_ID_LEN) {
+			return false;
+		}
+		for(int i = 0; i < id.length(); i++) {
+			char c = id.charAt(i);
+			if(c == ':' || !isNameChar(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isValidName(String name) {
+		if(name == null || name.length() == 0) {
+			return false;
+		}
+		for(int i = 0; i < name.length(); i++) {
+			if(!isNameChar(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isNameChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+				|| c == '_' || c == '-' || c == '.' || c == ':';
+	}
+}
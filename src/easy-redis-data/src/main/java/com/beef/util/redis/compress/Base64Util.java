@@ -0,0 +1,108 @@
+package com.beef.util.redis.compress;
+
+import java.io.IOException;
+
+/**
+ * Base64 decoding on byte array without streams. Line separators(CR, LF) are skipped.
+ * @author beef
+ *
+ */
+public class Base64Util {
+	private final static int SKIP = -2;
+	private final static int INVALID = -1;
+
+	private final static byte[] DECODE_TABLE = new byte[128];
+	static {
+		for(int i = 0; i < DECODE_TABLE.length; i++) {
+			DECODE_TABLE[i] = INVALID;
+		}
+		for(int i = 'A'; i <= 'Z'; i++) {
+			DECODE_TABLE[i] = (byte) (i - 'A');
+		}
+		for(int i = 'a'; i <= 'z'; i++) {
+			DECODE_TABLE[i] = (byte) (i - 'a' + 26);
+		}
+		for(int i = '0'; i <= '9'; i++) {
+			DECODE_TABLE[i] = (byte) (i - '0' + 52);
+		}
+		DECODE_TABLE['+'] = 62;
+		DECODE_TABLE['/'] = 63;
+		DECODE_TABLE['\r'] = SKIP;
+		DECODE_TABLE['\n'] = SKIP;
+	}
+
+	/**
+	 * Decode 4 base64 chars into 24 bits without allocation. Invalid char and '=' are decoded as 0.
+	 * @return 3 bytes in the lower 24 bits
+	 */
+	public static int decodeQuantum(int c0, int c1, int c2, int c3) {
+		return (decodeChar(c0) << 18) | (decodeChar(c1) << 12) | (decodeChar(c2) << 6) | decodeChar(c3);
+	}
+
+	private static int decodeChar(int c) {
+		if(c < 0 || c >= 128) {
+			return 0;
+		}
+
+		int v = DECODE_TABLE[c];
+		return (v < 0) ? 0 : v;
+	}
+
+	public static byte[] decode(byte[] src) throws IOException {
+		//count significant chars to allocate the exact length
+		int count = 0;
+		int padLen = 0;
+		for(int i = 0; i < src.length; i++) {
+			byte b = src[i];
+			if(b == '=') {
+				padLen++;
+				count++;
+			} else if(b != '\r' && b != '\n') {
+				if(padLen > 0) {
+					throw new IOException("Invalid base64: data after padding");
+				}
+				count++;
+			}
+		}
+		if((count % 4) != 0 || padLen > 2) {
+			throw new IOException("Invalid base64 length:" + count);
+		}
+
+		byte[] out = new byte[count / 4 * 3 - padLen];
+		int bits = 0;
+		int bitsCount = 0;
+		int outIndex = 0;
+		for(int i = 0; i < src.length; i++) {
+			byte b = src[i];
+			if(b == '=') {
+				break;
+			}
+			int v = (b < 0) ? INVALID : DECODE_TABLE[b];
+			if(v == SKIP) {
+				continue;
+			}
+			if(v == INVALID) {
+				throw new IOException("Invalid base64 char at " + i);
+			}
+
+			bits = (bits << 6) | v;
+			bitsCount++;
+			if(bitsCount == 4) {
+				out[outIndex++] = (byte) (bits >> 16);
+				out[outIndex++] = (byte) (bits >> 8);
+				out[outIndex++] = (byte) bits;
+				bits = 0;
+				bitsCount = 0;
+			}
+		}
+
+		if(bitsCount == 2) {
+			out[outIndex++] = (byte) (bits >> 4);
+		} else if(bitsCount == 3) {
+			out[outIndex++] = (byte) (bits >> 10);
+			out[outIndex++] = (byte) (bits >> 2);
+		}
+
+		return out;
+	}
+}
@@ -0,0 +1,322 @@
+package com.beef.util.redis.index;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import MetoXML.Util.ClassFinder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Transaction;
+
+import com.beef.util.redis.LuaScript;
+import com.beef.util.redis.RedisDataException;
+import com.beef.util.redis.RedisDataUtil;
+import com.beef.util.redis.compress.CompressException;
+
+/**
+ * Secondary indexes on properties of a data class stored by set/setex.
+ * <br/>
+ * Index of property value is a redis set of keys: {indexKeyPrefix}{property}:{value}.
+ * Property values indexed for each key are kept in a hash: {indexKeyPrefix}@{key}, so that old index entries can be removed.
+ * The hash of data written by setex() expires indexedValuesTtlMarginSeconds later than the data,
+ * so the index entries can be removed when the key is set again soon after expired, and the hash does not leak.
+ * Data and indexes are written in one MULTI with the hash WATCHed, and retried on conflict.
+ * <br/>
+ * Keys expired by ttl are left in indexes until they are found by findBy(). Entries of missing keys, and entries of which the hash
+ * holds another value(left after the hash expired), are removed in one lua script call, which checks them again
+ * so entries written concurrently are kept.
+ * Data found by findBy() is filtered by the property value read from it, so a stale index entry never returns unmatched data.
+ * Null property values are not indexed.
+ * @author beef
+ *
+ */
+public class RedisDataIndex {
+	private final static int DEFAULT_MAX_RETRY_COUNT = 16;
+	private final static int DEFAULT_INDEXED_VALUES_TTL_MARGIN_SECONDS = 3600;
+
+	/**
+	 * KEYS: index key, then pairs of data key and indexed values key. ARGV: property, value
+	 * @return count of entries removed
+	 */
+	private final static LuaScript SCRIPT_REMOVE_STALE = new LuaScript(
+			"local removed = 0\n"
+			+ "for i = 2, #KEYS, 2 do\n"
+			+ "  local indexed = redis.call('hget', KEYS[i + 1], ARGV[1])\n"
+			+ "  if redis.call('exists', KEYS[i]) == 0 then\n"
+			+ "    redis.call('srem', KEYS[1], KEYS[i])\n"
+			+ "    if indexed == ARGV[2] then\n"
+			+ "      redis.call('hdel', KEYS[i + 1], ARGV[1])\n"
+			+ "    end\n"
+			+ "    removed = removed + 1\n"
+			+ "  elseif indexed and indexed ~= ARGV[2] then\n"
+			+ "    redis.call('srem', KEYS[1], KEYS[i])\n"
+			+ "    removed = removed + 1\n"
+			+ "  end\n"
+			+ "end\n"
+			+ "return removed"
+			);
+
+	private final Class<?> _dataClass;
+	private final String _indexKeyPrefix;
+	private final String[] _properties;
+	private final Method[] _readMethods;
+	private int _maxRetryCount = DEFAULT_MAX_RETRY_COUNT;
+	private int _indexedValuesTtlMarginSeconds = DEFAULT_INDEXED_VALUES_TTL_MARGIN_SECONDS;
+
+	/**
+	 * @param dataClass
+	 * @param indexKeyPrefix e.g. "idx:EciticUserData:"
+	 * @param properties names of indexed properties
+	 * @throws IntrospectionException when property not found
+	 */
+	public RedisDataIndex(Class<?> dataClass, String indexKeyPrefix, String... properties) throws IntrospectionException {
+		_dataClass = dataClass;
+		_indexKeyPrefix = indexKeyPrefix;
+		_properties = properties;
+
+		Map<String, Method> readMethodMap = new HashMap<String, Method>();
+		PropertyDescriptor[] props = Introspector.getBeanInfo(dataClass).getPropertyDescriptors();
+		for(int i = 0; i < props.length; i++) {
+			if(props[i].getReadMethod() != null) {
+				readMethodMap.put(props[i].getName(), props[i].getReadMethod());
+			}
+		}
+
+		_readMethods = new Method[properties.length];
+		for(int i = 0; i < properties.length; i++) {
+			_readMethods[i] = readMethodMap.get(properties[i]);
+			if(_readMethods[i] == null) {
+				throw new IntrospectionException("Readable property not found:" + properties[i] + " in " + dataClass.getName());
+			}
+		}
+	}
+
+	public Class<?> getDataClass() {
+		return _dataClass;
+	}
+
+	public void setMaxRetryCount(int maxRetryCount) {
+		_maxRetryCount = maxRetryCount;
+	}
+
+	/**
+	 * @param indexedValuesTtlMarginSeconds how much longer the hash of indexed values lives than data written by setex(). Default 3600.
+	 */
+	public void setIndexedValuesTtlMarginSeconds(int indexedValuesTtlMarginSeconds) {
+		_indexedValuesTtlMarginSeconds = indexedValuesTtlMarginSeconds;
+	}
+
+	public String getIndexKey(String property, String value) {
+		return _indexKeyPrefix + property + ":" + value;
+	}
+
+	public String getIndexedValuesKey(String key) {
+		return _indexKeyPrefix + "@" + key;
+	}
+
+	public void set(
+			Jedis jedis,
+			String key, Object data, boolean isUseCompress
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		setex(jedis, key, 0, data, isUseCompress);
+	}
+
+	/**
+	 * @param seconds 0 means no expiration
+	 * @throws RedisDataException when retried more than maxRetryCount on conflicts
+	 */
+	public void setex(
+			Jedis jedis,
+			String key, int seconds, Object data, boolean isUseCompress
+			) throws IntrospectionException, IllegalAccessException, InvocationTargetException, IOException, CompressException {
+		String value = RedisDataUtil.serializeDataToString(data, _dataClass, isUseCompress);
+		Map<String, String> newIndexedValues = readIndexedValues(data);
+		String indexedValuesKey = getIndexedValuesKey(key);
+
+		for(int retry = 0; retry <= _maxRetryCount; retry++) {
+			boolean isWatching = true;
+			jedis.watch(indexedValuesKey);
+			try {
+				Map<String, String> oldIndexedValues = jedis.hgetAll(indexedValuesKey);
+
+				Transaction transaction = jedis.multi();
+				isWatching = false;
+				if(seconds > 0) {
+					transaction.setex(key, seconds, value);
+				} else {
+					transaction.set(key, value);
+				}
+				for(int i = 0; i < _properties.length; i++) {
+					String property = _properties[i];
+					String oldValue = oldIndexedValues.get(property);
+					String newValue = newIndexedValues.get(property);
+					if(oldValue != null && oldValue.equals(newValue)) {
+						continue;
+					}
+
+					if(oldValue != null) {
+						transaction.srem(getIndexKey(property, oldValue), key);
+						transaction.hdel(indexedValuesKey, property);
+					}
+					if(newValue != null) {
+						transaction.sadd(getIndexKey(property, newValue), key);
+						transaction.hset(indexedValuesKey, property, newValue);
+					}
+				}
+				if(seconds > 0) {
+					transaction.expire(indexedValuesKey, seconds + _indexedValuesTtlMarginSeconds);
+				} else {
+					transaction.persist(indexedValuesKey);
+				}
+				if(isExecuted(transaction.exec())) {
+					return;
+				}
+			} finally {
+				if(isWatching) {
+					jedis.unwatch();
+				}
+			}
+		}
+
+		throw new RedisDataException("Failed to set because of conflicts. key:" + key + " retry:" + _maxRetryCount);
+	}
+
+	/**
+	 * Delete data and its index entries.
+	 * @throws RedisDataException when retried more than maxRetryCount on conflicts
+	 */
+	public void del(Jedis jedis, String key) {
+		String indexedValuesKey = getIndexedValuesKey(key);
+
+		for(int retry = 0; retry <= _maxRetryCount; retry++) {
+			boolean isWatching = true;
+			jedis.watch(indexedValuesKey);
+			try {
+				Map<String, String> oldIndexedValues = jedis.hgetAll(indexedValuesKey);
+
+				Transaction transaction = jedis.multi();
+				isWatching = false;
+				transaction.del(key, indexedValuesKey);
+				for(Map.Entry<String, String> entry : oldIndexedValues.entrySet()) {
+					transaction.srem(getIndexKey(entry.getKey(), entry.getValue()), key);
+				}
+				if(isExecuted(transaction.exec())) {
+					return;
+				}
+			} finally {
+				if(isWatching) {
+					jedis.unwatch();
+				}
+			}
+		}
+
+		throw new RedisDataException("Failed to delete because of conflicts. key:" + key + " retry:" + _maxRetryCount);
+	}
+
+	/**
+	 * Look up keys in the index, and get data of them by one MGET.
+	 * @param property
+	 * @param value compared as String.valueOf(property value)
+	 * @return data found of which property value matched
+	 * @throws IllegalArgumentException when property is not indexed
+	 * @throws RedisDataException wraps the exception thrown in decoding
+	 */
+	public List<Object> findBy(
+			Jedis jedis,
+			String property, Object value,
+			boolean isUseCompress, ClassFinder classFinder
+			) {
+		Method readMethod = getReadMethod(property);
+		String strValue = String.valueOf(value);
+		String indexKey = getIndexKey(property, strValue);
+		Set<String> keySet = jedis.smembers(indexKey);
+		if(keySet.isEmpty()) {
+			return new ArrayList<Object>(0);
+		}
+
+		String[] keys = keySet.toArray(new String[keySet.size()]);
+		List<String> strList = jedis.mget(keys);
+
+		//expired(or deleted without index) keys, and keys of which value changed
+		List<String> staleKeys = new ArrayList<String>();
+		List<String> foundKeys = new ArrayList<String>(strList.size());
+		List<String> foundStrList = new ArrayList<String>(strList.size());
+		for(int i = 0; i < keys.length; i++) {
+			String str = strList.get(i);
+			if(str == null) {
+				staleKeys.add(keys[i]);
+			} else {
+				foundKeys.add(keys[i]);
+				foundStrList.add(str);
+			}
+		}
+
+		List<Object> dataList = RedisDataUtil.deserializeDataList(foundStrList, _dataClass, isUseCompress, classFinder, null, 1);
+		List<Object> matchedList = new ArrayList<Object>(dataList.size());
+		try {
+			for(int i = 0; i < dataList.size(); i++) {
+				Object data = dataList.get(i);
+				if(data != null && strValue.equals(String.valueOf(readMethod.invoke(data)))) {
+					matchedList.add(data);
+				} else {
+					staleKeys.add(foundKeys.get(i));
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new RedisDataException(e);
+		} catch (InvocationTargetException e) {
+			throw new RedisDataException(e);
+		}
+
+		if(staleKeys.size() > 0) {
+			removeStaleEntries(jedis, indexKey, property, strValue, staleKeys);
+		}
+		return matchedList;
+	}
+
+	/**
+	 * Entries are checked again in the script, so only the ones still stale are removed.
+	 */
+	private void removeStaleEntries(Jedis jedis, String indexKey, String property, String strValue, List<String> staleKeys) {
+		List<String> scriptKeys = new ArrayList<String>(1 + staleKeys.size() * 2);
+		scriptKeys.add(indexKey);
+		for(String key : staleKeys) {
+			scriptKeys.add(key);
+			scriptKeys.add(getIndexedValuesKey(key));
+		}
+		SCRIPT_REMOVE_STALE.eval(jedis, scriptKeys, Arrays.asList(property, strValue));
+	}
+
+	private Method getReadMethod(String property) {
+		for(int i = 0; i < _properties.length; i++) {
+			if(_properties[i].equals(property)) {
+				return _readMethods[i];
+			}
+		}
+		throw new IllegalArgumentException("Property not indexed:" + property);
+	}
+
+	private Map<String, String> readIndexedValues(Object data) throws IllegalAccessException, InvocationTargetException {
+		Map<String, String> values = new HashMap<String, String>(_properties.length * 2);
+		for(int i = 0; i < _properties.length; i++) {
+			Object propValue = _readMethods[i].invoke(data);
+			if(propValue != null) {
+				values.put(_properties[i], String.valueOf(propValue));
+			}
+		}
+		return values;
+	}
+
+	private static boolean isExecuted(List<Object> results) {
+		return results != null && results.size() > 0;
+	}
+}
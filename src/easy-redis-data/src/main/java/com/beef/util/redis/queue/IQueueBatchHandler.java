@@ -0,0 +1,12 @@
+package com.beef.util.redis.queue;
+
+import java.util.List;
+
+public interface IQueueBatchHandler {
+
+	/**
+	 * @param batch data decoded in the order popped from queue
+	 * @throws Exception in reliable mode, elements of the batch are kept in the processing list
+	 */
+	public void handle(List<Object> batch) throws Exception;
+}
@@ -0,0 +1,241 @@
+package com.beef.util.redis.queue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import MetoXML.Util.ClassFinder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import com.beef.util.redis.LuaScript;
+import com.beef.util.redis.RedisDataUtil;
+
+/**
+ * Consumer of a list used as work queue. It blocks until an element arrives, then drains up to batchSize elements
+ * in one round trip(lua script), decodes them(in parallel if decodeExecutor is set) and hands them to the handler as a batch.
+ * <br/>
+ * Both modes pop from the left(BLPOP), which is FIFO for producers calling rpush.
+ * <br/>
+ * Reliable mode(processingListKey is set) also appends the elements popped to the right of the processing list(in the same script of draining).
+ * The elements are removed from the processing list after handled successfully,
+ * otherwise they are left there and can be moved back by requeueProcessing().
+ * The element popped by BLPOP is recorded in the next round trip, so it is lost only if the consumer dies between the two.
+ * @author beef
+ *
+ */
+public class RedisDataQueueConsumer implements Runnable {
+	private final static LuaScript SCRIPT_DRAIN = new LuaScript(
+			"local items = redis.call('lrange', KEYS[1], 0, tonumber(ARGV[1]) - 1)\n"
+			+ "if #items > 0 then\n"
+			+ "  redis.call('ltrim', KEYS[1], #items, -1)\n"
+			+ "end\n"
+			+ "return items"
+			);
+
+	/**
+	 * KEYS[1]: queue, KEYS[2]: processing list, ARGV[1]: max count to drain, ARGV[2]: element popped by BLPOP
+	 */
+	private final static LuaScript SCRIPT_DRAIN_RELIABLE = new LuaScript(
+			"redis.call('rpush', KEYS[2], ARGV[2])\n"
+			+ "local items = {}\n"
+			+ "for i = 1, tonumber(ARGV[1]) do\n"
+			+ "  local item = redis.call('lpop', KEYS[1])\n"
+			+ "  if not item then\n"
+			+ "    break\n"
+			+ "  end\n"
+			+ "  redis.call('rpush', KEYS[2], item)\n"
+			+ "  items[#items + 1] = item\n"
+			+ "end\n"
+			+ "return items"
+			);
+
+	private final static LuaScript SCRIPT_ACK = new LuaScript(
+			"for i = 1, #ARGV do\n"
+			+ "  redis.call('lrem', KEYS[1], -1, ARGV[i])\n"
+			+ "end\n"
+			+ "return #ARGV"
+			);
+
+	private final static LuaScript SCRIPT_REQUEUE = new LuaScript(
+			"local count = 0\n"
+			+ "while redis.call('rpoplpush', KEYS[1], KEYS[2]) do\n"
+			+ "  count = count + 1\n"
+			+ "end\n"
+			+ "return count"
+			);
+
+	private final static long RETRY_INTERVAL_MILLIS = 1000;
+
+	private final JedisPool _pool;
+	private final String _queueKey;
+	private final Class<?> _dataClass;
+	private final boolean _isUseCompress;
+	private final ClassFinder _classFinder;
+	private final IQueueBatchHandler _handler;
+
+	private int _batchSize = 100;
+	private int _blockTimeoutSeconds = 1;
+	private String _processingListKey = null;
+	private ExecutorService _decodeExecutor = null;
+	private int _decodeParallelism = 1;
+
+	private volatile boolean _isStopRequested = false;
+	private volatile Exception _lastError = null;
+	private volatile long _handledCount = 0;
+
+	/**
+	 * @param pool
+	 * @param queueKey
+	 * @param dataClass null means elements are decoded as String
+	 * @param isUseCompress
+	 * @param classFinder
+	 * @param handler
+	 */
+	public RedisDataQueueConsumer(
+			JedisPool pool, String queueKey,
+			Class<?> dataClass, boolean isUseCompress, ClassFinder classFinder,
+			IQueueBatchHandler handler) {
+		_pool = pool;
+		_queueKey = queueKey;
+		_dataClass = dataClass;
+		_isUseCompress = isUseCompress;
+		_classFinder = classFinder;
+		_handler = handler;
+	}
+
+	/**
+	 * @param batchSize max count of elements in one batch. Default 100.
+	 */
+	public void setBatchSize(int batchSize) {
+		_batchSize = batchSize;
+	}
+
+	/**
+	 * @param blockTimeoutSeconds timeout of BLPOP, which is also the max delay of stop(). Default 1.
+	 */
+	public void setBlockTimeoutSeconds(int blockTimeoutSeconds) {
+		_blockTimeoutSeconds = blockTimeoutSeconds;
+	}
+
+	/**
+	 * @param processingListKey not null means reliable mode. Default null.
+	 */
+	public void setProcessingListKey(String processingListKey) {
+		_processingListKey = processingListKey;
+	}
+
+	public void setDecodeExecutor(ExecutorService decodeExecutor, int decodeParallelism) {
+		_decodeExecutor = decodeExecutor;
+		_decodeParallelism = decodeParallelism;
+	}
+
+	public void stop() {
+		_isStopRequested = true;
+	}
+
+	public Exception getLastError() {
+		return _lastError;
+	}
+
+	/**
+	 * @return count of elements handled successfully
+	 */
+	public long getHandledCount() {
+		return _handledCount;
+	}
+
+	@Override
+	public void run() {
+		while(!_isStopRequested) {
+			try {
+				consumeBatch();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch(Exception e) {
+				_lastError = e;
+				try {
+					Thread.sleep(RETRY_INTERVAL_MILLIS);
+				} catch(InterruptedException e1) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wait for elements at most blockTimeoutSeconds and handle one batch.
+	 * @return count of elements handled
+	 */
+	public int consumeBatch() throws Exception {
+		List<String> strList = popBatch();
+		if(strList.isEmpty()) {
+			return 0;
+		}
+
+		List<Object> batch = RedisDataUtil.deserializeDataList(
+				strList, _dataClass, _isUseCompress, _classFinder, _decodeExecutor, _decodeParallelism);
+		_handler.handle(batch);
+
+		if(_processingListKey != null) {
+			Jedis jedis = _pool.getResource();
+			try {
+				SCRIPT_ACK.eval(jedis, Arrays.asList(_processingListKey), strList);
+			} finally {
+				jedis.close();
+			}
+		}
+
+		_handledCount += strList.size();
+		return strList.size();
+	}
+
+	/**
+	 * Move all elements in processing list back to the left of queue(e.g. at startup after a crash),
+	 * so they are consumed first and in the order they were popped.
+	 * @return count of elements moved
+	 * @throws IllegalStateException if it is not in reliable mode
+	 */
+	public long requeueProcessing() {
+		if(_processingListKey == null) {
+			throw new IllegalStateException("processingListKey is not set");
+		}
+
+		Jedis jedis = _pool.getResource();
+		try {
+			return (Long) SCRIPT_REQUEUE.eval(jedis, Arrays.asList(_processingListKey, _queueKey), new ArrayList<String>(0));
+		} finally {
+			jedis.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<String> popBatch() {
+		List<String> strList = new ArrayList<String>(_batchSize);
+		Jedis jedis = _pool.getResource();
+		try {
+			List<String> keyAndValue = jedis.blpop(_blockTimeoutSeconds, _queueKey);
+			if(keyAndValue == null || keyAndValue.size() < 2) {
+				return strList;
+			}
+			String value = keyAndValue.get(1);
+			strList.add(value);
+
+			if(_processingListKey != null) {
+				//the popped element is recorded even if nothing more to drain
+				List<String> args = Arrays.asList(String.valueOf(_batchSize - 1), value);
+				strList.addAll((List<String>) SCRIPT_DRAIN_RELIABLE.eval(jedis, Arrays.asList(_queueKey, _processingListKey), args));
+			} else if(_batchSize > 1) {
+				List<String> args = Arrays.asList(String.valueOf(_batchSize - 1));
+				strList.addAll((List<String>) SCRIPT_DRAIN.eval(jedis, Arrays.asList(_queueKey), args));
+			}
+		} finally {
+			jedis.close();
+		}
+
+		return strList;
+	}
+}
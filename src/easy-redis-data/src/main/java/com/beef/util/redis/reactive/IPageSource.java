@@ -0,0 +1,24 @@
+package com.beef.util.redis.reactive;
+
+import java.util.List;
+
+/**
+ * Source of pages for PagedPublisher. Methods are called by one thread at a time.
+ * @author beef
+ *
+ */
+public interface IPageSource<T> {
+
+	/**
+	 * Fetch and decode the next page.
+	 * @return elements(not null) of the page(maybe empty while there are more pages), or null when there is no more page
+	 * @throws Exception
+	 */
+	public List<T> nextPage() throws Exception;
+
+	/**
+	 * Release resources of the source. Called once after the subscription is completed, failed or cancelled,
+	 * and not during nextPage().
+	 */
+	public void close();
+}
@@ -0,0 +1,273 @@
+package com.beef.util.redis.reactive;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Cold publisher which fetches pages from IPageSource with backpressure.
+ * Each subscriber gets its own page source, and pages are fetched and emitted on fetchExecutor.
+ * <br/>
+ * Elements are buffered up to about 2 pages: the next page is fetched ahead in another task while less than 1 page is buffered,
+ * so the buffered elements are emitted during the fetching. Nothing is fetched while the subscriber does not request and the buffer is full.
+ * The page source is closed once the subscription is completed, failed or cancelled(after the page being fetched returns).
+ * <br/>
+ * If a method of the subscriber throws(Rule 2.13), the subscription is cancelled and the error is rethrown to fetchExecutor.
+ * @author beef
+ *
+ */
+public class PagedPublisher<T> implements Publisher<T> {
+
+	/**
+	 * Factory of page source, since every subscriber reads from the beginning.
+	 */
+	public static interface IPageSourceFactory<T> {
+		public IPageSource<T> createPageSource();
+	}
+
+	private final IPageSourceFactory<T> _pageSourceFactory;
+	private final int _pageSize;
+	private final Executor _fetchExecutor;
+
+	/**
+	 * @param pageSourceFactory
+	 * @param pageSize count of elements expected in one page, it decides the size of buffer
+	 * @param fetchExecutor
+	 */
+	public PagedPublisher(IPageSourceFactory<T> pageSourceFactory, int pageSize, Executor fetchExecutor) {
+		_pageSourceFactory = pageSourceFactory;
+		_pageSize = pageSize;
+		_fetchExecutor = fetchExecutor;
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super T> subscriber) {
+		if(subscriber == null) {
+			throw new NullPointerException("subscriber is null");
+		}
+
+		PagedSubscription<T> subscription = new PagedSubscription<T>(
+				subscriber, _pageSourceFactory.createPageSource(), _pageSize, _fetchExecutor);
+		subscriber.onSubscribe(subscription);
+	}
+
+	private static class PagedSubscription<T> implements Subscription, Runnable {
+		private final Subscriber<? super T> _subscriber;
+		private final IPageSource<T> _pageSource;
+		private final int _pageSize;
+		private final Executor _executor;
+
+		private final AtomicLong _demand = new AtomicLong();
+		private final AtomicInteger _wip = new AtomicInteger();
+		private volatile boolean _isCancelled = false;
+		private volatile Throwable _requestError = null;
+
+		//set by the fetching task, then _isFetching is cleared
+		private volatile List<T> _fetchedPage = null;
+		private volatile boolean _isSourceDone = false;
+		private volatile Throwable _sourceError = null;
+		private volatile boolean _isFetching = false;
+
+		//accessed only in run()
+		private final ArrayDeque<T> _buffer = new ArrayDeque<T>();
+		private boolean _isTerminated = false;
+		private boolean _isSourceClosed = false;
+		private Throwable _subscriberError = null;
+
+		private final Runnable _fetchTask = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					List<T> page = _pageSource.nextPage();
+					if(page == null) {
+						_isSourceDone = true;
+					} else {
+						_fetchedPage = page;
+					}
+				} catch(Throwable e) {
+					_sourceError = e;
+				}
+				_isFetching = false;
+				schedule();
+			}
+		};
+
+		public PagedSubscription(Subscriber<? super T> subscriber, IPageSource<T> pageSource, int pageSize, Executor executor) {
+			_subscriber = subscriber;
+			_pageSource = pageSource;
+			_pageSize = pageSize;
+			_executor = executor;
+		}
+
+		@Override
+		public void request(long n) {
+			if(n <= 0) {
+				_requestError = new IllegalArgumentException("Rule 3.9: request count must be positive:" + n);
+			} else {
+				//add with cap at Long.MAX_VALUE(unbounded)
+				while(true) {
+					long current = _demand.get();
+					long next = current + n;
+					if(next < 0) {
+						next = Long.MAX_VALUE;
+					}
+					if(_demand.compareAndSet(current, next)) {
+						break;
+					}
+				}
+			}
+
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			_isCancelled = true;
+			schedule();
+		}
+
+		private void schedule() {
+			if(_wip.getAndIncrement() == 0) {
+				_executor.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			int missed = 1;
+			while(true) {
+				drain();
+
+				missed = _wip.addAndGet(-missed);
+				if(missed == 0) {
+					break;
+				}
+			}
+
+			//thrown after _wip is released, so later signals are still drained
+			Throwable subscriberError = _subscriberError;
+			if(subscriberError != null) {
+				_subscriberError = null;
+				if(subscriberError instanceof RuntimeException) {
+					throw (RuntimeException) subscriberError;
+				} else if(subscriberError instanceof Error) {
+					throw (Error) subscriberError;
+				} else {
+					throw new RuntimeException(subscriberError);
+				}
+			}
+		}
+
+		private void drain() {
+			while(!_isTerminated) {
+				if(_isCancelled) {
+					terminate();
+					break;
+				}
+				if(_requestError != null) {
+					terminate();
+					signalError(_requestError);
+					break;
+				}
+
+				List<T> page = _fetchedPage;
+				if(page != null) {
+					_fetchedPage = null;
+					_buffer.addAll(page);
+				}
+				if(_sourceError != null) {
+					terminate();
+					signalError(_sourceError);
+					break;
+				}
+
+				if(!_buffer.isEmpty() && _demand.get() > 0) {
+					T element = _buffer.poll();
+					if(_demand.get() != Long.MAX_VALUE) {
+						_demand.decrementAndGet();
+					}
+					try {
+						_subscriber.onNext(element);
+					} catch(Throwable e) {
+						onSubscriberError(e);
+					}
+					continue;
+				}
+
+				if(_buffer.isEmpty() && _isSourceDone) {
+					terminate();
+					try {
+						_subscriber.onComplete();
+					} catch(Throwable e) {
+						_subscriberError = e;
+					}
+					break;
+				}
+
+				//_isFetching is read first, since the results of the fetching task are written before it is cleared
+				if(!_isFetching && _fetchedPage == null && _sourceError == null && !_isSourceDone
+						&& _buffer.size() < _pageSize) {
+					_isFetching = true;
+					try {
+						_executor.execute(_fetchTask);
+					} catch(Throwable e) {
+						_isFetching = false;
+						terminate();
+						signalError(e);
+						break;
+					}
+					continue;
+				}
+
+				//waiting for request or the page being fetched
+				return;
+			}
+
+			closeSourceIfIdle();
+		}
+
+		private void terminate() {
+			_isTerminated = true;
+			_buffer.clear();
+		}
+
+		private void signalError(Throwable e) {
+			try {
+				_subscriber.onError(e);
+			} catch(Throwable t) {
+				_subscriberError = t;
+			}
+		}
+
+		/**
+		 * Rule 2.13: the subscription is considered cancelled.
+		 */
+		private void onSubscriberError(Throwable e) {
+			_subscriberError = e;
+			_isCancelled = true;
+		}
+
+		/**
+		 * Close the source when terminated and no page is being fetched, otherwise it is closed after the fetching task schedules drain.
+		 */
+		private void closeSourceIfIdle() {
+			if(_isSourceClosed || _isFetching) {
+				return;
+			}
+
+			_isSourceClosed = true;
+			_fetchedPage = null;
+			try {
+				_pageSource.close();
+			} catch(Throwable e) {
+				//nothing to report after terminated
+			}
+		}
+	}
+}
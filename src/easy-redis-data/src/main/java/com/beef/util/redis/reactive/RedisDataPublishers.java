@@ -0,0 +1,209 @@
+package com.beef.util.redis.reactive;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+import org.reactivestreams.Publisher;
+
+import MetoXML.Util.ClassFinder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+import com.beef.util.redis.RedisDataUtil;
+
+/**
+ * Publishers(Reactive Streams) of data in list, hash and keyspace.
+ * Redis is read page by page as the subscriber requests, and each page is decoded on decodeExecutor in parallel(if it is not null).
+ * <br/>
+ * dataClass null means values are decoded as String. Null elements(e.g. keys expired during scanning) are skipped.
+ * @author beef
+ *
+ */
+public class RedisDataPublishers {
+
+	/**
+	 * Publish elements of list by lrange of pageSize.
+	 */
+	public static Publisher<Object> lrange(
+			final JedisPool pool, final String key, final int pageSize,
+			final Class<?> dataClass, final boolean isUseCompress, final ClassFinder classFinder,
+			Executor fetchExecutor, final ExecutorService decodeExecutor, final int decodeParallelism
+			) {
+		return new PagedPublisher<Object>(new PagedPublisher.IPageSourceFactory<Object>() {
+			@Override
+			public IPageSource<Object> createPageSource() {
+				return new IPageSource<Object>() {
+					private long _start = 0;
+
+					@Override
+					public List<Object> nextPage() throws Exception {
+						if(_start < 0) {
+							return null;
+						}
+
+						List<String> strList;
+						Jedis jedis = pool.getResource();
+						try {
+							strList = jedis.lrange(key, _start, _start + pageSize - 1);
+						} finally {
+							jedis.close();
+						}
+
+						if(strList.size() < pageSize) {
+							_start = -1;
+						} else {
+							_start += pageSize;
+						}
+						return removeNull(RedisDataUtil.deserializeDataList(
+								strList, dataClass, isUseCompress, classFinder, decodeExecutor, decodeParallelism));
+					}
+
+					@Override
+					public void close() {
+						//connection is borrowed for each page
+					}
+				};
+			}
+		}, pageSize, fetchExecutor);
+	}
+
+	/**
+	 * Publish fields and values of hash by hscan.
+	 * @param scanCount COUNT of hscan
+	 */
+	public static Publisher<Map.Entry<String, Object>> hscan(
+			final JedisPool pool, final String key, final int scanCount,
+			final Class<?> dataClass, final boolean isUseCompress, final ClassFinder classFinder,
+			Executor fetchExecutor, final ExecutorService decodeExecutor, final int decodeParallelism
+			) {
+		return new PagedPublisher<Map.Entry<String, Object>>(new PagedPublisher.IPageSourceFactory<Map.Entry<String, Object>>() {
+			@Override
+			public IPageSource<Map.Entry<String, Object>> createPageSource() {
+				return new ScanPageSource() {
+					@Override
+					protected List<Map.Entry<String, String>> scan(Jedis jedis, String cursor, ScanParams params) {
+						ScanResult<Map.Entry<String, String>> result = jedis.hscan(key, cursor, params);
+						_cursor = result.getStringCursor();
+						return result.getResult();
+					}
+
+					@Override
+					protected List<Object> decode(List<String> strList) {
+						return RedisDataUtil.deserializeDataList(
+								strList, dataClass, isUseCompress, classFinder, decodeExecutor, decodeParallelism);
+					}
+				}.init(pool, new ScanParams().count(scanCount));
+			}
+		}, scanCount, fetchExecutor);
+	}
+
+	/**
+	 * Publish keys and values of string type in keyspace by scan and mget.
+	 * @param scanMatch MATCH of scan
+	 * @param scanCount COUNT of scan
+	 */
+	public static Publisher<Map.Entry<String, Object>> scan(
+			final JedisPool pool, String scanMatch, final int scanCount,
+			final Class<?> dataClass, final boolean isUseCompress, final ClassFinder classFinder,
+			Executor fetchExecutor, final ExecutorService decodeExecutor, final int decodeParallelism
+			) {
+		final ScanParams scanParams = new ScanParams().match(scanMatch).count(scanCount);
+		return new PagedPublisher<Map.Entry<String, Object>>(new PagedPublisher.IPageSourceFactory<Map.Entry<String, Object>>() {
+			@Override
+			public IPageSource<Map.Entry<String, Object>> createPageSource() {
+				return new ScanPageSource() {
+					@Override
+					protected List<Map.Entry<String, String>> scan(Jedis jedis, String cursor, ScanParams params) {
+						ScanResult<String> result = jedis.scan(cursor, params);
+						_cursor = result.getStringCursor();
+
+						List<String> keys = result.getResult();
+						if(keys.isEmpty()) {
+							return new ArrayList<Map.Entry<String, String>>(0);
+						}
+						List<String> values = jedis.mget(keys.toArray(new String[keys.size()]));
+						List<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>(keys.size());
+						for(int i = 0; i < keys.size(); i++) {
+							entries.add(new AbstractMap.SimpleImmutableEntry<String, String>(keys.get(i), values.get(i)));
+						}
+						return entries;
+					}
+
+					@Override
+					protected List<Object> decode(List<String> strList) {
+						return RedisDataUtil.deserializeDataList(
+								strList, dataClass, isUseCompress, classFinder, decodeExecutor, decodeParallelism);
+					}
+				}.init(pool, scanParams);
+			}
+		}, scanCount, fetchExecutor);
+	}
+
+	private static abstract class ScanPageSource implements IPageSource<Map.Entry<String, Object>> {
+		private JedisPool _pool;
+		private ScanParams _params;
+		protected String _cursor = ScanParams.SCAN_POINTER_START;
+		private boolean _isDone = false;
+
+		public ScanPageSource init(JedisPool pool, ScanParams params) {
+			_pool = pool;
+			_params = params;
+			return this;
+		}
+
+		protected abstract List<Map.Entry<String, String>> scan(Jedis jedis, String cursor, ScanParams params);
+
+		protected abstract List<Object> decode(List<String> strList);
+
+		@Override
+		public List<Map.Entry<String, Object>> nextPage() throws Exception {
+			if(_isDone) {
+				return null;
+			}
+
+			List<Map.Entry<String, String>> entries;
+			Jedis jedis = _pool.getResource();
+			try {
+				entries = scan(jedis, _cursor, _params);
+			} finally {
+				jedis.close();
+			}
+			_isDone = ScanParams.SCAN_POINTER_START.equals(_cursor);
+
+			List<String> strList = new ArrayList<String>(entries.size());
+			for(Map.Entry<String, String> entry : entries) {
+				strList.add(entry.getValue());
+			}
+			List<Object> values = decode(strList);
+
+			List<Map.Entry<String, Object>> page = new ArrayList<Map.Entry<String, Object>>(entries.size());
+			for(int i = 0; i < entries.size(); i++) {
+				Object value = values.get(i);
+				if(value != null) {
+					page.add(new AbstractMap.SimpleImmutableEntry<String, Object>(entries.get(i).getKey(), value));
+				}
+			}
+			return page;
+		}
+
+		@Override
+		public void close() {
+			//connection is borrowed for each page
+		}
+	}
+
+	private static List<Object> removeNull(List<Object> list) {
+		for(int i = list.size() - 1; i >= 0; i--) {
+			if(list.get(i) == null) {
+				list.remove(i);
+			}
+		}
+		return list;
+	}
+}
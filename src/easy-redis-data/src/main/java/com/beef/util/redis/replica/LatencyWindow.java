@@ -0,0 +1,61 @@
+package com.beef.util.redis.replica;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window of the latest latencies, with the percentile recomputed every recomputeInterval samples
+ * so that reading it is cheap.
+ * @author beef
+ *
+ */
+public class LatencyWindow {
+	private final long[] _samples;
+	private final double _percentile;
+	private final int _recomputeInterval;
+
+	//guarded by this
+	private int _count = 0;
+	private int _next = 0;
+	private int _addedSinceRecompute = 0;
+
+	private volatile long _percentileNanos = -1;
+
+	/**
+	 * @param windowSize count of latest samples kept
+	 * @param percentile e.g. 0.95
+	 * @param recomputeInterval
+	 */
+	public LatencyWindow(int windowSize, double percentile, int recomputeInterval) {
+		_samples = new long[windowSize];
+		_percentile = percentile;
+		_recomputeInterval = recomputeInterval;
+	}
+
+	public synchronized void add(long nanos) {
+		_samples[_next] = nanos;
+		_next = (_next + 1) % _samples.length;
+		if(_count < _samples.length) {
+			_count++;
+		}
+
+		_addedSinceRecompute++;
+		if(_addedSinceRecompute >= _recomputeInterval) {
+			_addedSinceRecompute = 0;
+			long[] sorted = Arrays.copyOf(_samples, _count);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(_percentile * _count) - 1;
+			_percentileNanos = sorted[Math.max(0, Math.min(index, _count - 1))];
+		}
+	}
+
+	/**
+	 * @return -1 if not computed yet
+	 */
+	public long getPercentileNanos() {
+		return _percentileNanos;
+	}
+
+	public synchronized int getCount() {
+		return _count;
+	}
+}
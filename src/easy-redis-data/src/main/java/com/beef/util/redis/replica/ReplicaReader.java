@@ -0,0 +1,696 @@
+package com.beef.util.redis.replica;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import MetoXML.Base.XmlParseException;
+import MetoXML.Util.Base64FormatException;
+import MetoXML.Util.ClassFinder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import com.beef.util.redis.IJedisCallback;
+import com.beef.util.redis.RedisDataException;
+import com.beef.util.redis.RedisDataUtil;
+import com.beef.util.redis.compress.CompressException;
+
+/**
+ * Reader which sends reads to replicas, and hedges slow reads.
+ * <br/>
+ * Replicas are checked by INFO replication every staleness check interval. Master_repl_offset of master is read first,
+ * and a replica is caught up to it when its slave_repl_offset reaches it. The ones which have not caught up to any
+ * master offset sampled in latest maxStalenessSeconds, whose link to master is down, or which are not reachable are excluded.
+ * When the offset of master is not available, master_last_io_seconds_ago of the replica is compared instead.
+ * Master is read only when no replica is eligible. A node answering INFO as master is always eligible,
+ * so several standalone servers can stand in for replicas in tests.
+ * <br/>
+ * Each read goes to the less busy one of two random eligible nodes, and runs in the calling thread.
+ * If it has not answered within the hedge delay (percentile of recent read latencies, clamped to [minHedgeDelay, maxHedgeDelay]),
+ * a timer sends a duplicate read to another node in the thread pool. When the duplicate answers first,
+ * the connection of the first read is closed to unblock the calling thread, and the reply of the duplicate is used.
+ * When the first read fails, the read is retried on another node in the calling thread.
+ * Duplicates of slow reads are limited by a token bucket which earns hedgeBudgetPercent of a token per read(up to maxHedgeBurst tokens),
+ * so that they do not add more than that percent of load when all nodes are slow. Without a token the read waits for the first node.
+ * Values are decoded in the calling thread after the reply.
+ * @author beef
+ *
+ */
+public class ReplicaReader {
+	private final static Random _random = new Random();
+
+	private final Node _master;
+	private final List<Node> _replicas;
+	private final ThreadFactory _threadFactory;
+	private final ExecutorService _executor;
+	private final ScheduledThreadPoolExecutor _hedgeTimer;
+	private final LatencyWindow _latencyWindow;
+	private ScheduledExecutorService _scheduler = null;
+
+	private volatile int _maxStalenessSeconds = 10;
+	private volatile boolean _isHedgeEnabled = true;
+	private volatile long _minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(1);
+	private volatile long _maxHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(50);
+	private volatile long _timeoutMillis = 2000;
+	private volatile int _hedgeBudgetPercent = 10;
+	private volatile int _maxHedgeBurst = 10;
+
+	/** tokens of hedge budget in 1/100 */
+	private final AtomicLong _hedgeTokens = new AtomicLong();
+
+	private final AtomicLong _readCount = new AtomicLong();
+	private final AtomicLong _hedgeCount = new AtomicLong();
+	private final AtomicLong _hedgeWinCount = new AtomicLong();
+	private final AtomicLong _hedgeRejectedCount = new AtomicLong();
+
+	/** master offset sampled in last staleness check, -1 if not available */
+	private long _lastMasterOffset = -1;
+	private long _lastMasterOffsetNanos = 0;
+
+	private static class Node {
+		private final JedisPool _pool;
+		private final AtomicInteger _inFlight = new AtomicInteger();
+		private volatile boolean _isFresh = true;
+		/** time of the latest master offset sample which the replica has caught up to */
+		private long _caughtUpNanos = System.nanoTime();
+
+		public Node(JedisPool pool) {
+			_pool = pool;
+		}
+	}
+
+	private static class Outcome {
+		private final Object _value;
+		private final Throwable _error;
+
+		public Outcome(Object value, Throwable error) {
+			_value = value;
+			_error = error;
+		}
+	}
+
+	/**
+	 * p95 of latest 1024 reads as hedge delay
+	 * @param master
+	 * @param replicas
+	 */
+	public ReplicaReader(JedisPool master, List<JedisPool> replicas) {
+		this(master, replicas, new LatencyWindow(1024, 0.95, 64), new ThreadFactory() {
+			private final AtomicInteger _threadCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ReplicaReader-" + _threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param latencyWindow
+	 * @param threadFactory factory of threads sending reads(e.g. virtual thread factory on Java 21)
+	 */
+	public ReplicaReader(JedisPool master, List<JedisPool> replicas, LatencyWindow latencyWindow, ThreadFactory threadFactory) {
+		_master = new Node(master);
+		_replicas = new ArrayList<Node>(replicas.size());
+		for(JedisPool pool : replicas) {
+			_replicas.add(new Node(pool));
+		}
+		_latencyWindow = latencyWindow;
+		_threadFactory = threadFactory;
+		_executor = Executors.newCachedThreadPool(threadFactory);
+		_hedgeTimer = new ScheduledThreadPoolExecutor(1, threadFactory);
+		_hedgeTimer.setRemoveOnCancelPolicy(true);
+	}
+
+	public void setMaxStalenessSeconds(int maxStalenessSeconds) {
+		_maxStalenessSeconds = maxStalenessSeconds;
+	}
+
+	public void setHedgeEnabled(boolean isHedgeEnabled) {
+		_isHedgeEnabled = isHedgeEnabled;
+	}
+
+	/**
+	 * @param minHedgeDelayMillis default 1
+	 * @param maxHedgeDelayMillis default 50, which is also used before enough latencies are sampled
+	 */
+	public void setHedgeDelayRange(long minHedgeDelayMillis, long maxHedgeDelayMillis) {
+		_minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(minHedgeDelayMillis);
+		_maxHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxHedgeDelayMillis);
+	}
+
+	/**
+	 * @param hedgeBudgetPercent max percent of reads which send a duplicate because of slowness. Default 10.
+	 * @param maxHedgeBurst max count of duplicates sent in a row when budget is saved. Default 10.
+	 */
+	public void setHedgeBudget(int hedgeBudgetPercent, int maxHedgeBurst) {
+		if(hedgeBudgetPercent < 0 || maxHedgeBurst < 0) {
+			throw new IllegalArgumentException("Invalid hedge budget:" + hedgeBudgetPercent + "% burst:" + maxHedgeBurst);
+		}
+		_hedgeBudgetPercent = hedgeBudgetPercent;
+		_maxHedgeBurst = maxHedgeBurst;
+	}
+
+	/**
+	 * @param timeoutMillis max time waiting for replies of a hedged read, after which the connection of the first read is closed. Default 2000.
+	 */
+	public void setTimeoutMillis(long timeoutMillis) {
+		_timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Check staleness of replicas in a background thread. Replicas are assumed fresh until checked.
+	 * @param intervalMillis
+	 */
+	public synchronized void startStalenessCheck(long intervalMillis) {
+		if(_scheduler != null) {
+			return;
+		}
+
+		_scheduler = Executors.newSingleThreadScheduledExecutor(_threadFactory);
+		_scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				checkStaleness();
+			}
+		}, 0, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Check staleness of all replicas by INFO replication.
+	 */
+	public synchronized void checkStaleness() {
+		long checkNanos = System.nanoTime();
+		//read before replicas, so that a replica reaching it has all the writes on master at checkNanos
+		long masterOffset = getMasterOffset();
+		for(Node node : _replicas) {
+			node._isFresh = isFresh(node, masterOffset, checkNanos);
+		}
+		if(masterOffset >= 0) {
+			_lastMasterOffset = masterOffset;
+			_lastMasterOffsetNanos = checkNanos;
+		}
+	}
+
+	public void close() {
+		synchronized (this) {
+			if(_scheduler != null) {
+				_scheduler.shutdownNow();
+			}
+		}
+		_hedgeTimer.shutdownNow();
+		_executor.shutdownNow();
+	}
+
+	public LatencyWindow getLatencyWindow() {
+		return _latencyWindow;
+	}
+
+	public long getReadCount() {
+		return _readCount.get();
+	}
+
+	/**
+	 * @return count of duplicate reads sent
+	 */
+	public long getHedgeCount() {
+		return _hedgeCount.get();
+	}
+
+	/**
+	 * @return count of reads answered by the duplicate first
+	 */
+	public long getHedgeWinCount() {
+		return _hedgeWinCount.get();
+	}
+
+	/**
+	 * @return count of slow reads not hedged because the hedge budget ran out
+	 */
+	public long getHedgeRejectedCount() {
+		return _hedgeRejectedCount.get();
+	}
+
+	/**
+	 * @return count of replicas eligible to read
+	 */
+	public int getFreshReplicaCount() {
+		int count = 0;
+		for(Node node : _replicas) {
+			if(node._isFresh) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public String getRaw(final String key) {
+		return read(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.get(key);
+			}
+		});
+	}
+
+	public String hgetRaw(final String key, final String field) {
+		return read(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.hget(key, field);
+			}
+		});
+	}
+
+	public List<String> lrangeRaw(final String key, final long start, final long end) {
+		return read(new IJedisCallback<List<String>>() {
+			@Override
+			public List<String> doInJedis(Jedis jedis) {
+				return jedis.lrange(key, start, end);
+			}
+		});
+	}
+
+	public Object get(
+			String key, Class<?> dataClass, boolean isUseCompress,
+			ClassFinder classFinder
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		return RedisDataUtil.deserializeData(getRaw(key), dataClass, isUseCompress, classFinder);
+	}
+
+	public Object hget(
+			String key, String field, Class<?> dataClass, boolean isUseCompress,
+			ClassFinder classFinder
+			) throws XmlParseException, IOException, InvocationTargetException, IllegalAccessException, InstantiationException, NoSuchMethodException, Base64FormatException, CompressException {
+		return RedisDataUtil.deserializeData(hgetRaw(key, field), dataClass, isUseCompress, classFinder);
+	}
+
+	/**
+	 * @throws RedisDataException wraps the exception thrown in decoding
+	 */
+	public List<Object> lrange(
+			String key, long start, long end,
+			Class<?> dataClass, boolean isUseCompress, ClassFinder classFinder
+			) {
+		return RedisDataUtil.deserializeDataList(lrangeRaw(key, start, end), dataClass, isUseCompress, classFinder, null, 1);
+	}
+
+	/**
+	 * Run callback on a replica(hedged as described in class comment). The callback should be read only.
+	 * @param callback
+	 * @return
+	 * @throws RedisDataException when timeout or interrupted
+	 */
+	public <T> T read(IJedisCallback<T> callback) {
+		_readCount.incrementAndGet();
+		earnHedgeToken();
+		List<Node> candidates = getCandidates();
+		Node first = pickNode(candidates, null);
+		if(!_isHedgeEnabled || candidates.size() < 2) {
+			return callNode(first, callback, null);
+		}
+
+		return new HedgedRead<T>(callback, candidates, first).read();
+	}
+
+	/**
+	 * State of a read shared by the calling thread, the hedge timer and the thread of the duplicate read.
+	 */
+	private class HedgedRead<T> implements Runnable {
+		private final IJedisCallback<T> _callback;
+		private final List<Node> _candidates;
+		private final Node _first;
+		private final long _deadline;
+
+		private ScheduledFuture<?> _timerFuture = null;
+		private boolean _isHedgeChecked = false;
+		private boolean _isHedgeSent = false;
+		private boolean _isFirstDone = false;
+		/** jedis of the first read while it is borrowed */
+		private Jedis _firstJedis = null;
+		private boolean _isFirstAborted = false;
+		private boolean _isTimeout = false;
+		private Outcome _hedgeOutcome = null;
+
+		public HedgedRead(IJedisCallback<T> callback, List<Node> candidates, Node first) {
+			_callback = callback;
+			_candidates = candidates;
+			_first = first;
+			_deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_timeoutMillis);
+		}
+
+		@SuppressWarnings("unchecked")
+		public T read() {
+			synchronized (this) {
+				_timerFuture = _hedgeTimer.schedule(this, getHedgeDelayNanos(), TimeUnit.NANOSECONDS);
+			}
+
+			T value = null;
+			Throwable firstError = null;
+			try {
+				value = callNode(_first, _callback, this);
+			} catch(Throwable e) {
+				firstError = e;
+			}
+
+			boolean isHedgeSent;
+			boolean isTimeout;
+			synchronized (this) {
+				_isFirstDone = true;
+				_timerFuture.cancel(false);
+				isHedgeSent = _isHedgeSent;
+				isTimeout = _isTimeout;
+			}
+			if(firstError == null) {
+				return value;
+			}
+
+			if(!isHedgeSent) {
+				if(isTimeout) {
+					throw new RedisDataException("Read timeout in " + _timeoutMillis + "ms");
+				}
+				//failed without being aborted, retry on another node
+				_hedgeCount.incrementAndGet();
+				return callNode(pickNode(_candidates, _first), _callback, null);
+			}
+
+			Outcome outcome;
+			try {
+				outcome = waitHedgeOutcome();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RedisDataException(e);
+			}
+			if(outcome != null && outcome._error == null) {
+				_hedgeWinCount.incrementAndGet();
+				return (T) outcome._value;
+			}
+			if(outcome == null || isTimeout()) {
+				throw new RedisDataException("Read timeout in " + _timeoutMillis + "ms");
+			}
+
+			//both failed
+			if(firstError instanceof RuntimeException) {
+				throw (RuntimeException) firstError;
+			}
+			throw new RedisDataException(firstError);
+		}
+
+		/**
+		 * Fired by hedge timer at the hedge delay, and again at the deadline.
+		 */
+		@Override
+		public void run() {
+			synchronized (this) {
+				if(_isFirstDone) {
+					return;
+				}
+				if(_isHedgeChecked) {
+					//deadline
+					_isTimeout = true;
+					abortFirst();
+					return;
+				}
+				_isHedgeChecked = true;
+			}
+
+			if(!acquireHedgeToken()) {
+				_hedgeRejectedCount.incrementAndGet();
+			} else {
+				synchronized (this) {
+					if(_isFirstDone) {
+						//token is not returned, the first read was slow anyway
+						return;
+					}
+					_isHedgeSent = true;
+				}
+				_hedgeCount.incrementAndGet();
+				final Node second = pickNode(_candidates, _first);
+				_executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						Outcome outcome;
+						try {
+							outcome = new Outcome(callNode(second, _callback, null), null);
+						} catch(Throwable e) {
+							outcome = new Outcome(null, e);
+						}
+						onHedgeOutcome(outcome);
+					}
+				});
+			}
+
+			synchronized (this) {
+				if(!_isFirstDone) {
+					_timerFuture = _hedgeTimer.schedule(this, _deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				}
+			}
+		}
+
+		private synchronized void onHedgeOutcome(Outcome outcome) {
+			_hedgeOutcome = outcome;
+			if(outcome._error == null) {
+				abortFirst();
+			}
+			notifyAll();
+		}
+
+		private synchronized Outcome waitHedgeOutcome() throws InterruptedException {
+			while(_hedgeOutcome == null) {
+				long waitNanos = _deadline - System.nanoTime();
+				if(waitNanos <= 0) {
+					return null;
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+			}
+			return _hedgeOutcome;
+		}
+
+		private synchronized boolean isTimeout() {
+			return _isTimeout;
+		}
+
+		private synchronized void onFirstBorrowed(Jedis jedis) {
+			_firstJedis = jedis;
+			if(_isTimeout || (_hedgeOutcome != null && _hedgeOutcome._error == null)) {
+				abortFirst();
+			}
+		}
+
+		/**
+		 * @return true if the connection of the first read was closed
+		 */
+		private synchronized boolean onFirstReturning() {
+			_firstJedis = null;
+			return _isFirstAborted;
+		}
+
+		/**
+		 * Close the connection of the first read, so that the calling thread blocked in reading the reply fails.
+		 */
+		private void abortFirst() {
+			if(_isFirstDone || _firstJedis == null || _isFirstAborted) {
+				return;
+			}
+			_isFirstAborted = true;
+			try {
+				_firstJedis.getClient().getSocket().close();
+			} catch(IOException e) {
+				//closed anyway
+			}
+		}
+	}
+
+	/**
+	 * @param hedgedRead not null if it is the first read of a hedged read
+	 */
+	private <T> T callNode(Node node, IJedisCallback<T> callback, HedgedRead<T> hedgedRead) {
+		node._inFlight.incrementAndGet();
+		long beginTime = System.nanoTime();
+		try {
+			Jedis jedis = node._pool.getResource();
+			if(hedgedRead != null) {
+				hedgedRead.onFirstBorrowed(jedis);
+			}
+			boolean isAborted = false;
+			try {
+				T value = callback.doInJedis(jedis);
+				_latencyWindow.add(System.nanoTime() - beginTime);
+				return value;
+			} finally {
+				if(hedgedRead != null) {
+					isAborted = hedgedRead.onFirstReturning();
+				}
+				if(isAborted) {
+					//socket closed, maybe after the reply was read
+					node._pool.returnBrokenResource(jedis);
+				} else {
+					jedis.close();
+				}
+			}
+		} finally {
+			node._inFlight.decrementAndGet();
+		}
+	}
+
+	private void earnHedgeToken() {
+		long maxTokens = _maxHedgeBurst * 100L;
+		while(true) {
+			long tokens = _hedgeTokens.get();
+			if(tokens >= maxTokens) {
+				return;
+			}
+			if(_hedgeTokens.compareAndSet(tokens, Math.min(maxTokens, tokens + _hedgeBudgetPercent))) {
+				return;
+			}
+		}
+	}
+
+	private boolean acquireHedgeToken() {
+		while(true) {
+			long tokens = _hedgeTokens.get();
+			if(tokens < 100) {
+				return false;
+			}
+			if(_hedgeTokens.compareAndSet(tokens, tokens - 100)) {
+				return true;
+			}
+		}
+	}
+
+	private long getHedgeDelayNanos() {
+		long percentileNanos = _latencyWindow.getPercentileNanos();
+		if(percentileNanos < 0) {
+			return _maxHedgeDelayNanos;
+		}
+		return Math.max(_minHedgeDelayNanos, Math.min(percentileNanos, _maxHedgeDelayNanos));
+	}
+
+	/**
+	 * @return fresh replicas, or master if none
+	 */
+	private List<Node> getCandidates() {
+		List<Node> candidates = new ArrayList<Node>(_replicas.size());
+		for(Node node : _replicas) {
+			if(node._isFresh) {
+				candidates.add(node);
+			}
+		}
+		if(candidates.isEmpty()) {
+			candidates.add(_master);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Power of two choices by count of reads in flight.
+	 * @param excluded
+	 */
+	private static Node pickNode(List<Node> candidates, Node excluded) {
+		List<Node> nodes = candidates;
+		if(excluded != null) {
+			nodes = new ArrayList<Node>(candidates);
+			nodes.remove(excluded);
+		}
+		if(nodes.size() == 1) {
+			return nodes.get(0);
+		}
+
+		Node node1 = nodes.get(_random.nextInt(nodes.size()));
+		Node node2 = nodes.get(_random.nextInt(nodes.size()));
+		return (node2._inFlight.get() < node1._inFlight.get()) ? node2 : node1;
+	}
+
+	/**
+	 * @return master_repl_offset of master, -1 if not available
+	 */
+	private long getMasterOffset() {
+		String info = getReplicationInfo(_master);
+		if(info == null) {
+			return -1;
+		}
+		return parseOffset(getInfoField(info, "master_repl_offset"));
+	}
+
+	private boolean isFresh(Node node, long masterOffset, long checkNanos) {
+		String info = getReplicationInfo(node);
+		if(info == null) {
+			return false;
+		}
+
+		String role = getInfoField(info, "role");
+		if(!"slave".equals(role)) {
+			return true;
+		}
+		if(!"up".equals(getInfoField(info, "master_link_status"))) {
+			return false;
+		}
+
+		long replicaOffset = parseOffset(getInfoField(info, "slave_repl_offset"));
+		if(masterOffset >= 0 && replicaOffset >= 0) {
+			if(replicaOffset >= masterOffset) {
+				node._caughtUpNanos = checkNanos;
+			} else if(_lastMasterOffset >= 0 && replicaOffset >= _lastMasterOffset) {
+				node._caughtUpNanos = Math.max(node._caughtUpNanos, _lastMasterOffsetNanos);
+			}
+			return (checkNanos - node._caughtUpNanos) <= TimeUnit.SECONDS.toNanos(_maxStalenessSeconds);
+		}
+
+		String lastIoSeconds = getInfoField(info, "master_last_io_seconds_ago");
+		try {
+			return lastIoSeconds != null && Integer.parseInt(lastIoSeconds) <= _maxStalenessSeconds;
+		} catch(NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return null if not reachable
+	 */
+	private static String getReplicationInfo(Node node) {
+		try {
+			Jedis jedis = node._pool.getResource();
+			try {
+				return jedis.info("replication");
+			} finally {
+				jedis.close();
+			}
+		} catch(RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static long parseOffset(String offset) {
+		if(offset == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(offset);
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static String getInfoField(String info, String name) {
+		String prefix = name + ":";
+		for(String line : info.split("\r?\n")) {
+			if(line.startsWith(prefix)) {
+				return line.substring(prefix.length()).trim();
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,156 @@
+package com.beef.util.redis.tool;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of bulk operation. Value sizes are measured in length of the value string.
+ * @author beef
+ *
+ */
+public class BulkProgress {
+	private final long _beginTime = System.currentTimeMillis();
+	private volatile long _endTime = 0;
+	private volatile boolean _isTruncated = false;
+	private volatile boolean _isAborted = false;
+	private volatile Throwable _lastError = null;
+
+	private final AtomicLong _scannedKeyCount = new AtomicLong();
+	private final AtomicLong _processedValueCount = new AtomicLong();
+	private final AtomicLong _changedValueCount = new AtomicLong();
+	private final AtomicLong _skippedValueCount = new AtomicLong();
+	private final AtomicLong _failedValueCount = new AtomicLong();
+	private final AtomicLong _totalLengthBefore = new AtomicLong();
+	private final AtomicLong _totalLengthAfter = new AtomicLong();
+
+	public void addScannedKeys(int count) {
+		_scannedKeyCount.addAndGet(count);
+	}
+
+	public void addProcessed(int lengthBefore, int lengthAfter, boolean isChanged) {
+		_processedValueCount.incrementAndGet();
+		if(isChanged) {
+			_changedValueCount.incrementAndGet();
+		}
+		_totalLengthBefore.addAndGet(lengthBefore);
+		_totalLengthAfter.addAndGet(lengthAfter);
+	}
+
+	public void addSkipped() {
+		_skippedValueCount.incrementAndGet();
+	}
+
+	public void addFailed() {
+		_failedValueCount.incrementAndGet();
+	}
+
+	void finish() {
+		_endTime = System.currentTimeMillis();
+	}
+
+	void truncate() {
+		_isTruncated = true;
+	}
+
+	void setLastError(Throwable error) {
+		if(!_isAborted) {
+			_lastError = error;
+		}
+	}
+
+	synchronized void abort(Throwable cause) {
+		//keep the first cause
+		if(!_isAborted) {
+			_lastError = cause;
+			_isAborted = true;
+		}
+	}
+
+	/**
+	 * @return true if stopped by an error which can not be skipped(e.g. the writer of export file stopped), see getLastError()
+	 */
+	public boolean isAborted() {
+		return _isAborted;
+	}
+
+	/**
+	 * @return the error which aborted the operation, or else the last error counted in failed values. null if no error.
+	 */
+	public Throwable getLastError() {
+		return _lastError;
+	}
+
+	/**
+	 * @return true if stopped before all keys processed(e.g. by the time or memory budget of warm-up)
+	 */
+	public boolean isTruncated() {
+		return _isTruncated;
+	}
+
+	public boolean isFinished() {
+		return _endTime != 0;
+	}
+
+	public long getElapsedMillis() {
+		long endTime = _endTime;
+		return (endTime != 0 ? endTime : System.currentTimeMillis()) - _beginTime;
+	}
+
+	/**
+	 * @return processed values per second
+	 */
+	public double getThroughput() {
+		long elapsed = getElapsedMillis();
+		if(elapsed <= 0) {
+			return 0;
+		}
+
+		return _processedValueCount.get() * 1000.0 / elapsed;
+	}
+
+	public long getScannedKeyCount() {
+		return _scannedKeyCount.get();
+	}
+
+	public long getProcessedValueCount() {
+		return _processedValueCount.get();
+	}
+
+	public long getChangedValueCount() {
+		return _changedValueCount.get();
+	}
+
+	public long getSkippedValueCount() {
+		return _skippedValueCount.get();
+	}
+
+	public long getFailedValueCount() {
+		return _failedValueCount.get();
+	}
+
+	public long getTotalLengthBefore() {
+		return _totalLengthBefore.get();
+	}
+
+	public long getTotalLengthAfter() {
+		return _totalLengthAfter.get();
+	}
+
+	public long getSavedLength() {
+		return _totalLengthBefore.get() - _totalLengthAfter.get();
+	}
+
+	@Override
+	public String toString() {
+		return "scannedKeys:" + getScannedKeyCount()
+				+ " processed:" + getProcessedValueCount()
+				+ " changed:" + getChangedValueCount()
+				+ " skipped:" + getSkippedValueCount()
+				+ " failed:" + getFailedValueCount()
+				+ " lengthBefore:" + getTotalLengthBefore()
+				+ " lengthAfter:" + getTotalLengthAfter()
+				+ " elapsedMillis:" + getElapsedMillis()
+				+ " throughput:" + ((long) getThroughput()) + "/s"
+				+ (_isTruncated ? " truncated" : "")
+				+ (_isAborted ? " aborted:" + _lastError : "");
+	}
+}
@@ -0,0 +1,10 @@
+package com.beef.util.redis.tool;
+
+public interface IBulkProgressListener {
+
+	/**
+	 * Called periodically while running, and once more after finished.
+	 * @param progress
+	 */
+	public void onProgress(BulkProgress progress);
+}
@@ -0,0 +1,11 @@
+package com.beef.util.redis.tool;
+
+public interface IWarmUpHandler {
+
+	/**
+	 * Called in decoding threads concurrently, e.g. to fill the in-memory cache of application.
+	 * @param key
+	 * @param data decoded
+	 */
+	public void onLoaded(String key, Object data);
+}
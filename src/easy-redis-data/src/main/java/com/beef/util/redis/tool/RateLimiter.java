@@ -0,0 +1,44 @@
+package com.beef.util.redis.tool;
+
+/**
+ * Simple rate limiter which makes the caller sleep when permits are acquired faster than permitsPerSecond.
+ * @author beef
+ *
+ */
+public class RateLimiter {
+	private final double _permitsPerSecond;
+	private long _nextFreeTimeNanos;
+
+	/**
+	 * @param permitsPerSecond 0 or negative means unlimited
+	 */
+	public RateLimiter(double permitsPerSecond) {
+		_permitsPerSecond = permitsPerSecond;
+		_nextFreeTimeNanos = System.nanoTime();
+	}
+
+	public double getPermitsPerSecond() {
+		return _permitsPerSecond;
+	}
+
+	public void acquire(int permits) throws InterruptedException {
+		if(_permitsPerSecond <= 0 || permits <= 0) {
+			return;
+		}
+
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			if(_nextFreeTimeNanos < now) {
+				_nextFreeTimeNanos = now;
+			}
+
+			waitNanos = _nextFreeTimeNanos - now;
+			_nextFreeTimeNanos += (long) (permits * 1000000000.0 / _permitsPerSecond);
+		}
+
+		if(waitNanos > 0) {
+			Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+		}
+	}
+}
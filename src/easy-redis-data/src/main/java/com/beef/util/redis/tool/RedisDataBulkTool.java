@@ -0,0 +1,664 @@
+package com.beef.util.redis.tool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+import com.beef.util.redis.RedisDataException;
+import com.beef.util.redis.RedisDataUtil;
+import com.beef.util.redis.RedisDataUtil.CompressAlgorithm;
+
+/**
+ * Tool to walk all keys(matched) through SCAN, and recompress values in place or dump them into local file.
+ * Each node is scanned in its own thread, and the keys scanned are processed by workers in parallel.
+ * Only string and hash values are processed, other types are skipped.
+ * <br/>
+ * Values are written by plain SET/HSET, so writers should be stopped while recompressing in place,
+ * and readers should decode in the new algorithm (or RedisDataUtil.setDetectCompressAlgorithmOnDecode(true)).
+ * @author beef
+ *
+ */
+public class RedisDataBulkTool {
+	protected final static int RECORD_END = 0;
+	protected final static int RECORD_STRING = 1;
+	protected final static int RECORD_HASH_FIELD = 2;
+
+	/**
+	 * "ERD1", PTTL of records is converted to expire time(unix time in milliseconds, 0 means no expiration) in file
+	 */
+	private final static int FILE_MAGIC = 0x45524431;
+
+	private final static Charset _charset = Charset.forName(Protocol.CHARSET);
+
+	private final static KeyBatch END_BATCH = new KeyBatch(null, null);
+	private final static BulkRecord END_RECORD = new BulkRecord(RECORD_END, null, null, 0, null);
+
+	private final List<JedisPool> _nodePools;
+	private String _scanMatch = "*";
+	private int _scanCount = 1000;
+	private int _workerCount = Runtime.getRuntime().availableProcessors();
+	private int _queueCapacity = 16;
+	private double _maxKeysPerSecond = 0;
+	private long _progressIntervalMillis = 5000;
+	private boolean _isCompressUncompressedValue = false;
+	private IBulkProgressListener _progressListener = null;
+	private ThreadFactory _threadFactory = null;
+
+	protected static class KeyBatch {
+		private final JedisPool _pool;
+		private final List<String> _keys;
+
+		public KeyBatch(JedisPool pool, List<String> keys) {
+			_pool = pool;
+			_keys = keys;
+		}
+	}
+
+	protected static class BulkRecord {
+		private final int _type;
+		private final String _key;
+		private final String _field;
+		private final long _pttl;
+		private final String _value;
+
+		public BulkRecord(int type, String key, String field, long pttl, String value) {
+			_type = type;
+			_key = key;
+			_field = field;
+			_pttl = pttl;
+			_value = value;
+		}
+
+		public BulkRecord withValue(String value) {
+			return new BulkRecord(_type, _key, _field, _pttl, value);
+		}
+	}
+
+	/**
+	 * Errors thrown by handle() abort the scan(see BulkProgress.getLastError()),
+	 * so errors of single value(e.g. value can not be decoded) should be counted in progress by handler itself.
+	 */
+	protected static interface IRecordHandler {
+		public void handle(Jedis jedis, BulkRecord record, BulkProgress progress) throws Exception;
+	}
+
+	private static class HandlerException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		public HandlerException(Throwable cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * @param nodePools one pool for each node(master) to scan
+	 */
+	public RedisDataBulkTool(List<JedisPool> nodePools) {
+		_nodePools = nodePools;
+	}
+
+	public RedisDataBulkTool(JedisPool pool) {
+		_nodePools = new ArrayList<JedisPool>(1);
+		_nodePools.add(pool);
+	}
+
+	public void setScanMatch(String scanMatch) {
+		_scanMatch = scanMatch;
+	}
+
+	/**
+	 * @param scanCount COUNT hint of SCAN, and it is also the size of key batch handed to workers
+	 */
+	public void setScanCount(int scanCount) {
+		_scanCount = scanCount;
+	}
+
+	public void setWorkerCount(int workerCount) {
+		_workerCount = workerCount;
+	}
+
+	/**
+	 * @param queueCapacity max count of key batches waiting for workers, which bounds the memory used
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		_queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @param maxKeysPerSecond 0 means unlimited
+	 */
+	public void setMaxKeysPerSecond(double maxKeysPerSecond) {
+		_maxKeysPerSecond = maxKeysPerSecond;
+	}
+
+	public void setProgressIntervalMillis(long progressIntervalMillis) {
+		_progressIntervalMillis = progressIntervalMillis;
+	}
+
+	/**
+	 * @param isCompressUncompressedValue false(default) means values not compressed are kept as they are,
+	 * because they can not be distinguished from plain string values(such as counters of incr).
+	 */
+	public void setCompressUncompressedValue(boolean isCompressUncompressedValue) {
+		_isCompressUncompressedValue = isCompressUncompressedValue;
+	}
+
+	/**
+	 * @param threadFactory factory of scanner and worker threads(e.g. virtual thread factory on Java 21). null means the default.
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		_threadFactory = threadFactory;
+	}
+
+	private ThreadFactory getThreadFactory() {
+		return (_threadFactory == null) ? Executors.defaultThreadFactory() : _threadFactory;
+	}
+
+	public void setProgressListener(IBulkProgressListener progressListener) {
+		_progressListener = progressListener;
+	}
+
+	/**
+	 * Recompress all values in targetAlgorithm in place. TTL of key is kept.
+	 * @param targetAlgorithm
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public BulkProgress recompress(final CompressAlgorithm targetAlgorithm) throws InterruptedException {
+		return runScan(new IRecordHandler() {
+			@Override
+			public void handle(Jedis jedis, BulkRecord record, BulkProgress progress) throws Exception {
+				String newValue = recodeValueOrCountFailed(record, targetAlgorithm, progress);
+				if(newValue == null) {
+					return;
+				}
+				if(newValue == record._value) {
+					progress.addProcessed(record._value.length(), record._value.length(), false);
+					return;
+				}
+
+				if(record._type == RECORD_STRING) {
+					if(record._pttl > 0) {
+						jedis.set(record._key, newValue, "XX", "PX", record._pttl);
+					} else {
+						jedis.set(record._key, newValue, "XX");
+					}
+				} else {
+					jedis.hset(record._key, record._field, newValue);
+				}
+				progress.addProcessed(record._value.length(), newValue.length(), true);
+			}
+		});
+	}
+
+	/**
+	 * Dump all values into file, and values are recompressed in targetAlgorithm.
+	 * The scan is aborted if the file can not be written, and the error is thrown.
+	 * @param file
+	 * @param targetAlgorithm
+	 * @return
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public BulkProgress exportToFile(File file, final CompressAlgorithm targetAlgorithm) throws InterruptedException, IOException {
+		final BlockingQueue<BulkRecord> recordQueue = new ArrayBlockingQueue<BulkRecord>(_queueCapacity * _scanCount);
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+
+		ExecutorService writerExecutor = Executors.newSingleThreadExecutor(getThreadFactory());
+		try {
+			output.writeInt(FILE_MAGIC);
+
+			final Future<?> writerFuture = writerExecutor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					while(true) {
+						BulkRecord record = recordQueue.take();
+						writeRecord(output, record);
+						if(record == END_RECORD) {
+							break;
+						}
+					}
+					output.flush();
+					return null;
+				}
+			});
+
+			BulkProgress progress = runScan(new IRecordHandler() {
+				@Override
+				public void handle(Jedis jedis, BulkRecord record, BulkProgress progress) throws Exception {
+					String newValue = recodeValueOrCountFailed(record, targetAlgorithm, progress);
+					if(newValue == null) {
+						return;
+					}
+					long expireTime = (record._pttl > 0) ? (System.currentTimeMillis() + record._pttl) : 0;
+					BulkRecord fileRecord = new BulkRecord(record._type, record._key, record._field, expireTime, newValue);
+					while(!recordQueue.offer(fileRecord, 1, TimeUnit.SECONDS)) {
+						if(writerFuture.isDone()) {
+							throw new IOException("Writer of file stopped");
+						}
+					}
+					progress.addProcessed(record._value.length(), newValue.length(), newValue != record._value);
+				}
+			});
+
+			//writer may have stopped with queue full
+			while(!writerFuture.isDone()) {
+				if(recordQueue.offer(END_RECORD, 1, TimeUnit.SECONDS)) {
+					break;
+				}
+			}
+			try {
+				writerFuture.get();
+			} catch (ExecutionException e) {
+				if(e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new RedisDataException(e.getCause());
+			}
+
+			return progress;
+		} finally {
+			writerExecutor.shutdownNow();
+			output.close();
+		}
+	}
+
+	/**
+	 * Write values in file into redis by pipeline.
+	 * TTL of key is the time left to the expire time recorded in exporting(so clocks of exporting and importing hosts should be synchronized),
+	 * and the values already expired are skipped.
+	 * @param file
+	 * @param pool
+	 * @param targetAlgorithm null means values are written as they are in file
+	 * @param pipelineSize count of values sent in one pipeline
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public BulkProgress importFromFile(File file, JedisPool pool, CompressAlgorithm targetAlgorithm, int pipelineSize) throws IOException, InterruptedException {
+		final BulkProgress progress = new BulkProgress();
+		final RateLimiter rateLimiter = new RateLimiter(_maxKeysPerSecond);
+		long lastReportTime = System.currentTimeMillis();
+
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		Jedis jedis = null;
+		try {
+			int magic = input.readInt();
+			if(magic != FILE_MAGIC) {
+				throw new IOException("Not a file exported by " + RedisDataBulkTool.class.getSimpleName());
+			}
+
+			jedis = pool.getResource();
+			Pipeline pipeline = jedis.pipelined();
+			int countInPipeline = 0;
+			while(true) {
+				BulkRecord record = readRecord(input);
+				if(record == null) {
+					break;
+				}
+
+				//expire time in file
+				long pttl = record._pttl;
+				if(pttl > 0) {
+					pttl -= System.currentTimeMillis();
+					if(pttl <= 0) {
+						progress.addSkipped();
+						continue;
+					}
+				}
+
+				String value = record._value;
+				if(targetAlgorithm != null) {
+					try {
+						value = recodeValue(value, targetAlgorithm);
+					} catch (Exception e) {
+						progress.addFailed();
+						continue;
+					}
+				}
+
+				rateLimiter.acquire(1);
+				if(record._type == RECORD_STRING) {
+					pipeline.set(record._key, value);
+				} else {
+					pipeline.hset(record._key, record._field, value);
+				}
+				if(pttl > 0) {
+					pipeline.pexpire(record._key, pttl);
+				}
+				progress.addProcessed(record._value.length(), value.length(), value != record._value);
+
+				countInPipeline++;
+				if(countInPipeline >= pipelineSize) {
+					pipeline.sync();
+					pipeline = jedis.pipelined();
+					countInPipeline = 0;
+				}
+
+				if(_progressListener != null && (System.currentTimeMillis() - lastReportTime) >= _progressIntervalMillis) {
+					lastReportTime = System.currentTimeMillis();
+					_progressListener.onProgress(progress);
+				}
+			}
+			pipeline.sync();
+		} finally {
+			input.close();
+			if(jedis != null) {
+				jedis.close();
+			}
+
+			progress.finish();
+			if(_progressListener != null) {
+				_progressListener.onProgress(progress);
+			}
+		}
+
+		return progress;
+	}
+
+	protected String recodeValue(String value, CompressAlgorithm targetAlgorithm) throws Exception {
+		if(!_isCompressUncompressedValue
+				&& RedisDataUtil.detectValueCompressAlgorithm(value) == CompressAlgorithm.NotCompress) {
+			return value;
+		}
+
+		return RedisDataUtil.recodeString(value, targetAlgorithm);
+	}
+
+	/**
+	 * @return null if value can not be recoded, and it is counted as failed
+	 */
+	private String recodeValueOrCountFailed(BulkRecord record, CompressAlgorithm targetAlgorithm, BulkProgress progress) {
+		try {
+			return recodeValue(record._value, targetAlgorithm);
+		} catch (Exception e) {
+			progress.setLastError(e);
+			progress.addFailed();
+			return null;
+		}
+	}
+
+	protected BulkProgress runScan(final IRecordHandler handler) throws InterruptedException {
+		final BulkProgress progress = new BulkProgress();
+		final RateLimiter rateLimiter = new RateLimiter(_maxKeysPerSecond);
+		final BlockingQueue<KeyBatch> batchQueue = new ArrayBlockingQueue<KeyBatch>(_queueCapacity);
+
+		ExecutorService executor = Executors.newFixedThreadPool(_nodePools.size() + _workerCount, getThreadFactory());
+		try {
+			List<Future<?>> scannerFutureList = new ArrayList<Future<?>>();
+			for(final JedisPool pool : _nodePools) {
+				scannerFutureList.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						scanNode(pool, batchQueue, rateLimiter, progress);
+						return null;
+					}
+				}));
+			}
+
+			List<Future<?>> workerFutureList = new ArrayList<Future<?>>();
+			for(int i = 0; i < _workerCount; i++) {
+				workerFutureList.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						while(true) {
+							KeyBatch batch = batchQueue.take();
+							if(batch == END_BATCH) {
+								break;
+							}
+
+							if(!progress.isAborted()) {
+								processBatch(batch, handler, progress);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+
+			for(Future<?> future : scannerFutureList) {
+				waitWithProgress(future, progress);
+			}
+			for(int i = 0; i < _workerCount; i++) {
+				batchQueue.put(END_BATCH);
+			}
+			for(Future<?> future : workerFutureList) {
+				waitWithProgress(future, progress);
+			}
+		} finally {
+			executor.shutdownNow();
+
+			progress.finish();
+			if(_progressListener != null) {
+				_progressListener.onProgress(progress);
+			}
+		}
+
+		return progress;
+	}
+
+	private void waitWithProgress(Future<?> future, BulkProgress progress) throws InterruptedException {
+		while(true) {
+			try {
+				future.get(_progressIntervalMillis, TimeUnit.MILLISECONDS);
+				return;
+			} catch (TimeoutException e) {
+				if(_progressListener != null) {
+					_progressListener.onProgress(progress);
+				}
+			} catch (ExecutionException e) {
+				throw new RedisDataException(e.getCause());
+			}
+		}
+	}
+
+	private void scanNode(JedisPool pool, BlockingQueue<KeyBatch> batchQueue, RateLimiter rateLimiter, BulkProgress progress) throws InterruptedException {
+		Jedis jedis = pool.getResource();
+		try {
+			ScanParams scanParams = new ScanParams().match(_scanMatch).count(_scanCount);
+			String cursor = ScanParams.SCAN_POINTER_START;
+			do {
+				if(progress.isAborted()) {
+					break;
+				}
+				ScanResult<String> scanResult = jedis.scan(cursor, scanParams);
+				cursor = scanResult.getStringCursor();
+
+				List<String> keys = scanResult.getResult();
+				if(keys != null && keys.size() > 0) {
+					progress.addScannedKeys(keys.size());
+					rateLimiter.acquire(keys.size());
+					batchQueue.put(new KeyBatch(pool, keys));
+				}
+			} while(!ScanParams.SCAN_POINTER_START.equals(cursor));
+		} finally {
+			jedis.close();
+		}
+	}
+
+	private void processBatch(KeyBatch batch, IRecordHandler handler, BulkProgress progress) {
+		Jedis jedis = null;
+		//keys processed(or skipped), the others are counted as failed when an error breaks the batch
+		int doneKeyCount = 0;
+		try {
+			jedis = batch._pool.getResource();
+
+			Pipeline pipeline = jedis.pipelined();
+			List<Response<String>> typeResponseList = new ArrayList<Response<String>>(batch._keys.size());
+			for(String key : batch._keys) {
+				typeResponseList.add(pipeline.type(key));
+			}
+			pipeline.sync();
+
+			List<String> stringKeyList = new ArrayList<String>();
+			List<String> hashKeyList = new ArrayList<String>();
+			for(int i = 0; i < batch._keys.size(); i++) {
+				String type = typeResponseList.get(i).get();
+				if("string".equals(type)) {
+					stringKeyList.add(batch._keys.get(i));
+				} else if("hash".equals(type)) {
+					hashKeyList.add(batch._keys.get(i));
+				} else if(!"none".equals(type)) {
+					progress.addSkipped();
+				}
+			}
+			doneKeyCount = batch._keys.size() - stringKeyList.size() - hashKeyList.size();
+
+			//string
+			if(stringKeyList.size() > 0) {
+				pipeline = jedis.pipelined();
+				List<Response<String>> valueResponseList = new ArrayList<Response<String>>(stringKeyList.size());
+				List<Response<Long>> pttlResponseList = new ArrayList<Response<Long>>(stringKeyList.size());
+				for(String key : stringKeyList) {
+					valueResponseList.add(pipeline.get(key));
+					pttlResponseList.add(pipeline.pttl(key));
+				}
+				pipeline.sync();
+
+				for(int i = 0; i < stringKeyList.size(); i++) {
+					String value = valueResponseList.get(i).get();
+					if(value != null) {
+						handleRecord(jedis, handler,
+								new BulkRecord(RECORD_STRING, stringKeyList.get(i), null, pttlResponseList.get(i).get(), value),
+								progress);
+					}
+					//null means expired or deleted
+					doneKeyCount++;
+				}
+			}
+
+			//hash
+			for(String key : hashKeyList) {
+				long pttl = jedis.pttl(key);
+				String cursor = ScanParams.SCAN_POINTER_START;
+				ScanParams scanParams = new ScanParams().count(_scanCount);
+				do {
+					ScanResult<Map.Entry<String, String>> scanResult = jedis.hscan(key, cursor, scanParams);
+					cursor = scanResult.getStringCursor();
+
+					for(Map.Entry<String, String> entry : scanResult.getResult()) {
+						handleRecord(jedis, handler,
+								new BulkRecord(RECORD_HASH_FIELD, key, entry.getKey(), pttl, entry.getValue()),
+								progress);
+					}
+				} while(!ScanParams.SCAN_POINTER_START.equals(cursor));
+				doneKeyCount++;
+			}
+		} catch(Throwable e) {
+			//keep worker alive, or scanners will be blocked
+			if(e instanceof HandlerException) {
+				progress.abort(e.getCause());
+			} else {
+				progress.setLastError(e);
+			}
+			for(int i = doneKeyCount; i < batch._keys.size(); i++) {
+				progress.addFailed();
+			}
+		} finally {
+			if(jedis != null) {
+				jedis.close();
+			}
+		}
+	}
+
+	private static void handleRecord(Jedis jedis, IRecordHandler handler, BulkRecord record, BulkProgress progress) throws HandlerException {
+		if(record._value == null || record._value.length() == 0) {
+			progress.addSkipped();
+			return;
+		}
+
+		try {
+			handler.handle(jedis, record, progress);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HandlerException(e);
+		} catch(Exception e) {
+			throw new HandlerException(e);
+		}
+	}
+
+	private static void writeRecord(DataOutputStream output, BulkRecord record) throws IOException {
+		output.writeByte(record._type);
+		if(record._type == RECORD_END) {
+			return;
+		}
+
+		writeString(output, record._key);
+		if(record._type == RECORD_HASH_FIELD) {
+			writeString(output, record._field);
+		}
+		output.writeLong(record._pttl);
+		writeString(output, record._value);
+	}
+
+	/**
+	 * @return null if reaches the end
+	 */
+	private static BulkRecord readRecord(DataInputStream input) throws IOException {
+		int type;
+		try {
+			type = input.readByte();
+		} catch (EOFException e) {
+			return null;
+		}
+		if(type == RECORD_END) {
+			return null;
+		}
+		if(type != RECORD_STRING && type != RECORD_HASH_FIELD) {
+			throw new IOException("Invalid record type:" + type);
+		}
+
+		String key = readString(input);
+		String field = null;
+		if(type == RECORD_HASH_FIELD) {
+			field = readString(input);
+		}
+		long pttl = input.readLong();
+		String value = readString(input);
+
+		return new BulkRecord(type, key, field, pttl, value);
+	}
+
+	private static void writeString(DataOutputStream output, String str) throws IOException {
+		byte[] bytes = str.getBytes(_charset);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		int len = input.readInt();
+		byte[] bytes = new byte[len];
+		input.readFully(bytes);
+
+		return new String(bytes, _charset);
+	}
+
+}
@@ -0,0 +1,434 @@
+package com.beef.util.redis.tool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+import com.beef.util.redis.LuaScript;
+import com.beef.util.redis.RedisDataUtil;
+import com.beef.util.redis.RedisDataUtil.CompressAlgorithm;
+
+/**
+ * Background migrator which recompresses values in place while the application is running.
+ * Each value is replaced by a compare-and-set lua script, so values modified concurrently by other writers are never overwritten
+ * (they are skipped and left for the next pass).
+ * The SCAN cursor is saved into checkpointKey after each batch, so the migration is resumed from there after restarting.
+ * A failed batch is retried with backoff, and skipped(its keys counted as failed) after maxRetryCount retries.
+ * The pass is aborted when SCAN itself keeps failing, and the next pass resumes from the checkpoint.
+ * <br/>
+ * Readers should decode with RedisDataUtil.setDetectCompressAlgorithmOnDecode(true) while values are in mixed algorithms.
+ * @author beef
+ *
+ */
+public class RedisDataMigrator implements Runnable {
+	private final static LuaScript SCRIPT_CAS_SET = new LuaScript(
+			"if redis.call('get', KEYS[1]) == ARGV[1] then\n"
+			+ "  local pttl = redis.call('pttl', KEYS[1])\n"
+			+ "  if pttl > 0 then\n"
+			+ "    redis.call('set', KEYS[1], ARGV[2], 'PX', pttl)\n"
+			+ "  else\n"
+			+ "    redis.call('set', KEYS[1], ARGV[2])\n"
+			+ "  end\n"
+			+ "  return 1\n"
+			+ "end\n"
+			+ "return 0"
+			);
+
+	private final static LuaScript SCRIPT_CAS_HSET = new LuaScript(
+			"if redis.call('hget', KEYS[1], ARGV[1]) == ARGV[2] then\n"
+			+ "  redis.call('hset', KEYS[1], ARGV[1], ARGV[3])\n"
+			+ "  return 1\n"
+			+ "end\n"
+			+ "return 0"
+			);
+
+	private final static long DEFAULT_RETRY_INTERVAL_MILLIS = 1000;
+	private final static long MAX_RETRY_INTERVAL_MILLIS = 30000;
+	private final static int DEFAULT_MAX_RETRY_COUNT = 3;
+
+	private final JedisPool _pool;
+	private final CompressAlgorithm _targetAlgorithm;
+
+	private String _scanMatch = "*";
+	private int _scanCount = 100;
+	private double _maxKeysPerSecond = 1000;
+	private String _checkpointKey = null;
+	private boolean _isCompressUncompressedXml = false;
+	private long _repeatIntervalMillis = 0;
+	private long _progressIntervalMillis = 60000;
+	private IBulkProgressListener _progressListener = null;
+	private int _maxRetryCount = DEFAULT_MAX_RETRY_COUNT;
+	private long _retryIntervalMillis = DEFAULT_RETRY_INTERVAL_MILLIS;
+
+	/** the connection of a failed batch may be a new one, or the scripts flushed */
+	private boolean _isScriptLoaded = false;
+	private volatile Throwable _lastError = null;
+	private volatile boolean _isStopRequested = false;
+	private volatile BulkProgress _progress = null;
+	private volatile String _cursor = ScanParams.SCAN_POINTER_START;
+
+	public RedisDataMigrator(JedisPool pool, CompressAlgorithm targetAlgorithm) {
+		_pool = pool;
+		_targetAlgorithm = targetAlgorithm;
+	}
+
+	public void setScanMatch(String scanMatch) {
+		_scanMatch = scanMatch;
+	}
+
+	public void setScanCount(int scanCount) {
+		_scanCount = scanCount;
+	}
+
+	/**
+	 * @param maxKeysPerSecond default 1000. 0 means unlimited.
+	 */
+	public void setMaxKeysPerSecond(double maxKeysPerSecond) {
+		_maxKeysPerSecond = maxKeysPerSecond;
+	}
+
+	/**
+	 * @param checkpointKey key to save the SCAN cursor. null(default) means no checkpoint.
+	 */
+	public void setCheckpointKey(String checkpointKey) {
+		_checkpointKey = checkpointKey;
+	}
+
+	/**
+	 * @param isCompressUncompressedXml true means values not compressed are also migrated if they start with '&lt;'.
+	 * Default false.
+	 */
+	public void setCompressUncompressedXml(boolean isCompressUncompressedXml) {
+		_isCompressUncompressedXml = isCompressUncompressedXml;
+	}
+
+	/**
+	 * @param repeatIntervalMillis wait time before starting next pass. 0(default) means run only one pass.
+	 */
+	public void setRepeatIntervalMillis(long repeatIntervalMillis) {
+		_repeatIntervalMillis = repeatIntervalMillis;
+	}
+
+	public void setProgressIntervalMillis(long progressIntervalMillis) {
+		_progressIntervalMillis = progressIntervalMillis;
+	}
+
+	public void setProgressListener(IBulkProgressListener progressListener) {
+		_progressListener = progressListener;
+	}
+
+	/**
+	 * @param maxRetryCount retries of a failed batch before it is skipped. Default 3.
+	 */
+	public void setMaxRetryCount(int maxRetryCount) {
+		_maxRetryCount = maxRetryCount;
+	}
+
+	/**
+	 * @param retryIntervalMillis wait time before the first retry, doubled for each retry(at most 30 seconds). Default 1000.
+	 */
+	public void setRetryIntervalMillis(long retryIntervalMillis) {
+		_retryIntervalMillis = retryIntervalMillis;
+	}
+
+	/**
+	 * Stop after the current batch. The cursor is kept in checkpoint.
+	 */
+	public void stop() {
+		_isStopRequested = true;
+	}
+
+	/**
+	 * @return progress of current(or last) pass. getSavedLength() is the memory saved.
+	 */
+	public BulkProgress getProgress() {
+		return _progress;
+	}
+
+	public String getCursor() {
+		return _cursor;
+	}
+
+	/**
+	 * @return the last error of batches(retried or skipped), null if none
+	 */
+	public Throwable getLastError() {
+		return _lastError;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while(!_isStopRequested) {
+				migrateOnePass();
+
+				if(_repeatIntervalMillis <= 0) {
+					break;
+				}
+				Thread.sleep(_repeatIntervalMillis);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	protected void migrateOnePass() throws InterruptedException {
+		final BulkProgress progress = new BulkProgress();
+		final RateLimiter rateLimiter = new RateLimiter(_maxKeysPerSecond);
+		_progress = progress;
+
+		long lastReportTime = System.currentTimeMillis();
+		try {
+			String cursor = loadCheckpoint();
+			_cursor = cursor;
+
+			ScanParams scanParams = new ScanParams().match(_scanMatch).count(_scanCount);
+			int retryCount = 0;
+			do {
+				if(_isStopRequested || Thread.currentThread().isInterrupted()) {
+					return;
+				}
+
+				Jedis jedis = null;
+				String nextCursor = null;
+				List<String> keys = null;
+				try {
+					jedis = _pool.getResource();
+
+					ScanResult<String> scanResult = jedis.scan(cursor, scanParams);
+					nextCursor = scanResult.getStringCursor();
+					keys = scanResult.getResult();
+					if(keys != null && keys.size() > 0) {
+						if(retryCount == 0) {
+							progress.addScannedKeys(keys.size());
+						}
+						rateLimiter.acquire(keys.size());
+
+						migrateKeys(jedis, keys, progress);
+					}
+
+					saveCheckpoint(jedis, nextCursor);
+					cursor = nextCursor;
+					_cursor = cursor;
+					retryCount = 0;
+				} catch(InterruptedException e) {
+					throw e;
+				} catch(Exception e) {
+					_lastError = e;
+					progress.setLastError(e);
+					_isScriptLoaded = false;
+
+					retryCount++;
+					if(retryCount <= _maxRetryCount) {
+						//retry the same cursor later
+						Thread.sleep(Math.min(_retryIntervalMillis << Math.min(retryCount - 1, 16), MAX_RETRY_INTERVAL_MILLIS));
+					} else if(nextCursor == null) {
+						//SCAN failed, the next cursor is unknown
+						progress.abort(e);
+						return;
+					} else {
+						//skip the batch, and the checkpoint is saved after the next one
+						for(int i = 0; i < keys.size(); i++) {
+							progress.addFailed();
+						}
+						cursor = nextCursor;
+						_cursor = cursor;
+						retryCount = 0;
+					}
+				} finally {
+					if(jedis != null) {
+						jedis.close();
+					}
+				}
+
+				if(_progressListener != null && (System.currentTimeMillis() - lastReportTime) >= _progressIntervalMillis) {
+					lastReportTime = System.currentTimeMillis();
+					_progressListener.onProgress(progress);
+				}
+			} while(!ScanParams.SCAN_POINTER_START.equals(cursor));
+		} finally {
+			progress.finish();
+			if(_progressListener != null) {
+				_progressListener.onProgress(progress);
+			}
+		}
+	}
+
+	/**
+	 * Values are read and replaced by CAS scripts in pipelines, one pipeline for string keys and one for each HSCAN page.
+	 */
+	protected void migrateKeys(Jedis jedis, List<String> keys, BulkProgress progress) {
+		Pipeline pipeline = jedis.pipelined();
+		List<Response<String>> typeResponseList = new ArrayList<Response<String>>(keys.size());
+		for(String key : keys) {
+			typeResponseList.add(pipeline.type(key));
+		}
+		pipeline.sync();
+
+		List<String> stringKeyList = new ArrayList<String>();
+		List<String> hashKeyList = new ArrayList<String>();
+		for(int i = 0; i < keys.size(); i++) {
+			String type = typeResponseList.get(i).get();
+			if("string".equals(type)) {
+				stringKeyList.add(keys.get(i));
+			} else if("hash".equals(type)) {
+				hashKeyList.add(keys.get(i));
+			}
+		}
+
+		if(stringKeyList.size() > 0) {
+			pipeline = jedis.pipelined();
+			List<Response<String>> valueResponseList = new ArrayList<Response<String>>(stringKeyList.size());
+			for(String key : stringKeyList) {
+				valueResponseList.add(pipeline.get(key));
+			}
+			pipeline.sync();
+
+			List<String> valueList = new ArrayList<String>(stringKeyList.size());
+			List<String> newValueList = new ArrayList<String>(stringKeyList.size());
+			List<Response<Object>> resultList = new ArrayList<Response<Object>>(stringKeyList.size());
+			pipeline = null;
+			for(int i = 0; i < stringKeyList.size(); i++) {
+				String value = valueResponseList.get(i).get();
+				String newValue = recodeValue(value, progress);
+				if(newValue == null) {
+					continue;
+				}
+
+				if(pipeline == null) {
+					pipeline = pipelineForScripts(jedis);
+				}
+				valueList.add(value);
+				newValueList.add(newValue);
+				resultList.add(SCRIPT_CAS_SET.eval(pipeline,
+						Arrays.asList(stringKeyList.get(i)),
+						Arrays.asList(value, newValue)));
+			}
+			syncReplaced(pipeline, resultList, valueList, newValueList, progress);
+		}
+
+		for(String key : hashKeyList) {
+			String cursor = ScanParams.SCAN_POINTER_START;
+			ScanParams scanParams = new ScanParams().count(_scanCount);
+			do {
+				ScanResult<Map.Entry<String, String>> scanResult = jedis.hscan(key, cursor, scanParams);
+				cursor = scanResult.getStringCursor();
+
+				List<String> valueList = new ArrayList<String>();
+				List<String> newValueList = new ArrayList<String>();
+				List<Response<Object>> resultList = new ArrayList<Response<Object>>();
+				pipeline = null;
+				for(Map.Entry<String, String> entry : scanResult.getResult()) {
+					String value = entry.getValue();
+					String newValue = recodeValue(value, progress);
+					if(newValue == null) {
+						continue;
+					}
+
+					if(pipeline == null) {
+						pipeline = pipelineForScripts(jedis);
+					}
+					valueList.add(value);
+					newValueList.add(newValue);
+					resultList.add(SCRIPT_CAS_HSET.eval(pipeline,
+							Arrays.asList(key),
+							Arrays.asList(entry.getKey(), value, newValue)));
+				}
+				syncReplaced(pipeline, resultList, valueList, newValueList, progress);
+			} while(!ScanParams.SCAN_POINTER_START.equals(cursor));
+		}
+	}
+
+	private Pipeline pipelineForScripts(Jedis jedis) {
+		if(!_isScriptLoaded) {
+			SCRIPT_CAS_SET.load(jedis);
+			SCRIPT_CAS_HSET.load(jedis);
+			_isScriptLoaded = true;
+		}
+		return jedis.pipelined();
+	}
+
+	private static void syncReplaced(
+			Pipeline pipeline, List<Response<Object>> resultList, List<String> valueList, List<String> newValueList,
+			BulkProgress progress) {
+		if(pipeline == null) {
+			return;
+		}
+
+		pipeline.sync();
+		for(int i = 0; i < resultList.size(); i++) {
+			onReplaced(resultList.get(i).get(), valueList.get(i), newValueList.get(i), progress);
+		}
+	}
+
+	/**
+	 * @return null if the value need not to be replaced
+	 */
+	private String recodeValue(String value, BulkProgress progress) {
+		if(value == null || value.length() == 0) {
+			return null;
+		}
+
+		try {
+			CompressAlgorithm valueAlgorithm = RedisDataUtil.detectValueCompressAlgorithm(value);
+			if(valueAlgorithm == _targetAlgorithm
+					|| (valueAlgorithm == CompressAlgorithm.NotCompress
+						&& !(_isCompressUncompressedXml && value.charAt(0) == '<'))
+					) {
+				progress.addProcessed(value.length(), value.length(), false);
+				return null;
+			}
+
+			return RedisDataUtil.encodeString(
+					RedisDataUtil.decodeString(value, valueAlgorithm), _targetAlgorithm);
+		} catch(Exception e) {
+			progress.addFailed();
+			return null;
+		}
+	}
+
+	private static void onReplaced(Object result, String value, String newValue, BulkProgress progress) {
+		if(result instanceof Long && ((Long) result).longValue() == 1) {
+			progress.addProcessed(value.length(), newValue.length(), true);
+		} else {
+			//modified by others
+			progress.addSkipped();
+		}
+	}
+
+	private String loadCheckpoint() {
+		if(_checkpointKey == null) {
+			return ScanParams.SCAN_POINTER_START;
+		}
+
+		Jedis jedis = _pool.getResource();
+		try {
+			String cursor = jedis.get(_checkpointKey);
+			return (cursor != null) ? cursor : ScanParams.SCAN_POINTER_START;
+		} finally {
+			jedis.close();
+		}
+	}
+
+	private void saveCheckpoint(Jedis jedis, String cursor) {
+		if(_checkpointKey == null) {
+			return;
+		}
+
+		if(ScanParams.SCAN_POINTER_START.equals(cursor)) {
+			//pass finished
+			jedis.del(_checkpointKey);
+		} else {
+			jedis.set(_checkpointKey, cursor);
+		}
+	}
+
+}
@@ -0,0 +1,450 @@
+package com.beef.util.redis.tool;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import MetoXML.Util.ClassFinder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+import com.beef.util.redis.IJedisCallback;
+import com.beef.util.redis.MappedSegmentCache;
+import com.beef.util.redis.RedisDataClient;
+import com.beef.util.redis.RedisDataProfiler;
+import com.beef.util.redis.RedisDataProfiler.KeyCount;
+import com.beef.util.redis.RedisDataUtil;
+
+/**
+ * Prefetch a working set(key list, key pattern, or hot keys saved from a previous run) at startup.
+ * Keys are fetched by MGET over several connections in parallel, values are put into the local cache of client(if set),
+ * and decoded in all cores for the handler(if set), e.g. to fill the in-memory cache of application.
+ * <br/>
+ * It stops when the time budget or memory budget(total length of values fetched) is exceeded,
+ * and the progress returned is marked as truncated.
+ * Batches waiting for decoding are bounded(2 per decoding thread), fetching waits when they are full,
+ * so values not yet decoded do not pile up beyond the memory budget.
+ * Value lengths in progress are the lengths of encoded values.
+ * @author beef
+ *
+ */
+public class RedisDataWarmUp {
+	private final static Charset _charset = Charset.forName("utf-8");
+
+	private final RedisDataClient _client;
+	private int _batchSize = 100;
+	private int _connectionCount = 4;
+	private int _decodeThreadCount = Runtime.getRuntime().availableProcessors();
+	private int _scanCount = 1000;
+	private long _maxMillis = 30000;
+	private long _maxLoadedLength = 64L * 1024 * 1024;
+	private long _progressIntervalMillis = 5000;
+	private IBulkProgressListener _progressListener = null;
+	private ThreadFactory _threadFactory = null;
+
+	private static interface IKeySource {
+		/**
+		 * @return null if no more keys
+		 */
+		public List<String> nextBatch();
+	}
+
+	public RedisDataWarmUp(RedisDataClient client) {
+		_client = client;
+	}
+
+	/**
+	 * @param batchSize count of keys in one MGET
+	 */
+	public void setBatchSize(int batchSize) {
+		_batchSize = batchSize;
+	}
+
+	/**
+	 * @param connectionCount count of MGET in parallel
+	 */
+	public void setConnectionCount(int connectionCount) {
+		_connectionCount = connectionCount;
+	}
+
+	public void setDecodeThreadCount(int decodeThreadCount) {
+		_decodeThreadCount = decodeThreadCount;
+	}
+
+	/**
+	 * @param scanCount COUNT hint of SCAN in warmUpByPattern()
+	 */
+	public void setScanCount(int scanCount) {
+		_scanCount = scanCount;
+	}
+
+	/**
+	 * @param maxMillis time budget. Default 30000.
+	 */
+	public void setMaxMillis(long maxMillis) {
+		_maxMillis = maxMillis;
+	}
+
+	/**
+	 * @param maxLoadedLength memory budget in total length of values fetched, checked before each MGET. Default 64M.
+	 */
+	public void setMaxLoadedLength(long maxLoadedLength) {
+		_maxLoadedLength = maxLoadedLength;
+	}
+
+	public void setProgressIntervalMillis(long progressIntervalMillis) {
+		_progressIntervalMillis = progressIntervalMillis;
+	}
+
+	public void setProgressListener(IBulkProgressListener progressListener) {
+		_progressListener = progressListener;
+	}
+
+	/**
+	 * @param threadFactory factory of fetching and decoding threads. null means the default.
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		_threadFactory = threadFactory;
+	}
+
+	private ThreadFactory getThreadFactory() {
+		return (_threadFactory == null) ? Executors.defaultThreadFactory() : _threadFactory;
+	}
+
+	/**
+	 * @param keys
+	 * @param dataClass null means values are not decoded
+	 * @param isUseCompress
+	 * @param classFinder
+	 * @param handler null means values are not decoded
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public BulkProgress warmUp(
+			final List<String> keys,
+			Class<?> dataClass, boolean isUseCompress, ClassFinder classFinder,
+			IWarmUpHandler handler) throws InterruptedException {
+		return run(new IKeySource() {
+			private int _index = 0;
+
+			@Override
+			public List<String> nextBatch() {
+				if(_index >= keys.size()) {
+					return null;
+				}
+
+				int end = Math.min(_index + _batchSize, keys.size());
+				List<String> batch = new ArrayList<String>(keys.subList(_index, end));
+				_index = end;
+				return batch;
+			}
+		}, dataClass, isUseCompress, classFinder, handler);
+	}
+
+	/**
+	 * Keys are scanned by SCAN in the calling thread.
+	 * @param scanMatch
+	 * @see #warmUp(List, Class, boolean, ClassFinder, IWarmUpHandler)
+	 */
+	public BulkProgress warmUpByPattern(
+			final String scanMatch,
+			Class<?> dataClass, boolean isUseCompress, ClassFinder classFinder,
+			IWarmUpHandler handler) throws InterruptedException {
+		return run(new IKeySource() {
+			private final ScanParams _scanParams = new ScanParams().match(scanMatch).count(_scanCount);
+			private String _cursor = null;
+			private final LinkedList<String> _pendingKeys = new LinkedList<String>();
+
+			@Override
+			public List<String> nextBatch() {
+				while(_pendingKeys.size() < _batchSize && !ScanParams.SCAN_POINTER_START.equals(_cursor)) {
+					final String cursor = (_cursor == null) ? ScanParams.SCAN_POINTER_START : _cursor;
+					ScanResult<String> scanResult = _client.execute(new IJedisCallback<ScanResult<String>>() {
+						@Override
+						public ScanResult<String> doInJedis(Jedis jedis) {
+							return jedis.scan(cursor, _scanParams);
+						}
+					});
+					_cursor = scanResult.getStringCursor();
+					if(scanResult.getResult() != null) {
+						_pendingKeys.addAll(scanResult.getResult());
+					}
+				}
+
+				if(_pendingKeys.isEmpty()) {
+					return null;
+				}
+
+				List<String> batch = new ArrayList<String>(Math.min(_batchSize, _pendingKeys.size()));
+				while(batch.size() < _batchSize && !_pendingKeys.isEmpty()) {
+					batch.add(_pendingKeys.removeFirst());
+				}
+				return batch;
+			}
+		}, dataClass, isUseCompress, classFinder, handler);
+	}
+
+	/**
+	 * Save hot keys of profiler into file(one key per line), which can be loaded by loadKeys() for warmUp() in next run.
+	 * @param profiler
+	 * @param topN
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void saveHotKeys(RedisDataProfiler profiler, int topN, File file) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), _charset));
+		try {
+			for(KeyCount keyCount : profiler.getHotKeys(topN)) {
+				writer.write(keyCount.getKey());
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	public static List<String> loadKeys(File file) throws IOException {
+		List<String> keys = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), _charset));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(line.length() > 0) {
+					keys.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return keys;
+	}
+
+	private BulkProgress run(
+			IKeySource keySource,
+			final Class<?> dataClass, final boolean isUseCompress, final ClassFinder classFinder,
+			final IWarmUpHandler handler) throws InterruptedException {
+		final BulkProgress progress = new BulkProgress();
+		final long deadline = System.currentTimeMillis() + _maxMillis;
+		final AtomicLong loadedLength = new AtomicLong();
+		final Semaphore fetchPermits = new Semaphore(_connectionCount * 2);
+		final Semaphore decodePermits = new Semaphore(_decodeThreadCount * 2);
+
+		ExecutorService fetchExecutor = Executors.newFixedThreadPool(_connectionCount, getThreadFactory());
+		final ExecutorService decodeExecutor = (dataClass == null || handler == null) ? null
+				: Executors.newFixedThreadPool(_decodeThreadCount, getThreadFactory());
+		long lastReportTime = System.currentTimeMillis();
+		try {
+			while(true) {
+				if(System.currentTimeMillis() >= deadline || loadedLength.get() >= _maxLoadedLength) {
+					progress.truncate();
+					break;
+				}
+
+				final List<String> keys = keySource.nextBatch();
+				if(keys == null) {
+					break;
+				}
+				progress.addScannedKeys(keys.size());
+
+				if(!fetchPermits.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+					progress.truncate();
+					break;
+				}
+				fetchExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							fetchBatch(keys, progress, loadedLength, deadline,
+									decodeExecutor, decodePermits, dataClass, isUseCompress, classFinder, handler);
+						} finally {
+							fetchPermits.release();
+						}
+					}
+				});
+
+				if(_progressListener != null && (System.currentTimeMillis() - lastReportTime) >= _progressIntervalMillis) {
+					lastReportTime = System.currentTimeMillis();
+					_progressListener.onProgress(progress);
+				}
+			}
+
+			fetchExecutor.shutdown();
+			if(!awaitWithProgress(fetchExecutor, deadline, progress)) {
+				progress.truncate();
+			}
+			if(decodeExecutor != null) {
+				decodeExecutor.shutdown();
+				if(!awaitWithProgress(decodeExecutor, deadline, progress)) {
+					progress.truncate();
+				}
+			}
+		} finally {
+			fetchExecutor.shutdownNow();
+			if(decodeExecutor != null) {
+				decodeExecutor.shutdownNow();
+			}
+
+			progress.finish();
+			if(_progressListener != null) {
+				_progressListener.onProgress(progress);
+			}
+		}
+
+		return progress;
+	}
+
+	private void fetchBatch(
+			final List<String> keys, final BulkProgress progress, AtomicLong loadedLength, final long deadline,
+			ExecutorService decodeExecutor, final Semaphore decodePermits,
+			final Class<?> dataClass, final boolean isUseCompress, final ClassFinder classFinder,
+			final IWarmUpHandler handler) {
+		final MappedSegmentCache localCache = _client.getLocalCache();
+		//generations are taken before reading, so that values written concurrently are not overwritten
+		long[] localGenerations = null;
+		final long[] pttls = (localCache == null) ? null : new long[keys.size()];
+		if(localCache != null) {
+			localGenerations = new long[keys.size()];
+			for(int i = 0; i < keys.size(); i++) {
+				localGenerations[i] = localCache.getGeneration(keys.get(i));
+			}
+		}
+
+		List<String> values;
+		try {
+			values = _client.execute(new IJedisCallback<List<String>>() {
+				@Override
+				public List<String> doInJedis(Jedis jedis) {
+					if(localCache == null) {
+						return jedis.mget(keys.toArray(new String[keys.size()]));
+					}
+
+					Pipeline pipeline = jedis.pipelined();
+					Response<List<String>> valuesResponse = pipeline.mget(keys.toArray(new String[keys.size()]));
+					List<Response<Long>> pttlResponses = new ArrayList<Response<Long>>(keys.size());
+					for(int i = 0; i < keys.size(); i++) {
+						pttlResponses.add(pipeline.pttl(keys.get(i)));
+					}
+					pipeline.sync();
+					for(int i = 0; i < keys.size(); i++) {
+						pttls[i] = pttlResponses.get(i).get();
+					}
+					return valuesResponse.get();
+				}
+			});
+		} catch(Throwable e) {
+			for(int i = 0; i < keys.size(); i++) {
+				progress.addFailed();
+			}
+			return;
+		}
+
+		final List<String> loadedKeys = new ArrayList<String>(keys.size());
+		final List<String> loadedValues = new ArrayList<String>(keys.size());
+		for(int i = 0; i < keys.size(); i++) {
+			String value = values.get(i);
+			if(value == null || value.length() == 0) {
+				//not exists or not string
+				progress.addSkipped();
+				continue;
+			}
+
+			loadedLength.addAndGet(value.length());
+			if(localCache != null && pttls[i] != -2) {
+				//cached no longer than ttl in redis
+				long ttlMillis = (pttls[i] == -1) ? Long.MAX_VALUE : pttls[i];
+				localCache.putIfUnchanged(keys.get(i), value, ttlMillis, localGenerations[i]);
+			}
+			if(decodeExecutor == null) {
+				progress.addProcessed(value.length(), value.length(), false);
+			} else {
+				loadedKeys.add(keys.get(i));
+				loadedValues.add(value);
+			}
+		}
+
+		if(decodeExecutor == null || loadedKeys.isEmpty()) {
+			return;
+		}
+		//the permit is held until the batch is decoded, fetching thread waits here while decoding falls behind
+		try {
+			if(!decodePermits.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+				progress.truncate();
+				return;
+			}
+		} catch(InterruptedException e) {
+			//stopped by time budget
+			progress.truncate();
+			return;
+		}
+		try {
+			decodeExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for(int i = 0; i < loadedKeys.size(); i++) {
+							if(System.currentTimeMillis() >= deadline) {
+								progress.truncate();
+								return;
+							}
+
+							String value = loadedValues.get(i);
+							try {
+								Object data = RedisDataUtil.deserializeData(value, dataClass, isUseCompress, classFinder);
+								handler.onLoaded(loadedKeys.get(i), data);
+								progress.addProcessed(value.length(), value.length(), false);
+							} catch(Throwable e) {
+								progress.addFailed();
+							}
+						}
+					} finally {
+						decodePermits.release();
+					}
+				}
+			});
+		} catch(RejectedExecutionException e) {
+			//stopped by time budget
+			decodePermits.release();
+			progress.truncate();
+		}
+	}
+
+	/**
+	 * @return false if not terminated before deadline
+	 */
+	private boolean awaitWithProgress(ExecutorService executor, long deadline, BulkProgress progress) throws InterruptedException {
+		while(true) {
+			long remainingMillis = deadline - System.currentTimeMillis();
+			if(remainingMillis <= 0) {
+				return executor.isTerminated();
+			}
+			long waitMillis = (_progressIntervalMillis > 0) ? Math.min(_progressIntervalMillis, remainingMillis) : remainingMillis;
+			if(executor.awaitTermination(waitMillis, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+
+			if(_progressListener != null) {
+				_progressListener.onProgress(progress);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.beef.util.redis.transport;
+
+import java.util.List;
+
+/**
+ * Commands on raw(encoded) string values, which are all that the encode/decode core needs from a redis client.
+ * Implementations adapt a client library(JedisTransport and JedisCommandsTransport in this module, Jedis4Transport in easy-redis-data-jedis4,
+ * LettuceTransport in easy-redis-data-lettuce).
+ * Implementations must be thread safe, except JedisCommandsTransport which is only as thread safe as the connection it wraps.
+ * @author beef
+ *
+ */
+public interface IRedisTransport {
+
+	public String get(String key);
+
+	public String set(String key, String value);
+
+	public String setex(String key, int seconds, String value);
+
+	public long del(String key);
+
+	/**
+	 * @param keys
+	 * @return values in the same order of keys, null for keys not existing
+	 */
+	public List<String> mget(String... keys);
+
+	public String hget(String key, String field);
+
+	public long hset(String key, String field, String value);
+
+	public long hdel(String key, String field);
+
+	public long llen(String key);
+
+	public List<String> lrange(String key, long start, long end);
+
+	public String lindex(String key, long index);
+
+	public String lpop(String key);
+
+	public long lpush(String key, String value);
+
+	public long rpush(String key, String value);
+
+	public void close();
+}
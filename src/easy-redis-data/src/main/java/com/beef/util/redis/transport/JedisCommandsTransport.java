@@ -0,0 +1,108 @@
+package com.beef.util.redis.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import redis.clients.jedis.JedisCommands;
+import redis.clients.jedis.MultiKeyCommands;
+
+/**
+ * IRedisTransport over a connection(Jedis, ShardedJedis, JedisCluster...) held by the caller,
+ * which is how the JedisCommands overloads of RedisDataUtil reach the encode/decode core written on IRedisTransport.
+ * It is as thread safe as the connection. close() does not close the connection.
+ * @author beef
+ *
+ */
+public class JedisCommandsTransport implements IRedisTransport {
+	private final JedisCommands _jedis;
+
+	public JedisCommandsTransport(JedisCommands jedis) {
+		_jedis = jedis;
+	}
+
+	@Override
+	public String get(String key) {
+		return _jedis.get(key);
+	}
+
+	@Override
+	public String set(String key, String value) {
+		return _jedis.set(key, value);
+	}
+
+	@Override
+	public String setex(String key, int seconds, String value) {
+		return _jedis.setex(key, seconds, value);
+	}
+
+	@Override
+	public long del(String key) {
+		return _jedis.del(key);
+	}
+
+	/**
+	 * One MGET if the connection supports multi-key commands, otherwise GET of each key.
+	 */
+	@Override
+	public List<String> mget(String... keys) {
+		if(_jedis instanceof MultiKeyCommands) {
+			return ((MultiKeyCommands) _jedis).mget(keys);
+		}
+
+		List<String> values = new ArrayList<String>(keys.length);
+		for(String key : keys) {
+			values.add(_jedis.get(key));
+		}
+		return values;
+	}
+
+	@Override
+	public String hget(String key, String field) {
+		return _jedis.hget(key, field);
+	}
+
+	@Override
+	public long hset(String key, String field, String value) {
+		return _jedis.hset(key, field, value);
+	}
+
+	@Override
+	public long hdel(String key, String field) {
+		return _jedis.hdel(key, field);
+	}
+
+	@Override
+	public long llen(String key) {
+		return _jedis.llen(key);
+	}
+
+	@Override
+	public List<String> lrange(String key, long start, long end) {
+		return _jedis.lrange(key, start, end);
+	}
+
+	@Override
+	public String lindex(String key, long index) {
+		return _jedis.lindex(key, index);
+	}
+
+	@Override
+	public String lpop(String key) {
+		return _jedis.lpop(key);
+	}
+
+	@Override
+	public long lpush(String key, String value) {
+		return _jedis.lpush(key, value);
+	}
+
+	@Override
+	public long rpush(String key, String value) {
+		return _jedis.rpush(key, value);
+	}
+
+	@Override
+	public void close() {
+		//the connection belongs to the caller
+	}
+}
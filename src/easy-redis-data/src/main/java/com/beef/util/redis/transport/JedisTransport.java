@@ -0,0 +1,184 @@
+package com.beef.util.redis.transport;
+
+import java.util.List;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import com.beef.util.redis.IJedisCallback;
+
+/**
+ * IRedisTransport over JedisPool. Each command borrows a connection and returns it right after the reply.
+ * It is compiled against Jedis 2.9, and works with Jedis 2.9 and 3.x. Jedis 4 changed signatures of commands(e.g. del() returns long,
+ * setex() takes long seconds), so use Jedis4Transport in module easy-redis-data-jedis4 with Jedis 4.x.
+ * @author beef
+ *
+ */
+public class JedisTransport implements IRedisTransport {
+	private final JedisPool _pool;
+
+	public JedisTransport(JedisPool pool) {
+		_pool = pool;
+	}
+
+	public JedisPool getPool() {
+		return _pool;
+	}
+
+	/**
+	 * Run callback with a connection borrowed from the pool.
+	 */
+	public <T> T execute(IJedisCallback<T> callback) {
+		Jedis jedis = _pool.getResource();
+		try {
+			return callback.doInJedis(jedis);
+		} finally {
+			jedis.close();
+		}
+	}
+
+	@Override
+	public String get(final String key) {
+		return execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.get(key);
+			}
+		});
+	}
+
+	@Override
+	public String set(final String key, final String value) {
+		return execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.set(key, value);
+			}
+		});
+	}
+
+	@Override
+	public String setex(final String key, final int seconds, final String value) {
+		return execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.setex(key, seconds, value);
+			}
+		});
+	}
+
+	@Override
+	public long del(final String key) {
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.del(key);
+			}
+		});
+	}
+
+	@Override
+	public List<String> mget(final String... keys) {
+		return execute(new IJedisCallback<List<String>>() {
+			@Override
+			public List<String> doInJedis(Jedis jedis) {
+				return jedis.mget(keys);
+			}
+		});
+	}
+
+	@Override
+	public String hget(final String key, final String field) {
+		return execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.hget(key, field);
+			}
+		});
+	}
+
+	@Override
+	public long hset(final String key, final String field, final String value) {
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.hset(key, field, value);
+			}
+		});
+	}
+
+	@Override
+	public long hdel(final String key, final String field) {
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.hdel(key, field);
+			}
+		});
+	}
+
+	@Override
+	public long llen(final String key) {
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.llen(key);
+			}
+		});
+	}
+
+	@Override
+	public List<String> lrange(final String key, final long start, final long end) {
+		return execute(new IJedisCallback<List<String>>() {
+			@Override
+			public List<String> doInJedis(Jedis jedis) {
+				return jedis.lrange(key, start, end);
+			}
+		});
+	}
+
+	@Override
+	public String lindex(final String key, final long index) {
+		return execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.lindex(key, index);
+			}
+		});
+	}
+
+	@Override
+	public String lpop(final String key) {
+		return execute(new IJedisCallback<String>() {
+			@Override
+			public String doInJedis(Jedis jedis) {
+				return jedis.lpop(key);
+			}
+		});
+	}
+
+	@Override
+	public long lpush(final String key, final String value) {
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.lpush(key, value);
+			}
+		});
+	}
+
+	@Override
+	public long rpush(final String key, final String value) {
+		return execute(new IJedisCallback<Long>() {
+			@Override
+			public Long doInJedis(Jedis jedis) {
+				return jedis.rpush(key, value);
+			}
+		});
+	}
+
+	@Override
+	public void close() {
+		_pool.close();
+	}
+}
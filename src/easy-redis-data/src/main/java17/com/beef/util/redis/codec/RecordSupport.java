@@ -0,0 +1,178 @@
+package com.beef.util.redis.codec;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.RecordComponent;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Codec of record classes(Java 17+ version of RecordSupport).
+ * Components of String, primitive and wrapper types are supported, in the same xml layout as MetoXML(elements in alphabetical order).
+ * @author beef
+ *
+ */
+class RecordSupport {
+	private static final Set<Class<?>> SUPPORTED_TYPES = Set.of(
+			String.class,
+			boolean.class, Boolean.class, byte.class, Byte.class, short.class, Short.class,
+			int.class, Integer.class, long.class, Long.class, float.class, Float.class,
+			double.class, Double.class, char.class, Character.class
+			);
+
+	static IDataCodec createCodec(Class<?> dataClass) {
+		if(!dataClass.isRecord()) {
+			return null;
+		}
+
+		RecordComponent[] components = dataClass.getRecordComponents();
+		for(RecordComponent component : components) {
+			if(!SUPPORTED_TYPES.contains(component.getType())) {
+				return null;
+			}
+		}
+
+		try {
+			return new RecordCodec(dataClass, components);
+		} catch(ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static final class RecordCodec implements IDataCodec {
+		private final String _rootName;
+		private final Constructor<?> _constructor;
+		/** components in constructor order */
+		private final RecordComponent[] _components;
+		private final Method[] _accessors;
+		/** indexes of components in alphabetical order of names */
+		private final int[] _writeOrder;
+		private final Map<String, Integer> _indexMap;
+
+		RecordCodec(Class<?> dataClass, RecordComponent[] components) throws ReflectiveOperationException {
+			_rootName = dataClass.getSimpleName();
+			_components = components;
+
+			Class<?>[] paramTypes = new Class<?>[components.length];
+			_accessors = new Method[components.length];
+			_indexMap = new HashMap<>(components.length * 2);
+			for(int i = 0; i < components.length; i++) {
+				paramTypes[i] = components[i].getType();
+				_accessors[i] = components[i].getAccessor();
+				_accessors[i].setAccessible(true);
+				_indexMap.put(components[i].getName(), i);
+			}
+			_constructor = dataClass.getDeclaredConstructor(paramTypes);
+			_constructor.setAccessible(true);
+
+			Integer[] order = new Integer[components.length];
+			for(int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, Comparator.comparing((Integer i) -> components[i].getName()));
+			_writeOrder = new int[order.length];
+			for(int i = 0; i < order.length; i++) {
+				_writeOrder[i] = order[i];
+			}
+		}
+
+		@Override
+		public String serialize(Object data) {
+			SimpleXmlWriter writer = new SimpleXmlWriter();
+			writer.startElement(_rootName);
+			try {
+				for(int index : _writeOrder) {
+					writer.writeElement(_components[index].getName(), _accessors[index].invoke(data));
+				}
+			} catch(IllegalAccessException | InvocationTargetException e) {
+				throw new IllegalStateException("Failed to read record component of " + _rootName, e);
+			}
+			writer.endElement(_rootName);
+
+			return writer.toString();
+		}
+
+		@Override
+		public Object deserialize(String dataXml) throws IOException {
+			Object[] args = new Object[_components.length];
+			SimpleXmlReader reader = new SimpleXmlReader(dataXml);
+			reader.readRootElement();
+
+			String name;
+			while((name = reader.nextChildElement()) != null) {
+				Integer index = _indexMap.get(name);
+				if(index == null) {
+					reader.skipElement();
+					continue;
+				}
+
+				String text = reader.readText();
+				if(text != null) {
+					args[index] = parse(_components[index].getType(), text);
+				}
+			}
+
+			for(int i = 0; i < args.length; i++) {
+				if(args[i] == null && _components[i].getType().isPrimitive()) {
+					args[i] = defaultValue(_components[i].getType());
+				}
+			}
+
+			try {
+				return _constructor.newInstance(args);
+			} catch(InstantiationException | IllegalAccessException | InvocationTargetException e) {
+				throw new IOException("Failed to create record " + _rootName, e);
+			}
+		}
+	}
+
+	private static Object parse(Class<?> type, String text) {
+		if(type == String.class) {
+			return text;
+		} else if(type == char.class || type == Character.class) {
+			return SimpleXmlReader.parseChar(text);
+		}
+
+		String trimmed = text.trim();
+		if(type == boolean.class || type == Boolean.class) {
+			return Boolean.valueOf(trimmed);
+		} else if(type == byte.class || type == Byte.class) {
+			return Byte.valueOf(trimmed);
+		} else if(type == short.class || type == Short.class) {
+			return Short.valueOf(trimmed);
+		} else if(type == int.class || type == Integer.class) {
+			return Integer.valueOf(trimmed);
+		} else if(type == long.class || type == Long.class) {
+			return Long.valueOf(trimmed);
+		} else if(type == float.class || type == Float.class) {
+			return Float.valueOf(trimmed);
+		} else {
+			return Double.valueOf(trimmed);
+		}
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if(type == boolean.class) {
+			return Boolean.FALSE;
+		} else if(type == char.class) {
+			return '\0';
+		} else if(type == byte.class) {
+			return (byte) 0;
+		} else if(type == short.class) {
+			return (short) 0;
+		} else if(type == int.class) {
+			return 0;
+		} else if(type == long.class) {
+			return 0L;
+		} else if(type == float.class) {
+			return 0f;
+		} else {
+			return 0d;
+		}
+	}
+}
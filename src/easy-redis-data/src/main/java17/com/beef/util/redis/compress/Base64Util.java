@@ -0,0 +1,78 @@
+package com.beef.util.redis.compress;
+
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * Base64 decoding on byte array without streams, by java.util.Base64 on Java 17+. 
+ * Same as the base version: line separators(CR, LF) are skipped, and other chars not in the alphabet are rejected.
+ * @author beef
+ *
+ */
+public class Base64Util {
+	private final static int[] DECODE_TABLE = new int[128];
+	static {
+		for(int i = 'A'; i <= 'Z'; i++) {
+			DECODE_TABLE[i] = i - 'A';
+		}
+		for(int i = 'a'; i <= 'z'; i++) {
+			DECODE_TABLE[i] = i - 'a' + 26;
+		}
+		for(int i = '0'; i <= '9'; i++) {
+			DECODE_TABLE[i] = i - '0' + 52;
+		}
+		DECODE_TABLE['+'] = 62;
+		DECODE_TABLE['/'] = 63;
+	}
+
+	/**
+	 * Decode 4 base64 chars into 24 bits without allocation. Invalid char and '=' are decoded as 0.
+	 * @return 3 bytes in the lower 24 bits
+	 */
+	public static int decodeQuantum(int c0, int c1, int c2, int c3) {
+		return (decodeChar(c0) << 18) | (decodeChar(c1) << 12) | (decodeChar(c2) << 6) | decodeChar(c3);
+	}
+
+	private static int decodeChar(int c) {
+		return (c < 0 || c >= 128) ? 0 : DECODE_TABLE[c];
+	}
+
+	public static byte[] decode(byte[] src) throws IOException {
+		//the mime decoder skips all chars not in the alphabet, so CR and LF are removed here for the basic decoder
+		byte[] stripped = stripLineSeparators(src);
+		//the basic decoder accepts missing padding
+		if((stripped.length % 4) != 0) {
+			throw new IOException("Invalid base64 length:" + stripped.length);
+		}
+
+		try {
+			return Base64.getDecoder().decode(stripped);
+		} catch(IllegalArgumentException e) {
+			throw new IOException("Invalid base64: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return src itself if no CR or LF in it
+	 */
+	private static byte[] stripLineSeparators(byte[] src) {
+		int count = 0;
+		for(int i = 0; i < src.length; i++) {
+			if(src[i] == '\r' || src[i] == '\n') {
+				count++;
+			}
+		}
+		if(count == 0) {
+			return src;
+		}
+
+		byte[] stripped = new byte[src.length - count];
+		int index = 0;
+		for(int i = 0; i < src.length; i++) {
+			if(src[i] != '\r' && src[i] != '\n') {
+				stripped[index++] = src[i];
+			}
+		}
+		return stripped;
+	}
+}
@@ -0,0 +1,67 @@
+package com.beef.util.redis.compress;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Java 17+ version of GZipCompressor. Deflater works on ByteBuffer directly without the stream and its internal buffer copies.
+ * The output is the same as written by GZIPOutputStream(OS byte 0xff "unknown").
+ */
+public class GZipCompressor implements ICompressor {
+	private final static byte[] GZIP_HEADER = {
+			(byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+	};
+	private final static int GZIP_TRAILER_LEN = 8;
+
+	@Override
+	public byte[] compress(byte[] bytes) throws CompressException {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(ByteBuffer.wrap(bytes));
+			deflater.finish();
+
+			ByteBuffer out = ByteBuffer.allocate(GZIP_HEADER.length + bytes.length + (bytes.length >> 4) + 64 + GZIP_TRAILER_LEN);
+			out.put(GZIP_HEADER);
+			while(!deflater.finished()) {
+				if(out.remaining() <= GZIP_TRAILER_LEN) {
+					ByteBuffer larger = ByteBuffer.allocate(out.capacity() * 2);
+					out.flip();
+					larger.put(out);
+					out = larger;
+				}
+				out.limit(out.capacity() - GZIP_TRAILER_LEN);
+				deflater.deflate(out);
+				out.limit(out.capacity());
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(ByteBuffer.wrap(bytes));
+			out.order(ByteOrder.LITTLE_ENDIAN);
+			out.putInt((int) crc.getValue());
+			out.putInt(bytes.length);
+
+			byte[] result = new byte[out.position()];
+			out.flip();
+			out.get(result);
+			return result;
+		} catch(Throwable t) {
+			throw new CompressException(t);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	@Override
+	public byte[] decompress(byte[] bytes) throws CompressException {
+		try(GZIPInputStream gzipIn = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+			return gzipIn.readAllBytes();
+		} catch(Throwable t) {
+			throw new CompressException(t);
+		}
+	}
+
+}
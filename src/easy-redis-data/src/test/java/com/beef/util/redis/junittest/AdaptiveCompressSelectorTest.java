@@ -0,0 +1,128 @@
+package com.beef.util.redis.junittest;
+
+import java.nio.charset.Charset;
+
+import com.beef.util.redis.AdaptiveCompressSelector;
+import com.beef.util.redis.RedisDataUtil;
+import com.beef.util.redis.RedisDataUtil.CompressAlgorithm;
+import org.junit.Test;
+
+public class AdaptiveCompressSelectorTest {
+	private final static Charset UTF8 = Charset.forName("utf-8");
+
+	@Test
+	public void testInvalidArguments() {
+		checkRejected(null, 1, 1, 1, 0);
+		checkRejected(CompressAlgorithm.LZF, 0, 1, 1, 0);
+		checkRejected(CompressAlgorithm.LZF, Double.NaN, 1, 1, 0);
+		checkRejected(CompressAlgorithm.LZF, 1, 0, 1, 0);
+		checkRejected(CompressAlgorithm.LZF, 1, 1, -1, 0);
+		checkRejected(CompressAlgorithm.LZF, 1, 1, 1, -1);
+	}
+
+	@Test
+	public void testChooseAlgorithm() {
+		try {
+			byte[] xmlBytes = createXml().getBytes(UTF8);
+
+			//size matters most, compressed is chosen
+			AdaptiveCompressSelector sizeSelector = new AdaptiveCompressSelector(CompressAlgorithm.NotCompress, 1e9, 1, 4, 0);
+			//time matters most, not compressed is chosen
+			AdaptiveCompressSelector timeSelector = new AdaptiveCompressSelector(CompressAlgorithm.GZIP, 1e-9, 1, 4, 0);
+			try {
+				for(int i = 0; i < 4; i++) {
+					sizeSelector.encode("g", xmlBytes);
+					timeSelector.encode("g", xmlBytes);
+				}
+
+				CompressAlgorithm sizeAlgorithm = waitForChange(sizeSelector, CompressAlgorithm.NotCompress);
+				if(sizeAlgorithm == CompressAlgorithm.NotCompress) {
+					throw new RuntimeException("compressed algorithm not chosen");
+				}
+				checkEquals(CompressAlgorithm.NotCompress, waitForChange(timeSelector, CompressAlgorithm.GZIP));
+				//other groups are not affected
+				checkEquals(CompressAlgorithm.NotCompress, sizeSelector.getAlgorithm("other"));
+
+				//encoded in the algorithm chosen
+				byte[] encoded = sizeSelector.encode("g", xmlBytes);
+				checkEquals(sizeAlgorithm, RedisDataUtil.detectValueCompressAlgorithm(encoded));
+				checkEquals(new String(xmlBytes, UTF8), new String(RedisDataUtil.decodeStringBytes(encoded, sizeAlgorithm), UTF8));
+			} finally {
+				sizeSelector.close();
+				timeSelector.close();
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Test
+	public void testMixedAlgorithmRoundTrip() {
+		try {
+			TestData1 data = new TestData1();
+			data.setItem1(createXml());
+			data.setItem2("x");
+			data.setItem3(1);
+
+			//values written while the chosen algorithm changes
+			String[] values = new String[CompressAlgorithm.values().length];
+			for(int i = 0; i < values.length; i++) {
+				AdaptiveCompressSelector selector = new AdaptiveCompressSelector(CompressAlgorithm.values()[i], 1, 1000, 1, 0);
+				try {
+					RedisDataUtil.setAdaptiveCompressSelector(selector);
+					values[i] = RedisDataUtil.serializeDataToString(data, TestData1.class, true);
+					checkEquals(CompressAlgorithm.values()[i], RedisDataUtil.detectValueCompressAlgorithm(values[i]));
+				} finally {
+					selector.close();
+				}
+			}
+
+			for(int i = 0; i < values.length; i++) {
+				TestData1 decoded = (TestData1) RedisDataUtil.deserializeData(values[i], TestData1.class, true);
+				checkEquals(data.getItem1(), decoded.getItem1());
+				checkEquals(data.getItem3(), decoded.getItem3());
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			RedisDataUtil.setAdaptiveCompressSelector(null);
+			RedisDataUtil.setDetectCompressAlgorithmOnDecode(false);
+		}
+	}
+
+	private static CompressAlgorithm waitForChange(AdaptiveCompressSelector selector, CompressAlgorithm initialAlgorithm) throws InterruptedException {
+		//samples are measured in background
+		long beginTime = System.currentTimeMillis();
+		while(selector.getAlgorithm("g") == initialAlgorithm && (System.currentTimeMillis() - beginTime) < 5000) {
+			Thread.sleep(10);
+		}
+		return selector.getAlgorithm("g");
+	}
+
+	private static void checkRejected(CompressAlgorithm initialAlgorithm, double nanosPerByte, int sampleRate, int minSampleCount, long evaluateIntervalMillis) {
+		try {
+			new AdaptiveCompressSelector(initialAlgorithm, nanosPerByte, sampleRate, minSampleCount, evaluateIntervalMillis);
+			throw new RuntimeException("invalid argument should be rejected");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+
+	private static String createXml() {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < 500; i++) {
+			sb.append("<item>").append(i % 10).append("</item>");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,79 @@
+package com.beef.util.redis.junittest;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import com.beef.util.redis.compress.Base64Util;
+import org.junit.Test;
+
+/**
+ * Shared by both versions of Base64Util(the base one, and the one in src/main/java17).
+ */
+public class Base64UtilTest {
+	private final static Charset ASCII = Charset.forName("US-ASCII");
+
+	@Test
+	public void testDecode() {
+		try {
+			//RFC 4648 test vectors
+			checkDecoded("", "");
+			checkDecoded("f", "Zg==");
+			checkDecoded("fo", "Zm8=");
+			checkDecoded("foo", "Zm9v");
+			checkDecoded("foob", "Zm9vYg==");
+			checkDecoded("fooba", "Zm9vYmE=");
+			checkDecoded("foobar", "Zm9vYmFy");
+
+			//line separators are skipped
+			checkDecoded("foobar", "Zm9v\r\nYmFy\r\n");
+			checkDecoded("foob", "Zm\n9vYg=\r\n=");
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Test
+	public void testRejectInvalid() {
+		checkRejected("Zm9v YmFy");
+		checkRejected("Zm9v\tYmFy");
+		checkRejected("Zm9*YmFy");
+		checkRejected("Zm9vYg");
+		checkRejected("Zm9vYg=");
+		checkRejected("Zg==Zg==");
+		checkRejected("Z===");
+		checkRejected(new byte[] {'Z', 'm', '9', (byte) 0xff});
+	}
+
+	@Test
+	public void testDecodeQuantum() {
+		checkEquals(0x666f6f, Base64Util.decodeQuantum('Z', 'm', '9', 'v'));
+		//'=' and invalid chars are decoded as 0
+		checkEquals(0x660000, Base64Util.decodeQuantum('Z', 'g', '=', '='));
+		checkEquals(0, Base64Util.decodeQuantum('*', -1, 200, '\n'));
+	}
+
+	private static void checkDecoded(String expected, String base64) throws IOException {
+		checkEquals(expected, new String(Base64Util.decode(base64.getBytes(ASCII)), ASCII));
+	}
+
+	private static void checkRejected(String base64) {
+		checkRejected(base64.getBytes(ASCII));
+	}
+
+	private static void checkRejected(byte[] base64) {
+		try {
+			Base64Util.decode(base64);
+			throw new RuntimeException("invalid base64 should be rejected:" + new String(base64, ASCII));
+		} catch (IOException e) {
+			//expected
+		}
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.beef.util.redis.junittest;
+
+/**
+ * Data classes whose generated codec is broken.
+ */
+public class CodecTestBrokenData {
+	/** codec class does not implement IDataCodec */
+	public static class NotCodec {
+	}
+
+	/** codec class is not accessible */
+	public static class HiddenCodec {
+	}
+
+	/** codec class fails in static initializer */
+	public static class FailingCodec {
+	}
+}
+
+class CodecTestBrokenData_HiddenCodec_RedisCodec {
+}
+
+class CodecTestBrokenData_FailingCodec_RedisCodec {
+	private final static int VALUE = fail();
+
+	private static int fail() {
+		throw new IllegalStateException("failed for test");
+	}
+}
@@ -0,0 +1,4 @@
+package com.beef.util.redis.junittest;
+
+public class CodecTestBrokenData_NotCodec_RedisCodec {
+}
@@ -0,0 +1,71 @@
+package com.beef.util.redis.junittest;
+
+import com.beef.util.redis.codec.RedisData;
+
+@RedisData
+public class CodecTestData {
+	private String _text;
+	private int _intValue;
+	private Long _longObject;
+	private boolean _boolValue;
+	private char _charValue;
+	private float _floatValue;
+	private Float _floatObject;
+	private double _doubleValue;
+	private Double _doubleObject;
+
+	public String getText() {
+		return _text;
+	}
+	public void setText(String text) {
+		_text = text;
+	}
+	public int getIntValue() {
+		return _intValue;
+	}
+	public void setIntValue(int intValue) {
+		_intValue = intValue;
+	}
+	public Long getLongObject() {
+		return _longObject;
+	}
+	public void setLongObject(Long longObject) {
+		_longObject = longObject;
+	}
+	public boolean isBoolValue() {
+		return _boolValue;
+	}
+	public void setBoolValue(boolean boolValue) {
+		_boolValue = boolValue;
+	}
+	public char getCharValue() {
+		return _charValue;
+	}
+	public void setCharValue(char charValue) {
+		_charValue = charValue;
+	}
+	public float getFloatValue() {
+		return _floatValue;
+	}
+	public void setFloatValue(float floatValue) {
+		_floatValue = floatValue;
+	}
+	public Float getFloatObject() {
+		return _floatObject;
+	}
+	public void setFloatObject(Float floatObject) {
+		_floatObject = floatObject;
+	}
+	public double getDoubleValue() {
+		return _doubleValue;
+	}
+	public void setDoubleValue(double doubleValue) {
+		_doubleValue = doubleValue;
+	}
+	public Double getDoubleObject() {
+		return _doubleObject;
+	}
+	public void setDoubleObject(Double doubleObject) {
+		_doubleObject = doubleObject;
+	}
+}
@@ -0,0 +1,262 @@
+package com.beef.util.redis.junittest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.beef.util.redis.CounterAggregator;
+import com.beef.util.redis.IJedisCallback;
+import com.beef.util.redis.RedisDataClient;
+import com.beef.util.redis.RedisDataException;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+public class CounterAggregatorTest {
+	private final static String KEY_PREFIX = "test.counter.";
+
+	@Test
+	public void testConcurrentAddsWithFlush() {
+		JedisPool pool = LocalRedis.createPool();
+		try {
+			final int keyCount = 50;
+			final int threadCount = 8;
+			final int incrCountPerThread = 20000;
+			clearKeys(pool);
+
+			//flushing frequently with few counters kept, so counters are retired while being increased
+			final CounterAggregator aggregator = new CounterAggregator(new RedisDataClient(pool, 8), 1, 10, 7);
+			final AtomicLong[] expected = new AtomicLong[keyCount];
+			for(int i = 0; i < keyCount; i++) {
+				expected[i] = new AtomicLong();
+			}
+
+			List<Thread> threads = new ArrayList<Thread>();
+			for(int t = 0; t < threadCount; t++) {
+				final int seed = t;
+				Thread thread = new Thread() {
+					@Override
+					public void run() {
+						for(int i = 0; i < incrCountPerThread; i++) {
+							int k = (i * 7 + seed) % keyCount;
+							if((k & 1) == 0) {
+								aggregator.incrBy(KEY_PREFIX + k, 2);
+							} else {
+								aggregator.hincrBy(KEY_PREFIX + "hash", "f" + k, 2);
+							}
+							expected[k].addAndGet(2);
+						}
+					}
+				};
+				thread.start();
+				threads.add(thread);
+			}
+			for(Thread thread : threads) {
+				thread.join();
+			}
+
+			checkEquals(expected[0].get(), aggregator.get(KEY_PREFIX + 0));
+			checkEquals(expected[1].get(), aggregator.hget(KEY_PREFIX + "hash", "f1"));
+			aggregator.close();
+			System.out.println("testConcurrentAddsWithFlush() increments:" + aggregator.getIncrementCount()
+					+ " sent:" + aggregator.getSentCount() + " counters:" + aggregator.getCounterCount());
+
+			checkEquals(0, aggregator.getDroppedCount());
+			Jedis jedis = pool.getResource();
+			try {
+				for(int k = 0; k < keyCount; k++) {
+					String value = ((k & 1) == 0) ? jedis.get(KEY_PREFIX + k) : jedis.hget(KEY_PREFIX + "hash", "f" + k);
+					checkEquals(expected[k].get(), Long.parseLong(value));
+				}
+			} finally {
+				jedis.close();
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testReadWhileFlushing() {
+		JedisPool pool = LocalRedis.createPool();
+		try {
+			clearKeys(pool);
+			final String key = KEY_PREFIX + "read";
+			final int incrCount = 20000;
+			//other counters make each flush send many batches, so that reads often overlap with increments on the way
+			final CounterAggregator aggregator = new CounterAggregator(new RedisDataClient(pool, 8), 1, 1000, 7);
+			final AtomicLong written = new AtomicLong();
+
+			Thread writer = new Thread() {
+				@Override
+				public void run() {
+					for(int i = 0; i < incrCount; i++) {
+						aggregator.incr(key);
+						written.incrementAndGet();
+						aggregator.incr(KEY_PREFIX + "other" + (i % 300));
+						if((i % 100) == 0) {
+							aggregator.flush();
+						}
+					}
+				}
+			};
+			writer.start();
+
+			//an increment on the way while reading would be missed or counted twice
+			long lastValue = 0;
+			int readCount = 0;
+			while(writer.isAlive()) {
+				long value = aggregator.get(key);
+				long writtenAfterRead = written.get();
+				if(value < lastValue || value > writtenAfterRead) {
+					throw new RuntimeException("read not consistent:" + value + " last:" + lastValue + " written:" + writtenAfterRead);
+				}
+				lastValue = value;
+				readCount++;
+			}
+			writer.join();
+			checkEquals(incrCount, aggregator.get(key));
+			System.out.println("testReadWhileFlushing() reads:" + readCount);
+			aggregator.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testFailedFlush() {
+		JedisPool pool = LocalRedis.createPool();
+		try {
+			clearKeys(pool);
+			String key = KEY_PREFIX + "failed";
+			FailingClient client = new FailingClient(pool);
+			CounterAggregator aggregator = new CounterAggregator(client, 3600000, 1000, 100);
+
+			//failed before EXEC sent, added back and retried
+			aggregator.incrBy(key, 5);
+			client._failure = FailingClient.FAIL_BEFORE_CALLBACK;
+			try {
+				aggregator.flush();
+				throw new RuntimeException("flush should fail");
+			} catch (RedisDataException e) {
+				//expected
+			}
+			checkEquals(5, aggregator.getPending(key));
+			aggregator.flush();
+			checkEquals(0, aggregator.getPending(key));
+			checkEquals(5, aggregator.get(key));
+
+			//failed after EXEC sent, dropped instead of being applied twice
+			aggregator.incrBy(key, 3);
+			client._failure = FailingClient.FAIL_AFTER_CALLBACK;
+			try {
+				aggregator.flush();
+				throw new RuntimeException("flush should fail");
+			} catch (RedisDataException e) {
+				//expected
+			}
+			checkEquals(0, aggregator.getPending(key));
+			checkEquals(1, aggregator.getDroppedCount());
+			aggregator.flush();
+			checkEquals(8, aggregator.get(key));
+
+			aggregator.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testCloseFlushes() {
+		JedisPool pool = LocalRedis.createPool();
+		try {
+			clearKeys(pool);
+			String key = KEY_PREFIX + "close";
+			CounterAggregator aggregator = new CounterAggregator(new RedisDataClient(pool, 8), 3600000, 1000, 100);
+			aggregator.incr(key);
+			aggregator.incrBy(key, 9);
+			aggregator.hincrBy(key + ".hash", "f1", 4);
+			checkEquals(10, aggregator.get(key));
+
+			aggregator.close();
+			checkEquals(0, aggregator.getPending(key));
+			Jedis jedis = pool.getResource();
+			try {
+				checkEquals(10, Long.parseLong(jedis.get(key)));
+				checkEquals(4, Long.parseLong(jedis.hget(key + ".hash", "f1")));
+			} finally {
+				jedis.close();
+			}
+
+			try {
+				aggregator.incr(key);
+				throw new RuntimeException("incr after closed should be rejected");
+			} catch (IllegalStateException e) {
+				//expected
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			pool.destroy();
+		}
+	}
+
+	private static void clearKeys(JedisPool pool) {
+		Jedis jedis = pool.getResource();
+		try {
+			for(String key : jedis.keys(KEY_PREFIX + "*")) {
+				jedis.del(key);
+			}
+		} finally {
+			jedis.close();
+		}
+	}
+
+	private static void checkEquals(long expected, long actual) {
+		if(expected != actual) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+
+	private static class FailingClient extends RedisDataClient {
+		private final static int FAIL_BEFORE_CALLBACK = 1;
+		private final static int FAIL_AFTER_CALLBACK = 2;
+
+		private volatile int _failure = 0;
+
+		public FailingClient(JedisPool pool) {
+			super(pool, 8);
+		}
+
+		@Override
+		public <T> T execute(IJedisCallback<T> callback) {
+			int failure = _failure;
+			_failure = 0;
+			if(failure == FAIL_BEFORE_CALLBACK) {
+				throw new JedisConnectionException("connection refused");
+			}
+
+			T reply = super.execute(callback);
+			if(failure == FAIL_AFTER_CALLBACK) {
+				throw new JedisConnectionException("connection reset while reading reply");
+			}
+			return reply;
+		}
+	}
+}
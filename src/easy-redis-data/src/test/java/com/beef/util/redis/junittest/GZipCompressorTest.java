@@ -0,0 +1,61 @@
+package com.beef.util.redis.junittest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import com.beef.util.redis.compress.GZipCompressor;
+import org.junit.Test;
+
+/**
+ * Shared by both versions of GZipCompressor(the base one, and the one in src/main/java17).
+ */
+public class GZipCompressorTest {
+	private final static Charset UTF8 = Charset.forName("utf-8");
+
+	@Test
+	public void testSameAsGZIPOutputStream() {
+		try {
+			StringBuilder xml = new StringBuilder();
+			for(int i = 0; i < 5000; i++) {
+				xml.append("<item>").append(i % 37).append("</item>");
+			}
+			byte[] randomBytes = new byte[70000];
+			new Random(17).nextBytes(randomBytes);
+
+			byte[][] inputs = new byte[][] {
+					new byte[0],
+					"a".getBytes(UTF8),
+					"<TestData1><item1>测试</item1></TestData1>".getBytes(UTF8),
+					xml.toString().getBytes(UTF8),
+					//incompressible, output is larger than input
+					randomBytes,
+			};
+			GZipCompressor compressor = new GZipCompressor();
+			for(byte[] input : inputs) {
+				byte[] compressed = compressor.compress(input);
+				if(!Arrays.equals(gzip(input), compressed)) {
+					throw new RuntimeException("not the same as GZIPOutputStream, length:" + input.length);
+				}
+				if(!Arrays.equals(input, compressor.decompress(compressed))) {
+					throw new RuntimeException("round trip failed, length:" + input.length);
+				}
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static byte[] gzip(byte[] bytes) throws IOException {
+		ByteArrayOutputStream bytesZipped = new ByteArrayOutputStream();
+		GZIPOutputStream gzipOut = new GZIPOutputStream(bytesZipped);
+		gzipOut.write(bytes);
+		gzipOut.close();
+		return bytesZipped.toByteArray();
+	}
+}
@@ -0,0 +1,30 @@
+package com.beef.util.redis.junittest;
+
+import com.beef.util.redis.replica.LatencyWindow;
+import org.junit.Test;
+
+public class LatencyWindowTest {
+
+	@Test
+	public void testPercentile() {
+		LatencyWindow window = new LatencyWindow(100, 0.95, 10);
+		if(window.getPercentileNanos() != -1) {
+			throw new RuntimeException("percentile should not be computed before samples");
+		}
+
+		for(int i = 1; i <= 100; i++) {
+			window.add(i);
+		}
+		if(window.getPercentileNanos() != 95) {
+			throw new RuntimeException("p95 not matched:" + window.getPercentileNanos());
+		}
+
+		//the oldest samples slide out
+		for(int i = 0; i < 100; i++) {
+			window.add(1000);
+		}
+		if(window.getPercentileNanos() != 1000 || window.getCount() != 100) {
+			throw new RuntimeException("window not slided:" + window.getPercentileNanos());
+		}
+	}
+}
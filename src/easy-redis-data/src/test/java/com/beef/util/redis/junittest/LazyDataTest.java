@@ -0,0 +1,48 @@
+package com.beef.util.redis.junittest;
+
+import com.beef.util.redis.LazyData;
+import org.junit.Test;
+
+public class LazyDataTest {
+
+	@Test
+	public void testGetPropertyText() {
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<EciticUserData>\n"
+				+ "  <appId>0002000b460afa56</appId>\n"
+				+ "  <arrDtimes>\n"
+				+ "    <EciticUserDTimesData>\n"
+				+ "      <dateYmd>2014030</dateYmd>\n"
+				+ "    </EciticUserDTimesData>\n"
+				+ "  </arrDtimes>\n"
+				+ "  <dateYmd>20140401</dateYmd>\n"
+				+ "  <empty/>\n"
+				+ "  <memo>a&lt;b&amp;c</memo>\n"
+				+ "</EciticUserData>";
+
+		try {
+			LazyData lazyData = new LazyData(xml, TestData1.class, false, null);
+
+			checkEquals("0002000b460afa56", lazyData.getPropertyText("appId"));
+			checkEquals("20140401", lazyData.getPropertyText("dateYmd"));
+			checkEquals("", lazyData.getPropertyText("empty"));
+			checkEquals("a<b&c", lazyData.getPropertyText("memo"));
+			checkEquals(null, lazyData.getPropertyText("arrDtimes"));
+			checkEquals(null, lazyData.getPropertyText("app"));
+
+			if(lazyData.isDataDecoded()) {
+				throw new RuntimeException("data should not be decoded");
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void checkEquals(String expected, String actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+}
@@ -0,0 +1,309 @@
+package com.beef.util.redis.junittest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.beef.util.redis.ListPageIterator;
+import com.beef.util.redis.RedisDataException;
+import com.beef.util.redis.RedisDataUtil;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCommands;
+import redis.clients.jedis.JedisPool;
+
+public class ListPageIteratorTest {
+	private final static String KEY = "test.list.page";
+	private final static int ELEMENT_COUNT = 25;
+	private final static int PAGE_SIZE = 10;
+
+	@Test
+	public void testPaging() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		ExecutorService decodeExecutor = Executors.newFixedThreadPool(2);
+		try {
+			createList(jedis);
+			LrangeRecorder recorder = new LrangeRecorder(jedis);
+
+			ListPageIterator iterator = RedisDataUtil.lrangeIterator(recorder.createProxy(), KEY, 0, -1, PAGE_SIZE,
+					TestData1.class, true, null, null, null, 0);
+			checkItems(iterator, 0, ELEMENT_COUNT - 1);
+			checkEquals("[0-9, 10-19, 20-29]", recorder.getRanges().toString());
+			try {
+				iterator.next();
+				throw new RuntimeException("exhausted iterator should throw");
+			} catch (NoSuchElementException e) {
+				//expected
+			}
+
+			//last page is exactly full, no more lrange after it
+			recorder = new LrangeRecorder(jedis);
+			checkItems(RedisDataUtil.lrangeIterator(recorder.createProxy(), KEY, 5, 24, PAGE_SIZE,
+					TestData1.class, true, null, null, null, 0), 5, 24);
+			checkEquals("[5-14, 15-24]", recorder.getRanges().toString());
+
+			//negative indexes
+			checkItems(RedisDataUtil.lrangeIterator(jedis, KEY, 3, -3, PAGE_SIZE,
+					TestData1.class, true, null, null, null, 0), 3, ELEMENT_COUNT - 3);
+			checkItems(RedisDataUtil.lrangeIterator(jedis, KEY, -5, -1, PAGE_SIZE,
+					TestData1.class, true, null, null, null, 0), ELEMENT_COUNT - 5, ELEMENT_COUNT - 1);
+			checkItems(RedisDataUtil.lrangeIterator(jedis, KEY, -100, 2, PAGE_SIZE,
+					TestData1.class, true, null, null, null, 0), 0, 2);
+
+			//empty ranges are not fetched
+			recorder = new LrangeRecorder(jedis);
+			checkEquals(Boolean.FALSE, RedisDataUtil.lrangeIterator(recorder.createProxy(), KEY, 10, 5, PAGE_SIZE,
+					TestData1.class, true, null, null, null, 0).hasNext());
+			checkEquals(Boolean.FALSE, RedisDataUtil.lrangeIterator(recorder.createProxy(), KEY, 0, -100, PAGE_SIZE,
+					TestData1.class, true, null, null, null, 0).hasNext());
+			checkEquals(0, recorder.getRanges().size());
+			checkEquals(Boolean.FALSE, RedisDataUtil.lrangeIterator(jedis, KEY + ".missing", 0, -1, PAGE_SIZE,
+					TestData1.class, true, null, null, null, 0).hasNext());
+
+			//decoded in parallel, in the same order
+			checkItems(RedisDataUtil.lrangeIterator(jedis, KEY, 0, -1, PAGE_SIZE,
+					TestData1.class, true, null, null, decodeExecutor, 2), 0, ELEMENT_COUNT - 1);
+
+			//string elements
+			jedis.del(KEY);
+			for(int i = 0; i < ELEMENT_COUNT; i++) {
+				RedisDataUtil.rpush(jedis, KEY, "s" + i, true);
+			}
+			ListPageIterator stringIterator = RedisDataUtil.lrangeIterator(jedis, KEY, 0, -1, PAGE_SIZE,
+					null, true, null, null, null, 0);
+			for(int i = 0; i < ELEMENT_COUNT; i++) {
+				checkEquals("s" + i, stringIterator.next());
+			}
+			checkEquals(Boolean.FALSE, stringIterator.hasNext());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			decodeExecutor.shutdown();
+			jedis.del(KEY);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testPrefetch() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		ExecutorService fetchExecutor = Executors.newSingleThreadExecutor();
+		try {
+			createList(jedis);
+			LrangeRecorder recorder = new LrangeRecorder(jedis);
+
+			ListPageIterator iterator = RedisDataUtil.lrangeIterator(recorder.createProxy(), KEY, 0, -1, PAGE_SIZE,
+					TestData1.class, true, null, fetchExecutor, null, 0);
+			checkEquals("a0", ((TestData1) iterator.next()).getItem1());
+			//next page is fetched in background while the first page is being consumed
+			waitForRanges(recorder, 2);
+			checkEquals("[0-9, 10-19]", recorder.getRanges().toString());
+			if(recorder.getCallingThreads().get(1) == Thread.currentThread()) {
+				throw new RuntimeException("next page should be fetched in fetchExecutor");
+			}
+
+			for(int i = 1; i < ELEMENT_COUNT; i++) {
+				checkEquals("a" + i, ((TestData1) iterator.next()).getItem1());
+			}
+			checkEquals(Boolean.FALSE, iterator.hasNext());
+			checkEquals("[0-9, 10-19, 20-29]", recorder.getRanges().toString());
+
+			//failure of prefetching is thrown in next()
+			jedis.del(KEY);
+			createList(jedis);
+			recorder = new LrangeRecorder(jedis);
+			recorder._failAtCall = 1;
+			iterator = RedisDataUtil.lrangeIterator(recorder.createProxy(), KEY, 0, -1, PAGE_SIZE,
+					TestData1.class, true, null, fetchExecutor, null, 0);
+			for(int i = 0; i < PAGE_SIZE; i++) {
+				iterator.next();
+			}
+			try {
+				iterator.next();
+				throw new RuntimeException("failure of prefetching should be thrown");
+			} catch (RedisDataException e) {
+				if(!(e.getCause() instanceof IllegalStateException)) {
+					throw e;
+				}
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			fetchExecutor.shutdown();
+			jedis.del(KEY);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testClose() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		ExecutorService fetchExecutor = Executors.newSingleThreadExecutor();
+		try {
+			createList(jedis);
+			LrangeRecorder recorder = new LrangeRecorder(jedis);
+			recorder._blockAtCall = 1;
+
+			final ListPageIterator iterator = RedisDataUtil.lrangeIterator(recorder.createProxy(), KEY, 0, -1, PAGE_SIZE,
+					TestData1.class, true, null, fetchExecutor, null, 0);
+			iterator.next();
+			if(!recorder._blockedLatch.await(5, TimeUnit.SECONDS)) {
+				throw new RuntimeException("prefetching not started");
+			}
+
+			//close() waits for the prefetching, then the jedis can be used by others
+			final CountDownLatch closedLatch = new CountDownLatch(1);
+			Thread closingThread = new Thread() {
+				@Override
+				public void run() {
+					iterator.close();
+					closedLatch.countDown();
+				}
+			};
+			closingThread.start();
+			if(closedLatch.await(200, TimeUnit.MILLISECONDS)) {
+				throw new RuntimeException("close() should wait for the prefetching");
+			}
+			recorder._releaseLatch.countDown();
+			if(!closedLatch.await(5, TimeUnit.SECONDS)) {
+				throw new RuntimeException("close() not returned");
+			}
+
+			checkEquals(Boolean.FALSE, iterator.hasNext());
+			checkEquals(2, recorder.getRanges().size());
+			checkEquals("PONG", jedis.ping());
+
+			//closed without prefetching
+			recorder = new LrangeRecorder(jedis);
+			ListPageIterator notPrefetched = RedisDataUtil.lrangeIterator(recorder.createProxy(), KEY, 0, -1, PAGE_SIZE,
+					TestData1.class, true, null, null, null, 0);
+			notPrefetched.next();
+			notPrefetched.close();
+			checkEquals(Boolean.FALSE, notPrefetched.hasNext());
+			checkEquals(1, recorder.getRanges().size());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			fetchExecutor.shutdown();
+			jedis.del(KEY);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	/**
+	 * Records lrange calls on the jedis, the other calls are passed through.
+	 */
+	private static class LrangeRecorder implements InvocationHandler {
+		private final Jedis _jedis;
+		private final List<String> _ranges = Collections.synchronizedList(new ArrayList<String>());
+		private final List<Thread> _callingThreads = Collections.synchronizedList(new ArrayList<Thread>());
+		private volatile int _failAtCall = -1;
+		private volatile int _blockAtCall = -1;
+		private final CountDownLatch _blockedLatch = new CountDownLatch(1);
+		private final CountDownLatch _releaseLatch = new CountDownLatch(1);
+
+		public LrangeRecorder(Jedis jedis) {
+			_jedis = jedis;
+		}
+
+		public JedisCommands createProxy() {
+			return (JedisCommands) Proxy.newProxyInstance(JedisCommands.class.getClassLoader(),
+					new Class<?>[] {JedisCommands.class}, this);
+		}
+
+		public List<String> getRanges() {
+			synchronized (_ranges) {
+				return new ArrayList<String>(_ranges);
+			}
+		}
+
+		public List<Thread> getCallingThreads() {
+			synchronized (_callingThreads) {
+				return new ArrayList<Thread>(_callingThreads);
+			}
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if(method.getName().equals("lrange")) {
+				int call = _ranges.size();
+				_callingThreads.add(Thread.currentThread());
+				_ranges.add(args[1] + "-" + args[2]);
+				if(call == _failAtCall) {
+					throw new IllegalStateException("lrange failed for test");
+				}
+				if(call == _blockAtCall) {
+					_blockedLatch.countDown();
+					_releaseLatch.await();
+				}
+			}
+
+			try {
+				return method.invoke(_jedis, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	private static void createList(Jedis jedis) throws Exception {
+		jedis.del(KEY);
+		for(int i = 0; i < ELEMENT_COUNT; i++) {
+			TestData1 data = new TestData1();
+			data.setItem1("a" + i);
+			data.setItem2("x");
+			data.setItem3(i);
+			RedisDataUtil.rpush(jedis, KEY, data, TestData1.class, true);
+		}
+	}
+
+	private static void checkItems(ListPageIterator iterator, int first, int last) {
+		for(int i = first; i <= last; i++) {
+			if(!iterator.hasNext()) {
+				throw new RuntimeException("ended before:" + i);
+			}
+			TestData1 data = (TestData1) iterator.next();
+			checkEquals("a" + i, data.getItem1());
+			checkEquals((long) i, data.getItem3());
+		}
+		checkEquals(Boolean.FALSE, iterator.hasNext());
+	}
+
+	private static void waitForRanges(LrangeRecorder recorder, int expected) throws InterruptedException {
+		long beginTime = System.currentTimeMillis();
+		while(recorder.getRanges().size() < expected) {
+			if((System.currentTimeMillis() - beginTime) > 5000) {
+				throw new RuntimeException("timeout, expected:" + expected + " actual:" + recorder.getRanges());
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package com.beef.util.redis.junittest;
+
+import org.junit.Assume;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * Pools of the local redis used by tests. Tests using them are skipped when the redis is not running.
+ */
+public class LocalRedis {
+	public final static String HOST = "127.0.0.1";
+	public final static int PORT = 6379;
+
+	public static JedisPool createPool() {
+		return createPool(PORT);
+	}
+
+	public static JedisPool createPool(int port) {
+		JedisPoolConfig jedisConfig = new JedisPoolConfig();
+		jedisConfig.setMaxTotal(8);
+		jedisConfig.setMaxIdle(8);
+		jedisConfig.setMaxWaitMillis(1000);
+		jedisConfig.setTestOnBorrow(false);
+
+		JedisPool pool = new JedisPool(jedisConfig, HOST, port);
+		assumeRunning(pool);
+		return pool;
+	}
+
+	private static void assumeRunning(JedisPool pool) {
+		Jedis jedis = null;
+		try {
+			jedis = pool.getResource();
+			jedis.ping();
+		} catch (JedisConnectionException e) {
+			pool.destroy();
+			Assume.assumeNoException("redis is not running", e);
+		} finally {
+			if(jedis != null) {
+				jedis.close();
+			}
+		}
+	}
+}
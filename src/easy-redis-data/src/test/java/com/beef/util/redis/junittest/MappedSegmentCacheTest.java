@@ -0,0 +1,178 @@
+package com.beef.util.redis.junittest;
+
+import java.io.File;
+
+import com.beef.util.redis.MappedSegmentCache;
+import org.junit.Test;
+
+public class MappedSegmentCacheTest {
+
+	@Test
+	public void testReopen() {
+		try {
+			File dir = createTempDir();
+			MappedSegmentCache cache = new MappedSegmentCache(dir, 1, 64 * 1024, 4, 60000);
+			for(int i = 0; i < 2000; i++) {
+				cache.put("key" + i, "value" + i);
+			}
+			cache.put("hash1", "f1", "hvalue1");
+			cache.put("key1", "value1_v2");
+			cache.invalidate("key2");
+			cache.put("key3", "value3", -1);
+			cache.close();
+
+			cache = new MappedSegmentCache(dir, 1, 64 * 1024, 4, 60000);
+			System.out.println("testReopen() " + cache);
+			assertEquals("value1999", cache.get("key1999"));
+			assertEquals("value1_v2", cache.get("key1"));
+			assertEquals("hvalue1", cache.get("hash1", "f1"));
+			assertEquals(null, cache.get("key2"));
+			//expired
+			assertEquals(null, cache.get("key3"));
+			cache.close();
+
+			cache = new MappedSegmentCache(dir, 2, 64 * 1024, 4, 60000);
+			assertEquals(null, cache.get("key1999"));
+			cache.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Test
+	public void testSegmentRolling() {
+		try {
+			File dir = createTempDir();
+			MappedSegmentCache cache = new MappedSegmentCache(dir, 1, 4096, 2, 60000);
+			for(int i = 0; i < 10000; i++) {
+				cache.put("key" + i, "value" + i);
+			}
+
+			//oldest segments are deleted
+			assertEquals(null, cache.get("key0"));
+			assertEquals("value9999", cache.get("key9999"));
+			if(dir.list().length != 2) {
+				throw new RuntimeException("segment count not matched:" + dir.list().length);
+			}
+			if(cache.getIndexedCount() > 1000) {
+				throw new RuntimeException("index not cleaned:" + cache.getIndexedCount());
+			}
+			cache.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Test
+	public void testPutIfUnchanged() {
+		try {
+			File dir = createTempDir();
+			MappedSegmentCache cache = new MappedSegmentCache(dir, 1, 64 * 1024, 4, 60000);
+
+			//a reader took generation before reading redis, then a writer put the new value
+			long generation = cache.getGeneration("key1");
+			cache.put("key1", "new");
+			if(cache.putIfUnchanged("key1", "old", 60000, generation)) {
+				throw new RuntimeException("stale fill should be rejected");
+			}
+			assertEquals("new", cache.get("key1"));
+
+			generation = cache.getGeneration("hash1", "f1");
+			cache.invalidate("hash1", "f1");
+			if(cache.putIfUnchanged("hash1", "f1", "old", 60000, generation)) {
+				throw new RuntimeException("stale fill of field should be rejected");
+			}
+			assertEquals(null, cache.get("hash1", "f1"));
+
+			generation = cache.getGeneration("key2");
+			if(!cache.putIfUnchanged("key2", "value2", 60000, generation)) {
+				throw new RuntimeException("fill rejected without write");
+			}
+			assertEquals("value2", cache.get("key2"));
+			cache.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Test
+	public void testInvalidateHashKey() {
+		try {
+			File dir = createTempDir();
+			MappedSegmentCache cache = new MappedSegmentCache(dir, 1, 64 * 1024, 4, 60000);
+			cache.put("hash1", "f1", "hvalue1");
+			cache.put("hash1", "f2", "hvalue2");
+			cache.put("hash2", "f1", "other");
+
+			//all fields are invalidated with the key
+			long generation = cache.getGeneration("hash1", "f1");
+			cache.invalidate("hash1");
+			assertEquals(null, cache.get("hash1", "f1"));
+			assertEquals(null, cache.get("hash1", "f2"));
+			assertEquals("other", cache.get("hash2", "f1"));
+			if(cache.putIfUnchanged("hash1", "f1", "old", 60000, generation)) {
+				throw new RuntimeException("stale fill of field should be rejected after key invalidated");
+			}
+
+			cache.put("hash1", "f2", "hvalue2_v2");
+			cache.close();
+
+			cache = new MappedSegmentCache(dir, 1, 64 * 1024, 4, 60000);
+			assertEquals(null, cache.get("hash1", "f1"));
+			assertEquals("hvalue2_v2", cache.get("hash1", "f2"));
+			assertEquals("other", cache.get("hash2", "f1"));
+
+			//hash key overwritten by a string
+			cache.put("hash2", "string");
+			assertEquals(null, cache.get("hash2", "f1"));
+			cache.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Test
+	public void testFieldsAfterSegmentRolling() {
+		try {
+			File dir = createTempDir();
+			MappedSegmentCache cache = new MappedSegmentCache(dir, 1, 4 * 1024, 3, 60000);
+			cache.put("hash1", "f1", "hvalue1");
+			cache.invalidate("hash1");
+			//epoch of hash1 is kept while its fields are alive
+			for(int i = 0; i < 200; i++) {
+				cache.put("hash1", "f" + (i % 4), "v" + i);
+				cache.put("key" + i, "value" + i);
+			}
+			assertEquals("v199", cache.get("hash1", "f3"));
+			cache.invalidate("hash1");
+			assertEquals(null, cache.get("hash1", "f3"));
+			cache.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void assertEquals(String expected, String actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+
+	static File createTempDir() throws java.io.IOException {
+		File dir = File.createTempFile("MappedSegmentCacheTest", "");
+		dir.delete();
+		dir.mkdirs();
+		dir.deleteOnExit();
+		return dir;
+	}
+}
@@ -0,0 +1,83 @@
+package com.beef.util.redis.junittest;
+
+import com.beef.util.redis.MissingKeyCache;
+import org.junit.Test;
+
+public class MissingKeyCacheTest {
+
+	@Test
+	public void testMissAfterInvalidated() {
+		MissingKeyCache cache = new MissingKeyCache(100, 60000);
+
+		//get read nil, then a set invalidated the key before the get called onMissing
+		long generation = cache.getGeneration("k1");
+		cache.invalidate("k1");
+		cache.onMissing("k1", generation);
+		if(cache.isMissing("k1")) {
+			throw new RuntimeException("miss read before invalidation should not be cached");
+		}
+
+		generation = cache.getGeneration("k1");
+		cache.onMissing("k1", generation);
+		if(!cache.isMissing("k1")) {
+			throw new RuntimeException("miss not cached");
+		}
+		cache.invalidate("k1");
+		if(cache.isMissing("k1")) {
+			throw new RuntimeException("miss not invalidated");
+		}
+
+		generation = cache.getGeneration("h1", "f1");
+		cache.invalidate("h1", "f1");
+		cache.onMissing("h1", "f1", generation);
+		if(cache.isMissing("h1", "f1")) {
+			throw new RuntimeException("miss of field read before invalidation should not be cached");
+		}
+
+		generation = cache.getGeneration("k2");
+		cache.clear();
+		cache.onMissing("k2", generation);
+		if(cache.isMissing("k2")) {
+			throw new RuntimeException("miss read before clear should not be cached");
+		}
+	}
+
+	@Test
+	public void testMaxSizeAndExpire() {
+		try {
+			final MissingKeyCache cache = new MissingKeyCache(100, 60000);
+			Thread[] threads = new Thread[4];
+			for(int t = 0; t < threads.length; t++) {
+				final int threadIndex = t;
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						for(int i = 0; i < 1000; i++) {
+							String key = "k" + threadIndex + "." + i;
+							cache.onMissing(key, cache.getGeneration(key));
+							cache.isMissing(key);
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for(int t = 0; t < threads.length; t++) {
+				threads[t].join();
+			}
+			if(cache.size() > 100 || cache.size() == 0) {
+				throw new RuntimeException("size not bounded by maxSize:" + cache.size());
+			}
+
+			MissingKeyCache expiringCache = new MissingKeyCache(100, 50);
+			expiringCache.onMissing("k1", expiringCache.getGeneration("k1"));
+			Thread.sleep(100);
+			if(expiringCache.isMissing("k1") || expiringCache.size() != 0) {
+				throw new RuntimeException("entry not expired");
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
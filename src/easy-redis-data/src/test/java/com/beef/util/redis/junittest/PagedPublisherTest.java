@@ -0,0 +1,247 @@
+package com.beef.util.redis.junittest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.beef.util.redis.reactive.IPageSource;
+import com.beef.util.redis.reactive.PagedPublisher;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+public class PagedPublisherTest {
+	private final static int PAGE_SIZE = 10;
+
+	@Test
+	public void testBackpressure() {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			TestPageSource source = new TestPageSource(5, -1);
+			TestSubscriber subscriber = new TestSubscriber(-1);
+			createPublisher(source, executor).subscribe(subscriber);
+
+			subscriber._subscription.request(3);
+			waitFor(subscriber._received, 3);
+			//first page, and the next one prefetched as less than a page is buffered
+			waitFor(source._fetchedCount, 2);
+			Thread.sleep(100);
+			checkEquals(3, subscriber._received.get());
+			checkEquals(2, source._fetchedCount.get());
+
+			subscriber._subscription.request(Long.MAX_VALUE);
+			if(!subscriber._terminated.await(5, TimeUnit.SECONDS)) {
+				throw new RuntimeException("not completed");
+			}
+			checkEquals(50, subscriber._received.get());
+			checkEquals(Boolean.TRUE, subscriber._isCompleted);
+			waitFor(source._closedCount, 1);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testCancel() {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			TestPageSource source = new TestPageSource(5, -1);
+			TestSubscriber subscriber = new TestSubscriber(-1);
+			createPublisher(source, executor).subscribe(subscriber);
+			subscriber._subscription.request(1);
+			waitFor(subscriber._received, 1);
+			subscriber._subscription.cancel();
+			waitFor(source._closedCount, 1);
+
+			//cancelled while a page is being fetched, the source is closed after the fetching returns
+			TestPageSource slowSource = new TestPageSource(5, -1);
+			slowSource._fetchLatch = new CountDownLatch(1);
+			TestSubscriber slowSubscriber = new TestSubscriber(-1);
+			createPublisher(slowSource, executor).subscribe(slowSubscriber);
+			slowSubscriber._subscription.request(1);
+			waitFor(slowSource._fetchingCount, 1);
+			slowSubscriber._subscription.cancel();
+			Thread.sleep(100);
+			checkEquals(0, slowSource._closedCount.get());
+			slowSource._fetchLatch.countDown();
+			waitFor(slowSource._closedCount, 1);
+
+			Thread.sleep(100);
+			checkEquals(0, slowSubscriber._received.get());
+			checkEquals(1, slowSource._closedCount.get());
+			checkEquals(Boolean.FALSE, slowSubscriber._isCompleted);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testError() {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			//source fails at the second page
+			TestPageSource source = new TestPageSource(5, 1);
+			TestSubscriber subscriber = new TestSubscriber(-1);
+			createPublisher(source, executor).subscribe(subscriber);
+			subscriber._subscription.request(Long.MAX_VALUE);
+			if(!subscriber._terminated.await(5, TimeUnit.SECONDS)) {
+				throw new RuntimeException("error not signaled");
+			}
+			if(!(subscriber._error instanceof IllegalStateException)) {
+				throw new RuntimeException("error not matched:" + subscriber._error);
+			}
+			waitFor(source._closedCount, 1);
+
+			//Rule 3.9
+			TestSubscriber badRequestSubscriber = new TestSubscriber(-1);
+			createPublisher(new TestPageSource(5, -1), executor).subscribe(badRequestSubscriber);
+			badRequestSubscriber._subscription.request(0);
+			if(!badRequestSubscriber._terminated.await(5, TimeUnit.SECONDS)
+					|| !(badRequestSubscriber._error instanceof IllegalArgumentException)) {
+				throw new RuntimeException("non-positive request not rejected");
+			}
+
+			//Rule 2.13: onNext throws, the subscription is cancelled and later requests do nothing
+			TestPageSource throwingSource = new TestPageSource(5, -1);
+			TestSubscriber throwingSubscriber = new TestSubscriber(2);
+			createPublisher(throwingSource, executor).subscribe(throwingSubscriber);
+			throwingSubscriber._subscription.request(5);
+			waitFor(throwingSource._closedCount, 1);
+			throwingSubscriber._subscription.request(5);
+			Thread.sleep(100);
+			checkEquals(2, throwingSubscriber._received.get());
+			checkEquals(null, throwingSubscriber._error);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static PagedPublisher<Integer> createPublisher(final TestPageSource source, ExecutorService executor) {
+		return new PagedPublisher<Integer>(new PagedPublisher.IPageSourceFactory<Integer>() {
+			@Override
+			public IPageSource<Integer> createPageSource() {
+				return source;
+			}
+		}, PAGE_SIZE, executor);
+	}
+
+	private static void waitFor(AtomicInteger count, int expected) throws InterruptedException {
+		long beginTime = System.currentTimeMillis();
+		while(count.get() < expected) {
+			if((System.currentTimeMillis() - beginTime) > 5000) {
+				throw new RuntimeException("timeout, expected:" + expected + " actual:" + count.get());
+			}
+			Thread.sleep(5);
+		}
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+
+	private static class TestPageSource implements IPageSource<Integer> {
+		private final int _pageCount;
+		private final int _failPageIndex;
+		private final AtomicInteger _fetchingCount = new AtomicInteger();
+		private final AtomicInteger _fetchedCount = new AtomicInteger();
+		private final AtomicInteger _closedCount = new AtomicInteger();
+		private volatile CountDownLatch _fetchLatch = null;
+
+		/**
+		 * @param failPageIndex -1 means never fail
+		 */
+		public TestPageSource(int pageCount, int failPageIndex) {
+			_pageCount = pageCount;
+			_failPageIndex = failPageIndex;
+		}
+
+		@Override
+		public List<Integer> nextPage() throws Exception {
+			int pageIndex = _fetchingCount.getAndIncrement();
+			if(_fetchLatch != null) {
+				_fetchLatch.await();
+			}
+			if(pageIndex == _failPageIndex) {
+				throw new IllegalStateException("failed for test");
+			}
+			if(pageIndex >= _pageCount) {
+				return null;
+			}
+
+			List<Integer> page = new ArrayList<Integer>(PAGE_SIZE);
+			for(int i = 0; i < PAGE_SIZE; i++) {
+				page.add(pageIndex * PAGE_SIZE + i);
+			}
+			_fetchedCount.incrementAndGet();
+			return Collections.unmodifiableList(page);
+		}
+
+		@Override
+		public void close() {
+			_closedCount.incrementAndGet();
+		}
+	}
+
+	private static class TestSubscriber implements Subscriber<Integer> {
+		private final int _throwAtCount;
+		private final AtomicInteger _received = new AtomicInteger();
+		private final CountDownLatch _terminated = new CountDownLatch(1);
+		private volatile Subscription _subscription;
+		private volatile Boolean _isCompleted = Boolean.FALSE;
+		private volatile Throwable _error = null;
+
+		/**
+		 * @param throwAtCount onNext throws when the count of received reaches it, -1 means never
+		 */
+		public TestSubscriber(int throwAtCount) {
+			_throwAtCount = throwAtCount;
+		}
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+			_subscription = subscription;
+		}
+
+		@Override
+		public void onNext(Integer element) {
+			int received = _received.incrementAndGet();
+			if(element.intValue() != received - 1) {
+				throw new IllegalStateException("out of order:" + element);
+			}
+			if(received == _throwAtCount) {
+				throw new IllegalStateException("onNext failed for test");
+			}
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			_error = t;
+			_terminated.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			_isCompleted = Boolean.TRUE;
+			_terminated.countDown();
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.beef.util.redis.junittest;
+
+import java.io.File;
+
+import com.beef.util.redis.IJedisCallback;
+import com.beef.util.redis.MappedSegmentCache;
+import com.beef.util.redis.RedisDataClient;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class RedisDataClientTest {
+	private final static String KEY_PREFIX = "test.client.";
+
+	@Test
+	public void testLocalCacheFillAfterWrite() {
+		JedisPool pool = LocalRedis.createPool();
+		try {
+			final String key = KEY_PREFIX + "fill";
+			File dir = MappedSegmentCacheTest.createTempDir();
+			MappedSegmentCache localCache = new MappedSegmentCache(dir, 1, 64 * 1024, 4, 60000);
+			final InterleavedClient client = new InterleavedClient(pool);
+			client.setLocalCache(localCache);
+			client.set(key, "old", false);
+			localCache.invalidate(key);
+
+			//set() runs after get() read the old value from redis, and before get() fills the local cache
+			client._afterExecute = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						client.set(key, "new", false);
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			checkEquals("old", client.getRaw(key));
+			checkEquals("new", localCache.get(key));
+			checkEquals("new", client.getRaw(key));
+
+			localCache.close();
+			localCache = new MappedSegmentCache(dir, 1, 64 * 1024, 4, 60000);
+			checkEquals("new", localCache.get(key));
+			localCache.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testLocalCacheTtlOfKey() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			String key = KEY_PREFIX + "ttl";
+			String hashKey = KEY_PREFIX + "ttl.hash";
+			MappedSegmentCache localCache = new MappedSegmentCache(MappedSegmentCacheTest.createTempDir(), 1, 64 * 1024, 4, 60000);
+			RedisDataClient client = new RedisDataClient(pool, 8);
+			client.setLocalCache(localCache);
+
+			jedis.del(hashKey);
+			jedis.psetex(key, 300L, "v1");
+			jedis.hset(hashKey, "f1", "hv1");
+			jedis.pexpire(hashKey, 300L);
+
+			checkEquals("v1", client.getRaw(key));
+			checkEquals("hv1", client.hgetRaw(hashKey, "f1"));
+			checkEquals("v1", localCache.get(key));
+			checkEquals("hv1", localCache.get(hashKey, "f1"));
+
+			Thread.sleep(400);
+			checkEquals(null, localCache.get(key));
+			checkEquals(null, localCache.get(hashKey, "f1"));
+			checkEquals(null, client.getRaw(key));
+			checkEquals(null, client.hgetRaw(hashKey, "f1"));
+			localCache.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testLocalCacheDelHashKey() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			String hashKey = KEY_PREFIX + "del.hash";
+			MappedSegmentCache localCache = new MappedSegmentCache(MappedSegmentCacheTest.createTempDir(), 1, 64 * 1024, 4, 60000);
+			RedisDataClient client = new RedisDataClient(pool, 8);
+			client.setLocalCache(localCache);
+
+			jedis.del(hashKey);
+			jedis.hset(hashKey, "f1", "hv1");
+			jedis.hset(hashKey, "f2", "hv2");
+			checkEquals("hv1", client.hgetRaw(hashKey, "f1"));
+			checkEquals("hv2", client.hgetRaw(hashKey, "f2"));
+
+			client.del(hashKey);
+			checkEquals(null, localCache.get(hashKey, "f1"));
+			checkEquals(null, localCache.get(hashKey, "f2"));
+			checkEquals(null, client.hgetRaw(hashKey, "f1"));
+
+			jedis.hset(hashKey, "f1", "hv1_v2");
+			checkEquals("hv1_v2", client.hgetRaw(hashKey, "f1"));
+			checkEquals("hv1_v2", localCache.get(hashKey, "f1"));
+			localCache.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	private static void checkEquals(String expected, String actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+
+	private static class InterleavedClient extends RedisDataClient {
+		private volatile Runnable _afterExecute = null;
+
+		public InterleavedClient(JedisPool pool) {
+			super(pool, 8);
+		}
+
+		@Override
+		public <T> T execute(IJedisCallback<T> callback) {
+			T reply = super.execute(callback);
+			Runnable afterExecute = _afterExecute;
+			if(afterExecute != null) {
+				_afterExecute = null;
+				afterExecute.run();
+			}
+			return reply;
+		}
+	}
+}
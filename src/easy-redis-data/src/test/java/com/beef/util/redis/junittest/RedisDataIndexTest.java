@@ -0,0 +1,169 @@
+package com.beef.util.redis.junittest;
+
+import java.util.List;
+
+import com.beef.util.redis.index.RedisDataIndex;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class RedisDataIndexTest {
+	private final static String KEY_PREFIX = "test.idx.data.";
+
+	@Test
+	public void testSetDelFindBy() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			RedisDataIndex index = createIndex(jedis);
+			String key1 = KEY_PREFIX + "1";
+			String key2 = KEY_PREFIX + "2";
+
+			index.set(jedis, key1, createData("a"), true);
+			index.set(jedis, key2, createData("a"), true);
+			checkFound(index.findBy(jedis, "item1", "a", true, null), 2, "a");
+
+			index.set(jedis, key1, createData("b"), true);
+			checkFound(index.findBy(jedis, "item1", "a", true, null), 1, "a");
+			checkFound(index.findBy(jedis, "item1", "b", true, null), 1, "b");
+
+			index.del(jedis, key2);
+			checkFound(index.findBy(jedis, "item1", "a", true, null), 0, "a");
+			if(jedis.exists(index.getIndexedValuesKey(key2))) {
+				throw new RuntimeException("indexed values not deleted");
+			}
+
+			//stale index entry of an existing key is filtered, and removed as the hash holds another value
+			jedis.sadd(index.getIndexKey("item1", "e"), key1);
+			checkFound(index.findBy(jedis, "item1", "e", true, null), 0, "e");
+			if(jedis.exists(index.getIndexKey("item1", "e"))) {
+				throw new RuntimeException("stale index entry of existing key not removed");
+			}
+			checkFound(index.findBy(jedis, "item1", "b", true, null), 1, "b");
+
+			//index entry of a missing key is removed with the indexed value
+			String missingKey = KEY_PREFIX + "missing";
+			jedis.sadd(index.getIndexKey("item1", "f"), missingKey);
+			jedis.hset(index.getIndexedValuesKey(missingKey), "item1", "f");
+			checkFound(index.findBy(jedis, "item1", "f", true, null), 0, "f");
+			if(jedis.exists(index.getIndexKey("item1", "f")) || jedis.exists(index.getIndexedValuesKey(missingKey))) {
+				throw new RuntimeException("index entry of missing key not removed");
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testSetAfterExpired() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			RedisDataIndex index = createIndex(jedis);
+			String key = KEY_PREFIX + "3";
+
+			index.setex(jedis, key, 1, createData("c"), true);
+			Thread.sleep(1100);
+			if(jedis.exists(key)) {
+				throw new RuntimeException("data not expired");
+			}
+
+			index.set(jedis, key, createData("d"), true);
+			if(jedis.sismember(index.getIndexKey("item1", "c"), key)) {
+				throw new RuntimeException("index entry of old value not removed");
+			}
+			checkFound(index.findBy(jedis, "item1", "c", true, null), 0, "c");
+			checkFound(index.findBy(jedis, "item1", "d", true, null), 1, "d");
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testIndexedValuesExpire() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			RedisDataIndex index = createIndex(jedis);
+			index.setIndexedValuesTtlMarginSeconds(1);
+			String key = KEY_PREFIX + "4";
+			String missingKey1 = KEY_PREFIX + "missing1";
+			String missingKey2 = KEY_PREFIX + "missing2";
+
+			index.setex(jedis, key, 1, createData("g"), true);
+			long ttl = jedis.ttl(index.getIndexedValuesKey(key));
+			if(ttl <= 1 || ttl > 2) {
+				throw new RuntimeException("ttl of indexed values not longer than data:" + ttl);
+			}
+			index.set(jedis, key, createData("g"), true);
+			checkEquals(-1L, jedis.ttl(index.getIndexedValuesKey(key)));
+
+			index.setex(jedis, key, 1, createData("g"), true);
+			Thread.sleep(2100);
+			if(jedis.exists(index.getIndexedValuesKey(key))) {
+				throw new RuntimeException("indexed values not expired");
+			}
+
+			//entry of old value is left after the hash expired, and removed by findBy() with entries of missing keys
+			index.set(jedis, key, createData("h"), true);
+			jedis.sadd(index.getIndexKey("item1", "g"), missingKey1, missingKey2);
+			checkEquals(3L, jedis.scard(index.getIndexKey("item1", "g")));
+			checkFound(index.findBy(jedis, "item1", "g", true, null), 0, "g");
+			if(jedis.exists(index.getIndexKey("item1", "g"))) {
+				throw new RuntimeException("stale index entries not removed");
+			}
+			checkFound(index.findBy(jedis, "item1", "h", true, null), 1, "h");
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+
+	private static RedisDataIndex createIndex(Jedis jedis) throws Exception {
+		RedisDataIndex index = new RedisDataIndex(TestData1.class, "test.idx:", "item1");
+		for(String key : jedis.keys("test.idx*")) {
+			jedis.del(key);
+		}
+		return index;
+	}
+
+	private static TestData1 createData(String item1) {
+		TestData1 data = new TestData1();
+		data.setItem1(item1);
+		data.setItem2("x");
+		data.setItem3(1);
+		return data;
+	}
+
+	private static void checkFound(List<Object> found, int expectedCount, String expectedItem1) {
+		if(found.size() != expectedCount) {
+			throw new RuntimeException("found count not matched. expected:" + expectedCount + " actual:" + found.size());
+		}
+		for(Object data : found) {
+			if(!expectedItem1.equals(((TestData1) data).getItem1())) {
+				throw new RuntimeException("found data not matched:" + ((TestData1) data).getItem1());
+			}
+		}
+	}
+}
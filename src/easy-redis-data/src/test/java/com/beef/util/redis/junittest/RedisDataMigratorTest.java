@@ -0,0 +1,143 @@
+package com.beef.util.redis.junittest;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.beef.util.redis.RedisDataUtil;
+import com.beef.util.redis.RedisDataUtil.CompressAlgorithm;
+import com.beef.util.redis.tool.BulkProgress;
+import com.beef.util.redis.tool.RedisDataMigrator;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class RedisDataMigratorTest {
+	private final static String KEY_PREFIX = "test.migrate.";
+
+	@Test
+	public void testMigrate() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			deleteKeys(jedis);
+			String xml = createXml();
+			String gzipValue = RedisDataUtil.encodeString(xml, CompressAlgorithm.GZIP);
+			for(int i = 0; i < 20; i++) {
+				jedis.set(KEY_PREFIX + "s" + i, gzipValue);
+			}
+			jedis.psetex(KEY_PREFIX + "ttl", 600000L, gzipValue);
+			Map<String, String> fields = new HashMap<String, String>();
+			for(int i = 0; i < 50; i++) {
+				fields.put("f" + i, gzipValue);
+			}
+			fields.put("plain", "abc");
+			jedis.hmset(KEY_PREFIX + "h", fields);
+
+			RedisDataMigrator migrator = new RedisDataMigrator(pool, CompressAlgorithm.LZF);
+			migrator.setScanMatch(KEY_PREFIX + "*");
+			migrator.setScanCount(10);
+			migrator.setMaxKeysPerSecond(0);
+			migrator.setCheckpointKey(KEY_PREFIX + "checkpoint");
+			migrator.run();
+
+			BulkProgress progress = migrator.getProgress();
+			checkEquals(71L, progress.getChangedValueCount());
+			checkEquals(0L, progress.getFailedValueCount());
+			checkEquals(null, migrator.getLastError());
+
+			checkEquals(CompressAlgorithm.LZF, RedisDataUtil.detectValueCompressAlgorithm(jedis.get(KEY_PREFIX + "s0")));
+			checkEquals(xml, RedisDataUtil.decodeString(jedis.get(KEY_PREFIX + "s0"), CompressAlgorithm.LZF));
+			long pttl = jedis.pttl(KEY_PREFIX + "ttl");
+			if(pttl <= 0 || pttl > 600000L) {
+				throw new RuntimeException("ttl not kept:" + pttl);
+			}
+			List<String> hashValues = jedis.hvals(KEY_PREFIX + "h");
+			for(String value : hashValues) {
+				if(!value.equals("abc")) {
+					checkEquals(xml, RedisDataUtil.decodeString(value, CompressAlgorithm.LZF));
+				}
+			}
+			checkEquals(Boolean.FALSE, jedis.exists(KEY_PREFIX + "checkpoint"));
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			deleteKeys(jedis);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testSkipFailedBatch() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			deleteKeys(jedis);
+			final String badKey = KEY_PREFIX + "bad";
+			String gzipValue = RedisDataUtil.encodeString(createXml(), CompressAlgorithm.GZIP);
+			jedis.set(badKey, gzipValue);
+			jedis.set(KEY_PREFIX + "good", gzipValue);
+
+			final int[] attemptCount = new int[1];
+			RedisDataMigrator migrator = new RedisDataMigrator(pool, CompressAlgorithm.LZF) {
+				@Override
+				protected void migrateKeys(Jedis jedis, List<String> keys, BulkProgress progress) {
+					if(keys.contains(badKey)) {
+						attemptCount[0]++;
+						throw new IllegalStateException("failed for test");
+					}
+					super.migrateKeys(jedis, keys, progress);
+				}
+			};
+			migrator.setScanMatch(KEY_PREFIX + "*");
+			migrator.setScanCount(1);
+			migrator.setMaxKeysPerSecond(0);
+			migrator.setMaxRetryCount(2);
+			migrator.setRetryIntervalMillis(10);
+			migrator.run();
+
+			//first attempt and 2 retries, then skipped
+			checkEquals(3, attemptCount[0]);
+			BulkProgress progress = migrator.getProgress();
+			if(!progress.isFinished() || progress.isAborted()) {
+				throw new RuntimeException("pass not finished:" + progress);
+			}
+			if(progress.getFailedValueCount() < 1 || !(migrator.getLastError() instanceof IllegalStateException)) {
+				throw new RuntimeException("skipped batch not recorded:" + progress);
+			}
+			checkEquals(gzipValue, jedis.get(badKey));
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			deleteKeys(jedis);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	private static void deleteKeys(Jedis jedis) {
+		for(String key : jedis.keys(KEY_PREFIX + "*")) {
+			jedis.del(key);
+		}
+	}
+
+	private static String createXml() {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < 100; i++) {
+			sb.append("<item>").append(i % 10).append("</item>");
+		}
+		return sb.toString();
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.beef.util.redis.junittest;
+
+import java.util.List;
+
+import com.beef.util.redis.RedisDataProfiler;
+import com.beef.util.redis.RedisDataProfiler.KeyCount;
+import com.beef.util.redis.RedisDataProfiler.ValueSize;
+import com.beef.util.redis.RedisDataUtil;
+import com.beef.util.redis.RedisDataUtil.CompressAlgorithm;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class RedisDataProfilerTest {
+
+	@Test
+	public void testTopKeysAndValues() {
+		try {
+			RedisDataProfiler profiler = new RedisDataProfiler(1, 20, ":", 16);
+
+			StringBuilder sb = new StringBuilder();
+			for(int i = 0; i < 1000; i++) {
+				sb.append("<item>").append(i % 10).append("</item>");
+			}
+			String bigXml = sb.toString();
+			String bigValue = RedisDataUtil.encodeString(bigXml, CompressAlgorithm.GZIP);
+			String randomValue = RedisDataUtil.encodeString(String.valueOf(Math.random()) + "abcdefghijklmnop", CompressAlgorithm.GZIP);
+
+			for(int i = 0; i < 1000; i++) {
+				profiler.onAccess("user:" + (i % 100), null, "v");
+				if(i % 10 == 0) {
+					profiler.onAccess("hot:1", null, bigValue);
+				}
+			}
+
+			List<KeyCount> hotKeys = profiler.getHotKeys(3);
+			System.out.println(profiler.dumpReport(3));
+			if(!hotKeys.get(0).getKey().equals("hot:1")) {
+				throw new RuntimeException("hot key not found");
+			}
+			if(!profiler.getHotPrefixes(1).get(0).getKey().equals("user:")) {
+				throw new RuntimeException("hot prefix not found");
+			}
+
+			//compressed values are measured in background
+			waitForMeasured(profiler, "hot:1");
+			ValueSize largest = profiler.getLargestDecodedValues(1).get(0);
+			if(!largest.getKey().equals("hot:1") || largest.getDecodedLength() != bigXml.length()) {
+				throw new RuntimeException("largest decoded value not matched");
+			}
+			long beginTime = System.currentTimeMillis();
+			while(profiler.getWorstCompressRatioValues(1).size() == 0
+					|| !profiler.getWorstCompressRatioValues(1).get(0).getKey().equals("order:1[f1]")) {
+				if((System.currentTimeMillis() - beginTime) > 5000) {
+					break;
+				}
+				//dropped while other values are waiting to be measured
+				profiler.onAccess("order:1", "f1", randomValue);
+				Thread.sleep(10);
+			}
+			if(!profiler.getWorstCompressRatioValues(1).get(0).getKey().equals("order:1[f1]")) {
+				throw new RuntimeException("worst compress ratio not matched");
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Test
+	public void testListAccess() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		RedisDataProfiler profiler = new RedisDataProfiler(1, 20, ":", 16);
+		try {
+			String key = "test.profile:list";
+			jedis.del(key);
+			RedisDataUtil.setProfiler(profiler);
+
+			TestData1 data = new TestData1();
+			data.setItem1("a");
+			RedisDataUtil.rpush(jedis, key, data, TestData1.class, true);
+			RedisDataUtil.lpush(jedis, key, data, TestData1.class, true);
+			RedisDataUtil.lindex(jedis, key, 0, TestData1.class, true);
+			RedisDataUtil.lpop(jedis, key, TestData1.class, true);
+			//bulk read is not profiled
+			RedisDataUtil.lrange(jedis, key, 0, -1, TestData1.class, true, null);
+
+			if(profiler.getAccessCount() != 4) {
+				throw new RuntimeException("list accesses not profiled:" + profiler.getAccessCount());
+			}
+			if(profiler.getHotKeys(1).get(0).getCount() != 4) {
+				throw new RuntimeException("hot key count not matched:" + profiler.getHotKeys(1));
+			}
+			waitForMeasured(profiler, key);
+			jedis.del(key);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			RedisDataUtil.setProfiler(null);
+			profiler.close();
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	private static void waitForMeasured(RedisDataProfiler profiler, String key) throws InterruptedException {
+		long beginTime = System.currentTimeMillis();
+		while(profiler.getLargestDecodedValues(1).size() == 0 || !profiler.getLargestDecodedValues(1).get(0).getKey().equals(key)) {
+			if((System.currentTimeMillis() - beginTime) > 5000) {
+				throw new RuntimeException("value of " + key + " not measured");
+			}
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.beef.util.redis.junittest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.beef.util.redis.queue.IQueueBatchHandler;
+import com.beef.util.redis.queue.RedisDataQueueConsumer;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class RedisDataQueueConsumerTest {
+	private final static String QUEUE_KEY = "test.queue";
+	private final static String PROCESSING_KEY = "test.queue.processing";
+
+	@Test
+	public void testNormalModeFifo() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			jedis.del(QUEUE_KEY);
+			jedis.rpush(QUEUE_KEY, "e1", "e2", "e3", "e4", "e5");
+
+			CollectingHandler handler = new CollectingHandler();
+			RedisDataQueueConsumer consumer = new RedisDataQueueConsumer(pool, QUEUE_KEY, null, false, null, handler);
+			consumer.setBatchSize(2);
+			checkEquals(2, consumer.consumeBatch());
+			checkEquals(2, consumer.consumeBatch());
+			checkEquals(1, consumer.consumeBatch());
+			checkEquals(0, consumer.consumeBatch());
+			checkEquals(Arrays.asList("e1", "e2", "e3", "e4", "e5"), handler._handled);
+			checkEquals(5L, consumer.getHandledCount());
+
+			try {
+				consumer.requeueProcessing();
+				throw new RuntimeException("requeue should be rejected in normal mode");
+			} catch (IllegalStateException e) {
+				//expected
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			jedis.del(QUEUE_KEY);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testReliableModeFifo() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			jedis.del(QUEUE_KEY, PROCESSING_KEY);
+			jedis.rpush(QUEUE_KEY, "e1", "e2", "e3", "e4", "e5");
+
+			CollectingHandler handler = new CollectingHandler();
+			RedisDataQueueConsumer consumer = new RedisDataQueueConsumer(pool, QUEUE_KEY, null, false, null, handler);
+			consumer.setProcessingListKey(PROCESSING_KEY);
+			consumer.setBatchSize(2);
+			checkEquals(2, consumer.consumeBatch());
+			checkEquals(Arrays.asList("e1", "e2"), handler._handled);
+			//acknowledged
+			checkEquals(0L, jedis.llen(PROCESSING_KEY));
+
+			//failed batch is kept in processing list in the order popped
+			handler._isFail = true;
+			try {
+				consumer.consumeBatch();
+				throw new RuntimeException("handler error not thrown");
+			} catch (IllegalStateException e) {
+				//expected
+			}
+			checkEquals(Arrays.asList("e3", "e4"), jedis.lrange(PROCESSING_KEY, 0, -1));
+			checkEquals(Arrays.asList("e5"), jedis.lrange(QUEUE_KEY, 0, -1));
+
+			//moved back to the head of queue, and consumed first in the same order
+			checkEquals(2L, consumer.requeueProcessing());
+			checkEquals(Arrays.asList("e3", "e4", "e5"), jedis.lrange(QUEUE_KEY, 0, -1));
+			handler._isFail = false;
+			consumer.setBatchSize(1);
+			while(consumer.consumeBatch() > 0) {
+				//until queue is empty
+			}
+			checkEquals(Arrays.asList("e1", "e2", "e3", "e4", "e5"), handler._handled);
+			checkEquals(0L, jedis.llen(PROCESSING_KEY));
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			jedis.del(QUEUE_KEY, PROCESSING_KEY);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+
+	private static class CollectingHandler implements IQueueBatchHandler {
+		private final List<Object> _handled = new ArrayList<Object>();
+		private volatile boolean _isFail = false;
+
+		@Override
+		public void handle(List<Object> batch) throws Exception {
+			if(_isFail) {
+				throw new IllegalStateException("failed for test");
+			}
+			_handled.addAll(batch);
+		}
+	}
+}
@@ -253,6 +253,24 @@ public class RedisDataUtilTest {
         }
     }
 
+    @Test
+    public void testDetectCompressBytes() {
+        try {
+            String s = "WlYBABAAFQV0ZXN0MS2gAAAjYAABIyM=";
+            CompressAlgorithm alg = RedisDataUtil.detectValueCompressAlgorithm(s.getBytes("utf-8"));
+            if(alg != CompressAlgorithm.LZF) {
+                throw new RuntimeException("Failed to detect compress algorithm");
+            }
+
+            alg = RedisDataUtil.detectValueCompressAlgorithm("<TestData1>\r\n</TestData1>".getBytes("utf-8"));
+            if(alg != CompressAlgorithm.NotCompress) {
+                throw new RuntimeException("Failed to detect compress algorithm");
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void testDecodeBase64ByHand() {
 		String s = "AC0A";
 		
@@ -0,0 +1,270 @@
+package com.beef.util.redis.junittest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.beef.util.redis.IDataUpdater;
+import com.beef.util.redis.RedisDataException;
+import com.beef.util.redis.RedisDataUtil;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+public class RedisDataUtilUpdateTest {
+	private final static String KEY = "test.update";
+	private final static String HASH_KEY = "test.update.hash";
+	private final static long TTL_MILLIS = 600000L;
+
+	@Test
+	public void testUpdate() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		final Jedis otherJedis = pool.getResource();
+		try {
+			jedis.del(KEY);
+
+			//not exists
+			CountingUpdater updater = new CountingUpdater(null);
+			checkEquals(1L, RedisDataUtil.update(jedis, KEY, TestData1.class, true, null, updater, 3).getItem3());
+			checkEquals(1, updater._callCount);
+			checkEquals(null, updater._firstData);
+			checkEquals(-1L, jedis.pttl(KEY));
+
+			//ttl is kept
+			jedis.pexpire(KEY, TTL_MILLIS);
+			updater = new CountingUpdater(null);
+			checkEquals(2L, RedisDataUtil.update(jedis, KEY, TestData1.class, true, null, updater, 3).getItem3());
+			checkEquals(2L, ((TestData1) RedisDataUtil.get(jedis, KEY, TestData1.class, true)).getItem3());
+			checkTtl(jedis, KEY);
+
+			//modified by others while updating, retried on the new value
+			updater = new CountingUpdater(new Runnable() {
+				@Override
+				public void run() {
+					otherJedis.set(KEY, serialize(createData(10)));
+					otherJedis.pexpire(KEY, TTL_MILLIS);
+				}
+			});
+			checkEquals(11L, RedisDataUtil.update(jedis, KEY, TestData1.class, true, null, updater, 3).getItem3());
+			checkEquals(2, updater._callCount);
+			checkEquals(2L, updater._firstData.getItem3());
+			checkEquals(11L, ((TestData1) RedisDataUtil.get(jedis, KEY, TestData1.class, true)).getItem3());
+			checkTtl(jedis, KEY);
+
+			//nothing to update
+			checkEquals(null, RedisDataUtil.update(jedis, KEY, TestData1.class, true, null, new IDataUpdater<TestData1>() {
+				@Override
+				public TestData1 update(TestData1 data) {
+					return null;
+				}
+			}, 3));
+			checkEquals(11L, ((TestData1) RedisDataUtil.get(jedis, KEY, TestData1.class, true)).getItem3());
+
+			//conflicted in all retries
+			final int[] otherValue = new int[] {100};
+			updater = new CountingUpdater(new Runnable() {
+				@Override
+				public void run() {
+					otherJedis.set(KEY, serialize(createData(++otherValue[0])));
+				}
+			}, true);
+			try {
+				RedisDataUtil.update(jedis, KEY, TestData1.class, true, null, updater, 2);
+				throw new RuntimeException("conflicts should fail the update");
+			} catch (RedisDataException e) {
+				//expected
+			}
+			checkEquals(3, updater._callCount);
+			checkEquals(103L, ((TestData1) RedisDataUtil.get(jedis, KEY, TestData1.class, true)).getItem3());
+
+			//the connection is not left in WATCH or MULTI
+			checkEquals("OK", jedis.set(KEY + ".other", "x"));
+			checkEquals("x", jedis.get(KEY + ".other"));
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			jedis.del(KEY, KEY + ".other");
+			jedis.close();
+			otherJedis.close();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testHupdate() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		final Jedis otherJedis = pool.getResource();
+		try {
+			jedis.del(HASH_KEY);
+			jedis.hset(HASH_KEY, "other", "x");
+			jedis.pexpire(HASH_KEY, TTL_MILLIS);
+
+			CountingUpdater updater = new CountingUpdater(null);
+			checkEquals(1L, RedisDataUtil.hupdate(jedis, HASH_KEY, "f", TestData1.class, true, null, updater, 3).getItem3());
+			checkEquals(null, updater._firstData);
+			checkEquals(1L, ((TestData1) RedisDataUtil.hget(jedis, HASH_KEY, "f", TestData1.class, true)).getItem3());
+			checkTtl(jedis, HASH_KEY);
+
+			//the key is watched, so modifying another field also causes a retry
+			updater = new CountingUpdater(new Runnable() {
+				@Override
+				public void run() {
+					otherJedis.hset(HASH_KEY, "other", "y");
+				}
+			});
+			checkEquals(2L, RedisDataUtil.hupdate(jedis, HASH_KEY, "f", TestData1.class, true, null, updater, 3).getItem3());
+			checkEquals(2, updater._callCount);
+			checkEquals("y", jedis.hget(HASH_KEY, "other"));
+			checkTtl(jedis, HASH_KEY);
+
+			//conflicted in all retries
+			updater = new CountingUpdater(new Runnable() {
+				@Override
+				public void run() {
+					otherJedis.hincrBy(HASH_KEY, "count", 1);
+				}
+			}, true);
+			try {
+				RedisDataUtil.hupdate(jedis, HASH_KEY, "f", TestData1.class, true, null, updater, 1);
+				throw new RuntimeException("conflicts should fail the update");
+			} catch (RedisDataException e) {
+				//expected
+			}
+			checkEquals(2, updater._callCount);
+			checkEquals(2L, ((TestData1) RedisDataUtil.hget(jedis, HASH_KEY, "f", TestData1.class, true)).getItem3());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			jedis.del(HASH_KEY);
+			jedis.close();
+			otherJedis.close();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testHincrByFields() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			jedis.del(HASH_KEY);
+			jedis.hset(HASH_KEY, "a", "5");
+			jedis.hset(HASH_KEY, "s", "x");
+			jedis.pexpire(HASH_KEY, TTL_MILLIS);
+
+			Map<String, Long> increments = new LinkedHashMap<String, Long>();
+			increments.put("b", 2L);
+			increments.put("a", -7L);
+			increments.put("c", 0L);
+			Map<String, Long> values = RedisDataUtil.hincrByFields(jedis, HASH_KEY, increments);
+			checkEquals("{b=2, a=-2, c=0}", values.toString());
+			checkEquals("-2", jedis.hget(HASH_KEY, "a"));
+			checkEquals("2", jedis.hget(HASH_KEY, "b"));
+			checkTtl(jedis, HASH_KEY);
+
+			//script loaded in advance
+			RedisDataUtil.loadScripts(jedis);
+			values = RedisDataUtil.hincrByFields(jedis, HASH_KEY, increments);
+			checkEquals("{b=4, a=-9, c=0}", values.toString());
+
+			//not exists
+			jedis.del(HASH_KEY);
+			values = RedisDataUtil.hincrByFields(jedis, HASH_KEY, increments);
+			checkEquals("{b=2, a=-7, c=0}", values.toString());
+			checkEquals(-1L, jedis.pttl(HASH_KEY));
+
+			//failed at a non-integer field, fields before it are already increased
+			increments = new LinkedHashMap<String, Long>();
+			increments.put("a", 1L);
+			increments.put("s", 1L);
+			jedis.hset(HASH_KEY, "s", "x");
+			try {
+				RedisDataUtil.hincrByFields(jedis, HASH_KEY, increments);
+				throw new RuntimeException("non-integer field should fail");
+			} catch (JedisDataException e) {
+				//expected
+			}
+			checkEquals("-6", jedis.hget(HASH_KEY, "a"));
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			jedis.del(HASH_KEY);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	/**
+	 * Increases item3, and runs the action(if set) to simulate modification by others.
+	 */
+	private static class CountingUpdater implements IDataUpdater<TestData1> {
+		private final Runnable _concurrentAction;
+		private final boolean _isActionInEveryCall;
+		private int _callCount = 0;
+		private TestData1 _firstData = null;
+
+		/**
+		 * @param concurrentAction run in the first call only
+		 */
+		public CountingUpdater(Runnable concurrentAction) {
+			this(concurrentAction, false);
+		}
+
+		public CountingUpdater(Runnable concurrentAction, boolean isActionInEveryCall) {
+			_concurrentAction = concurrentAction;
+			_isActionInEveryCall = isActionInEveryCall;
+		}
+
+		@Override
+		public TestData1 update(TestData1 data) {
+			_callCount++;
+			if(_callCount == 1) {
+				_firstData = data;
+			}
+			if(_concurrentAction != null && (_callCount == 1 || _isActionInEveryCall)) {
+				_concurrentAction.run();
+			}
+			return createData((data == null) ? 1 : data.getItem3() + 1);
+		}
+	}
+
+	private static void checkTtl(Jedis jedis, String key) {
+		long pttl = jedis.pttl(key);
+		if(pttl <= 0 || pttl > TTL_MILLIS) {
+			throw new RuntimeException("ttl not kept:" + pttl);
+		}
+	}
+
+	private static TestData1 createData(long item3) {
+		TestData1 data = new TestData1();
+		data.setItem1("a");
+		data.setItem2("x");
+		data.setItem3(item3);
+		return data;
+	}
+
+	private static String serialize(TestData1 data) {
+		try {
+			return RedisDataUtil.serializeDataToString(data, TestData1.class, true);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.beef.util.redis.junittest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.beef.util.redis.AdaptiveCompressSelector;
+import com.beef.util.redis.IScoreExtractor;
+import com.beef.util.redis.RedisDataProfiler;
+import com.beef.util.redis.RedisDataUtil;
+import com.beef.util.redis.RedisDataUtil.CompressAlgorithm;
+import com.beef.util.redis.codec.TagDictionaries;
+import com.beef.util.redis.codec.TagDictionary;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class RedisDataUtilZsetTest {
+	private final static String KEY = "test.zset";
+
+	private final static IScoreExtractor<TestData1> SCORE_EXTRACTOR = new IScoreExtractor<TestData1>() {
+		@Override
+		public double getScore(TestData1 data) {
+			return data.getItem3();
+		}
+	};
+
+	@Test
+	public void testZaddAndRangeByScore() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			jedis.del(KEY);
+			RedisDataProfiler profiler = new RedisDataProfiler(1, 20, ":", 16);
+			RedisDataUtil.setProfiler(profiler);
+
+			List<TestData1> dataList = new ArrayList<TestData1>();
+			for(int i = 0; i < 5; i++) {
+				dataList.add(createData("a" + i, i));
+			}
+			checkEquals(2L, RedisDataUtil.zadd(jedis, KEY, dataList.subList(0, 2), TestData1.class, true, SCORE_EXTRACTOR, 1));
+			checkEquals(3L, RedisDataUtil.zadd(jedis, KEY, dataList.subList(2, 5), TestData1.class, true, SCORE_EXTRACTOR, 2));
+			checkEquals(1L, RedisDataUtil.zadd(jedis, KEY, createData("b", 10), TestData1.class, true, SCORE_EXTRACTOR));
+			checkEquals(6L, profiler.getAccessCount());
+
+			List<Object> found = RedisDataUtil.zrangeByScore(jedis, KEY, 1, 3, TestData1.class, true, null);
+			checkItems(found, "a1", "a2", "a3");
+			found = RedisDataUtil.zrangeByScore(jedis, KEY, 0, 100, 4, 10, TestData1.class, true, null);
+			checkItems(found, "a4", "b");
+
+			try {
+				RedisDataUtil.zadd(jedis, KEY, dataList, TestData1.class, true, SCORE_EXTRACTOR, 0);
+				throw new RuntimeException("non-positive batchSize should be rejected");
+			} catch (IllegalArgumentException e) {
+				//expected
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			RedisDataUtil.setProfiler(null);
+			jedis.del(KEY);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testMemberNotChangedByCompressSettings() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			jedis.del(KEY);
+			checkEquals(1L, RedisDataUtil.zadd(jedis, KEY, createData("c", 1), TestData1.class, true, SCORE_EXTRACTOR));
+
+			//equal data added again after compress settings changed only updates the score
+			RedisDataUtil.setCompressAlgorithm(CompressAlgorithm.GZIP);
+			TagDictionaries.register(TestData1.class, new TagDictionary("zset", TagDictionary.getBeanNames(TestData1.class)));
+			checkEquals(0L, RedisDataUtil.zadd(jedis, KEY, createData("c", 1), TestData1.class, true, new IScoreExtractor<TestData1>() {
+				@Override
+				public double getScore(TestData1 data) {
+					return 5;
+				}
+			}));
+			RedisDataUtil.setAdaptiveCompressSelector(new AdaptiveCompressSelector(CompressAlgorithm.NotCompress, 1, 1, 1, 1000));
+			checkEquals(0L, RedisDataUtil.zadd(jedis, KEY, createData("c", 1), TestData1.class, true, SCORE_EXTRACTOR));
+			checkEquals(1L, jedis.zcard(KEY));
+
+			checkItems(RedisDataUtil.zrangeByScore(jedis, KEY, 1, 1, TestData1.class, true, null), "c");
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			RedisDataUtil.setAdaptiveCompressSelector(null);
+			RedisDataUtil.setDetectCompressAlgorithmOnDecode(false);
+			RedisDataUtil.setCompressAlgorithm(CompressAlgorithm.LZF);
+			TagDictionaries.disable(TestData1.class);
+			jedis.del(KEY);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+
+	private static void checkItems(List<Object> found, String... expectedItem1s) {
+		checkEquals(expectedItem1s.length, found.size());
+		for(int i = 0; i < expectedItem1s.length; i++) {
+			checkEquals(expectedItem1s[i], ((TestData1) found.get(i)).getItem1());
+		}
+	}
+
+	private static TestData1 createData(String item1, int item3) {
+		TestData1 data = new TestData1();
+		data.setItem1(item1);
+		data.setItem2("x");
+		data.setItem3(item3);
+		return data;
+	}
+}
@@ -0,0 +1,241 @@
+package com.beef.util.redis.junittest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import com.beef.util.redis.RedisDataClient;
+import com.beef.util.redis.RedisDataUtil;
+import com.beef.util.redis.tool.BulkProgress;
+import com.beef.util.redis.tool.IBulkProgressListener;
+import com.beef.util.redis.tool.IWarmUpHandler;
+import com.beef.util.redis.tool.RedisDataWarmUp;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class RedisDataWarmUpTest {
+	private final static String KEY_PREFIX = "test.warmup.";
+	private final static int KEY_COUNT = 100;
+
+	@Test
+	public void testWarmUp() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			List<String> keys = createKeys(jedis);
+			keys.add(KEY_PREFIX + "missing");
+			final Map<String, Object> loaded = new ConcurrentHashMap<String, Object>();
+
+			RedisDataWarmUp warmUp = new RedisDataWarmUp(new RedisDataClient(pool, 8));
+			warmUp.setBatchSize(7);
+			warmUp.setConnectionCount(2);
+			warmUp.setDecodeThreadCount(2);
+			BulkProgress progress = warmUp.warmUp(keys, TestData1.class, true, null, new IWarmUpHandler() {
+				@Override
+				public void onLoaded(String key, Object data) {
+					loaded.put(key, data);
+				}
+			});
+
+			checkEquals(Boolean.FALSE, progress.isTruncated());
+			checkEquals((long) KEY_COUNT + 1, progress.getScannedKeyCount());
+			checkEquals((long) KEY_COUNT, progress.getProcessedValueCount());
+			checkEquals(1L, progress.getSkippedValueCount());
+			checkEquals(KEY_COUNT, loaded.size());
+			checkEquals("a5", ((TestData1) loaded.get(KEY_PREFIX + 5)).getItem1());
+
+			//by pattern
+			loaded.clear();
+			progress = warmUp.warmUpByPattern(KEY_PREFIX + "*", TestData1.class, true, null, new IWarmUpHandler() {
+				@Override
+				public void onLoaded(String key, Object data) {
+					loaded.put(key, data);
+				}
+			});
+			checkEquals(Boolean.FALSE, progress.isTruncated());
+			checkEquals(KEY_COUNT, loaded.size());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			deleteKeys(jedis);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testMemoryBudget() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			List<String> keys = createKeys(jedis);
+			int valueLength = jedis.get(keys.get(0)).length();
+
+			RedisDataWarmUp warmUp = new RedisDataWarmUp(new RedisDataClient(pool, 8));
+			warmUp.setBatchSize(1);
+			warmUp.setConnectionCount(1);
+			warmUp.setMaxLoadedLength(valueLength * 10L);
+			BulkProgress progress = warmUp.warmUp(keys, null, true, null, null);
+
+			checkEquals(Boolean.TRUE, progress.isTruncated());
+			//checked before each MGET, batches in flight(2 per connection) may exceed it
+			if(progress.getProcessedValueCount() < 10 || progress.getProcessedValueCount() > 12) {
+				throw new RuntimeException("memory budget not kept:" + progress.getProcessedValueCount());
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			deleteKeys(jedis);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testTimeBudget() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			List<String> keys = createKeys(jedis);
+
+			RedisDataWarmUp warmUp = new RedisDataWarmUp(new RedisDataClient(pool, 8));
+			warmUp.setBatchSize(5);
+			warmUp.setDecodeThreadCount(1);
+			warmUp.setMaxMillis(300);
+			long beginTime = System.currentTimeMillis();
+			BulkProgress progress = warmUp.warmUp(keys, TestData1.class, true, null, new IWarmUpHandler() {
+				@Override
+				public void onLoaded(String key, Object data) {
+					try {
+						Thread.sleep(20);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			long elapsed = System.currentTimeMillis() - beginTime;
+
+			checkEquals(Boolean.TRUE, progress.isTruncated());
+			checkEquals(Boolean.TRUE, progress.isFinished());
+			if(progress.getProcessedValueCount() == 0 || progress.getProcessedValueCount() >= KEY_COUNT) {
+				throw new RuntimeException("time budget not kept:" + progress.getProcessedValueCount());
+			}
+			if(elapsed > 2000) {
+				throw new RuntimeException("not stopped by time budget, elapsed:" + elapsed);
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			deleteKeys(jedis);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testDecodeBacklogBounded() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		try {
+			final List<String> keys = createKeys(jedis);
+			final CountDownLatch decodeLatch = new CountDownLatch(1);
+			final Map<String, Object> loaded = new ConcurrentHashMap<String, Object>();
+
+			final RedisDataWarmUp warmUp = new RedisDataWarmUp(new RedisDataClient(pool, 8));
+			warmUp.setBatchSize(1);
+			warmUp.setConnectionCount(1);
+			warmUp.setDecodeThreadCount(1);
+			final BulkProgress[] running = new BulkProgress[1];
+			warmUp.setProgressIntervalMillis(0);
+			warmUp.setProgressListener(new IBulkProgressListener() {
+				@Override
+				public void onProgress(BulkProgress progress) {
+					running[0] = progress;
+				}
+			});
+			final BulkProgress[] result = new BulkProgress[1];
+			final Throwable[] error = new Throwable[1];
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						result[0] = warmUp.warmUp(keys, TestData1.class, true, null, new IWarmUpHandler() {
+							@Override
+							public void onLoaded(String key, Object data) {
+								try {
+									decodeLatch.await();
+								} catch (InterruptedException e) {
+									Thread.currentThread().interrupt();
+								}
+								loaded.put(key, data);
+							}
+						});
+					} catch (Throwable e) {
+						error[0] = e;
+					}
+				}
+			};
+			thread.start();
+
+			//decoding is blocked, fetching stops after the batches waiting for decoding(2) and fetching(2) are full
+			Thread.sleep(300);
+			checkEquals(0, loaded.size());
+			//the batch waiting for the fetch permit is counted in scanned too
+			if(running[0] == null || running[0].getScannedKeyCount() > 5) {
+				throw new RuntimeException("fetching not stopped by decoding:" + running[0]);
+			}
+
+			decodeLatch.countDown();
+			thread.join(5000);
+			checkEquals(null, error[0]);
+			checkEquals(Boolean.FALSE, result[0].isTruncated());
+			checkEquals((long) KEY_COUNT, result[0].getProcessedValueCount());
+			checkEquals(KEY_COUNT, loaded.size());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			deleteKeys(jedis);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	private static List<String> createKeys(Jedis jedis) throws Exception {
+		deleteKeys(jedis);
+		List<String> keys = new ArrayList<String>(KEY_COUNT);
+		for(int i = 0; i < KEY_COUNT; i++) {
+			TestData1 data = new TestData1();
+			data.setItem1("a" + i);
+			data.setItem2("x");
+			data.setItem3(i);
+			String key = KEY_PREFIX + i;
+			jedis.set(key, RedisDataUtil.serializeDataToString(data, TestData1.class, true));
+			keys.add(key);
+		}
+		return keys;
+	}
+
+	private static void deleteKeys(Jedis jedis) {
+		for(String key : jedis.keys(KEY_PREFIX + "*")) {
+			jedis.del(key);
+		}
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.beef.util.redis.junittest;
+
+import java.util.Arrays;
+
+import com.beef.util.redis.transport.JedisCommandsTransport;
+import com.beef.util.redis.transport.JedisTransport;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ShardedJedis;
+
+public class RedisTransportTest {
+	private final static String KEY_PREFIX = "test.transport.";
+
+	@Test
+	public void testJedisTransport() {
+		JedisPool pool = LocalRedis.createPool();
+		JedisTransport transport = new JedisTransport(pool);
+		try {
+			TransportContract.check(transport, KEY_PREFIX);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			transport.close();
+		}
+	}
+
+	@Test
+	public void testJedisCommandsTransport() {
+		JedisPool pool = LocalRedis.createPool();
+		Jedis jedis = pool.getResource();
+		//not MultiKeyCommands, so mget is sent as GET of each key
+		ShardedJedis shardedJedis = new ShardedJedis(Arrays.asList(new JedisShardInfo(LocalRedis.HOST, LocalRedis.PORT)));
+		try {
+			TransportContract.check(new JedisCommandsTransport(jedis), KEY_PREFIX);
+			TransportContract.check(new JedisCommandsTransport(shardedJedis), KEY_PREFIX);
+
+			//the connection is still usable after the transport is closed
+			new JedisCommandsTransport(jedis).close();
+			jedis.ping();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			shardedJedis.close();
+			jedis.close();
+			pool.destroy();
+		}
+	}
+}
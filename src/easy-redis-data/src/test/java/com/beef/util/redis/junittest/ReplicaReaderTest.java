@@ -0,0 +1,424 @@
+package com.beef.util.redis.junittest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.beef.util.redis.IJedisCallback;
+import com.beef.util.redis.replica.ReplicaReader;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+public class ReplicaReaderTest {
+	private final static String INFO_FRESH = "# Replication\r\nrole:slave\r\nmaster_link_status:up\r\nmaster_last_io_seconds_ago:1\r\n";
+	private final static String INFO_LINK_DOWN = "# Replication\r\nrole:slave\r\nmaster_link_status:down\r\nmaster_last_io_seconds_ago:1\r\n";
+	private final static String INFO_LAGGING = "# Replication\r\nrole:slave\r\nmaster_link_status:up\r\nmaster_last_io_seconds_ago:100\r\n";
+	private final static String INFO_MASTER = "# Replication\r\nrole:master\r\n";
+
+	@Test
+	public void testRouting() {
+		List<StandInServer> servers = new ArrayList<StandInServer>();
+		try {
+			StandInServer master = start(servers, "master", INFO_MASTER, 0);
+			StandInServer replica1 = start(servers, "replica1", INFO_FRESH, 0);
+			StandInServer replica2 = start(servers, "replica2", INFO_FRESH, 0);
+			ReplicaReader reader = createReader(master, replica1, replica2);
+			reader.setHedgeEnabled(false);
+			reader.checkStaleness();
+			checkEquals(2, reader.getFreshReplicaCount());
+
+			Set<String> answered = new HashSet<String>();
+			for(int i = 0; i < 200; i++) {
+				answered.add(reader.getRaw("key"));
+			}
+			if(answered.contains("master") || answered.size() != 2) {
+				throw new RuntimeException("reads not spread on replicas:" + answered);
+			}
+			reader.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			stopAll(servers);
+		}
+	}
+
+	@Test
+	public void testStalenessExclusion() {
+		List<StandInServer> servers = new ArrayList<StandInServer>();
+		try {
+			StandInServer master = start(servers, "master", INFO_MASTER, 0);
+			StandInServer replica1 = start(servers, "replica1", INFO_FRESH, 0);
+			StandInServer replica2 = start(servers, "replica2", INFO_LINK_DOWN, 0);
+			StandInServer replica3 = start(servers, "replica3", INFO_LAGGING, 0);
+			ReplicaReader reader = createReader(master, replica1, replica2, replica3);
+			reader.setMaxStalenessSeconds(10);
+			reader.checkStaleness();
+			checkEquals(1, reader.getFreshReplicaCount());
+			for(int i = 0; i < 50; i++) {
+				checkEquals("replica1", reader.getRaw("key"));
+			}
+
+			//master is read when no replica is fresh
+			replica1._info = INFO_LAGGING;
+			reader.checkStaleness();
+			checkEquals(0, reader.getFreshReplicaCount());
+			checkEquals("master", reader.getRaw("key"));
+
+			//unreachable replica is excluded
+			replica1._info = INFO_FRESH;
+			replica1.stop();
+			reader.checkStaleness();
+			checkEquals(0, reader.getFreshReplicaCount());
+			reader.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			stopAll(servers);
+		}
+	}
+
+	@Test
+	public void testStalenessByOffset() {
+		List<StandInServer> servers = new ArrayList<StandInServer>();
+		try {
+			StandInServer master = start(servers, "master", createMasterInfo(1000), 0);
+			//last io flaps, but caught up
+			StandInServer replica1 = start(servers, "replica1", createReplicaInfo(1000, 100), 0);
+			StandInServer replica2 = start(servers, "replica2", createReplicaInfo(900, 0), 0);
+			ReplicaReader reader = createReader(master, replica1, replica2);
+			reader.setMaxStalenessSeconds(1);
+			reader.checkStaleness();
+			//replica2 is assumed fresh until it has been behind for maxStalenessSeconds
+			checkEquals(2, reader.getFreshReplicaCount());
+
+			Thread.sleep(1100);
+			reader.checkStaleness();
+			checkEquals(1, reader.getFreshReplicaCount());
+			for(int i = 0; i < 20; i++) {
+				checkEquals("replica1", reader.getRaw("key"));
+			}
+
+			//replica1 behind the current offset, but caught up to the one of the last check
+			master._info = createMasterInfo(2000);
+			replica1._info = createReplicaInfo(1500, 0);
+			replica2._info = createReplicaInfo(2000, 0);
+			reader.checkStaleness();
+			checkEquals(2, reader.getFreshReplicaCount());
+			reader.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			stopAll(servers);
+		}
+	}
+
+	@Test
+	public void testFirstReadInCallingThread() {
+		List<StandInServer> servers = new ArrayList<StandInServer>();
+		try {
+			StandInServer master = start(servers, "master", INFO_MASTER, 0);
+			StandInServer replica1 = start(servers, "replica1", INFO_FRESH, 0);
+			StandInServer replica2 = start(servers, "replica2", INFO_FRESH, 0);
+			ReplicaReader reader = createReader(master, replica1, replica2);
+			reader.setHedgeDelayRange(100, 100);
+			for(int i = 0; i < 20; i++) {
+				String threadName = reader.read(new IJedisCallback<String>() {
+					@Override
+					public String doInJedis(Jedis jedis) {
+						jedis.get("key");
+						return Thread.currentThread().getName();
+					}
+				});
+				checkEquals(Thread.currentThread().getName(), threadName);
+			}
+			checkEquals(0L, reader.getHedgeCount());
+			reader.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			stopAll(servers);
+		}
+	}
+
+	@Test
+	public void testHedgeWin() {
+		List<StandInServer> servers = new ArrayList<StandInServer>();
+		try {
+			StandInServer master = start(servers, "master", INFO_MASTER, 0);
+			StandInServer slow = start(servers, "slow", INFO_FRESH, 500);
+			StandInServer fast = start(servers, "fast", INFO_FRESH, 0);
+			ReplicaReader reader = createReader(master, slow, fast);
+			reader.setHedgeDelayRange(5, 5);
+			reader.setHedgeBudget(100, 10);
+
+			for(int i = 0; i < 200 && reader.getHedgeWinCount() == 0; i++) {
+				long beginTime = System.currentTimeMillis();
+				checkEquals("fast", reader.getRaw("key"));
+				long elapsed = System.currentTimeMillis() - beginTime;
+				if(elapsed >= 500) {
+					throw new RuntimeException("read waited for the slow node:" + elapsed + "ms");
+				}
+			}
+			if(reader.getHedgeWinCount() == 0) {
+				throw new RuntimeException("hedge never won");
+			}
+			reader.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			stopAll(servers);
+		}
+	}
+
+	@Test
+	public void testHedgeBudget() {
+		List<StandInServer> servers = new ArrayList<StandInServer>();
+		try {
+			StandInServer master = start(servers, "master", INFO_MASTER, 0);
+			StandInServer replica1 = start(servers, "replica1", INFO_FRESH, 10);
+			StandInServer replica2 = start(servers, "replica2", INFO_FRESH, 10);
+			ReplicaReader reader = createReader(master, replica1, replica2);
+			reader.setHedgeDelayRange(1, 1);
+			reader.setHedgeBudget(10, 1);
+
+			//every read is slower than hedge delay
+			int readCount = 100;
+			for(int i = 0; i < readCount; i++) {
+				reader.getRaw("key");
+			}
+			System.out.println("testHedgeBudget() hedges:" + reader.getHedgeCount() + " rejected:" + reader.getHedgeRejectedCount());
+			if(reader.getHedgeCount() == 0 || reader.getHedgeCount() > readCount * 10 / 100 + 1) {
+				throw new RuntimeException("hedges not within budget:" + reader.getHedgeCount());
+			}
+			checkEquals((long) readCount, reader.getHedgeCount() + reader.getHedgeRejectedCount());
+
+			reader.setHedgeBudget(0, 0);
+			long hedgeCount = reader.getHedgeCount();
+			for(int i = 0; i < 20; i++) {
+				reader.getRaw("key");
+			}
+			checkEquals(hedgeCount, reader.getHedgeCount());
+			reader.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			stopAll(servers);
+		}
+	}
+
+	private static String createMasterInfo(long offset) {
+		return "# Replication\r\nrole:master\r\nmaster_repl_offset:" + offset + "\r\n";
+	}
+
+	private static String createReplicaInfo(long offset, int lastIoSeconds) {
+		return "# Replication\r\nrole:slave\r\nmaster_link_status:up\r\nmaster_last_io_seconds_ago:" + lastIoSeconds
+				+ "\r\nslave_repl_offset:" + offset + "\r\n";
+	}
+
+	private static ReplicaReader createReader(StandInServer master, StandInServer... replicas) {
+		List<JedisPool> replicaPools = new ArrayList<JedisPool>();
+		for(StandInServer replica : replicas) {
+			replicaPools.add(replica.createPool());
+		}
+		return new ReplicaReader(master.createPool(), replicaPools);
+	}
+
+	private static StandInServer start(List<StandInServer> servers, String name, String info, long delayMillis) throws IOException {
+		StandInServer server = new StandInServer(name, info, delayMillis);
+		servers.add(server);
+		server.start();
+		return server;
+	}
+
+	private static void stopAll(List<StandInServer> servers) {
+		for(StandInServer server : servers) {
+			server.stop();
+		}
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+
+	/**
+	 * Minimal RESP server standing in for a redis node. GET replies the name of the server after the delay,
+	 * INFO replies the info set, and other commands reply OK.
+	 */
+	private static class StandInServer {
+		private final static Charset CHARSET_UTF8 = Charset.forName("utf-8");
+
+		private final String _name;
+		private final long _delayMillis;
+		private volatile String _info;
+		private final ServerSocket _serverSocket;
+		private final List<Socket> _sockets = new ArrayList<Socket>();
+
+		public StandInServer(String name, String info, long delayMillis) throws IOException {
+			_name = name;
+			_info = info;
+			_delayMillis = delayMillis;
+			_serverSocket = new ServerSocket(0);
+		}
+
+		public JedisPool createPool() {
+			return new JedisPool(new JedisPoolConfig(), "127.0.0.1", _serverSocket.getLocalPort(), 1000);
+		}
+
+		public void start() {
+			Thread thread = new Thread("StandInServer-" + _name) {
+				@Override
+				public void run() {
+					while(true) {
+						final Socket socket;
+						try {
+							socket = _serverSocket.accept();
+						} catch (IOException e) {
+							return;
+						}
+						synchronized (_sockets) {
+							_sockets.add(socket);
+						}
+						Thread connThread = new Thread() {
+							@Override
+							public void run() {
+								serve(socket);
+							}
+						};
+						connThread.setDaemon(true);
+						connThread.start();
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		public void stop() {
+			try {
+				_serverSocket.close();
+			} catch (IOException e) {
+				//ignore
+			}
+			synchronized (_sockets) {
+				for(Socket socket : _sockets) {
+					try {
+						socket.close();
+					} catch (IOException e) {
+						//ignore
+					}
+				}
+			}
+		}
+
+		private void serve(Socket socket) {
+			try {
+				socket.setTcpNoDelay(true);
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+				OutputStream out = socket.getOutputStream();
+				while(true) {
+					List<String> command = readCommand(in);
+					if(command == null) {
+						return;
+					}
+
+					String name = command.get(0).toUpperCase();
+					if(name.equals("GET")) {
+						if(_delayMillis > 0) {
+							Thread.sleep(_delayMillis);
+						}
+						writeBulk(out, _name);
+					} else if(name.equals("INFO")) {
+						writeBulk(out, _info);
+					} else if(name.equals("PING")) {
+						out.write("+PONG\r\n".getBytes(CHARSET_UTF8));
+					} else {
+						out.write("+OK\r\n".getBytes(CHARSET_UTF8));
+					}
+					out.flush();
+				}
+			} catch (IOException e) {
+				//closed
+			} catch (InterruptedException e) {
+				//closed
+			} finally {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					//ignore
+				}
+			}
+		}
+
+		private static List<String> readCommand(InputStream in) throws IOException {
+			String line = readLine(in);
+			if(line == null) {
+				return null;
+			}
+			int count = Integer.parseInt(line.substring(1));
+			List<String> args = new ArrayList<String>(count);
+			for(int i = 0; i < count; i++) {
+				int len = Integer.parseInt(readLine(in).substring(1));
+				byte[] bytes = new byte[len + 2];
+				int read = 0;
+				while(read < bytes.length) {
+					int n = in.read(bytes, read, bytes.length - read);
+					if(n < 0) {
+						return null;
+					}
+					read += n;
+				}
+				args.add(new String(bytes, 0, len, CHARSET_UTF8));
+			}
+			return args;
+		}
+
+		private static String readLine(InputStream in) throws IOException {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int b;
+			while((b = in.read()) >= 0) {
+				if(b == '\n') {
+					byte[] bytes = line.toByteArray();
+					return new String(bytes, 0, bytes.length - 1, CHARSET_UTF8);
+				}
+				line.write(b);
+			}
+			return null;
+		}
+
+		private static void writeBulk(OutputStream out, String value) throws IOException {
+			//in one write, so that the reply is not delayed by Nagle's algorithm
+			byte[] bytes = value.getBytes(CHARSET_UTF8);
+			ByteArrayOutputStream reply = new ByteArrayOutputStream(bytes.length + 16);
+			reply.write(("$" + bytes.length + "\r\n").getBytes(CHARSET_UTF8));
+			reply.write(bytes);
+			reply.write("\r\n".getBytes(CHARSET_UTF8));
+			out.write(reply.toByteArray());
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package com.beef.util.redis.junittest;
+
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+
+import MetoXML.XmlDeserializer;
+import MetoXML.XmlSerializer;
+
+import com.beef.util.redis.RedisDataException;
+import com.beef.util.redis.codec.DataCodecs;
+import com.beef.util.redis.codec.IDataCodec;
+import com.beef.util.redis.codec.SimpleXmlReader;
+import com.beef.util.redis.codec.SimpleXmlWriter;
+import org.junit.Test;
+
+public class SimpleXmlCodecTest {
+
+	@Test
+	public void testWriteAndRead() {
+		try {
+			SimpleXmlWriter writer = new SimpleXmlWriter();
+			writer.startElement("TestData1");
+			writer.writeElement("item1", "test1<&>\"");
+			writer.writeElement("item2", "测试001");
+			writer.writeElement("item3", 1234L);
+			writer.writeElement("item4", (Object) null);
+			writer.endElement("TestData1");
+			String xml = writer.toString();
+
+			SimpleXmlReader reader = new SimpleXmlReader("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+					+ xml.replace("<item3>", "<!-- comment --><list><TestData1><item1>x</item1></TestData1><empty/></list><item3>"));
+			checkEquals("TestData1", reader.readRootElement());
+			checkEquals("item1", reader.nextChildElement());
+			checkEquals("test1<&>\"", reader.readText());
+			checkEquals("item2", reader.nextChildElement());
+			checkEquals("测试001", reader.readText());
+			checkEquals("list", reader.nextChildElement());
+			reader.skipElement();
+			checkEquals("item3", reader.nextChildElement());
+			checkEquals("1234", reader.readText());
+			checkEquals(null, reader.nextChildElement());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * MetoXML serialize -> generated codec deserialize -> generated codec serialize -> MetoXML deserialize
+	 */
+	@Test
+	public void testGeneratedCodecRoundTrip() {
+		try {
+			IDataCodec codec = DataCodecs.getCodec(CodecTestData.class);
+			if(codec == null) {
+				throw new RuntimeException("codec of CodecTestData is not generated(easy-redis-data-codegen is not on annotation processor path)");
+			}
+
+			float[] floatValues = new float[] {0.1f, -1.5f, 1.0E-10f, 123456.79f, Float.MAX_VALUE, Float.MIN_VALUE, -0.0f};
+			double[] doubleValues = new double[] {0.1, -2.5E-300, 1.0E21, 1234567.890123, Double.MAX_VALUE, Double.MIN_VALUE};
+			for(int i = 0; i < floatValues.length; i++) {
+				CodecTestData data = new CodecTestData();
+				data.setText("a<b>&\"c' 测试 " + i);
+				data.setIntValue(-i * 1000003);
+				data.setLongObject((i % 2 == 0) ? Long.valueOf(Long.MAX_VALUE - i) : null);
+				data.setBoolValue(i % 2 == 1);
+				data.setCharValue((char) ('A' + i));
+				data.setFloatValue(floatValues[i]);
+				data.setFloatObject((i % 3 == 0) ? null : Float.valueOf(floatValues[floatValues.length - 1 - i]));
+				data.setDoubleValue(doubleValues[i % doubleValues.length]);
+				data.setDoubleObject((i % 3 == 1) ? null : Double.valueOf(doubleValues[(i + 1) % doubleValues.length]));
+
+				String xml = XmlSerializer.objectToString(data, CodecTestData.class);
+				Object decoded = codec.deserialize(xml);
+				checkSameBean(data, decoded, CodecTestData.class);
+
+				String encoded = codec.serialize(decoded);
+				Object result = XmlDeserializer.stringToObject(encoded, CodecTestData.class, null);
+				checkSameBean(data, result, CodecTestData.class);
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Test
+	public void testBrokenGeneratedCodec() {
+		//not generated
+		if(DataCodecs.getCodec(TestData1.class) != null) {
+			throw new RuntimeException("TestData1 should have no codec");
+		}
+
+		checkCodecRejected(CodecTestBrokenData.NotCodec.class, ClassCastException.class);
+		checkCodecRejected(CodecTestBrokenData.HiddenCodec.class, IllegalAccessException.class);
+		try {
+			DataCodecs.getCodec(CodecTestBrokenData.FailingCodec.class);
+			throw new RuntimeException("codec failed in initializer should not be ignored");
+		} catch (ExceptionInInitializerError e) {
+			//expected
+		}
+	}
+
+	private static void checkCodecRejected(Class<?> dataClass, Class<?> causeClass) {
+		try {
+			DataCodecs.getCodec(dataClass);
+			throw new RuntimeException("broken codec of " + dataClass.getName() + " should not be ignored");
+		} catch (RedisDataException e) {
+			if(!causeClass.isInstance(e.getCause())) {
+				throw new RuntimeException("cause not matched:" + e.getCause());
+			}
+		}
+	}
+
+	private static void checkSameBean(Object expected, Object actual, Class<?> dataClass) throws Exception {
+		for(PropertyDescriptor property : Introspector.getBeanInfo(dataClass, Object.class).getPropertyDescriptors()) {
+			Object expectedValue = property.getReadMethod().invoke(expected);
+			Object actualValue = property.getReadMethod().invoke(actual);
+			//Float/Double.equals() compares bits, so -0.0 and 0.0 are different
+			if(expectedValue == null ? actualValue != null : !expectedValue.equals(actualValue)) {
+				throw new RuntimeException("property " + property.getName() + " expected:" + expectedValue + " actual:" + actualValue);
+			}
+		}
+	}
+
+	private static void checkEquals(String expected, String actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.beef.util.redis.junittest;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.beef.util.redis.SingleFlight;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+	@Test
+	public void testShareResult() throws Exception {
+		final SingleFlight singleFlight = new SingleFlight(100, 5000);
+		final AtomicInteger loadCount = new AtomicInteger();
+		final CountDownLatch loaderStarted = new CountDownLatch(1);
+		final CountDownLatch loaderRelease = new CountDownLatch(1);
+		final Object data = new Object();
+
+		final Callable<Object> loader = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				loadCount.incrementAndGet();
+				loaderStarted.countDown();
+				loaderRelease.await();
+				return data;
+			}
+		};
+
+		final int threadCount = 8;
+		final Object[] results = new Object[threadCount];
+		Thread[] threads = new Thread[threadCount];
+		for(int i = 0; i < threadCount; i++) {
+			final int index = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						results[index] = singleFlight.execute("key1", loader);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+		}
+
+		threads[0].start();
+		loaderStarted.await();
+		for(int i = 1; i < threadCount; i++) {
+			threads[i].start();
+		}
+		while(singleFlight.getSharedCount() < threadCount - 1) {
+			Thread.sleep(1);
+		}
+		loaderRelease.countDown();
+		for(int i = 0; i < threadCount; i++) {
+			threads[i].join();
+		}
+
+		if(loadCount.get() != 1) {
+			throw new RuntimeException("loaded " + loadCount.get() + " times");
+		}
+		for(int i = 0; i < threadCount; i++) {
+			if(results[i] != data) {
+				throw new RuntimeException("result not shared at " + i);
+			}
+		}
+		if(singleFlight.getInFlightCount() != 0) {
+			throw new RuntimeException("flight not removed");
+		}
+	}
+
+	@Test
+	public void testShareException() throws Exception {
+		SingleFlight singleFlight = new SingleFlight(100, 5000);
+		try {
+			singleFlight.execute("key1", new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					throw new IllegalStateException("test");
+				}
+			});
+			throw new RuntimeException("exception expected");
+		} catch (IllegalStateException e) {
+			//expected
+		}
+
+		if(singleFlight.getInFlightCount() != 0) {
+			throw new RuntimeException("flight not removed");
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package com.beef.util.redis.junittest;
+
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import MetoXML.XmlDeserializer;
+import MetoXML.XmlSerializer;
+
+import com.beef.util.redis.RedisDataUtil;
+import com.beef.util.redis.RedisDataUtil.CompressAlgorithm;
+import com.beef.util.redis.codec.SimpleXmlWriter;
+import com.beef.util.redis.codec.StreamingBeanDecoder;
+import org.junit.Test;
+
+public class StreamingBeanDecoderTest {
+
+	public static class DataWithList {
+		private List<String> _items;
+
+		public List<String> getItems() {
+			return _items;
+		}
+		public void setItems(List<String> items) {
+			_items = items;
+		}
+	}
+
+	public static class ScalarData {
+		private String _text;
+		private int _intValue;
+		private Integer _integerValue;
+		private long _longValue;
+		private short _shortValue;
+		private byte _byteValue;
+		private boolean _boolValue;
+		private Boolean _booleanValue;
+		private char _charValue;
+		private Character _characterValue;
+		private float _floatValue;
+		private Float _floatObject;
+		private double _doubleValue;
+		private Double _doubleObject;
+
+		public String getText() {
+			return _text;
+		}
+		public void setText(String text) {
+			_text = text;
+		}
+		public int getIntValue() {
+			return _intValue;
+		}
+		public void setIntValue(int intValue) {
+			_intValue = intValue;
+		}
+		public Integer getIntegerValue() {
+			return _integerValue;
+		}
+		public void setIntegerValue(Integer integerValue) {
+			_integerValue = integerValue;
+		}
+		public long getLongValue() {
+			return _longValue;
+		}
+		public void setLongValue(long longValue) {
+			_longValue = longValue;
+		}
+		public short getShortValue() {
+			return _shortValue;
+		}
+		public void setShortValue(short shortValue) {
+			_shortValue = shortValue;
+		}
+		public byte getByteValue() {
+			return _byteValue;
+		}
+		public void setByteValue(byte byteValue) {
+			_byteValue = byteValue;
+		}
+		public boolean isBoolValue() {
+			return _boolValue;
+		}
+		public void setBoolValue(boolean boolValue) {
+			_boolValue = boolValue;
+		}
+		public Boolean getBooleanValue() {
+			return _booleanValue;
+		}
+		public void setBooleanValue(Boolean booleanValue) {
+			_booleanValue = booleanValue;
+		}
+		public char getCharValue() {
+			return _charValue;
+		}
+		public void setCharValue(char charValue) {
+			_charValue = charValue;
+		}
+		public Character getCharacterValue() {
+			return _characterValue;
+		}
+		public void setCharacterValue(Character characterValue) {
+			_characterValue = characterValue;
+		}
+		public float getFloatValue() {
+			return _floatValue;
+		}
+		public void setFloatValue(float floatValue) {
+			_floatValue = floatValue;
+		}
+		public Float getFloatObject() {
+			return _floatObject;
+		}
+		public void setFloatObject(Float floatObject) {
+			_floatObject = floatObject;
+		}
+		public double getDoubleValue() {
+			return _doubleValue;
+		}
+		public void setDoubleValue(double doubleValue) {
+			_doubleValue = doubleValue;
+		}
+		public Double getDoubleObject() {
+			return _doubleObject;
+		}
+		public void setDoubleObject(Double doubleObject) {
+			_doubleObject = doubleObject;
+		}
+	}
+
+	@Test
+	public void testDecodeSameAsMetoXML() {
+		StreamingBeanDecoder.setEnabled(true);
+		try {
+			TestData1 data1 = new TestData1();
+			data1.setItem1("a<b>&\"c'\r\n  d");
+			data1.setItem2("测试001");
+			data1.setItem3(Long.MIN_VALUE);
+			checkSameAsMetoXML(XmlSerializer.objectToString(data1, TestData1.class), TestData1.class);
+
+			//empty elements
+			TestData1 emptyData1 = new TestData1();
+			String xml = XmlSerializer.objectToString(emptyData1, TestData1.class);
+			checkSameAsMetoXML(xml, TestData1.class);
+			checkSameAsMetoXML(xml.replace("<item1></item1>", "<item1/>").replace("<item2></item2>", "<item2 />"), TestData1.class);
+
+			ScalarData data = new ScalarData();
+			data.setText(" <&> ");
+			data.setIntValue(-123);
+			data.setIntegerValue(Integer.MAX_VALUE);
+			data.setLongValue(1234567890123L);
+			data.setShortValue((short) -2);
+			data.setByteValue((byte) 127);
+			data.setBoolValue(true);
+			data.setBooleanValue(Boolean.FALSE);
+			data.setCharValue('&');
+			data.setCharacterValue('测');
+			data.setFloatValue(0.1f);
+			data.setFloatObject(Float.MIN_VALUE);
+			data.setDoubleValue(-1.0E-300);
+			data.setDoubleObject(Double.MAX_VALUE);
+			xml = XmlSerializer.objectToString(data, ScalarData.class);
+			checkSameAsMetoXML(xml, ScalarData.class);
+
+			//whitespace around numbers and booleans
+			String spacedXml = xml.replace("<intValue>", "<intValue> ").replace("</intValue>", "\r\n  </intValue>")
+					.replace("<floatValue>", "<floatValue>\t").replace("<boolValue>", "<boolValue> ")
+					.replace("</doubleObject>", " </doubleObject>");
+			if(spacedXml.equals(xml)) {
+				throw new RuntimeException("whitespace not inserted:" + xml);
+			}
+			checkSameAsMetoXML(spacedXml, ScalarData.class);
+
+			//null wrappers are not written
+			checkSameAsMetoXML(XmlSerializer.objectToString(new ScalarData(), ScalarData.class), ScalarData.class);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			StreamingBeanDecoder.setEnabled(false);
+		}
+	}
+
+	@Test
+	public void testChildElementFallback() {
+		StreamingBeanDecoder.setEnabled(true);
+		try {
+			TestData1 data1 = new TestData1();
+			data1.setItem1("x");
+			String xml = XmlSerializer.objectToString(data1, TestData1.class)
+					.replace("<item1>x</item1>", "<item1><value>x</value></item1>");
+			byte[] bytes = xml.getBytes(Charset.forName("utf-8"));
+
+			try {
+				StreamingBeanDecoder.getDecoder(TestData1.class).decode(bytes, 0, bytes.length);
+				throw new RuntimeException("element with child elements should not be decoded as text");
+			} catch (IOException e) {
+				//expected
+			}
+
+			//falls back to MetoXML
+			Object data = RedisDataUtil.deserializeData(bytes, TestData1.class, false);
+			checkSameBean(XmlDeserializer.stringToObject(xml, TestData1.class, null), data, TestData1.class);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			StreamingBeanDecoder.setEnabled(false);
+		}
+	}
+
+	@Test
+	public void testDisabledByDefault() {
+		if(StreamingBeanDecoder.getDecoder(TestData1.class) != null) {
+			throw new RuntimeException("streaming decoder should be opt-in");
+		}
+	}
+
+	@Test
+	public void testDecode() {
+		StreamingBeanDecoder.setEnabled(true);
+		try {
+			SimpleXmlWriter writer = new SimpleXmlWriter();
+			writer.startElement("TestData1");
+			writer.writeElement("item1", "test1<&>\"");
+			writer.writeElement("item2", "测试001");
+			writer.writeElement("item3", 1234L);
+			writer.endElement("TestData1");
+			String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+					+ writer.toString().replace("<item3>", "<!-- comment --><list><TestData1><item1>x</item1></TestData1><empty/></list><item3>")
+					.replace("测试001", "测试<![CDATA[<0>]]>01");
+			byte[] bytes = xml.getBytes(Charset.forName("utf-8"));
+
+			StreamingBeanDecoder decoder = StreamingBeanDecoder.getDecoder(TestData1.class);
+			TestData1 data = (TestData1) decoder.decode(bytes, 0, bytes.length);
+			checkEquals("test1<&>\"", data.getItem1());
+			checkEquals("测试<0>01", data.getItem2());
+			checkEquals("1234", String.valueOf(data.getItem3()));
+
+			String value = RedisDataUtil.encodeString(writer.toString(), CompressAlgorithm.GZIP);
+			RedisDataUtil.setDetectCompressAlgorithmOnDecode(true);
+			try {
+				data = (TestData1) RedisDataUtil.deserializeData(value, TestData1.class, true);
+			} finally {
+				RedisDataUtil.setDetectCompressAlgorithmOnDecode(false);
+			}
+			checkEquals("test1<&>\"", data.getItem1());
+			checkEquals("测试001", data.getItem2());
+
+			if(StreamingBeanDecoder.getDecoder(DataWithList.class) != null) {
+				throw new RuntimeException("class with List property should be decoded by MetoXML");
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			StreamingBeanDecoder.setEnabled(false);
+		}
+	}
+
+	private static void checkSameAsMetoXML(String xml, Class<?> dataClass) throws Exception {
+		byte[] bytes = xml.getBytes(Charset.forName("utf-8"));
+		Object expected = XmlDeserializer.stringToObject(xml, dataClass, null);
+		Object actual = StreamingBeanDecoder.getDecoder(dataClass).decode(bytes, 0, bytes.length);
+		checkSameBean(expected, actual, dataClass);
+	}
+
+	private static void checkSameBean(Object expected, Object actual, Class<?> dataClass) throws Exception {
+		for(PropertyDescriptor property : Introspector.getBeanInfo(dataClass, Object.class).getPropertyDescriptors()) {
+			Object expectedValue = property.getReadMethod().invoke(expected);
+			Object actualValue = property.getReadMethod().invoke(actual);
+			if(expectedValue == null ? actualValue != null : !expectedValue.equals(actualValue)) {
+				throw new RuntimeException("property " + property.getName() + " expected:" + expectedValue + " actual:" + actualValue);
+			}
+		}
+	}
+
+	private static void checkEquals(String expected, String actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package com.beef.util.redis.junittest;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.beef.util.redis.RedisDataUtil;
+import com.beef.util.redis.RedisDataUtil.CompressAlgorithm;
+import com.beef.util.redis.codec.TagDictionaries;
+import com.beef.util.redis.codec.TagDictionary;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class TagDictionaryTest {
+
+	@Test
+	public void testTransformAndRestore() {
+		try {
+			String xml = RedisDataUtilTest.readFileContent(new File("test.xml"), Charset.forName("utf-8"));
+			TagDictionary dict = new TagDictionary("ecitic", Arrays.asList(
+					"EciticUserDTimesData", "EciticUserData", "appId", "arrDtimes",
+					"dateYmd", "entryLotteryTimes", "shareLotteryTimes", "usedLotteryTimes"
+					));
+
+			String transformed = dict.transform(xml);
+			if(!TagDictionary.isTransformed(transformed)) {
+				throw new RuntimeException("not transformed");
+			}
+			if(!xml.equals(dict.restore(transformed))) {
+				throw new RuntimeException("restored xml not matched");
+			}
+
+			for(CompressAlgorithm alg : new CompressAlgorithm[] {CompressAlgorithm.LZF, CompressAlgorithm.GZIP}) {
+				int len = RedisDataUtil.encodeString(xml, alg).length();
+				int lenTransformed = RedisDataUtil.encodeString(transformed, alg).length();
+				System.out.println("testTransformAndRestore() " + alg + " len:" + len + " transformed:" + lenTransformed);
+			}
+
+			TagDictionary otherDict = new TagDictionary("other", Arrays.asList("appId"));
+			try {
+				otherDict.restore(transformed);
+				throw new RuntimeException("dictionary not matched should be rejected");
+			} catch (java.io.IOException e) {
+				//expected
+			}
+
+			//an older version of the same dictionary does not know the codes of appended names
+			TagDictionary olderDict = new TagDictionary("ecitic", dict.getNames().subList(0, dict.size() - 1));
+			try {
+				olderDict.restore(transformed);
+				throw new RuntimeException("value of newer version should be rejected");
+			} catch (java.io.IOException e) {
+				//expected
+			}
+
+			List<String> tooManyNames = new ArrayList<String>();
+			for(int i = 0; i <= TagDictionary.MAX_NAME_COUNT; i++) {
+				tooManyNames.add("name" + i);
+			}
+			try {
+				new TagDictionary("many", tooManyNames);
+				throw new RuntimeException("names beyond MAX_NAME_COUNT should be rejected");
+			} catch (IllegalArgumentException e) {
+				//expected
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Test
+	public void testFromBeanClass() {
+		try {
+			TagDictionary dict = new TagDictionary("td1", TagDictionary.getBeanNames(TestData1.class));
+			String xml = "<TestData1>\r\n  <item1>a&lt;b</item1>\r\n  <item2></item2>\r\n  <item3>1</item3>\r\n  <other>x</other>\r\n</TestData1>";
+
+			String transformed = dict.transform(xml);
+			if(transformed.length() >= xml.length()) {
+				throw new RuntimeException("tags not replaced");
+			}
+			if(!xml.equals(dict.restore(transformed))) {
+				throw new RuntimeException("restored xml not matched");
+			}
+
+			String xmlWithCtrlChar = "<TestData1><item1>\u0001</item1></TestData1>";
+			if(dict.transform(xmlWithCtrlChar) != xmlWithCtrlChar) {
+				throw new RuntimeException("xml with control char should not be transformed");
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Test
+	public void testRestoreAfterSchemaChange() {
+		try {
+			String xml = "<TestData1>\r\n  <item1>a</item1>\r\n  <item3>1</item3>\r\n</TestData1>";
+
+			//TestData1 before item2 was added, and a property removed later
+			List<String> oldNames = new ArrayList<String>(TagDictionary.getBeanNames(TestData1.class));
+			oldNames.remove("item2");
+			oldNames.add("itemRemoved");
+			TagDictionary oldDict = new TagDictionary("schema", oldNames);
+			TagDictionaries.register(TestData1.class, oldDict);
+			String oldValue = TagDictionaries.transform(xml, TestData1.class);
+
+			TagDictionary newDict = oldDict.append(TagDictionary.getBeanNames(TestData1.class));
+			checkEquals(oldDict.getVersion() + 1, newDict.getVersion());
+			checkEquals("item2", newDict.getNames().get(newDict.size() - 1));
+			TagDictionaries.register(TestData1.class, newDict);
+			String newValue = TagDictionaries.transform(xml, TestData1.class);
+			checkEquals(newDict.getVersion(), TagDictionary.getDictionaryVersion(newValue));
+
+			checkEquals(xml, TagDictionaries.restore(oldValue, TestData1.class));
+			checkEquals(xml, TagDictionaries.restore(newValue, TestData1.class));
+			//older version registered later does not replace the newer one
+			TagDictionaries.registerForDecode(oldDict);
+			checkEquals(xml, TagDictionaries.restore(newValue, TestData1.class));
+
+			//names reordered are not appended
+			List<String> reorderedNames = new ArrayList<String>(newDict.getNames());
+			reorderedNames.add(0, reorderedNames.remove(reorderedNames.size() - 1));
+			try {
+				TagDictionaries.registerForDecode(new TagDictionary("schema", reorderedNames));
+				throw new RuntimeException("dictionary not appended should be rejected");
+			} catch (IllegalArgumentException e) {
+				//expected
+			}
+
+			String unknownValue = new TagDictionary("unknown", oldNames).transform(xml);
+			try {
+				TagDictionaries.restore(unknownValue, TestData1.class);
+				throw new RuntimeException("value of unknown dictionary should be rejected");
+			} catch (java.io.IOException e) {
+				//expected
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			TagDictionaries.disable(TestData1.class);
+		}
+	}
+
+	@Test
+	public void testPersistedDictionary() {
+		JedisPool pool = LocalRedis.createPool();
+		String id = "p" + System.currentTimeMillis() % 100000000;
+		Jedis jedis = pool.getResource();
+		try {
+			String xml = "<TestData1>\r\n  <item1>a</item1>\r\n  <item2>b</item2>\r\n</TestData1>";
+
+			//list persisted before item2 was added
+			List<String> oldNames = new ArrayList<String>(TagDictionary.getBeanNames(TestData1.class));
+			oldNames.remove("item2");
+			jedis.rpush(TagDictionaries.DICT_KEY_PREFIX + id, oldNames.toArray(new String[oldNames.size()]));
+			String oldValue = new TagDictionary(id, oldNames).transform(xml);
+
+			TagDictionary dict = TagDictionaries.enable(jedis, TestData1.class, id);
+			List<String> expectedNames = new ArrayList<String>(oldNames);
+			expectedNames.add("item2");
+			checkEquals(expectedNames, dict.getNames());
+			checkEquals(expectedNames, jedis.lrange(TagDictionaries.DICT_KEY_PREFIX + id, 0, -1));
+			//enabled again without schema change, nothing appended
+			checkEquals(expectedNames, TagDictionaries.enable(jedis, TestData1.class, id).getNames());
+
+			String newValue = TagDictionaries.transform(xml, TestData1.class);
+			checkEquals(xml, TagDictionaries.restore(oldValue, TestData1.class));
+			checkEquals(xml, TagDictionaries.restore(newValue, TestData1.class));
+
+			//reader loads the version appended by another process
+			jedis.rpush(TagDictionaries.DICT_KEY_PREFIX + id, "itemAdded");
+			expectedNames.add("itemAdded");
+			String valueOfOtherProcess = new TagDictionary(id, expectedNames).transform("<itemAdded>c</itemAdded>");
+			try {
+				TagDictionaries.restore(valueOfOtherProcess, TestData1.class);
+				throw new RuntimeException("value of unloaded version should be rejected without dictionary pool");
+			} catch (java.io.IOException e) {
+				//expected
+			}
+			TagDictionaries.setDictionaryPool(pool);
+			checkEquals("<itemAdded>c</itemAdded>", TagDictionaries.restore(valueOfOtherProcess, TestData1.class));
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			TagDictionaries.setDictionaryPool(null);
+			TagDictionaries.disable(TestData1.class);
+			jedis.del(TagDictionaries.DICT_KEY_PREFIX + id);
+			jedis.close();
+			pool.destroy();
+		}
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.beef.util.redis.junittest;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.beef.util.redis.RedisDataUtil;
+import com.beef.util.redis.transport.IRedisTransport;
+
+/**
+ * Checks of an IRedisTransport against a running redis. 
+ * It is in the test jar, so that tests of the transport modules(easy-redis-data-jedis4, easy-redis-data-lettuce) share it.
+ */
+public class TransportContract {
+
+	public static void check(IRedisTransport transport, String keyPrefix) throws Exception {
+		String key = keyPrefix + "s";
+		String missingKey = keyPrefix + "missing";
+		String hashKey = keyPrefix + "h";
+		String listKey = keyPrefix + "l";
+		deleteKeys(transport, keyPrefix);
+		try {
+			//commands
+			checkEquals("OK", transport.set(key, "v1"));
+			checkEquals("v1", transport.get(key));
+			checkEquals("OK", transport.setex(key + "ex", 60, "v2"));
+			checkEquals("v2", transport.get(key + "ex"));
+			checkEquals(Arrays.asList("v1", null, "v2"), transport.mget(key, missingKey, key + "ex"));
+			checkEquals(1L, transport.del(key + "ex"));
+			checkEquals(0L, transport.del(key + "ex"));
+
+			checkEquals(1L, transport.hset(hashKey, "f1", "a"));
+			checkEquals(0L, transport.hset(hashKey, "f1", "b"));
+			checkEquals("b", transport.hget(hashKey, "f1"));
+			checkEquals(1L, transport.hdel(hashKey, "f1"));
+			checkEquals(null, transport.hget(hashKey, "f1"));
+
+			checkEquals(1L, transport.rpush(listKey, "b"));
+			checkEquals(2L, transport.lpush(listKey, "a"));
+			checkEquals(2L, transport.llen(listKey));
+			checkEquals(Arrays.asList("a", "b"), transport.lrange(listKey, 0, -1));
+			checkEquals("b", transport.lindex(listKey, 1));
+			checkEquals("a", transport.lpop(listKey));
+			transport.del(listKey);
+
+			//data encoded by RedisDataUtil over the transport
+			TestData1 data = new TestData1();
+			data.setItem1("transport<&>");
+			data.setItem2("测试");
+			data.setItem3(123);
+			RedisDataUtil.set(transport, key, data, TestData1.class, true);
+			checkData(data, RedisDataUtil.get(transport, key, TestData1.class, true, null));
+			checkData(data, RedisDataUtil.getLazy(transport, key, TestData1.class, true, null).getData());
+			List<Object> dataList = RedisDataUtil.mget(transport, new String[] {key, missingKey}, TestData1.class, true, null);
+			checkEquals(2, dataList.size());
+			checkData(data, dataList.get(0));
+			checkEquals(null, dataList.get(1));
+
+			RedisDataUtil.hset(transport, hashKey, "f2", data, TestData1.class, true);
+			checkData(data, RedisDataUtil.hget(transport, hashKey, "f2", TestData1.class, true, null));
+			checkData(data, RedisDataUtil.hgetLazy(transport, hashKey, "f2", TestData1.class, true, null).getData());
+
+			RedisDataUtil.rpush(transport, listKey, data, TestData1.class, true);
+			RedisDataUtil.lpush(transport, listKey, "first", true);
+			checkEquals("first", RedisDataUtil.lindex(transport, listKey, 0, true));
+			checkData(data, RedisDataUtil.lindex(transport, listKey, 1, TestData1.class, true, null));
+			checkEquals(Arrays.asList("first"), RedisDataUtil.lrange(transport, listKey, 0, 0, true));
+			checkEquals("first", RedisDataUtil.lpop(transport, listKey, true));
+			checkData(data, RedisDataUtil.lrange(transport, listKey, 0, -1, TestData1.class, true, null).get(0));
+			checkData(data, RedisDataUtil.lpop(transport, listKey, TestData1.class, true, null));
+
+			//values failed to decode are thrown as the checked exceptions of the other get style methods
+			transport.set(key, "not base64!");
+			try {
+				RedisDataUtil.mget(transport, new String[] {key}, TestData1.class, true, null);
+				throw new RuntimeException("invalid value should fail to decode");
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				//expected
+			}
+		} finally {
+			deleteKeys(transport, keyPrefix);
+		}
+	}
+
+	private static void deleteKeys(IRedisTransport transport, String keyPrefix) {
+		for(String suffix : new String[] {"s", "sex", "h", "l"}) {
+			transport.del(keyPrefix + suffix);
+		}
+	}
+
+	private static void checkData(TestData1 expected, Object actual) {
+		TestData1 data = (TestData1) actual;
+		checkEquals(expected.getItem1(), data.getItem1());
+		checkEquals(expected.getItem2(), data.getItem2());
+		checkEquals(expected.getItem3(), data.getItem3());
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+}
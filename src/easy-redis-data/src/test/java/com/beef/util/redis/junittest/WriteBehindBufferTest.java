@@ -0,0 +1,250 @@
+package com.beef.util.redis.junittest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.beef.util.redis.IJedisCallback;
+import com.beef.util.redis.MappedSegmentCache;
+import com.beef.util.redis.RedisDataClient;
+import com.beef.util.redis.RedisDataException;
+import com.beef.util.redis.WriteBehindBuffer;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+public class WriteBehindBufferTest {
+	private final static String KEY_PREFIX = "test.writebehind.";
+
+	@Test
+	public void testPendingVisibleWhileFlushing() {
+		JedisPool pool = LocalRedis.createPool();
+		try {
+			String key = KEY_PREFIX + "visible";
+			deleteKey(pool, key);
+			BlockingClient client = new BlockingClient(pool);
+			final WriteBehindBuffer buffer = new WriteBehindBuffer(client, 3600000, 10, 100);
+
+			TestData1 data = new TestData1();
+			data.setItem1("v1");
+			buffer.set(key, data, TestData1.class, false);
+
+			client.block();
+			Thread flushThread = startFlush(buffer);
+			client.awaitBlocked();
+			//the write is being sent, and still readable until the pipeline succeeds
+			if(buffer.getPending(key) != data) {
+				throw new RuntimeException("in-flight write is not visible");
+			}
+			checkEquals(1, buffer.getPendingCount());
+
+			client.unblock();
+			client.release(false);
+			flushThread.join();
+			if(buffer.getPending(key) != null) {
+				throw new RuntimeException("flushed write is still pending");
+			}
+			checkEquals(0, buffer.getPendingCount());
+			checkEquals("v1", ((TestData1) client.get(key, TestData1.class, false, null)).getItem1());
+
+			buffer.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testPutBackBounded() {
+		JedisPool pool = LocalRedis.createPool();
+		try {
+			final int maxPendingKeys = 4;
+			BlockingClient client = new BlockingClient(pool);
+			final WriteBehindBuffer buffer = new WriteBehindBuffer(client, 3600000, maxPendingKeys, 2);
+			for(int i = 0; i < maxPendingKeys; i++) {
+				deleteKey(pool, KEY_PREFIX + i);
+				buffer.set(KEY_PREFIX + i, new TestData1(), TestData1.class, false);
+			}
+			deleteKey(pool, KEY_PREFIX + "new");
+
+			client.block();
+			Thread flushThread = startFlush(buffer);
+			client.awaitBlocked();
+
+			//writer of new key is blocked while keys are in flight
+			final CountDownLatch written = new CountDownLatch(1);
+			Thread writer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						buffer.set(KEY_PREFIX + "new", new TestData1(), TestData1.class, false);
+						written.countDown();
+					} catch (InterruptedException e) {
+						//exit
+					}
+				}
+			};
+			writer.start();
+			if(written.await(200, TimeUnit.MILLISECONDS)) {
+				throw new RuntimeException("writer is not blocked while keys are in flight");
+			}
+
+			//first pipeline fails and is put back, the second one(still blocked) fails too
+			client.release(true);
+			client.awaitBlocked();
+			checkEquals(maxPendingKeys, buffer.getPendingCount());
+			client.release(true);
+			flushThread.join();
+			checkEquals(maxPendingKeys, buffer.getPendingCount());
+			if(written.await(200, TimeUnit.MILLISECONDS)) {
+				throw new RuntimeException("writer is not blocked after failed writes are put back");
+			}
+			checkEquals((long) maxPendingKeys, buffer.getFailedCount());
+
+			//retried, and then the writer gets space
+			client.unblock();
+			buffer.flush();
+			if(!written.await(5, TimeUnit.SECONDS)) {
+				throw new RuntimeException("writer is not woken after flushing");
+			}
+			writer.join();
+			checkEquals(1, buffer.getPendingCount());
+			buffer.close();
+			checkEquals(0, buffer.getPendingCount());
+			for(int i = 0; i < maxPendingKeys; i++) {
+				if(client.get(KEY_PREFIX + i, TestData1.class, false, null) == null) {
+					throw new RuntimeException("key not written:" + KEY_PREFIX + i);
+				}
+			}
+			if(client.get(KEY_PREFIX + "new", TestData1.class, false, null) == null) {
+				throw new RuntimeException("key not written:" + KEY_PREFIX + "new");
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			pool.destroy();
+		}
+	}
+
+	@Test
+	public void testFlushInvalidatesLocalCache() {
+		JedisPool pool = LocalRedis.createPool();
+		try {
+			String key = KEY_PREFIX + "localcache";
+			MappedSegmentCache localCache = new MappedSegmentCache(MappedSegmentCacheTest.createTempDir(), 1, 64 * 1024, 4, 60000);
+			RedisDataClient client = new RedisDataClient(pool, 8);
+			client.setLocalCache(localCache);
+
+			TestData1 data = new TestData1();
+			data.setItem1("old");
+			client.set(key, data, TestData1.class, false);
+			checkEquals("old", ((TestData1) client.get(key, TestData1.class, false, null)).getItem1());
+
+			WriteBehindBuffer buffer = new WriteBehindBuffer(client, 3600000, 10, 100);
+			data = new TestData1();
+			data.setItem1("new");
+			buffer.set(key, data, TestData1.class, false);
+			buffer.flush();
+			checkEquals(null, localCache.get(key));
+			checkEquals("new", ((TestData1) client.get(key, TestData1.class, false, null)).getItem1());
+
+			buffer.close();
+			localCache.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			pool.destroy();
+		}
+	}
+
+	private static Thread startFlush(final WriteBehindBuffer buffer) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					buffer.flush();
+				} catch (RedisDataException e) {
+					//failed writes are put back
+				}
+			}
+		};
+		thread.start();
+		return thread;
+	}
+
+	private static void deleteKey(JedisPool pool, String key) {
+		Jedis jedis = pool.getResource();
+		try {
+			jedis.del(key);
+		} finally {
+			jedis.close();
+		}
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+
+	/**
+	 * Between block() and unblock(), each execute() waits until release(), and fails if released with isFail true.
+	 */
+	private static class BlockingClient extends RedisDataClient {
+		private volatile boolean _isBlocking = false;
+		private volatile boolean _isFail = false;
+		private volatile CountDownLatch _blocked = new CountDownLatch(1);
+		private volatile CountDownLatch _released = new CountDownLatch(1);
+
+		public BlockingClient(JedisPool pool) {
+			super(pool, 8);
+		}
+
+		public void block() {
+			_isBlocking = true;
+		}
+
+		public void unblock() {
+			_isBlocking = false;
+		}
+
+		public void awaitBlocked() throws InterruptedException {
+			if(!_blocked.await(5, TimeUnit.SECONDS)) {
+				throw new RuntimeException("execute() not called");
+			}
+		}
+
+		public void release(boolean isFail) {
+			_isFail = isFail;
+			CountDownLatch released = _released;
+			_blocked = new CountDownLatch(1);
+			_released = new CountDownLatch(1);
+			released.countDown();
+		}
+
+		@Override
+		public <T> T execute(IJedisCallback<T> callback) {
+			if(_isBlocking) {
+				CountDownLatch released = _released;
+				_blocked.countDown();
+				try {
+					released.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				if(_isFail) {
+					throw new JedisConnectionException("failed for test");
+				}
+			}
+			return super.execute(callback);
+		}
+	}
+}
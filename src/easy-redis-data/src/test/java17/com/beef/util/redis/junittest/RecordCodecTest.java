@@ -0,0 +1,65 @@
+package com.beef.util.redis.junittest;
+
+import com.beef.util.redis.RedisDataUtil;
+import com.beef.util.redis.codec.DataCodecs;
+import com.beef.util.redis.codec.IDataCodec;
+import org.junit.Test;
+
+/**
+ * Records as data classes, with RecordSupport in src/main/java17. Run by the java17 profile against the multi-release jar.
+ */
+public class RecordCodecTest {
+
+	public record TestRecord(String name, int count, Long id, double ratio, char flag, boolean enabled) {
+	}
+
+	public record UnsupportedRecord(String name, int[] values) {
+	}
+
+	@Test
+	public void testRoundTrip() {
+		try {
+			IDataCodec codec = DataCodecs.getCodec(TestRecord.class);
+			if(codec == null) {
+				throw new RuntimeException("record codec not found(RecordSupport of Java 17 is not loaded)");
+			}
+
+			TestRecord[] records = new TestRecord[] {
+					new TestRecord("a<b>&\"c' 测试", -12345, Long.MAX_VALUE, 0.1, 'x', true),
+					new TestRecord(null, 0, null, -2.5E-300, '<', false),
+			};
+			for(TestRecord record : records) {
+				checkEquals(record, codec.deserialize(codec.serialize(record)));
+				for(boolean isUseCompress : new boolean[] {true, false}) {
+					String value = RedisDataUtil.serializeDataToString(record, TestRecord.class, isUseCompress);
+					checkEquals(record, RedisDataUtil.deserializeData(value, TestRecord.class, isUseCompress));
+				}
+			}
+
+			//elements in alphabetical order, like MetoXML
+			String xml = codec.serialize(records[0]);
+			String[] names = new String[] {"count", "enabled", "flag", "id", "name", "ratio"};
+			for(int i = 1; i < names.length; i++) {
+				if(xml.indexOf("<" + names[i - 1] + ">") > xml.indexOf("<" + names[i] + ">")) {
+					throw new RuntimeException("elements not in alphabetical order:" + xml);
+				}
+			}
+
+			//unknown elements are skipped, and missing primitive components are default values
+			TestRecord decoded = (TestRecord) codec.deserialize("<TestRecord><unknown><a>1</a></unknown><name>n</name></TestRecord>");
+			checkEquals(new TestRecord("n", 0, null, 0, '\0', false), decoded);
+
+			checkEquals(null, DataCodecs.getCodec(UnsupportedRecord.class));
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void checkEquals(Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new RuntimeException("expected:" + expected + " actual:" + actual);
+		}
+	}
+}